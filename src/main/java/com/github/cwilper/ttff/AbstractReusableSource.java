@@ -0,0 +1,52 @@
+package com.github.cwilper.ttff;
+
+import java.io.IOException;
+
+/**
+ * Convenience base class for {@link ReusableSource} implementations.
+ * <p>
+ * Subclasses provide a single mutable holder object via
+ * {@link #newHolder()}, then fill it with each item in turn via
+ * {@link #fill(Object)}. The same holder is returned as every item.
+ *
+ * @param <T> the type over which the source operates.
+ */
+public abstract class AbstractReusableSource<T>
+        extends AbstractSource<T> implements ReusableSource<T> {
+
+    private T holder;
+
+    /** Constructor for use by subclasses. */
+    protected AbstractReusableSource() { }
+
+    @Override
+    protected final T computeNext() throws IOException {
+        if (holder == null) {
+            holder = newHolder();
+        }
+        if (fill(holder)) {
+            return holder;
+        }
+        return endOfData();
+    }
+
+    /**
+     * Creates the object that will hold each item. This is called once,
+     * just before the first call to {@link #fill(Object)}.
+     *
+     * @return the holder.
+     */
+    protected abstract T newHolder();
+
+    /**
+     * Overwrites the given holder with the contents of the next item,
+     * advancing the sequence by one.
+     *
+     * @param holder the holder.
+     * @return <code>true</code> if the holder was filled,
+     *         <code>false</code> if the sequence is exhausted.
+     * @throws IOException if an I/O problem occurs.
+     */
+    protected abstract boolean fill(T holder) throws IOException;
+
+}
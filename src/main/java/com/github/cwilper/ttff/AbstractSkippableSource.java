@@ -0,0 +1,47 @@
+package com.github.cwilper.ttff;
+
+import java.io.IOException;
+
+/**
+ * Convenience base class for {@link SkippableSource} implementations.
+ * <p>
+ * Subclasses override {@link #skipAhead(long)} as well as
+ * {@link #computeNext()}. This class takes care of any item that has
+ * already been computed, for instance by a call to <code>peek()</code>,
+ * counting it as the first one skipped.
+ *
+ * @param <T> the type over which the source operates.
+ */
+public abstract class AbstractSkippableSource<T>
+        extends AbstractSource<T> implements SkippableSource<T> {
+
+    /** Constructor for use by subclasses. */
+    protected AbstractSkippableSource() { }
+
+    @Override
+    public final long skip(long n) throws IOException {
+        if (n <= 0 || isDone()) {
+            return 0;
+        }
+        long skipped = 0;
+        if (discardComputed()) {
+            skipped++;
+        }
+        if (skipped < n) {
+            skipped += skipAhead(n - skipped);
+        }
+        return skipped;
+    }
+
+    /**
+     * Advances past up to the given number of items that have not yet been
+     * computed.
+     *
+     * @param n the number of items to skip, which is always positive.
+     * @return the number of items actually skipped, which is less than
+     *         <code>n</code> only if the sequence is now exhausted.
+     * @throws IOException if an I/O problem occurs.
+     */
+    protected abstract long skipAhead(long n) throws IOException;
+
+}
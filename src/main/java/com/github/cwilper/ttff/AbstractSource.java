@@ -89,6 +89,57 @@ public abstract class AbstractSource<T>
         return null;
     }
 
+    /**
+     * Discards the next element if it has already been computed, for use
+     * by subclasses that skip elements without computing them.
+     *
+     * @return <code>true</code> if an element was discarded.
+     * @throws IllegalStateException if a previous computation failed.
+     */
+    final boolean discardComputed() {
+        if (state == State.FAILED) {
+            throw new IllegalStateException();
+        }
+        if (state == State.READY) {
+            state = State.NOT_READY;
+            next = null;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Forgets the next element and the end of the sequence, if either has
+     * been reached, for use by subclasses that can reposition themselves.
+     *
+     * @throws IllegalStateException if a previous computation failed.
+     */
+    final void resetComputed() {
+        if (state == State.FAILED) {
+            throw new IllegalStateException();
+        }
+        state = State.NOT_READY;
+        next = null;
+    }
+
+    /**
+     * Tells whether the next element has been computed but not returned.
+     *
+     * @return <code>true</code> if so.
+     */
+    final boolean hasComputed() {
+        return state == State.READY;
+    }
+
+    /**
+     * Tells whether the end of the sequence has been reached.
+     *
+     * @return <code>true</code> if so.
+     */
+    final boolean isDone() {
+        return state == State.DONE;
+    }
+
     private boolean tryToComputeNext() throws IOException {
         state = State.FAILED;
         next = computeNext();
@@ -0,0 +1,41 @@
+package com.github.cwilper.ttff;
+
+/**
+ * A means of summarizing a sequence of objects as a single value, one
+ * object at a time.
+ * <p>
+ * The {@link #combine} operation must be associative, but need not be
+ * commutative: <code>combine(combine(a, b), c)</code> must equal
+ * <code>combine(a, combine(b, c))</code>. This lets partial results be
+ * computed independently and merged later, in any grouping, as long as
+ * their order is preserved.
+ *
+ * @param <T> the type of object being summarized.
+ * @param <A> the type of the summary.
+ */
+public interface Aggregator<T, A> {
+
+    /**
+     * Gets the summary of a sequence consisting of only the given object.
+     * <p>
+     * The result must not refer to the object if it may be recycled; see
+     * {@link ReusableSource}.
+     *
+     * @param item the object.
+     * @return the summary.
+     */
+    A lift(T item);
+
+    /**
+     * Gets the summary of two adjacent sequences, given their summaries.
+     * <p>
+     * Implementations must not modify either of the given summaries, since
+     * they may be combined again later.
+     *
+     * @param left the summary of the earlier sequence.
+     * @param right the summary of the later sequence.
+     * @return the summary of both.
+     */
+    A combine(A left, A right);
+
+}
@@ -0,0 +1,520 @@
+package com.github.cwilper.ttff;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Static utility methods for working with sources and filters of
+ * {@link RecordBatch}es.
+ * <p>
+ * A batch filter narrows the selection of the batch it is given, in
+ * place, and returns that same batch, or <code>null</code> if no rows
+ * remain selected. Batch filters can therefore be combined with
+ * {@link Filters#and(Filter[])} as well as with {@link #or(Filter[])} and
+ * {@link #not(Filter)}, and applied with
+ * {@link Sources#filter(Source, Filter)}. Each one reads only the column
+ * it tests.
+ */
+public final class Batches {
+
+    private static final int EQ = 0;
+    private static final int LT = 1;
+    private static final int LE = 2;
+    private static final int GT = 3;
+    private static final int GE = 4;
+
+    /** Instantiation disallowed. */
+    Batches() { throw new AssertionError(); }
+
+    /**
+     * Gets a source of batches holding the items of the given source.
+     * <p>
+     * The given batch, which must already have the columns the writer
+     * expects, is refilled and returned for each group of up to
+     * <code>batch.capacity()</code> items, so the returned source is a
+     * {@link ReusableSource} that copies batches with
+     * {@link RecordBatch#copy()}. When it is closed, the wrapped source
+     * will also be closed.
+     *
+     * @param source the source of items.
+     * @param batch the batch to fill.
+     * @param writer the means of storing each item in a row.
+     * @param <T> the type of item.
+     * @return the source of batches.
+     */
+    public static <T> Source<RecordBatch> batches(final Source<T> source,
+            final RecordBatch batch, final RowWriter<T> writer) {
+        return new AbstractReusableSource<RecordBatch>() {
+            @Override
+            protected RecordBatch newHolder() {
+                return batch;
+            }
+
+            @Override
+            protected boolean fill(RecordBatch holder) throws IOException {
+                int row = 0;
+                while (row < holder.capacity() && source.hasNext()) {
+                    writer.write(source.next(), holder, row++);
+                }
+                holder.setSize(row);
+                return row > 0;
+            }
+
+            @Override
+            public RecordBatch copy(RecordBatch item) {
+                return item.copy();
+            }
+
+            @Override
+            public void close() {
+                source.close();
+            }
+        };
+    }
+
+    /**
+     * Gets a source of objects built from the selected rows of each batch
+     * from the given source, in order.
+     * <p>
+     * When the returned source is closed, the wrapped source will also be
+     * closed.
+     *
+     * @param source the source of batches.
+     * @param reader the means of building an object from a row.
+     * @param <T> the type of object.
+     * @return the source of objects.
+     */
+    public static <T> Source<T> rows(final Source<RecordBatch> source,
+                                     final RowReader<T> reader) {
+        return new AbstractSource<T>() {
+            private RecordBatch batch;
+            private int next;
+
+            @Override
+            protected T computeNext() throws IOException {
+                while (batch == null || next == batch.selectedCount()) {
+                    if (!source.hasNext()) {
+                        return endOfData();
+                    }
+                    batch = source.next();
+                    next = 0;
+                }
+                return reader.read(batch, batch.selectedRow(next++));
+            }
+
+            @Override
+            public void close() {
+                source.close();
+            }
+        };
+    }
+
+    /**
+     * Gets a filter that keeps the rows whose value in the given
+     * <code>long</code> column equals the given value.
+     *
+     * @param column the name of the column.
+     * @param value the value.
+     * @return the batch filter.
+     */
+    public static Filter<RecordBatch> eq(String column, long value) {
+        return new LongFilter(column, EQ, value);
+    }
+
+    /**
+     * Gets a filter that keeps the rows whose value in the given
+     * <code>long</code> column is less than the given value.
+     *
+     * @param column the name of the column.
+     * @param value the value.
+     * @return the batch filter.
+     */
+    public static Filter<RecordBatch> lt(String column, long value) {
+        return new LongFilter(column, LT, value);
+    }
+
+    /**
+     * Gets a filter that keeps the rows whose value in the given
+     * <code>long</code> column is less than or equal to the given value.
+     *
+     * @param column the name of the column.
+     * @param value the value.
+     * @return the batch filter.
+     */
+    public static Filter<RecordBatch> le(String column, long value) {
+        return new LongFilter(column, LE, value);
+    }
+
+    /**
+     * Gets a filter that keeps the rows whose value in the given
+     * <code>long</code> column is greater than the given value.
+     *
+     * @param column the name of the column.
+     * @param value the value.
+     * @return the batch filter.
+     */
+    public static Filter<RecordBatch> gt(String column, long value) {
+        return new LongFilter(column, GT, value);
+    }
+
+    /**
+     * Gets a filter that keeps the rows whose value in the given
+     * <code>long</code> column is greater than or equal to the given
+     * value.
+     *
+     * @param column the name of the column.
+     * @param value the value.
+     * @return the batch filter.
+     */
+    public static Filter<RecordBatch> ge(String column, long value) {
+        return new LongFilter(column, GE, value);
+    }
+
+    /**
+     * Gets a filter that keeps the rows whose value in the given
+     * <code>double</code> column is less than the given value.
+     *
+     * @param column the name of the column.
+     * @param value the value.
+     * @return the batch filter.
+     */
+    public static Filter<RecordBatch> lt(String column, double value) {
+        return new DoubleFilter(column, LT, value);
+    }
+
+    /**
+     * Gets a filter that keeps the rows whose value in the given
+     * <code>double</code> column is less than or equal to the given value.
+     *
+     * @param column the name of the column.
+     * @param value the value.
+     * @return the batch filter.
+     */
+    public static Filter<RecordBatch> le(String column, double value) {
+        return new DoubleFilter(column, LE, value);
+    }
+
+    /**
+     * Gets a filter that keeps the rows whose value in the given
+     * <code>double</code> column is greater than the given value.
+     *
+     * @param column the name of the column.
+     * @param value the value.
+     * @return the batch filter.
+     */
+    public static Filter<RecordBatch> gt(String column, double value) {
+        return new DoubleFilter(column, GT, value);
+    }
+
+    /**
+     * Gets a filter that keeps the rows whose value in the given
+     * <code>double</code> column is greater than or equal to the given
+     * value.
+     *
+     * @param column the name of the column.
+     * @param value the value.
+     * @return the batch filter.
+     */
+    public static Filter<RecordBatch> ge(String column, double value) {
+        return new DoubleFilter(column, GE, value);
+    }
+
+    /**
+     * Gets a filter that keeps the rows whose value in the given object
+     * column is accepted by the given filter, such as one from
+     * {@link Filters}. Only that column's values are passed to it, and
+     * any transformation it makes is ignored.
+     * <p>
+     * When the returned filter is closed, the given filter will be closed.
+     *
+     * @param column the name of the column.
+     * @param filter the filter to apply to each value.
+     * @param <V> the type of value.
+     * @return the batch filter.
+     */
+    public static <V> Filter<RecordBatch> column(final String column,
+                                                 final Filter<V> filter) {
+        return new AbstractFilter<RecordBatch>() {
+            @Override
+            public RecordBatch accept(RecordBatch batch) throws IOException {
+                RecordBatch.ObjectColumn<V> values =
+                        batch.objectColumn(column);
+                int[] selection = batch.selection();
+                int count = batch.selectedCount();
+                int kept = 0;
+                for (int i = 0; i < count; i++) {
+                    int row = selection[i];
+                    V value = values.get(row);
+                    if (value != null && filter.accept(value) != null) {
+                        selection[kept++] = row;
+                    }
+                }
+                return narrow(batch, kept);
+            }
+
+            @Override
+            public void close() {
+                filter.close();
+            }
+        };
+    }
+
+    /**
+     * Gets a batch filter that keeps the rows kept by any of the given
+     * batch filters.
+     * <p>
+     * When the returned filter is closed, the given filters will be closed.
+     *
+     * @param filters the batch filters.
+     * @return the batch filter.
+     */
+    public static Filter<RecordBatch> or(Filter<RecordBatch>... filters) {
+        return or(Arrays.asList(filters));
+    }
+
+    /**
+     * Gets a batch filter that keeps the rows kept by any of the given
+     * batch filters.
+     * <p>
+     * Each filter is given the rows selected on entry. When the returned
+     * filter is closed, the given filters will be closed.
+     *
+     * @param filters the batch filters.
+     * @return the batch filter.
+     */
+    public static Filter<RecordBatch> or(
+            final Collection<Filter<RecordBatch>> filters) {
+        return new SelectionFilter() {
+            @Override
+            protected void mark(RecordBatch batch, int[] entry, int count,
+                                boolean[] marks) throws IOException {
+                for (Filter<RecordBatch> filter: filters) {
+                    System.arraycopy(entry, 0, batch.selection(), 0, count);
+                    batch.setSelectedCount(count);
+                    if (filter.accept(batch) != null) {
+                        markSelected(batch, marks);
+                    }
+                }
+            }
+
+            @Override
+            protected boolean keepMarked() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+                for (Filter<RecordBatch> filter: filters) {
+                    filter.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Gets a batch filter that keeps the rows that the given batch filter
+     * would not keep.
+     * <p>
+     * When the returned filter is closed, the given filter will be closed.
+     *
+     * @param filter the batch filter.
+     * @return the batch filter.
+     */
+    public static Filter<RecordBatch> not(final Filter<RecordBatch> filter) {
+        return new SelectionFilter() {
+            @Override
+            protected void mark(RecordBatch batch, int[] entry, int count,
+                                boolean[] marks) throws IOException {
+                if (filter.accept(batch) != null) {
+                    markSelected(batch, marks);
+                }
+            }
+
+            @Override
+            protected boolean keepMarked() {
+                return false;
+            }
+
+            @Override
+            public void close() {
+                filter.close();
+            }
+        };
+    }
+
+    private static RecordBatch narrow(RecordBatch batch, int kept) {
+        batch.setSelectedCount(kept);
+        return kept == 0 ? null : batch;
+    }
+
+    private static void markSelected(RecordBatch batch, boolean[] marks) {
+        int[] selection = batch.selection();
+        for (int i = 0; i < batch.selectedCount(); i++) {
+            marks[selection[i]] = true;
+        }
+    }
+
+    /**
+     * Base class for batch filters that run other batch filters, mark the
+     * rows they keep, then keep either the marked or unmarked rows from
+     * the selection on entry.
+     */
+    private static abstract class SelectionFilter
+            extends AbstractFilter<RecordBatch> {
+
+        private int[] entry = new int[0];
+        private boolean[] marks = new boolean[0];
+
+        @Override
+        public final RecordBatch accept(RecordBatch batch)
+                throws IOException {
+            int count = batch.selectedCount();
+            if (entry.length < batch.capacity()) {
+                entry = new int[batch.capacity()];
+                marks = new boolean[batch.capacity()];
+            }
+            System.arraycopy(batch.selection(), 0, entry, 0, count);
+            mark(batch, entry, count, marks);
+            boolean keep = keepMarked();
+            int[] selection = batch.selection();
+            int kept = 0;
+            for (int i = 0; i < count; i++) {
+                int row = entry[i];
+                if (marks[row] == keep) {
+                    selection[kept++] = row;
+                }
+                marks[row] = false;
+            }
+            return narrow(batch, kept);
+        }
+
+        protected abstract void mark(RecordBatch batch, int[] entry,
+                                     int count, boolean[] marks)
+                throws IOException;
+
+        protected abstract boolean keepMarked();
+    }
+
+    private static final class LongFilter
+            extends AbstractFilter<RecordBatch> {
+
+        private final String column;
+        private final int op;
+        private final long value;
+
+        LongFilter(String column, int op, long value) {
+            this.column = column;
+            this.op = op;
+            this.value = value;
+        }
+
+        @Override
+        public RecordBatch accept(RecordBatch batch) {
+            long[] values = batch.longColumn(column).values();
+            int[] selection = batch.selection();
+            int count = batch.selectedCount();
+            int kept = 0;
+            switch (op) {
+                case EQ:
+                    for (int i = 0; i < count; i++) {
+                        int row = selection[i];
+                        if (values[row] == value) {
+                            selection[kept++] = row;
+                        }
+                    }
+                    break;
+                case LT:
+                    for (int i = 0; i < count; i++) {
+                        int row = selection[i];
+                        if (values[row] < value) {
+                            selection[kept++] = row;
+                        }
+                    }
+                    break;
+                case LE:
+                    for (int i = 0; i < count; i++) {
+                        int row = selection[i];
+                        if (values[row] <= value) {
+                            selection[kept++] = row;
+                        }
+                    }
+                    break;
+                case GT:
+                    for (int i = 0; i < count; i++) {
+                        int row = selection[i];
+                        if (values[row] > value) {
+                            selection[kept++] = row;
+                        }
+                    }
+                    break;
+                default:
+                    for (int i = 0; i < count; i++) {
+                        int row = selection[i];
+                        if (values[row] >= value) {
+                            selection[kept++] = row;
+                        }
+                    }
+                    break;
+            }
+            return narrow(batch, kept);
+        }
+    }
+
+    private static final class DoubleFilter
+            extends AbstractFilter<RecordBatch> {
+
+        private final String column;
+        private final int op;
+        private final double value;
+
+        DoubleFilter(String column, int op, double value) {
+            this.column = column;
+            this.op = op;
+            this.value = value;
+        }
+
+        @Override
+        public RecordBatch accept(RecordBatch batch) {
+            double[] values = batch.doubleColumn(column).values();
+            int[] selection = batch.selection();
+            int count = batch.selectedCount();
+            int kept = 0;
+            switch (op) {
+                case LT:
+                    for (int i = 0; i < count; i++) {
+                        int row = selection[i];
+                        if (values[row] < value) {
+                            selection[kept++] = row;
+                        }
+                    }
+                    break;
+                case LE:
+                    for (int i = 0; i < count; i++) {
+                        int row = selection[i];
+                        if (values[row] <= value) {
+                            selection[kept++] = row;
+                        }
+                    }
+                    break;
+                case GT:
+                    for (int i = 0; i < count; i++) {
+                        int row = selection[i];
+                        if (values[row] > value) {
+                            selection[kept++] = row;
+                        }
+                    }
+                    break;
+                default:
+                    for (int i = 0; i < count; i++) {
+                        int row = selection[i];
+                        if (values[row] >= value) {
+                            selection[kept++] = row;
+                        }
+                    }
+                    break;
+            }
+            return narrow(batch, kept);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.github.cwilper.ttff;
+
+import javax.annotation.PreDestroy;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * A sink that writes items to a file in blocks, each headed by the least
+ * and greatest item in it.
+ * <p>
+ * Each block is written as the number of items, the length in bytes of
+ * the encoded items, the least and greatest items, then the items
+ * themselves. A source reading the file with a filter can then skip any
+ * block whose range rules out every item in it, without decoding it.
+ * <p>
+ * The sink holds on to the least and greatest item of the current block,
+ * so it must not be given items that are later modified.
+ *
+ * @param <T> the type over which the sink operates.
+ * @see Sinks#blockFile(File, Codec, int)
+ * @see Sources#blockFile(File, Codec)
+ */
+public final class BlockFileSink<T extends Comparable<? super T>>
+        extends AbstractSink<T> {
+
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    private final Codec<T> codec;
+    private final int blockItems;
+    private final DataOutputStream out;
+    private final ByteArrayOutputStream block = new ByteArrayOutputStream();
+    private final DataOutputStream blockOut = new DataOutputStream(block);
+
+    private T min;
+    private T max;
+    private int count;
+    private boolean finished;
+
+    BlockFileSink(File file, Codec<T> codec, int blockItems)
+            throws IOException {
+        if (blockItems < 1) {
+            throw new IllegalArgumentException("blockItems must be > 0");
+        }
+        this.codec = codec;
+        this.blockItems = blockItems;
+        this.out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file), STREAM_BUFFER_SIZE));
+    }
+
+    @Override
+    public void put(T item) throws IOException {
+        if (finished) {
+            throw new IllegalStateException("Sink is finished");
+        }
+        codec.encode(item, blockOut);
+        if (count == 0 || item.compareTo(min) < 0) {
+            min = item;
+        }
+        if (count == 0 || item.compareTo(max) > 0) {
+            max = item;
+        }
+        if (++count == blockItems) {
+            writeBlock();
+        }
+    }
+
+    /**
+     * Writes out any partial block and closes the file.
+     *
+     * @throws IOException if an I/O problem occurs.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        try {
+            writeBlock();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Finishes the file if that hasn't been done already. Since errors
+     * cannot be reported here, callers that need to know the file is
+     * complete should call {@link #finish()} first.
+     */
+    @Override
+    @PreDestroy
+    public void close() {
+        try {
+            finish();
+        } catch (IOException e) {
+            // can't report it; see finish()
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        if (count == 0) {
+            return;
+        }
+        blockOut.flush();
+        out.writeInt(count);
+        out.writeInt(block.size());
+        codec.encode(min, out);
+        codec.encode(max, out);
+        block.writeTo(out);
+        block.reset();
+        min = null;
+        max = null;
+        count = 0;
+    }
+
+}
@@ -0,0 +1,158 @@
+package com.github.cwilper.ttff;
+
+import javax.annotation.PreDestroy;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * A source of the items in a file written by a {@link BlockFileSink}.
+ * <p>
+ * When filtered, the source checks the filter against the least and
+ * greatest item of each block before reading it, and skips any block in
+ * which no item could pass. It can also skip whole blocks by count.
+ *
+ * @param <T> the type over which the source operates.
+ * @see Sources#blockFile(File, Codec)
+ */
+class BlockFileSource<T extends Comparable<? super T>>
+        extends AbstractSkippableSource<T> implements FilterableSource<T> {
+
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private final Codec<T> codec;
+    private DataInputStream in;
+
+    /** The filter used to rule out blocks, if any. */
+    private Filter<T> filter;
+
+    /** The number of items left to read in the current block. */
+    private int remaining;
+
+    private long blocksRead;
+    private long blocksSkipped;
+
+    BlockFileSource(File file, Codec<T> codec) {
+        this.file = file;
+        this.codec = codec;
+    }
+
+    @Override
+    public Source<T> withFilter(Filter<T> filter) {
+        if (this.filter != null) {
+            return null;
+        }
+        this.filter = filter;
+        return Sources.wrap(this, filter);
+    }
+
+    @Override
+    protected T computeNext() throws IOException {
+        while (remaining == 0) {
+            Header header = readHeader();
+            if (header == null) {
+                return endOfData();
+            }
+            if (filter != null && !Filters.mayAcceptBetween(filter,
+                    header.min, header.max)) {
+                skipBytes(header.length);
+                blocksSkipped++;
+            } else {
+                remaining = header.count;
+                blocksRead++;
+            }
+        }
+        remaining--;
+        return codec.decode(in);
+    }
+
+    @Override
+    protected long skipAhead(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n) {
+            if (remaining == 0) {
+                Header header = readHeader();
+                if (header == null) {
+                    break;
+                }
+                if (header.count <= n - skipped) {
+                    skipBytes(header.length);
+                    blocksSkipped++;
+                    skipped += header.count;
+                    continue;
+                }
+                remaining = header.count;
+                blocksRead++;
+            }
+            // items vary in length, so these must be decoded to pass them
+            codec.decode(in);
+            remaining--;
+            skipped++;
+        }
+        return skipped;
+    }
+
+    @Override
+    @PreDestroy
+    public void close() {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // nothing more to do
+            }
+            in = null;
+        }
+    }
+
+    /** Gets the number of blocks whose items have been read. */
+    long getBlocksRead() {
+        return blocksRead;
+    }
+
+    /** Gets the number of blocks passed over without being read. */
+    long getBlocksSkipped() {
+        return blocksSkipped;
+    }
+
+    private Header readHeader() throws IOException {
+        if (in == null) {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file), STREAM_BUFFER_SIZE));
+        }
+        Header header = new Header();
+        try {
+            header.count = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        header.length = in.readInt();
+        header.min = codec.decode(in);
+        header.max = codec.decode(in);
+        return header;
+    }
+
+    private void skipBytes(int length) throws IOException {
+        int left = length;
+        while (left > 0) {
+            int skipped = in.skipBytes(left);
+            if (skipped <= 0) {
+                throw new EOFException("Truncated block in " + file);
+            }
+            left -= skipped;
+        }
+    }
+
+    /** The header of a block. */
+    private class Header {
+        int count;
+        int length;
+        T min;
+        T max;
+    }
+}
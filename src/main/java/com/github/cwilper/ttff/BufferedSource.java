@@ -0,0 +1,359 @@
+package com.github.cwilper.ttff;
+
+import javax.annotation.PreDestroy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedList;
+
+/**
+ * A source that reads ahead from another source in a background thread,
+ * holding up to a fixed number of items in memory and overflowing to
+ * temporary files on disk beyond that.
+ * <p>
+ * Items are always delivered in their original order. Items that don't
+ * fit in memory are written to a segment file by the producer, outside
+ * the lock, and the segment is queued for the consumer once it is full.
+ * A consumer with nothing else to read takes the segment being written
+ * as it is. Either way, new items are then held in memory again, behind
+ * those on disk, so a consumer that keeps pace after a burst doesn't
+ * cause any more disk I/O.
+ *
+ * @param <T> the type over which the source operates.
+ * @see Sources#buffered(Source, int, File, Codec)
+ */
+class BufferedSource<T> extends AbstractSource<T> {
+
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    private final Source<T> source;
+    private final int memoryItems;
+    private final File spillDir;
+    private final Codec<T> codec;
+    private final Thread producer;
+
+    /** The source, if it recycles items; otherwise <code>null</code>. */
+    private final ReusableSource<T> reusable;
+
+    /** Items in memory ahead of any on disk; guarded by this. */
+    private LinkedList<T> memory = new LinkedList<T>();
+
+    /** Full segments, in order; guarded by this. */
+    private final LinkedList<Segment> segments = new LinkedList<Segment>();
+
+    /** The segment being written, if any; guarded by this. */
+    private Segment writing;
+
+    /** Items in memory behind everything on disk; guarded by this. */
+    private LinkedList<T> tail = new LinkedList<T>();
+
+    /** The segment currently being consumed, if any; guarded by this. */
+    private Segment reading;
+
+    private boolean exhausted;
+    private boolean closed;
+    private Throwable failure;
+    private int segmentCount;
+
+    BufferedSource(Source<T> source, int memoryItems, File spillDir,
+                   Codec<T> codec) {
+        if (memoryItems < 1) {
+            throw new IllegalArgumentException("memoryItems must be > 0");
+        }
+        this.source = source;
+        this.memoryItems = memoryItems;
+        this.spillDir = spillDir;
+        this.codec = codec;
+        if (source instanceof ReusableSource) {
+            this.reusable = (ReusableSource<T>) source;
+        } else {
+            this.reusable = null;
+        }
+        this.producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                produce();
+            }
+        }, "ttff-buffered");
+        producer.setDaemon(true);
+    }
+
+    void start() {
+        producer.start();
+    }
+
+    @Override
+    protected T computeNext() throws IOException {
+        Segment segment;
+        synchronized (this) {
+            while (true) {
+                if (closed) {
+                    throw new IllegalStateException("Source is closed");
+                }
+                if (!memory.isEmpty()) {
+                    T item = memory.removeFirst();
+                    notifyAll();
+                    return item;
+                }
+                if (reading != null && reading.remaining == 0) {
+                    reading.delete();
+                    reading = null;
+                }
+                if (reading == null && !segments.isEmpty()) {
+                    reading = segments.removeFirst();
+                }
+                if (reading == null && writing != null) {
+                    // nothing else to read, so take it unfinished
+                    reading = writing;
+                    writing = null;
+                }
+                if (reading != null) {
+                    segment = reading;
+                    break;
+                }
+                if (!tail.isEmpty()) {
+                    LinkedList<T> caughtUp = memory;
+                    memory = tail;
+                    tail = caughtUp;
+                    continue;
+                }
+                if (failure != null) {
+                    throw asIOException(failure);
+                }
+                if (exhausted) {
+                    return endOfData();
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+            }
+        }
+        synchronized (segment) {
+            // waits for any write in progress; a no-op once sealed
+            segment.seal();
+        }
+        segment.remaining--;
+        return codec.decode(segment.in());
+    }
+
+    @Override
+    @PreDestroy
+    public void close() {
+        Segment unfinished;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            memory.clear();
+            tail.clear();
+            if (reading != null) {
+                reading.delete();
+                reading = null;
+            }
+            for (Segment segment: segments) {
+                segment.delete();
+            }
+            segments.clear();
+            unfinished = writing;
+            writing = null;
+            notifyAll();
+        }
+        if (unfinished != null) {
+            synchronized (unfinished) {
+                unfinished.delete();
+            }
+        }
+        producer.interrupt();
+        source.close();
+    }
+
+    /** Gets the number of segment files created so far; for tests. */
+    synchronized int segmentCount() {
+        return segmentCount;
+    }
+
+    private void produce() {
+        try {
+            while (source.hasNext()) {
+                if (!offer(source.next())) {
+                    return;
+                }
+            }
+            finish(null);
+        } catch (Throwable th) {
+            finish(th);
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * Adds an item to memory if there's room and nothing is being written,
+     * otherwise writes it to disk without holding the lock.
+     */
+    private boolean offer(T item) throws IOException {
+        while (true) {
+            Segment segment;
+            LinkedList<T> spilled = null;
+            synchronized (this) {
+                if (closed) {
+                    return false;
+                }
+                segment = writing;
+                if (segment == null) {
+                    if (memory.size() + tail.size() < memoryItems) {
+                        T copy = reusable == null
+                                ? item : reusable.copy(item);
+                        if (reading == null && segments.isEmpty()
+                                && tail.isEmpty()) {
+                            memory.addLast(copy);
+                        } else {
+                            tail.addLast(copy);
+                        }
+                        notifyAll();
+                        return true;
+                    }
+                    // whatever is behind the disk must now go to disk first
+                    spilled = tail;
+                    tail = new LinkedList<T>();
+                    segmentCount++;
+                }
+            }
+            if (segment == null) {
+                segment = new Segment(File.createTempFile(
+                        "ttff-buffered-", ".seg", spillDir));
+                try {
+                    for (T spilledItem: spilled) {
+                        segment.write(spilledItem);
+                    }
+                    segment.write(item);
+                } catch (IOException e) {
+                    segment.delete();
+                    throw e;
+                }
+                synchronized (this) {
+                    if (closed) {
+                        segment.delete();
+                        return false;
+                    }
+                    writing = segment;
+                    notifyAll();
+                }
+            } else {
+                synchronized (segment) {
+                    if (segment.isSealed()) {
+                        // taken by the consumer meanwhile; try again
+                        continue;
+                    }
+                    segment.write(item);
+                }
+            }
+            if (segment.count >= memoryItems) {
+                queue(segment);
+            }
+            return true;
+        }
+    }
+
+    /** Seals a full segment and queues it, unless already taken. */
+    private void queue(Segment segment) throws IOException {
+        synchronized (segment) {
+            segment.seal();
+        }
+        synchronized (this) {
+            if (writing == segment) {
+                writing = null;
+                segments.addLast(segment);
+                notifyAll();
+            }
+        }
+    }
+
+    private synchronized void finish(Throwable th) {
+        if (th != null && !closed) {
+            failure = th;
+        }
+        exhausted = true;
+        notifyAll();
+    }
+
+    private static IOException asIOException(Throwable th) {
+        if (th instanceof IOException) {
+            return (IOException) th;
+        }
+        return new IOException(th);
+    }
+
+    /**
+     * A temporary file holding a run of spilled items. While it is being
+     * written, writes and sealing happen while holding its own lock.
+     */
+    private class Segment {
+
+        private final File file;
+        private DataOutputStream out;
+        private DataInputStream in;
+        private int count;
+        private int remaining;
+
+        Segment(File file) throws IOException {
+            this.file = file;
+            this.out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file), STREAM_BUFFER_SIZE));
+        }
+
+        void write(T item) throws IOException {
+            codec.encode(item, out);
+            count++;
+            remaining++;
+        }
+
+        boolean isSealed() {
+            return out == null;
+        }
+
+        /** Finishes writing, if not done already. */
+        void seal() throws IOException {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+        }
+
+        DataInputStream in() throws IOException {
+            if (in == null) {
+                in = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(file), STREAM_BUFFER_SIZE));
+            }
+            return in;
+        }
+
+        void delete() {
+            try {
+                if (out != null) {
+                    out.close();
+                }
+                if (in != null) {
+                    in.close();
+                }
+            } catch (IOException e) {
+                // ignore; we're done with it either way
+            }
+            out = null;
+            in = null;
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.github.cwilper.ttff;
+
+import java.util.Comparator;
+
+/**
+ * Properties known to hold for the whole sequence of a {@link Source}.
+ * <p>
+ * A source is <em>sorted</em> if its items are in ascending order
+ * according to some comparator, and <em>distinct</em> if no two of its
+ * items are equal. Instances are immutable.
+ *
+ * @param <T> the type of item.
+ * @see CharacterizedSource
+ * @see Sources#withCharacteristics(Source, Characteristics)
+ */
+public final class Characteristics<T> {
+
+    private static final Comparator<Object> NATURAL =
+            new Comparator<Object>() {
+                @Override
+                public int compare(Object o1, Object o2) {
+                    return compareNaturally(o1, o2);
+                }
+            };
+
+    private static final Characteristics<Object> NONE =
+            new Characteristics<Object>(null, false);
+
+    private final Comparator<? super T> comparator;
+    private final boolean distinct;
+
+    private Characteristics(Comparator<? super T> comparator,
+                            boolean distinct) {
+        this.comparator = comparator;
+        this.distinct = distinct;
+    }
+
+    /**
+     * Gets characteristics that promise nothing.
+     *
+     * @param <T> the type.
+     * @return the characteristics.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Characteristics<T> none() {
+        return (Characteristics<T>) NONE;
+    }
+
+    /**
+     * Gets characteristics of a sequence in ascending natural order.
+     *
+     * @param <T> the type.
+     * @return the characteristics.
+     */
+    public static <T extends Comparable<? super T>>
+            Characteristics<T> sorted() {
+        return new Characteristics<T>(NATURAL, false);
+    }
+
+    /**
+     * Gets characteristics of a sequence in ascending order according to
+     * the given comparator.
+     *
+     * @param comparator the comparator.
+     * @param <T> the type.
+     * @return the characteristics.
+     */
+    public static <T> Characteristics<T> sorted(
+            Comparator<? super T> comparator) {
+        if (comparator == null) {
+            throw new NullPointerException();
+        }
+        return new Characteristics<T>(comparator, false);
+    }
+
+    /**
+     * Gets a copy of these characteristics that also promises that the
+     * items are distinct.
+     *
+     * @return the characteristics.
+     */
+    public Characteristics<T> distinct() {
+        return new Characteristics<T>(comparator, true);
+    }
+
+    /**
+     * Tells whether the items are in ascending order.
+     *
+     * @return <code>true</code> if so.
+     */
+    public boolean isSorted() {
+        return comparator != null;
+    }
+
+    /**
+     * Tells whether the items are in ascending natural order.
+     *
+     * @return <code>true</code> if so.
+     */
+    public boolean isSortedNaturally() {
+        return comparator == NATURAL;
+    }
+
+    /**
+     * Tells whether no two items are equal.
+     *
+     * @return <code>true</code> if so.
+     */
+    public boolean isDistinct() {
+        return distinct;
+    }
+
+    /**
+     * Gets the comparator that orders the items. For natural ordering, this
+     * is a comparator that delegates to <code>compareTo</code>.
+     *
+     * @return the comparator, or <code>null</code> if the items are not
+     *         sorted.
+     */
+    public Comparator<? super T> getComparator() {
+        return comparator;
+    }
+
+    /** Compares items that are only known to be mutually comparable. */
+    @SuppressWarnings("unchecked")
+    private static <T> int compareNaturally(T o1, T o2) {
+        return ((Comparable<? super T>) o1).compareTo(o2);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Characteristics)) {
+            return false;
+        }
+        Characteristics<?> other = (Characteristics<?>) o;
+        return distinct == other.distinct && (comparator == null
+                ? other.comparator == null
+                : comparator.equals(other.comparator));
+    }
+
+    @Override
+    public int hashCode() {
+        return (comparator == null ? 0 : comparator.hashCode())
+                + (distinct ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        if (isSortedNaturally()) {
+            sb.append("SORTED");
+        } else if (isSorted()) {
+            sb.append("SORTED(").append(comparator).append(")");
+        }
+        if (distinct) {
+            sb.append(sb.length() > 1 ? ", " : "").append("DISTINCT");
+        }
+        return sb.append("]").toString();
+    }
+
+}
@@ -0,0 +1,18 @@
+package com.github.cwilper.ttff;
+
+/**
+ * A {@link Source} that declares {@link Characteristics} of its items.
+ *
+ * @param <T> the type over which the source operates.
+ * @see Sources#characteristics(Source)
+ */
+public interface CharacterizedSource<T> extends Source<T> {
+
+    /**
+     * Gets the characteristics of the items in this source.
+     *
+     * @return the characteristics, never <code>null</code>.
+     */
+    Characteristics<T> characteristics();
+
+}
@@ -0,0 +1,34 @@
+package com.github.cwilper.ttff;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A means of writing objects to, and reading them back from, a binary
+ * stream.
+ *
+ * @param <T> the type over which the codec operates.
+ * @see Codecs
+ */
+public interface Codec<T> {
+
+    /**
+     * Writes the given object to the given output.
+     *
+     * @param item the object.
+     * @param out the output to write to.
+     * @throws IOException if an I/O problem occurs.
+     */
+    void encode(T item, DataOutput out) throws IOException;
+
+    /**
+     * Reads the next object from the given input.
+     *
+     * @param in the input to read from.
+     * @return the object.
+     * @throws IOException if an I/O problem occurs.
+     */
+    T decode(DataInput in) throws IOException;
+
+}
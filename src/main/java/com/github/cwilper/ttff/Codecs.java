@@ -0,0 +1,106 @@
+package com.github.cwilper.ttff;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * Static utility methods for creating common types of {@link Codec}s.
+ */
+public final class Codecs {
+
+    /** Instantiation disallowed. */
+    Codecs() { throw new AssertionError(); }
+
+    /**
+     * Gets a codec that writes strings as a length-prefixed sequence of
+     * UTF-8 bytes.
+     * <p>
+     * Unlike {@link DataOutput#writeUTF(String)}, there is no limit on the
+     * length of the string.
+     *
+     * @return the codec.
+     */
+    public static Codec<String> strings() {
+        return new Codec<String>() {
+            @Override
+            public void encode(String item, DataOutput out)
+                    throws IOException {
+                byte[] bytes = item.getBytes("UTF-8");
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+
+            @Override
+            public String decode(DataInput in) throws IOException {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return new String(bytes, "UTF-8");
+            }
+        };
+    }
+
+    /**
+     * Gets a codec that writes longs as eight bytes, high byte first.
+     *
+     * @return the codec.
+     */
+    public static Codec<Long> longs() {
+        return new Codec<Long>() {
+            @Override
+            public void encode(Long item, DataOutput out) throws IOException {
+                out.writeLong(item);
+            }
+
+            @Override
+            public Long decode(DataInput in) throws IOException {
+                return in.readLong();
+            }
+        };
+    }
+
+    /**
+     * Gets a codec that writes objects as a length-prefixed sequence of
+     * bytes produced by Java serialization.
+     * <p>
+     * This is convenient, but slow and verbose; prefer a purpose-built
+     * codec where throughput matters.
+     *
+     * @param <T> the type.
+     * @return the codec.
+     */
+    public static <T extends Serializable> Codec<T> serialized() {
+        return new Codec<T>() {
+            @Override
+            public void encode(T item, DataOutput out) throws IOException {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                ObjectOutputStream objects = new ObjectOutputStream(bytes);
+                objects.writeObject(item);
+                objects.close();
+                out.writeInt(bytes.size());
+                out.write(bytes.toByteArray());
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T decode(DataInput in) throws IOException {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                ObjectInputStream objects = new ObjectInputStream(
+                        new ByteArrayInputStream(bytes));
+                try {
+                    return (T) objects.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException(e);
+                } finally {
+                    objects.close();
+                }
+            }
+        };
+    }
+}
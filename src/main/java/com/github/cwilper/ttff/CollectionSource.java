@@ -0,0 +1,87 @@
+package com.github.cwilper.ttff;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A {@link SeekableSource} over the items of a collection.
+ * <p>
+ * Lists are repositioned with <code>listIterator(int)</code>. Other
+ * collections are repositioned by advancing a fresh iterator.
+ *
+ * @param <T> the type.
+ */
+final class CollectionSource<T> extends AbstractSkippableSource<T>
+        implements SeekableSource<T> {
+
+    private final Collection<T> collection;
+
+    /** The iterator, or <code>null</code> if it must be recreated. */
+    private Iterator<T> iterator;
+
+    /** The position of the next item the iterator will return. */
+    private long position;
+
+    CollectionSource(Collection<T> collection) {
+        this.collection = collection;
+    }
+
+    @Override
+    protected T computeNext() {
+        if (iterator == null) {
+            iterator = iteratorAt(position);
+        }
+        if (iterator.hasNext()) {
+            position++;
+            return iterator.next();
+        }
+        return endOfData();
+    }
+
+    @Override
+    protected long skipAhead(long n) {
+        long skipped = Math.min(n, Math.max(0, collection.size() - position));
+        if (collection instanceof List) {
+            iterator = null;
+        } else if (iterator != null) {
+            for (long i = 0; i < skipped; i++) {
+                iterator.next();
+            }
+        }
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public long estimateSize() {
+        return Math.max(0, collection.size() - position());
+    }
+
+    @Override
+    public long position() {
+        return hasComputed() ? position - 1 : position;
+    }
+
+    @Override
+    public void seek(long position) {
+        if (position < 0) {
+            throw new IllegalArgumentException("Negative position");
+        }
+        resetComputed();
+        this.position = Math.min(position, collection.size());
+        iterator = null;
+    }
+
+    private Iterator<T> iteratorAt(long position) {
+        if (collection instanceof List) {
+            return ((List<T>) collection).listIterator((int) position);
+        }
+        Iterator<T> it = collection.iterator();
+        for (long i = 0; i < position && it.hasNext(); i++) {
+            it.next();
+        }
+        return it;
+    }
+
+}
@@ -0,0 +1,27 @@
+package com.github.cwilper.ttff;
+
+/**
+ * A means of combining a pair of matching objects from two sources into
+ * one, such as when enriching events with reference data.
+ *
+ * @param <L> the type of object from the left, or build, side.
+ * @param <R> the type of object from the right, or probe, side.
+ * @param <T> the type of the result.
+ * @see Sources#hashJoin(Source, Source, Function, Function, Combiner)
+ * @see Sources#mergeJoin(Source, Source, Function, Function, Combiner)
+ */
+public interface Combiner<L, R, T> {
+
+    /**
+     * Combines the given pair of objects.
+     * <p>
+     * The result must not refer to either object if it may be recycled;
+     * see {@link ReusableSource}.
+     *
+     * @param left the object from the left side.
+     * @param right the object from the right side.
+     * @return the result, or <code>null</code> to omit this pair.
+     */
+    T combine(L left, R right);
+
+}
@@ -0,0 +1,220 @@
+package com.github.cwilper.ttff;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A filter that evaluates a tree of filters from {@link Filters} as a flat
+ * list of instructions.
+ * <p>
+ * Each instruction is a pair of ints: an opcode and an argument, which is
+ * an index into the operands or, for jumps, into the code. Evaluation
+ * keeps a single result register, which starts out <code>null</code> and
+ * holds the value of the filter once the last instruction has run.
+ *
+ * @param <T> the type over which the filter operates.
+ * @see Filters#compile(Filter)
+ */
+final class CompiledFilter<T> extends AbstractFilter<T>
+        implements RangeFilter<T> {
+
+    /** Sets the result to the item. */
+    static final int TRUE = 0;
+    /** Sets the result to null. */
+    static final int FALSE = 1;
+    /** Sets the result to the item if it is an instance of the operand. */
+    static final int ISA = 2;
+    /** Sets the result to the item if the operand equals it. */
+    static final int EQ = 3;
+    /** Sets the result to the item if it is less than the operand. */
+    static final int LT = 4;
+    /** Sets the result to the item if it is at most the operand. */
+    static final int LE = 5;
+    /** Sets the result to the item if it is greater than the operand. */
+    static final int GT = 6;
+    /** Sets the result to the item if it is at least the operand. */
+    static final int GE = 7;
+    /** Sets the result to the item as accepted by the operand filter. */
+    static final int CALL = 8;
+    /** Sets the result to the item if it's null, or null otherwise. */
+    static final int NOT = 9;
+    /** Jumps to the argument if the result is null. */
+    static final int JUMP_IF_NULL = 10;
+    /** Jumps to the argument if the result is not null. */
+    static final int JUMP_IF_NOT_NULL = 11;
+
+    private final Filter<T> filter;
+    private final int[] code;
+    private final Object[] operands;
+
+    CompiledFilter(Filter<T> filter) {
+        this.filter = filter;
+        Compiler compiler = new Compiler();
+        compiler.compile(filter);
+        this.code = Arrays.copyOf(compiler.code, compiler.length);
+        this.operands = compiler.operands.toArray();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T accept(T item) throws IOException {
+        final int[] code = this.code;
+        Object result = null;
+        int pc = 0;
+        while (pc < code.length) {
+            int op = code[pc];
+            int arg = code[pc + 1];
+            pc += 2;
+            switch (op) {
+                case TRUE:
+                    result = item;
+                    break;
+                case FALSE:
+                    result = null;
+                    break;
+                case ISA:
+                    result = ((Class) operands[arg]).isInstance(item)
+                            ? item : null;
+                    break;
+                case EQ:
+                    result = operands[arg].equals(item) ? item : null;
+                    break;
+                case LT:
+                    result = compare(item, arg) < 0 ? item : null;
+                    break;
+                case LE:
+                    result = compare(item, arg) <= 0 ? item : null;
+                    break;
+                case GT:
+                    result = compare(item, arg) > 0 ? item : null;
+                    break;
+                case GE:
+                    result = compare(item, arg) >= 0 ? item : null;
+                    break;
+                case CALL:
+                    result = ((Filter<T>) operands[arg]).accept(item);
+                    break;
+                case NOT:
+                    result = result == null ? item : null;
+                    break;
+                case JUMP_IF_NULL:
+                    if (result == null) {
+                        pc = arg;
+                    }
+                    break;
+                default:
+                    if (result != null) {
+                        pc = arg;
+                    }
+                    break;
+            }
+        }
+        return (T) result;
+    }
+
+    @Override
+    public boolean isPassThrough() {
+        return filter instanceof RangeFilter
+                && ((RangeFilter<T>) filter).isPassThrough();
+    }
+
+    @Override
+    public boolean rejectsFrom(T item, Characteristics<T> characteristics) {
+        return filter instanceof RangeFilter && ((RangeFilter<T>) filter)
+                .rejectsFrom(item, characteristics);
+    }
+
+    @Override
+    public void close() {
+        filter.close();
+    }
+
+    /** Gets the filter this was compiled from. */
+    Filter<T> original() {
+        return filter;
+    }
+
+    /** Gets the number of instructions, for testing. */
+    int size() {
+        return code.length / 2;
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compare(T item, int arg) {
+        return ((Comparable<Object>) item).compareTo(operands[arg]);
+    }
+
+    /** Translates a filter tree into instructions. */
+    private static class Compiler {
+
+        int[] code = new int[16];
+        int length;
+        final List<Object> operands = new ArrayList<Object>();
+
+        void compile(Filter<?> filter) {
+            if (filter instanceof CompiledFilter) {
+                compile(((CompiledFilter<?>) filter).filter);
+            } else if (filter instanceof Filters.BoolFilter) {
+                emit(((Filters.BoolFilter<?>) filter).value ? TRUE : FALSE,
+                        0);
+            } else if (filter instanceof Filters.IsaFilter) {
+                emit(ISA, operand(((Filters.IsaFilter<?>) filter).clazz));
+            } else if (filter instanceof Filters.EqFilter) {
+                emit(EQ, operand(((Filters.EqFilter<?>) filter).object));
+            } else if (filter instanceof Filters.ComparableFilter) {
+                Filters.ComparableFilter<?> comparable =
+                        (Filters.ComparableFilter<?>) filter;
+                emit(LT + comparable.kind, operand(comparable.comparable));
+            } else if (filter instanceof Filters.NotFilter) {
+                compile(((Filters.NotFilter<?>) filter).filter);
+                emit(NOT, 0);
+            } else if (filter instanceof Filters.AndFilter) {
+                compileChain(((Filters.AndFilter<?>) filter).filters, TRUE,
+                        JUMP_IF_NULL);
+            } else if (filter instanceof Filters.OrFilter) {
+                compileChain(((Filters.OrFilter<?>) filter).filters, FALSE,
+                        JUMP_IF_NOT_NULL);
+            } else {
+                emit(CALL, operand(filter));
+            }
+        }
+
+        /**
+         * Compiles each filter in turn, leaving the chain early whenever a
+         * jump condition holds.
+         */
+        private void compileChain(Iterable<? extends Filter<?>> filters,
+                                  int ifEmpty, int jump) {
+            List<Integer> jumps = new ArrayList<Integer>();
+            int start = length;
+            for (Filter<?> filter: filters) {
+                if (length > start) {
+                    jumps.add(length);
+                    emit(jump, -1);
+                }
+                compile(filter);
+            }
+            if (length == start) {
+                emit(ifEmpty, 0);
+            }
+            for (int at: jumps) {
+                code[at + 1] = length;
+            }
+        }
+
+        private int operand(Object operand) {
+            operands.add(operand);
+            return operands.size() - 1;
+        }
+
+        private void emit(int op, int arg) {
+            if (length + 2 > code.length) {
+                code = Arrays.copyOf(code, code.length * 2);
+            }
+            code[length++] = op;
+            code[length++] = arg;
+        }
+    }
+}
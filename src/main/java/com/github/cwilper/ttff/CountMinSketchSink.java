@@ -0,0 +1,142 @@
+package com.github.cwilper.ttff;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A sink that estimates how many times each key occurs among the items it
+ * receives, using a count-min sketch.
+ * <p>
+ * The sketch is a fixed <i>depth</i> &times; <i>width</i> table of
+ * counters. Each key increments one counter per row, and its estimated
+ * count is the least of those counters. Estimates are never too low, and
+ * with probability 1 - e<sup>-<i>depth</i></sup> exceed the true count by
+ * no more than <i>e</i> / <i>width</i> times the total number of items.
+ * <p>
+ * Sketches of the same dimensions can be
+ * {@link #merge(CountMinSketchSink) merged}, giving the same result as if
+ * one sketch had received all the items, and can be {@link #write written}
+ * for merging elsewhere.
+ *
+ * @param <T> the type over which the sink operates.
+ * @see Sinks#countMinSketch(Function, int, int)
+ */
+public final class CountMinSketchSink<T> extends AbstractSink<T> {
+
+    private final Function<T, ?> keyFn;
+    private final int width;
+    private final int depth;
+    private final long[] counts;
+    private long total;
+
+    CountMinSketchSink(Function<T, ?> keyFn, int width, int depth) {
+        if (width < 1 || depth < 1) {
+            throw new IllegalArgumentException(
+                    "Width and depth must be > 0");
+        }
+        this.keyFn = keyFn;
+        this.width = width;
+        this.depth = depth;
+        this.counts = new long[width * depth];
+    }
+
+    @Override
+    public void put(T item) {
+        long hash = Hashing.hash64(keyFn.apply(item));
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int row = 0; row < depth; row++) {
+            counts[row * width + column(h1, h2, row)]++;
+        }
+        total++;
+    }
+
+    /**
+     * Gets the estimated number of times the given key has been received.
+     *
+     * @param key the key.
+     * @return the estimate, which is never less than the true count.
+     */
+    public long estimateCount(Object key) {
+        long hash = Hashing.hash64(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            min = Math.min(min, counts[row * width + column(h1, h2, row)]);
+        }
+        return min;
+    }
+
+    /**
+     * Gets the total number of items received.
+     *
+     * @return the total.
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Adds everything received by the given sketch to this one.
+     *
+     * @param other the other sketch, which is left unchanged.
+     * @return this sketch.
+     * @throws IllegalArgumentException if the dimensions differ.
+     */
+    public CountMinSketchSink<T> merge(CountMinSketchSink<?> other) {
+        checkDimensions(other.width, other.depth);
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        return this;
+    }
+
+    /**
+     * Adds everything received by a sketch previously written with
+     * {@link #write(DataOutput)} to this one.
+     *
+     * @param in the input to read the other sketch from.
+     * @return this sketch.
+     * @throws IOException if an I/O problem occurs.
+     * @throws IllegalArgumentException if the dimensions differ.
+     */
+    public CountMinSketchSink<T> merge(DataInput in) throws IOException {
+        checkDimensions(in.readInt(), in.readInt());
+        total += in.readLong();
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += in.readLong();
+        }
+        return this;
+    }
+
+    /**
+     * Writes the state of this sketch to the given output.
+     *
+     * @param out the output.
+     * @throws IOException if an I/O problem occurs.
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(width);
+        out.writeInt(depth);
+        out.writeLong(total);
+        for (long count: counts) {
+            out.writeLong(count);
+        }
+    }
+
+    private int column(int h1, int h2, int row) {
+        int combined = h1 + row * h2;
+        return (combined & Integer.MAX_VALUE) % width;
+    }
+
+    private void checkDimensions(int otherWidth, int otherDepth) {
+        if (otherWidth != width || otherDepth != depth) {
+            throw new IllegalArgumentException("Can't merge sketches of "
+                    + "different dimensions (" + width + "x" + depth
+                    + " and " + otherWidth + "x" + otherDepth + ")");
+        }
+    }
+}
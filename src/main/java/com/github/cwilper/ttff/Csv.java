@@ -0,0 +1,184 @@
+package com.github.cwilper.ttff;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Static utility methods for filtering sources of {@link CsvRow}s.
+ * <p>
+ * Each filter looks at a single field, by index, and passes the row
+ * through unchanged or rejects it. The comparisons here work on the raw
+ * bytes of the field, so rows they reject are never decoded; rows without
+ * the field are rejected too, and so are rows whose field isn't a valid
+ * decimal <code>long</code>, for the comparisons with a <code>long</code>
+ * value. Filters on decoded values, such as those in
+ * {@link Filters}, can be applied to a field with
+ * {@link #field(int, Filter)}.
+ */
+public final class Csv {
+
+    private static final int EQ = 0;
+    private static final int LT = 1;
+    private static final int LE = 2;
+    private static final int GT = 3;
+    private static final int GE = 4;
+
+    /** Instantiation disallowed. */
+    Csv() { throw new AssertionError(); }
+
+    /**
+     * Gets a filter that keeps the rows whose given field is exactly the
+     * given string, compared in encoded form.
+     *
+     * @param field the index of the field.
+     * @param value the value.
+     * @return the row filter.
+     */
+    public static Filter<CsvRow> eq(final int field, final String value) {
+        return new AbstractFilter<CsvRow>() {
+            private Charset charset;
+            private byte[] encoded;
+
+            @Override
+            public CsvRow accept(CsvRow row) {
+                if (row.charset() != charset) {
+                    charset = row.charset();
+                    encoded = value.getBytes(charset);
+                }
+                return field < row.size() && row.fieldEquals(field, encoded)
+                        ? row : null;
+            }
+        };
+    }
+
+    /**
+     * Gets a filter that keeps the rows whose given field, parsed as a
+     * <code>long</code>, equals the given value.
+     *
+     * @param field the index of the field.
+     * @param value the value.
+     * @return the row filter.
+     */
+    public static Filter<CsvRow> eq(int field, long value) {
+        return new LongFilter(field, EQ, value);
+    }
+
+    /**
+     * Gets a filter that keeps the rows whose given field, parsed as a
+     * <code>long</code>, is less than the given value.
+     *
+     * @param field the index of the field.
+     * @param value the value.
+     * @return the row filter.
+     */
+    public static Filter<CsvRow> lt(int field, long value) {
+        return new LongFilter(field, LT, value);
+    }
+
+    /**
+     * Gets a filter that keeps the rows whose given field, parsed as a
+     * <code>long</code>, is less than or equal to the given value.
+     *
+     * @param field the index of the field.
+     * @param value the value.
+     * @return the row filter.
+     */
+    public static Filter<CsvRow> le(int field, long value) {
+        return new LongFilter(field, LE, value);
+    }
+
+    /**
+     * Gets a filter that keeps the rows whose given field, parsed as a
+     * <code>long</code>, is greater than the given value.
+     *
+     * @param field the index of the field.
+     * @param value the value.
+     * @return the row filter.
+     */
+    public static Filter<CsvRow> gt(int field, long value) {
+        return new LongFilter(field, GT, value);
+    }
+
+    /**
+     * Gets a filter that keeps the rows whose given field, parsed as a
+     * <code>long</code>, is greater than or equal to the given value.
+     *
+     * @param field the index of the field.
+     * @param value the value.
+     * @return the row filter.
+     */
+    public static Filter<CsvRow> ge(int field, long value) {
+        return new LongFilter(field, GE, value);
+    }
+
+    /**
+     * Gets a filter that keeps the rows whose given field, decoded as a
+     * string, is accepted by the given filter, such as one from
+     * {@link Filters}. Any transformation the filter makes is ignored.
+     * <p>
+     * When the returned filter is closed, the given filter will be closed.
+     *
+     * @param field the index of the field.
+     * @param filter the filter to apply to each value.
+     * @return the row filter.
+     */
+    public static Filter<CsvRow> field(final int field,
+                                       final Filter<String> filter) {
+        return new AbstractFilter<CsvRow>() {
+            @Override
+            public CsvRow accept(CsvRow row) throws IOException {
+                return field < row.size()
+                        && filter.accept(row.getString(field)) != null
+                        ? row : null;
+            }
+
+            @Override
+            public void close() {
+                filter.close();
+            }
+        };
+    }
+
+    /** Compares a field, parsed as a long, with a value. */
+    private static final class LongFilter extends AbstractFilter<CsvRow> {
+        private final int field;
+        private final int op;
+        private final long value;
+
+        LongFilter(int field, int op, long value) {
+            this.field = field;
+            this.op = op;
+            this.value = value;
+        }
+
+        @Override
+        public CsvRow accept(CsvRow row) {
+            if (field >= row.size()) {
+                return null;
+            }
+            long v = row.getLong(field, Long.MIN_VALUE);
+            if (v == Long.MIN_VALUE && row.getLong(field, 0) == 0) {
+                return null; // not a long
+            }
+            boolean keep;
+            switch (op) {
+                case EQ:
+                    keep = v == value;
+                    break;
+                case LT:
+                    keep = v < value;
+                    break;
+                case LE:
+                    keep = v <= value;
+                    break;
+                case GT:
+                    keep = v > value;
+                    break;
+                default:
+                    keep = v >= value;
+                    break;
+            }
+            return keep ? row : null;
+        }
+    }
+}
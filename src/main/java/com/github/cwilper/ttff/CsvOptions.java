@@ -0,0 +1,184 @@
+package com.github.cwilper.ttff;
+
+import java.nio.charset.Charset;
+
+/**
+ * How to parse delimited text with {@link Sources#csv(java.io.File,
+ * CsvOptions)}. Instances are immutable.
+ * <p>
+ * Records end with a line feed, optionally preceded by a carriage return.
+ * If quoting is enabled, a field that starts with the quote character
+ * runs to the matching closing quote, and may contain delimiters and
+ * line breaks. Within it, a quote is escaped either by doubling it, which
+ * is the default, or by a separate escape character. The delimiter,
+ * quote and escape characters must be ASCII, and the text must be in a
+ * charset that encodes ASCII as single bytes, such as UTF-8.
+ */
+public final class CsvOptions {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final byte delimiter;
+    private final byte quote;
+    private final byte escape;
+    private final boolean quoting;
+    private final boolean header;
+    private final boolean mapped;
+    private final Charset charset;
+
+    private CsvOptions(byte delimiter, byte quote, byte escape,
+                       boolean quoting, boolean header, boolean mapped,
+                       Charset charset) {
+        this.delimiter = delimiter;
+        this.quote = quote;
+        this.escape = escape;
+        this.quoting = quoting;
+        this.header = header;
+        this.mapped = mapped;
+        this.charset = charset;
+    }
+
+    /**
+     * Gets options for comma-separated UTF-8 text with double quotes,
+     * escaped by doubling, and no header.
+     *
+     * @return the options.
+     */
+    public static CsvOptions csv() {
+        return new CsvOptions((byte) ',', (byte) '"', (byte) '"', true,
+                false, false, UTF_8);
+    }
+
+    /**
+     * Gets options for tab-separated UTF-8 text without quoting or a
+     * header.
+     *
+     * @return the options.
+     */
+    public static CsvOptions tsv() {
+        return csv().withDelimiter('\t').withoutQuoting();
+    }
+
+    /**
+     * Gets a copy of these options with the given delimiter.
+     *
+     * @param delimiter the character between fields.
+     * @return the options.
+     */
+    public CsvOptions withDelimiter(char delimiter) {
+        return new CsvOptions(ascii(delimiter), quote, escape, quoting,
+                header, mapped, charset);
+    }
+
+    /**
+     * Gets a copy of these options with quoting enabled, using the given
+     * quote character, escaped by doubling.
+     *
+     * @param quote the quote character.
+     * @return the options.
+     */
+    public CsvOptions withQuote(char quote) {
+        return new CsvOptions(delimiter, ascii(quote), ascii(quote), true,
+                header, mapped, charset);
+    }
+
+    /**
+     * Gets a copy of these options with quoting enabled, using the given
+     * quote and escape characters. Within a quoted field, the escape
+     * character makes the following character literal.
+     *
+     * @param quote the quote character.
+     * @param escape the escape character.
+     * @return the options.
+     */
+    public CsvOptions withQuote(char quote, char escape) {
+        return new CsvOptions(delimiter, ascii(quote), ascii(escape), true,
+                header, mapped, charset);
+    }
+
+    /**
+     * Gets a copy of these options with quoting disabled, so that quote
+     * characters are ordinary.
+     *
+     * @return the options.
+     */
+    public CsvOptions withoutQuoting() {
+        return new CsvOptions(delimiter, quote, escape, false, header,
+                mapped, charset);
+    }
+
+    /**
+     * Gets a copy of these options that skips, or doesn't skip, the first
+     * record.
+     *
+     * @param header whether the first record is a header.
+     * @return the options.
+     */
+    public CsvOptions withHeader(boolean header) {
+        return new CsvOptions(delimiter, quote, escape, quoting, header,
+                mapped, charset);
+    }
+
+    /**
+     * Gets a copy of these options that reads files through a memory
+     * mapping, or doesn't. This has no effect on streams.
+     *
+     * @param mapped whether to map files.
+     * @return the options.
+     */
+    public CsvOptions withMapping(boolean mapped) {
+        return new CsvOptions(delimiter, quote, escape, quoting, header,
+                mapped, charset);
+    }
+
+    /**
+     * Gets a copy of these options with the given charset, used when
+     * fields are decoded as strings.
+     *
+     * @param charset the charset.
+     * @return the options.
+     */
+    public CsvOptions withCharset(Charset charset) {
+        if (charset == null) {
+            throw new NullPointerException();
+        }
+        return new CsvOptions(delimiter, quote, escape, quoting, header,
+                mapped, charset);
+    }
+
+    byte getDelimiter() {
+        return delimiter;
+    }
+
+    byte getQuote() {
+        return quote;
+    }
+
+    byte getEscape() {
+        return escape;
+    }
+
+    boolean isQuoting() {
+        return quoting;
+    }
+
+    boolean hasHeader() {
+        return header;
+    }
+
+    boolean isMapped() {
+        return mapped;
+    }
+
+    Charset getCharset() {
+        return charset;
+    }
+
+    private static byte ascii(char c) {
+        if (c > 127 || c == '\n' || c == '\r') {
+            throw new IllegalArgumentException("Not a usable character: "
+                    + (int) c);
+        }
+        return (byte) c;
+    }
+}
@@ -0,0 +1,228 @@
+package com.github.cwilper.ttff;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A record of delimited text, as raw bytes, whose fields are decoded only
+ * when asked for.
+ * <p>
+ * A {@link Sources#csv(java.io.File, CsvOptions) csv} source refills the
+ * same row for every record, pointing it at the bytes in its read buffer,
+ * so a row is only valid until the next one is read. Use {@link #copy()}
+ * to keep one.
+ */
+public final class CsvRow {
+
+    private final Charset charset;
+
+    private byte[] bytes;
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int size;
+    private long line;
+
+    CsvRow(Charset charset) {
+        this.charset = charset;
+    }
+
+    /**
+     * Gets the number of fields.
+     *
+     * @return the number of fields.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the number of the line the record starts on, counting from
+     * one, including any header.
+     *
+     * @return the line number.
+     */
+    public long lineNumber() {
+        return line;
+    }
+
+    /**
+     * Gets the length in bytes of the given field.
+     *
+     * @param i the index of the field.
+     * @return the length.
+     * @throws IndexOutOfBoundsException if there is no such field.
+     */
+    public int length(int i) {
+        check(i);
+        return ends[i] - starts[i];
+    }
+
+    /**
+     * Tells whether the given field is empty.
+     *
+     * @param i the index of the field.
+     * @return whether it is empty.
+     * @throws IndexOutOfBoundsException if there is no such field.
+     */
+    public boolean isEmpty(int i) {
+        return length(i) == 0;
+    }
+
+    /**
+     * Decodes the given field as a string.
+     *
+     * @param i the index of the field.
+     * @return the string.
+     * @throws IndexOutOfBoundsException if there is no such field.
+     */
+    public String getString(int i) {
+        check(i);
+        return new String(bytes, starts[i], ends[i] - starts[i], charset);
+    }
+
+    /**
+     * Parses the given field as a decimal long, directly from its bytes.
+     *
+     * @param i the index of the field.
+     * @return the value.
+     * @throws IndexOutOfBoundsException if there is no such field.
+     * @throws NumberFormatException if the field isn't a long.
+     */
+    public long getLong(int i) {
+        long value = getLong(i, 0);
+        // a field that parses gives the same value whatever the default
+        if (value == 0 && getLong(i, 1) == 1) {
+            throw new NumberFormatException("Not a long: " + getString(i));
+        }
+        return value;
+    }
+
+    /**
+     * Parses the given field as a decimal long, directly from its bytes,
+     * or gets the given default if it isn't one. Unlike
+     * {@link #getLong(int)}, this never decodes the field or creates an
+     * exception, so it is cheap for fields that are often invalid.
+     *
+     * @param i the index of the field.
+     * @param defaultValue the value to return if the field isn't a long.
+     * @return the value.
+     * @throws IndexOutOfBoundsException if there is no such field.
+     */
+    public long getLong(int i, long defaultValue) {
+        check(i);
+        int pos = starts[i];
+        int end = ends[i];
+        boolean negative = false;
+        if (pos < end && (bytes[pos] == '-' || bytes[pos] == '+')) {
+            negative = bytes[pos++] == '-';
+        }
+        if (pos == end) {
+            return defaultValue;
+        }
+        // accumulate negatively, since Long.MIN_VALUE has no positive
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long value = 0;
+        while (pos < end) {
+            int digit = bytes[pos++] - '0';
+            if (digit < 0 || digit > 9 || value < limit / 10
+                    || value * 10 < limit + digit) {
+                return defaultValue;
+            }
+            value = value * 10 - digit;
+        }
+        return negative ? value : -value;
+    }
+
+    /**
+     * Parses the given field as a double.
+     *
+     * @param i the index of the field.
+     * @return the value.
+     * @throws IndexOutOfBoundsException if there is no such field.
+     * @throws NumberFormatException if the field isn't a double.
+     */
+    public double getDouble(int i) {
+        return Double.parseDouble(getString(i));
+    }
+
+    /**
+     * Gets a copy of this row that doesn't share its bytes.
+     *
+     * @return the copy.
+     */
+    public CsvRow copy() {
+        CsvRow copy = new CsvRow(charset);
+        int from = size == 0 ? 0 : starts[0];
+        int to = size == 0 ? 0 : ends[size - 1];
+        copy.bytes = Arrays.copyOfRange(bytes, from, to);
+        copy.starts = new int[Math.max(size, 1)];
+        copy.ends = new int[Math.max(size, 1)];
+        for (int i = 0; i < size; i++) {
+            copy.starts[i] = starts[i] - from;
+            copy.ends[i] = ends[i] - from;
+        }
+        copy.size = size;
+        copy.line = line;
+        return copy;
+    }
+
+    /**
+     * Gets the fields, decoded, in the form <code>[a, b, c]</code>.
+     *
+     * @return the string.
+     */
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                s.append(", ");
+            }
+            s.append(getString(i));
+        }
+        return s.append(']').toString();
+    }
+
+    Charset charset() {
+        return charset;
+    }
+
+    /** Tells whether the given field consists of exactly these bytes. */
+    boolean fieldEquals(int i, byte[] value) {
+        check(i);
+        int start = starts[i];
+        if (ends[i] - start != value.length) {
+            return false;
+        }
+        for (int j = 0; j < value.length; j++) {
+            if (bytes[start + j] != value[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Starts a new record in the given bytes. */
+    void reset(byte[] bytes, long line) {
+        this.bytes = bytes;
+        this.line = line;
+        this.size = 0;
+    }
+
+    void addField(int start, int end) {
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+        }
+        starts[size] = start;
+        ends[size] = end;
+        size++;
+    }
+
+    private void check(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("No field " + i + " in a "
+                    + "row of " + size);
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.github.cwilper.ttff;
+
+import javax.annotation.PreDestroy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A source of the records of delimited text, parsed at the byte level.
+ * <p>
+ * Bytes are read into a buffer, either from a stream or by copying from a
+ * memory mapping of a file, and each record is found by scanning for the
+ * line feed that ends it outside of quotes. Its fields are then located
+ * in place, with quoted fields unescaped in the buffer itself, and the
+ * single {@link CsvRow} is pointed at them. Nothing is decoded or
+ * allocated per field. The buffer grows if a record doesn't fit.
+ *
+ * @see Sources#csv(java.io.File, CsvOptions)
+ * @see Sources#csv(InputStream, CsvOptions)
+ */
+class CsvSource extends AbstractReusableSource<CsvRow> {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long MAPPING_SIZE = 64L * 1024 * 1024;
+
+    /** States of the record scanner. */
+    private static final int FIELD_START = 0;
+    private static final int UNQUOTED = 1;
+    private static final int QUOTED = 2;
+    private static final int ESCAPED = 3;
+    private static final int QUOTE_IN_QUOTED = 4;
+    private static final int AFTER_QUOTED = 5;
+
+    private final CsvOptions options;
+    private final byte delimiter;
+    private final byte quote;
+    private final byte escape;
+    private final boolean quoting;
+
+    /** Exactly one of these is used. */
+    private final InputStream in;
+    private final RandomAccessFile file;
+
+    private MappedByteBuffer mapping;
+    private long mappingEnd;
+
+    private byte[] buf = new byte[BUFFER_SIZE];
+    private int pos;
+    private int limit;
+    private boolean eof;
+
+    /** Where the scan for the end of the current record stopped. */
+    private int scanned;
+    private int state;
+
+    private long line = 1;
+    private boolean headerSkipped;
+
+    CsvSource(InputStream in, CsvOptions options) {
+        this(in, null, options);
+    }
+
+    CsvSource(RandomAccessFile file, CsvOptions options) {
+        this(null, file, options);
+    }
+
+    private CsvSource(InputStream in, RandomAccessFile file,
+                      CsvOptions options) {
+        this.in = in;
+        this.file = file;
+        this.options = options;
+        this.delimiter = options.getDelimiter();
+        this.quote = options.getQuote();
+        this.escape = options.getEscape();
+        this.quoting = options.isQuoting();
+    }
+
+    @Override
+    public CsvRow copy(CsvRow item) {
+        return item.copy();
+    }
+
+    @Override
+    protected CsvRow newHolder() {
+        return new CsvRow(options.getCharset());
+    }
+
+    @Override
+    protected boolean fill(CsvRow row) throws IOException {
+        if (!headerSkipped) {
+            headerSkipped = true;
+            if (options.hasHeader() && !parse(row)) {
+                return false;
+            }
+        }
+        return parse(row);
+    }
+
+    /**
+     * Closes the underlying stream or file.
+     */
+    @Override
+    @PreDestroy
+    public void close() {
+        try {
+            if (in != null) {
+                in.close();
+            } else {
+                file.close();
+            }
+        } catch (IOException e) {
+            // nothing to do
+        }
+        mapping = null;
+    }
+
+    /** Parses the next record into the row, if there is one. */
+    private boolean parse(CsvRow row) throws IOException {
+        int end = findEnd();
+        if (end == -1) {
+            return false;
+        }
+        row.reset(buf, line);
+        int i = pos;
+        int lineBreaks = 0;
+        while (true) {
+            int start = i;
+            int w = i;
+            if (quoting && i < end && buf[i] == quote) {
+                i++;
+                start = i;
+                w = i;
+                boolean closed = false;
+                while (i < end) {
+                    byte b = buf[i];
+                    if (closed) {
+                        if (b == delimiter || b == '\n') {
+                            break;
+                        }
+                        if (b != '\r' || (i + 1 < end
+                                && buf[i + 1] != '\n')) {
+                            buf[w++] = b; // stray text after the quotes
+                        }
+                        i++;
+                    } else if (b == quote && escape == quote) {
+                        if (i + 1 < end && buf[i + 1] == quote) {
+                            buf[w++] = quote;
+                            i += 2;
+                        } else {
+                            closed = true;
+                            i++;
+                        }
+                    } else if (b == quote) {
+                        closed = true;
+                        i++;
+                    } else if (b == escape && i + 1 < end) {
+                        buf[w++] = buf[i + 1];
+                        i += 2;
+                    } else {
+                        if (b == '\n') {
+                            lineBreaks++;
+                        }
+                        buf[w++] = b;
+                        i++;
+                    }
+                }
+            } else {
+                while (i < end && buf[i] != delimiter && buf[i] != '\n') {
+                    i++;
+                }
+                w = i;
+                if (w > start && buf[w - 1] == '\r'
+                        && (i == end || buf[i] == '\n')) {
+                    w--;
+                }
+            }
+            row.addField(start, w);
+            if (i < end && buf[i] == delimiter) {
+                i++;
+            } else {
+                break;
+            }
+        }
+        line += lineBreaks + 1;
+        pos = end < limit ? end + 1 : end;
+        scanned = pos;
+        state = FIELD_START;
+        return true;
+    }
+
+    /**
+     * Finds the end of the record starting at pos, reading more as needed,
+     * and gets the index of the line feed ending it, or the end of the
+     * input if it has none. Gets -1 if there are no more records.
+     */
+    private int findEnd() throws IOException {
+        while (true) {
+            for (int i = scanned; i < limit; i++) {
+                byte b = buf[i];
+                switch (state) {
+                    case QUOTED:
+                        if (b == quote) {
+                            state = escape == quote
+                                    ? QUOTE_IN_QUOTED : AFTER_QUOTED;
+                        } else if (b == escape) {
+                            state = ESCAPED;
+                        }
+                        continue;
+                    case ESCAPED:
+                        state = QUOTED;
+                        continue;
+                    case QUOTE_IN_QUOTED:
+                        if (b == quote) {
+                            state = QUOTED;
+                            continue;
+                        }
+                        break;
+                    case FIELD_START:
+                        if (quoting && b == quote) {
+                            state = QUOTED;
+                            continue;
+                        }
+                        break;
+                    default:
+                        break;
+                }
+                if (b == '\n') {
+                    scanned = i;
+                    return i;
+                }
+                state = b == delimiter ? FIELD_START : UNQUOTED;
+            }
+            scanned = limit;
+            if (eof) {
+                return pos < limit ? limit : -1;
+            }
+            read();
+        }
+    }
+
+    /** Makes room in the buffer and reads more into it. */
+    private void read() throws IOException {
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            limit -= pos;
+            scanned -= pos;
+            pos = 0;
+        } else if (limit == buf.length) {
+            byte[] larger = new byte[buf.length * 2];
+            System.arraycopy(buf, 0, larger, 0, limit);
+            buf = larger;
+        }
+        int n = in != null ? in.read(buf, limit, buf.length - limit)
+                : readMapped(buf, limit, buf.length - limit);
+        if (n == -1) {
+            eof = true;
+        } else {
+            limit += n;
+        }
+    }
+
+    /** Copies bytes from the mapping, mapping the next part as needed. */
+    private int readMapped(byte[] dest, int offset, int length)
+            throws IOException {
+        if (mapping == null || !mapping.hasRemaining()) {
+            long size = file.length();
+            if (mappingEnd >= size) {
+                return -1;
+            }
+            long chunk = Math.min(MAPPING_SIZE, size - mappingEnd);
+            mapping = file.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                    mappingEnd, chunk);
+            mappingEnd += chunk;
+        }
+        int n = Math.min(length, mapping.remaining());
+        mapping.get(dest, offset, n);
+        return n;
+    }
+}
@@ -0,0 +1,58 @@
+package com.github.cwilper.ttff;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A small, fast, unsynchronized pseudo-random number generator
+ * (xorshift64*), for use by a single thread.
+ * <p>
+ * This is not suitable for cryptographic purposes, but is more than
+ * adequate for sampling, and much cheaper than {@link java.util.Random},
+ * which synchronizes on every call.
+ */
+final class FastRandom {
+
+    private static final AtomicLong SEED_UNIQUIFIER =
+            new AtomicLong(0x2545F4914F6CDD1DL);
+
+    private long state;
+
+    /** Creates an instance with an unpredictable seed. */
+    FastRandom() {
+        this(System.nanoTime() ^ SEED_UNIQUIFIER.addAndGet(
+                0x9E3779B97F4A7C15L));
+    }
+
+    /** Creates an instance with the given seed. */
+    FastRandom(long seed) {
+        state = seed == 0 ? 0x9E3779B97F4A7C15L : seed;
+        nextLong();
+    }
+
+    /** Gets the next pseudo-random long. */
+    long nextLong() {
+        state ^= state >>> 12;
+        state ^= state << 25;
+        state ^= state >>> 27;
+        return state * 0x2545F4914F6CDD1DL;
+    }
+
+    /** Gets the next pseudo-random double in (0, 1]. */
+    double nextDouble() {
+        return ((nextLong() >>> 11) + 1) * 0x1.0p-53;
+    }
+
+    /** Gets the next pseudo-random int in [0, bound). */
+    int nextInt(int bound) {
+        return (int) (((nextLong() >>> 33) * bound) >>> 31);
+    }
+
+    /**
+     * Gets the number of items to skip before the next one is selected,
+     * when each is selected independently with the given probability.
+     */
+    long nextSkip(double logOneMinusRate) {
+        double skip = Math.floor(Math.log(nextDouble()) / logOneMinusRate);
+        return skip >= Long.MAX_VALUE ? Long.MAX_VALUE : (long) skip;
+    }
+}
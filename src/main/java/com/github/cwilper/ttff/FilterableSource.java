@@ -0,0 +1,28 @@
+package com.github.cwilper.ttff;
+
+/**
+ * A {@link Source} that can apply a filter itself, and may use it to avoid
+ * reading items that it can tell would be rejected.
+ * <p>
+ * {@link Sources#filter(Source, Filter)} tries this first, before
+ * wrapping the source.
+ *
+ * @param <T> the type over which the source operates.
+ */
+public interface FilterableSource<T> extends Source<T> {
+
+    /**
+     * Gets a source of the items of this one, as accepted by the given
+     * filter.
+     * <p>
+     * The returned source must give exactly the results that applying the
+     * filter to each item in turn would give, and takes the place of this
+     * one: closing it closes this source, but not the filter.
+     *
+     * @param filter the filter.
+     * @return the filtered source, or <code>null</code> if this source
+     *         cannot do better than being wrapped.
+     */
+    Source<T> withFilter(Filter<T> filter);
+
+}
@@ -3,9 +3,16 @@ package com.github.cwilper.ttff;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Static utility methods for creating common types of {@link Filter}s.
+ * <p>
+ * All filters returned by this class are {@link RangeFilter}s. Those
+ * that never transform objects report that they pass them through, and
+ * <code>lt</code> and <code>le</code> report when no later object of a
+ * source in ascending natural order can pass.
  */
 public final class Filters {
 
@@ -44,13 +51,8 @@ public final class Filters {
      * @param <T> the type.
      * @return the filter.
      */
-    public static <T> Filter<T> bool(final boolean value) {
-        return new NonMutatingFilter<T>() {
-            @Override
-            public boolean accepts(T item) {
-                return value;
-            }
-        };
+    public static <T> Filter<T> bool(boolean value) {
+        return new BoolFilter<T>(value);
     }
 
     /**
@@ -62,13 +64,8 @@ public final class Filters {
      * @param <T> the type.
      * @return the filter.
      */
-    public static <T> Filter<T> isa(final Class clazz) {
-        return new NonMutatingFilter<T>() {
-            @Override
-            public boolean accepts(T item) {
-                return clazz.isInstance(item);
-            }
-        };
+    public static <T> Filter<T> isa(Class<?> clazz) {
+        return new IsaFilter<T>(clazz);
     }
 
     /**
@@ -108,6 +105,11 @@ public final class Filters {
                 }
                 return item;
             }
+
+            @Override
+            public boolean isPassThrough() {
+                return true;
+            }
         };
     }
 
@@ -144,19 +146,7 @@ public final class Filters {
      * @return the composite filter.
      */
     public static <T> Filter<T> and(Collection<Filter<T>> filters) {
-        return new MultiFilter<T>(filters) {
-            @Override
-            public T accept(T item) throws IOException {
-                T result = item;
-                for (Filter<T> filter: filters) {
-                    result = filter.accept(item);
-                    if (result == null) {
-                        return null;
-                    }
-                }
-                return result;
-            }
-        };
+        return new AndFilter<T>(filters);
     }
 
     /**
@@ -172,23 +162,8 @@ public final class Filters {
      * @param <T> the type.
      * @return the inverting filter.
      */
-    public static <T> Filter<T> not(final Filter<T> filter) {
-        return new NonMutatingFilter<T>() {
-            @Override
-            public boolean accepts(T item) throws IOException {
-                T result = filter.accept(item);
-                if (result == null) {
-                    return true;
-                } else {
-                    return false;
-                }
-            }
-
-            @Override
-            public void close() {
-                filter.close();
-            }
-        };
+    public static <T> Filter<T> not(Filter<T> filter) {
+        return new NotFilter<T>(filter);
     }
 
     /**
@@ -224,18 +199,7 @@ public final class Filters {
      * @return the composite filter.
      */
     public static <T> Filter<T> or(Collection<Filter<T>> filters) {
-        return new MultiFilter<T>(filters) {
-            @Override
-            public T accept(T item) throws IOException {
-                for (Filter<T> filter: filters) {
-                    T result = filter.accept(item);
-                    if (result != null) {
-                        return result;
-                    }
-                }
-                return null;
-            }
-        };
+        return new OrFilter<T>(filters);
     }
 
     /**
@@ -246,13 +210,8 @@ public final class Filters {
      * @param <T> the type.
      * @return the filter.
      */
-    public static <T> Filter<T> eq(final T object) {
-        return new NonMutatingFilter<T>() {
-            @Override
-            protected boolean accepts(T item) {
-                return object.equals(item);
-            }
-        };
+    public static <T> Filter<T> eq(T object) {
+        return new EqFilter<T>(object);
     }
 
     /**
@@ -277,12 +236,7 @@ public final class Filters {
      * @return the filter.
      */
     public static <T extends Comparable<T>> Filter<T> lt(T comparable) {
-        return new ComparableFilter<T>(comparable) {
-            @Override
-            protected boolean accepts(int result) {
-                return result < 0;
-            }
-        };
+        return new ComparableFilter<T>(comparable, ComparableFilter.LT);
     }
 
     /**
@@ -294,12 +248,7 @@ public final class Filters {
      * @return the filter.
      */
     public static <T extends Comparable<T>> Filter<T> le(T comparable) {
-        return new ComparableFilter<T>(comparable) {
-            @Override
-            protected boolean accepts(int result) {
-                return result <= 0;
-            }
-        };
+        return new ComparableFilter<T>(comparable, ComparableFilter.LE);
     }
 
     /**
@@ -311,12 +260,7 @@ public final class Filters {
      * @return the filter.
      */
     public static <T extends Comparable<T>> Filter<T> gt(T comparable) {
-        return new ComparableFilter<T>(comparable) {
-            @Override
-            protected boolean accepts(int result) {
-                return result > 0;
-            }
-        };
+        return new ComparableFilter<T>(comparable, ComparableFilter.GT);
     }
 
     /**
@@ -328,16 +272,301 @@ public final class Filters {
      * @return the filter.
      */
     public static <T extends Comparable<T>> Filter<T> ge(T comparable) {
-        return new ComparableFilter<T>(comparable) {
+        return new ComparableFilter<T>(comparable, ComparableFilter.GE);
+    }
+
+    /**
+     * Gets a filter that passes each object through unchanged with the
+     * given probability, independently, and rejects the rest.
+     * <p>
+     * Rather than drawing a random number per object, the filter draws
+     * the number of objects to skip before the next one passes, from the
+     * geometric distribution. At low rates, most objects are therefore
+     * rejected with just a counter decrement.
+     * <p>
+     * The returned filter uses its own unsynchronized random number
+     * generator, so it must not be shared between threads.
+     *
+     * @param rate the probability, from <code>0</code> to <code>1</code>.
+     * @param <T> the type.
+     * @return the filter.
+     */
+    public static <T> Filter<T> sample(double rate) {
+        return sample(rate, new FastRandom());
+    }
+
+    /**
+     * Gets a filter that passes each object through unchanged with the
+     * given probability, using a pseudo-random sequence determined by the
+     * given seed.
+     *
+     * @param rate the probability, from <code>0</code> to <code>1</code>.
+     * @param seed the seed.
+     * @param <T> the type.
+     * @return the filter.
+     * @see #sample(double)
+     */
+    public static <T> Filter<T> sample(double rate, long seed) {
+        return sample(rate, new FastRandom(seed));
+    }
+
+    /**
+     * Gets a filter that passes each object through unchanged with a
+     * probability that depends on its key, and rejects the rest.
+     * <p>
+     * Each key is sampled independently, as if by its own
+     * {@link #sample(double)} filter, with the rate given for the key the
+     * first time it is seen. This makes it possible to keep rare keys
+     * while thinning out common ones. The filter holds a small amount of
+     * state per distinct key.
+     * <p>
+     * The returned filter must not be shared between threads.
+     *
+     * @param keyFn the function giving the key of each object.
+     * @param ratePerKey the function giving the sampling rate for a key.
+     * @param <T> the type.
+     * @param <K> the type of key.
+     * @return the filter.
+     */
+    public static <T, K> Filter<T> sampleBy(final Function<T, K> keyFn,
+            final Function<K, Double> ratePerKey) {
+        final FastRandom random = new FastRandom();
+        return new NonMutatingFilter<T>() {
+            private final Map<K, Sampler> samplers =
+                    new HashMap<K, Sampler>();
+
+            @Override
+            protected boolean accepts(T item) {
+                K key = keyFn.apply(item);
+                Sampler sampler = samplers.get(key);
+                if (sampler == null) {
+                    sampler = new Sampler(ratePerKey.apply(key), random);
+                    samplers.put(key, sampler);
+                }
+                return sampler.accepts();
+            }
+        };
+    }
+
+    private static <T> Filter<T> sample(double rate, FastRandom random) {
+        if (rate >= 1) {
+            return bool(true);
+        } else if (rate <= 0) {
+            return bool(false);
+        }
+        final Sampler sampler = new Sampler(rate, random);
+        return new NonMutatingFilter<T>() {
             @Override
-            protected boolean accepts(int result) {
-                return result >= 0;
+            protected boolean accepts(T item) {
+                return sampler.accepts();
             }
         };
     }
 
+    /**
+     * Gets a version of the given filter that records metrics in the
+     * default {@link MetricsRegistry}.
+     *
+     * @param filter the filter to instrument.
+     * @param name the name of the metrics.
+     * @param <T> the type.
+     * @return the instrumented filter.
+     * @see #instrument(Filter, String, MetricsRegistry)
+     */
+    public static <T> Filter<T> instrument(Filter<T> filter, String name) {
+        return instrument(filter, name, MetricsRegistry.getDefault());
+    }
+
+    /**
+     * Gets a version of the given filter that records metrics in the
+     * given registry.
+     * <p>
+     * Each call to <code>accept</code> is timed, and each
+     * non-<code>null</code> result counts toward the selectivity of the
+     * filter.
+     * <p>
+     * When the returned filter is closed, the underlying filter will be
+     * closed.
+     *
+     * @param filter the filter to instrument.
+     * @param name the name of the metrics.
+     * @param registry the registry.
+     * @param <T> the type.
+     * @return the instrumented filter.
+     */
+    public static <T> Filter<T> instrument(Filter<T> filter, String name,
+                                           MetricsRegistry registry) {
+        return new InstrumentedFilter<T>(filter, registry.get(name));
+    }
+
+    private static class InstrumentedFilter<T> extends AbstractFilter<T>
+            implements RangeFilter<T> {
+
+        private final Filter<T> filter;
+        private final StageMetrics metrics;
+
+        InstrumentedFilter(Filter<T> filter, StageMetrics metrics) {
+            this.filter = filter;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public T accept(T item) throws IOException {
+            long start = System.nanoTime();
+            T result = filter.accept(item);
+            metrics.record(System.nanoTime() - start, result != null);
+            return result;
+        }
+
+        @Override
+        public boolean isPassThrough() {
+            return filter instanceof RangeFilter
+                    && ((RangeFilter<T>) filter).isPassThrough();
+        }
+
+        @Override
+        public boolean rejectsFrom(T item,
+                                   Characteristics<T> characteristics) {
+            return filter instanceof RangeFilter && ((RangeFilter<T>) filter)
+                    .rejectsFrom(item, characteristics);
+        }
+
+        @Override
+        public void close() {
+            filter.close();
+        }
+    }
+
+    /** Bernoulli sampling via geometrically-distributed skips. */
+    private static class Sampler {
+
+        private final double logOneMinusRate;
+        private final FastRandom random;
+        private long skip;
+
+        Sampler(double rate, FastRandom random) {
+            double clamped = Math.max(0, Math.min(1, rate));
+            this.logOneMinusRate = Math.log(1 - clamped);
+            this.random = random;
+            this.skip = nextSkip();
+        }
+
+        boolean accepts() {
+            if (skip > 0) {
+                skip--;
+                return false;
+            }
+            skip = nextSkip();
+            return true;
+        }
+
+        private long nextSkip() {
+            if (logOneMinusRate == 0) {
+                return Long.MAX_VALUE;
+            }
+            return random.nextSkip(logOneMinusRate);
+        }
+    }
+
+    /**
+     * Gets a filter that behaves exactly like the given one, but with any
+     * tree of filters from this class evaluated by a single object.
+     * <p>
+     * Trees built with <code>and</code>, <code>or</code>, <code>not</code>,
+     * <code>ne</code>, <code>eq</code>, <code>lt</code>, <code>le</code>,
+     * <code>gt</code>, <code>ge</code>, <code>isa</code> and
+     * <code>bool</code> are flattened into a compact list of instructions,
+     * so that evaluating them takes no virtual calls to
+     * <code>accept</code>. Any other filters in the tree are called as
+     * usual. Since every compiled filter is of the same final class, call
+     * sites shared by many different trees stay monomorphic.
+     * <p>
+     * The tree is captured when this method is called; later changes to
+     * any collection passed to <code>and</code> or <code>or</code> are not
+     * seen. When the returned filter is closed, the given filter will be
+     * closed.
+     *
+     * @param filter the filter to compile.
+     * @param <T> the type.
+     * @return the compiled filter.
+     */
+    public static <T> Filter<T> compile(Filter<T> filter) {
+        if (filter instanceof CompiledFilter) {
+            return filter;
+        }
+        return new CompiledFilter<T>(filter);
+    }
+
+    /**
+     * Tells whether the given filter might accept any item between the
+     * given least and greatest items, inclusive, in natural order. Gives
+     * <code>true</code> whenever it can't tell.
+     */
+    static boolean mayAcceptBetween(Filter<?> filter, Object min,
+                                    Object max) {
+        if (filter instanceof CompiledFilter) {
+            return mayAcceptBetween(((CompiledFilter<?>) filter).original(),
+                    min, max);
+        } else if (filter instanceof BoolFilter) {
+            return ((BoolFilter<?>) filter).value;
+        } else if (filter instanceof ComparableFilter) {
+            ComparableFilter<?> c = (ComparableFilter<?>) filter;
+            return mayAcceptBetween(c.kind, c.comparable, min, max);
+        } else if (filter instanceof EqFilter) {
+            Object object = ((EqFilter<?>) filter).object;
+            return !(object instanceof Comparable)
+                    || (compare(min, object) <= 0
+                        && compare(max, object) >= 0);
+        } else if (filter instanceof NotFilter) {
+            Filter<?> inner = ((NotFilter<?>) filter).filter;
+            if (inner instanceof ComparableFilter) {
+                // not lt is ge, not le is gt, and vice versa
+                ComparableFilter<?> c = (ComparableFilter<?>) inner;
+                return mayAcceptBetween(3 - c.kind, c.comparable, min, max);
+            } else if (inner instanceof EqFilter) {
+                Object object = ((EqFilter<?>) inner).object;
+                return !(object instanceof Comparable)
+                        || compare(min, object) != 0
+                        || compare(max, object) != 0;
+            } else if (inner instanceof BoolFilter) {
+                return !((BoolFilter<?>) inner).value;
+            }
+            return true;
+        } else if (filter instanceof AndFilter) {
+            for (Filter<?> child: ((AndFilter<?>) filter).filters) {
+                if (!mayAcceptBetween(child, min, max)) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (filter instanceof OrFilter) {
+            for (Filter<?> child: ((OrFilter<?>) filter).filters) {
+                if (mayAcceptBetween(child, min, max)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean mayAcceptBetween(int kind, Object comparable,
+                                            Object min, Object max) {
+        switch (kind) {
+            case ComparableFilter.LT: return compare(min, comparable) < 0;
+            case ComparableFilter.LE: return compare(min, comparable) <= 0;
+            case ComparableFilter.GT: return compare(max, comparable) > 0;
+            default: return compare(max, comparable) >= 0;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compare(Object item, Object comparable) {
+        return ((Comparable<Object>) item).compareTo(comparable);
+    }
+
     private static abstract class NonMutatingFilter<T>
-            extends AbstractFilter<T> {
+            extends AbstractFilter<T> implements RangeFilter<T> {
 
         @Override
         public final T accept(T item) throws IOException {
@@ -349,33 +578,207 @@ public final class Filters {
         }
 
         protected abstract boolean accepts(T item) throws IOException;
+
+        @Override
+        public final boolean isPassThrough() {
+            return true;
+        }
+
+        @Override
+        public boolean rejectsFrom(T item,
+                                   Characteristics<T> characteristics) {
+            return false;
+        }
+    }
+
+    static final class BoolFilter<T> extends NonMutatingFilter<T> {
+
+        final boolean value;
+
+        BoolFilter(boolean value) {
+            this.value = value;
+        }
+
+        @Override
+        protected boolean accepts(T item) {
+            return value;
+        }
+
+        @Override
+        public boolean rejectsFrom(T item,
+                                   Characteristics<T> characteristics) {
+            return !value;
+        }
+    }
+
+    static final class IsaFilter<T> extends NonMutatingFilter<T> {
+
+        final Class<?> clazz;
+
+        IsaFilter(Class<?> clazz) {
+            this.clazz = clazz;
+        }
+
+        @Override
+        protected boolean accepts(T item) {
+            return clazz.isInstance(item);
+        }
+    }
+
+    static final class EqFilter<T> extends NonMutatingFilter<T> {
+
+        final T object;
+
+        EqFilter(T object) {
+            this.object = object;
+        }
+
+        @Override
+        protected boolean accepts(T item) {
+            return object.equals(item);
+        }
+    }
+
+    static final class NotFilter<T> extends NonMutatingFilter<T> {
+
+        final Filter<T> filter;
+
+        NotFilter(Filter<T> filter) {
+            this.filter = filter;
+        }
+
+        @Override
+        protected boolean accepts(T item) throws IOException {
+            return filter.accept(item) == null;
+        }
+
+        @Override
+        public void close() {
+            filter.close();
+        }
     }
 
-    private static abstract class ComparableFilter<T extends Comparable<T>>
+    static final class ComparableFilter<T extends Comparable<T>>
             extends NonMutatingFilter<T> {
 
-        private final T comparable;
+        static final int LT = 0;
+        static final int LE = 1;
+        static final int GT = 2;
+        static final int GE = 3;
 
-        ComparableFilter(T comparable) {
+        final T comparable;
+        final int kind;
+
+        ComparableFilter(T comparable, int kind) {
             this.comparable = comparable;
+            this.kind = kind;
+        }
+
+        @Override
+        protected boolean accepts(T item) {
+            int result = item.compareTo(comparable);
+            switch (kind) {
+                case LT: return result < 0;
+                case LE: return result <= 0;
+                case GT: return result > 0;
+                default: return result >= 0;
+            }
+        }
+
+        @Override
+        public boolean rejectsFrom(T item,
+                                   Characteristics<T> characteristics) {
+            return kind <= LE && characteristics.isSortedNaturally()
+                    && !accepts(item);
+        }
+    }
+
+    static final class AndFilter<T> extends MultiFilter<T> {
+
+        AndFilter(Collection<Filter<T>> filters) {
+            super(filters);
+        }
+
+        @Override
+        public T accept(T item) throws IOException {
+            T result = item;
+            for (Filter<T> filter: filters) {
+                result = filter.accept(item);
+                if (result == null) {
+                    return null;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public boolean rejectsFrom(T item,
+                                   Characteristics<T> characteristics) {
+            for (Filter<T> filter: filters) {
+                if (filter instanceof RangeFilter && ((RangeFilter<T>)
+                        filter).rejectsFrom(item, characteristics)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    static final class OrFilter<T> extends MultiFilter<T> {
+
+        OrFilter(Collection<Filter<T>> filters) {
+            super(filters);
         }
 
         @Override
-        public final boolean accepts(T item) {
-            return accepts(item.compareTo(comparable));
+        public T accept(T item) throws IOException {
+            for (Filter<T> filter: filters) {
+                T result = filter.accept(item);
+                if (result != null) {
+                    return result;
+                }
+            }
+            return null;
         }
 
-        protected abstract boolean accepts(int result);
+        @Override
+        public boolean rejectsFrom(T item,
+                                   Characteristics<T> characteristics) {
+            for (Filter<T> filter: filters) {
+                if (!(filter instanceof RangeFilter) || !((RangeFilter<T>)
+                        filter).rejectsFrom(item, characteristics)) {
+                    return false;
+                }
+            }
+            return true;
+        }
     }
 
-    private static abstract class MultiFilter<T> implements Filter<T> {
+    static abstract class MultiFilter<T> implements RangeFilter<T> {
 
-        protected final Collection<Filter<T>> filters;
+        final Collection<Filter<T>> filters;
 
         MultiFilter(Collection<Filter<T>> filters) {
             this.filters = filters;
         }
 
+        @Override
+        public boolean isPassThrough() {
+            for (Filter<T> filter : filters) {
+                if (!(filter instanceof RangeFilter)
+                        || !((RangeFilter<T>) filter).isPassThrough()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean rejectsFrom(T item,
+                                   Characteristics<T> characteristics) {
+            return false;
+        }
+
         @Override
         public void close() {
             for (Filter<T> filter : filters) {
@@ -0,0 +1,20 @@
+package com.github.cwilper.ttff;
+
+/**
+ * A function from one type to another, such as a means of extracting a key
+ * or timestamp from an object.
+ *
+ * @param <F> the type the function is applied to.
+ * @param <T> the type of the result.
+ */
+public interface Function<F, T> {
+
+    /**
+     * Applies the function to the given object.
+     *
+     * @param input the object.
+     * @return the result.
+     */
+    T apply(F input);
+
+}
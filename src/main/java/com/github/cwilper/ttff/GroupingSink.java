@@ -0,0 +1,236 @@
+package com.github.cwilper.ttff;
+
+import javax.annotation.PreDestroy;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * A sink that aggregates items by key.
+ * <p>
+ * Aggregates are held in an open-addressing hash table. If a limit on the
+ * number of keys is given and the table grows beyond it, the partial
+ * aggregates are written out to a fixed number of partition files on disk,
+ * chosen by hash, and the table is emptied. When the results are read,
+ * each partition is loaded and combined in turn; any partition that is
+ * itself too large is split again the same way.
+ *
+ * @param <T> the type over which the sink operates.
+ * @param <K> the type of key.
+ * @param <A> the type of aggregate.
+ * @see Sinks#groupBy(Function, Aggregator)
+ */
+public final class GroupingSink<T, K, A> extends AbstractSink<T> {
+
+    private final Function<T, K> keyFn;
+    private final Aggregator<T, A> aggregator;
+    private final int maxKeys;
+    private final File spillDir;
+    private final Codec<K> keyCodec;
+    private final Codec<A> aggregateCodec;
+
+    private final OpenHashTable<K, A> table = new OpenHashTable<K, A>();
+    private final LinkedList<Partition> pending = new LinkedList<Partition>();
+    private SpillPartitions spill;
+    private boolean finished;
+    private boolean closed;
+
+    GroupingSink(Function<T, K> keyFn, Aggregator<T, A> aggregator,
+                 int maxKeys, File spillDir, Codec<K> keyCodec,
+                 Codec<A> aggregateCodec) {
+        if (maxKeys < 1) {
+            throw new IllegalArgumentException("maxKeys must be > 0");
+        }
+        this.keyFn = keyFn;
+        this.aggregator = aggregator;
+        this.maxKeys = maxKeys;
+        this.spillDir = spillDir;
+        this.keyCodec = keyCodec;
+        this.aggregateCodec = aggregateCodec;
+    }
+
+    @Override
+    public void put(T item) throws IOException {
+        if (finished) {
+            throw new IllegalStateException("Results already requested");
+        }
+        K key = keyFn.apply(item);
+        A value = aggregator.lift(item);
+        A existing = table.get(key);
+        table.put(key, existing == null
+                ? value : aggregator.combine(existing, value));
+        if (table.size() > maxKeys) {
+            if (spill == null) {
+                spill = new SpillPartitions(0, "ttff-group-", spillDir);
+            }
+            writeAll(spill);
+        }
+    }
+
+    /**
+     * Tells whether any partial aggregates have been written to disk.
+     *
+     * @return <code>true</code> if so.
+     */
+    public boolean hasSpilled() {
+        return spill != null || !pending.isEmpty();
+    }
+
+    /**
+     * Gets a source of each key with its aggregate, in no particular order.
+     * <p>
+     * This may only be called once, after which the sink no longer accepts
+     * items. Closing the returned source closes this sink.
+     *
+     * @return the results.
+     * @throws IOException if an I/O problem occurs reading or writing
+     *         spilled aggregates.
+     */
+    public Source<Map.Entry<K, A>> results() throws IOException {
+        if (finished) {
+            throw new IllegalStateException("Results already requested");
+        }
+        finished = true;
+        if (spill != null) {
+            writeAll(spill);
+            queue(spill);
+            spill = null;
+        }
+        return new AbstractSource<Map.Entry<K, A>>() {
+            private int slot;
+
+            @Override
+            protected Map.Entry<K, A> computeNext() throws IOException {
+                while (true) {
+                    while (slot < table.capacity()) {
+                        int i = slot++;
+                        if (table.isOccupied(i)) {
+                            return new AbstractMap.SimpleImmutableEntry<K, A>(
+                                    table.keyAt(i), table.valueAt(i));
+                        }
+                    }
+                    if (pending.isEmpty()) {
+                        return endOfData();
+                    }
+                    table.clear();
+                    slot = 0;
+                    load(pending.removeFirst());
+                }
+            }
+
+            @Override
+            public void close() {
+                GroupingSink.this.close();
+            }
+        };
+    }
+
+    /**
+     * Deletes any temporary files and discards all aggregates.
+     */
+    @Override
+    @PreDestroy
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        finished = true;
+        if (spill != null) {
+            spill.discard();
+            spill = null;
+        }
+        for (Partition partition: pending) {
+            partition.delete();
+        }
+        pending.clear();
+        table.clear();
+    }
+
+    /**
+     * Combines the contents of a partition into the table, splitting it
+     * further if needed.
+     */
+    private void load(Partition partition) throws IOException {
+        SpillPartitions split = null;
+        DataInputStream in = SpillPartitions.open(partition.file);
+        try {
+            while (true) {
+                K key;
+                try {
+                    key = keyCodec.decode(in);
+                } catch (EOFException e) {
+                    break;
+                }
+                A value = aggregateCodec.decode(in);
+                A existing = table.get(key);
+                table.put(key, existing == null
+                        ? value : aggregator.combine(existing, value));
+                if (table.size() > maxKeys
+                        && partition.depth < SpillPartitions.MAX_DEPTH) {
+                    if (split == null) {
+                        split = new SpillPartitions(partition.depth + 1,
+                                "ttff-group-", spillDir);
+                    }
+                    writeAll(split);
+                }
+            }
+        } finally {
+            in.close();
+            partition.delete();
+        }
+        if (split != null) {
+            writeAll(split);
+            queue(split);
+        }
+    }
+
+    /** Writes out everything in the table, then clears it. */
+    private void writeAll(SpillPartitions partitions) throws IOException {
+        for (int i = 0; i < table.capacity(); i++) {
+            if (table.isOccupied(i)) {
+                K key = table.keyAt(i);
+                DataOutputStream out = partitions.out(key);
+                keyCodec.encode(key, out);
+                aggregateCodec.encode(table.valueAt(i), out);
+            }
+        }
+        table.clear();
+    }
+
+    /** Closes each partition file and queues it for loading. */
+    private void queue(SpillPartitions partitions) throws IOException {
+        for (File file: partitions.finish()) {
+            if (file != null) {
+                pending.addFirst(new Partition(file, partitions.depth()));
+            }
+        }
+    }
+
+    /** Gets the number of keys in memory; for tests. */
+    int tableSize() {
+        return table.size();
+    }
+
+    /** A spilled partition file, awaiting loading. */
+    private static class Partition {
+
+        final File file;
+        final int depth;
+
+        Partition(File file, int depth) {
+            this.file = file;
+            this.depth = depth;
+        }
+
+        void delete() {
+            SpillPartitions.delete(file);
+        }
+    }
+}
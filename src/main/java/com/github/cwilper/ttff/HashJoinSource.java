@@ -0,0 +1,373 @@
+package com.github.cwilper.ttff;
+
+import javax.annotation.PreDestroy;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+/**
+ * A source that joins two other sources on equal keys by loading one of
+ * them, the build side, into a hash table and looking up each item of the
+ * other, the probe side.
+ * <p>
+ * Build items are held in an open-addressing hash table. If a limit on
+ * the number of build items is given and the build side turns out to be
+ * larger, both sides are written out to a fixed number of partition
+ * files on disk, chosen by hash of key, and each pair of partitions is
+ * then joined in turn. Any build partition that is itself too large is
+ * split again the same way, along with its probe partition.
+ *
+ * @param <L> the type of build item.
+ * @param <R> the type of probe item.
+ * @param <K> the type of key.
+ * @param <T> the type of result.
+ * @see Sources#hashJoin(Source, Source, Function, Function, Combiner)
+ */
+class HashJoinSource<L, R, K, T> extends AbstractSource<T> {
+
+    private final Source<L> build;
+    private final Source<R> probe;
+    private final Function<L, K> buildKey;
+    private final Function<R, K> probeKey;
+    private final Combiner<L, R, T> combiner;
+    private final int maxBuildItems;
+    private final File spillDir;
+    private final Codec<L> buildCodec;
+    private final Codec<R> probeCodec;
+
+    /** Each key's build item, or a Matches list if there are several. */
+    private final OpenHashTable<K, Object> table =
+            new OpenHashTable<K, Object>();
+    private final LinkedList<Pair> pending = new LinkedList<Pair>();
+
+    private boolean started;
+    private int buildCount;
+
+    /** The source of probe items being looked up, if any. */
+    private Source<R> probing;
+
+    /** The current probe item and its matches, if any. */
+    private R item;
+    private Object matches;
+    private int matchIndex;
+
+    HashJoinSource(Source<L> build, Source<R> probe, Function<L, K> buildKey,
+                   Function<R, K> probeKey, Combiner<L, R, T> combiner,
+                   int maxBuildItems, File spillDir, Codec<L> buildCodec,
+                   Codec<R> probeCodec) {
+        if (maxBuildItems < 1) {
+            throw new IllegalArgumentException("maxBuildItems must be > 0");
+        }
+        this.build = build;
+        this.probe = probe;
+        this.buildKey = buildKey;
+        this.probeKey = probeKey;
+        this.combiner = combiner;
+        this.maxBuildItems = maxBuildItems;
+        this.spillDir = spillDir;
+        this.buildCodec = buildCodec;
+        this.probeCodec = probeCodec;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected T computeNext() throws IOException {
+        if (!started) {
+            started = true;
+            start();
+        }
+        while (true) {
+            if (matches != null) {
+                L left;
+                if (matches instanceof Matches) {
+                    Matches<L> list = (Matches<L>) matches;
+                    left = list.get(matchIndex++);
+                    if (matchIndex == list.size()) {
+                        matches = null;
+                    }
+                } else {
+                    left = (L) matches;
+                    matches = null;
+                }
+                T result = combiner.combine(left, item);
+                if (result != null) {
+                    return result;
+                }
+                continue;
+            }
+            if (probing == null || !probing.hasNext()) {
+                if (probing != null) {
+                    probing.close();
+                    probing = null;
+                }
+                if (!nextPair()) {
+                    return endOfData();
+                }
+                continue;
+            }
+            item = probing.next();
+            K key = probeKey.apply(item);
+            if (key != null) {
+                matches = table.get(key);
+                matchIndex = 0;
+            }
+        }
+    }
+
+    @Override
+    @PreDestroy
+    public void close() {
+        build.close();
+        probe.close();
+        if (probing != null) {
+            probing.close();
+            probing = null;
+        }
+        for (Pair pair: pending) {
+            pair.delete();
+        }
+        pending.clear();
+        table.clear();
+        matches = null;
+        item = null;
+    }
+
+    /** Loads the build side, partitioning both sides if it's too big. */
+    private void start() throws IOException {
+        ReusableSource<L> reusable = null;
+        if (build instanceof ReusableSource) {
+            reusable = (ReusableSource<L>) build;
+        }
+        SpillPartitions spill = null;
+        try {
+            while (build.hasNext()) {
+                L left = build.next();
+                K key = buildKey.apply(left);
+                if (key == null) {
+                    continue;
+                }
+                if (reusable != null) {
+                    left = reusable.copy(left);
+                }
+                if (spill != null) {
+                    buildCodec.encode(left, spill.out(key));
+                } else {
+                    add(key, left);
+                    if (buildCount > maxBuildItems) {
+                        spill = new SpillPartitions(0, "ttff-join-build-",
+                                spillDir);
+                        spillTable(spill);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (spill != null) {
+                spill.discard();
+            }
+            throw e;
+        } finally {
+            build.close();
+        }
+        if (spill == null) {
+            probing = probe;
+            return;
+        }
+        File[] builds = spill.finish();
+        SpillPartitions probes = new SpillPartitions(0, "ttff-join-probe-",
+                spillDir);
+        try {
+            while (probe.hasNext()) {
+                R right = probe.next();
+                K key = probeKey.apply(right);
+                if (key != null) {
+                    probeCodec.encode(right, probes.out(key));
+                }
+            }
+        } catch (IOException e) {
+            probes.discard();
+            SpillPartitions.delete(builds);
+            throw e;
+        } finally {
+            probe.close();
+        }
+        queue(builds, probes.finish(), 0);
+    }
+
+    /** Prepares the next pair of partitions, if any, for probing. */
+    private boolean nextPair() throws IOException {
+        while (!pending.isEmpty()) {
+            Pair pair = pending.removeFirst();
+            table.clear();
+            buildCount = 0;
+            SpillPartitions split = null;
+            FileSource<L> lefts = new FileSource<L>(pair.build, buildCodec);
+            try {
+                while (lefts.hasNext()) {
+                    L left = lefts.next();
+                    K key = buildKey.apply(left);
+                    if (split != null) {
+                        buildCodec.encode(left, split.out(key));
+                    } else {
+                        add(key, left);
+                        if (buildCount > maxBuildItems
+                                && pair.depth < SpillPartitions.MAX_DEPTH) {
+                            split = new SpillPartitions(pair.depth + 1,
+                                    "ttff-join-build-", spillDir);
+                            spillTable(split);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                if (split != null) {
+                    split.discard();
+                }
+                pair.delete();
+                throw e;
+            } finally {
+                lefts.close();
+            }
+            FileSource<R> rights = new FileSource<R>(pair.probe, probeCodec);
+            if (split == null) {
+                probing = rights;
+                return true;
+            }
+            File[] builds = split.finish();
+            SpillPartitions probes = new SpillPartitions(pair.depth + 1,
+                    "ttff-join-probe-", spillDir);
+            try {
+                while (rights.hasNext()) {
+                    R right = rights.next();
+                    probeCodec.encode(right, probes.out(probeKey.apply(right)));
+                }
+            } catch (IOException e) {
+                probes.discard();
+                SpillPartitions.delete(builds);
+                throw e;
+            } finally {
+                rights.close();
+            }
+            queue(builds, probes.finish(), pair.depth + 1);
+        }
+        table.clear();
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void add(K key, L left) {
+        Object existing = table.get(key);
+        if (existing == null) {
+            table.put(key, left);
+        } else if (existing instanceof Matches) {
+            ((Matches<L>) existing).add(left);
+        } else {
+            Matches<L> list = new Matches<L>();
+            list.add((L) existing);
+            list.add(left);
+            table.put(key, list);
+        }
+        buildCount++;
+    }
+
+    /** Writes out everything in the table, then clears it. */
+    @SuppressWarnings("unchecked")
+    private void spillTable(SpillPartitions spill) throws IOException {
+        for (int i = 0; i < table.capacity(); i++) {
+            if (table.isOccupied(i)) {
+                K key = table.keyAt(i);
+                Object value = table.valueAt(i);
+                if (value instanceof Matches) {
+                    for (L left: (Matches<L>) value) {
+                        buildCodec.encode(left, spill.out(key));
+                    }
+                } else {
+                    buildCodec.encode((L) value, spill.out(key));
+                }
+            }
+        }
+        table.clear();
+        buildCount = 0;
+    }
+
+    /**
+     * Queues each pair of partitions that could produce results, and
+     * deletes the rest.
+     */
+    private void queue(File[] builds, File[] probes, int depth) {
+        for (int i = 0; i < SpillPartitions.PARTITIONS; i++) {
+            if (builds[i] != null && probes[i] != null) {
+                pending.addFirst(new Pair(builds[i], probes[i], depth));
+            } else {
+                SpillPartitions.delete(builds[i], probes[i]);
+            }
+        }
+    }
+
+    /** Several build items with the same key. */
+    private static class Matches<E> extends ArrayList<E> {
+        private static final long serialVersionUID = 1L;
+
+        Matches() {
+            super(2);
+        }
+    }
+
+    /** A spilled pair of partition files, awaiting joining. */
+    private static class Pair {
+
+        final File build;
+        final File probe;
+        final int depth;
+
+        Pair(File build, File probe, int depth) {
+            this.build = build;
+            this.probe = probe;
+            this.depth = depth;
+        }
+
+        void delete() {
+            SpillPartitions.delete(build, probe);
+        }
+    }
+
+    /** A source of the items in a partition file, deleted on close. */
+    private static class FileSource<X> extends AbstractSource<X> {
+
+        private final File file;
+        private final Codec<X> codec;
+        private DataInputStream in;
+
+        FileSource(File file, Codec<X> codec) {
+            this.file = file;
+            this.codec = codec;
+        }
+
+        @Override
+        protected X computeNext() throws IOException {
+            if (in == null) {
+                in = SpillPartitions.open(file);
+            }
+            try {
+                return codec.decode(in);
+            } catch (EOFException e) {
+                return endOfData();
+            }
+        }
+
+        @Override
+        public void close() {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore; it's being deleted anyway
+                }
+                in = null;
+            }
+            SpillPartitions.delete(file);
+        }
+    }
+}
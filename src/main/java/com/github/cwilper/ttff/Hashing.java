@@ -0,0 +1,57 @@
+package com.github.cwilper.ttff;
+
+/**
+ * Static utility methods for computing well-distributed 64-bit hashes,
+ * as needed by probabilistic sketches.
+ */
+final class Hashing {
+
+    private static final long FNV_OFFSET = 0xCBF29CE484222325L;
+    private static final long FNV_PRIME = 0x100000001B3L;
+
+    /** Instantiation disallowed. */
+    Hashing() { throw new AssertionError(); }
+
+    /**
+     * Gets a 64-bit hash of the given object.
+     * <p>
+     * Strings and other character sequences, byte arrays and boxed
+     * integral types are hashed by content. Anything else is hashed via
+     * its <code>hashCode()</code>, and so has at most 32 bits of entropy.
+     */
+    static long hash64(Object key) {
+        if (key == null) {
+            return 0;
+        } else if (key instanceof CharSequence) {
+            CharSequence chars = (CharSequence) key;
+            long h = FNV_OFFSET;
+            for (int i = 0; i < chars.length(); i++) {
+                h = (h ^ chars.charAt(i)) * FNV_PRIME;
+            }
+            return mix(h);
+        } else if (key instanceof byte[]) {
+            byte[] bytes = (byte[]) key;
+            long h = FNV_OFFSET;
+            for (byte b: bytes) {
+                h = (h ^ (b & 0xFF)) * FNV_PRIME;
+            }
+            return mix(h);
+        } else if (key instanceof Long || key instanceof Integer
+                || key instanceof Short || key instanceof Byte) {
+            return mix(((Number) key).longValue());
+        } else if (key instanceof Character) {
+            return mix((Character) key);
+        }
+        return mix(key.hashCode());
+    }
+
+    /** The 64-bit finalizer from MurmurHash3. */
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,290 @@
+package com.github.cwilper.ttff;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A sink that finds the most frequent keys among the items it receives,
+ * using the Space-Saving algorithm.
+ * <p>
+ * At most <i>k</i> keys are counted at once. When a new key arrives and
+ * all counters are in use, the counter with the lowest count is given to
+ * the new key, which inherits that count as its possible overestimate.
+ * Counts are therefore never too low, and any key occurring more than
+ * <i>n</i> / <i>k</i> times among <i>n</i> items is guaranteed to be
+ * counted. Counters are kept in a min-heap, so each item costs
+ * <i>O</i>(log <i>k</i>) time at worst.
+ * <p>
+ * Sketches can be {@link #merge(HeavyHittersSink) merged}, and can be
+ * {@link #write written} for merging elsewhere.
+ *
+ * @param <T> the type over which the sink operates.
+ * @param <K> the type of key.
+ * @see Sinks#heavyHitters(Function, int)
+ */
+public final class HeavyHittersSink<T, K> extends AbstractSink<T> {
+
+    private static final Comparator<Counter<?>> DESCENDING =
+            new Comparator<Counter<?>>() {
+                @Override
+                public int compare(Counter<?> a, Counter<?> b) {
+                    return a.count < b.count ? 1 : a.count > b.count ? -1 : 0;
+                }
+            };
+
+    private final Function<T, K> keyFn;
+    private final int k;
+    private final Map<K, Counter<K>> counters;
+    private final Object[] heap;
+    private int size;
+
+    HeavyHittersSink(Function<T, K> keyFn, int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be > 0");
+        }
+        this.keyFn = keyFn;
+        this.k = k;
+        this.counters = new HashMap<K, Counter<K>>(k * 2);
+        this.heap = new Object[k];
+    }
+
+    @Override
+    public void put(T item) {
+        offer(keyFn.apply(item), 1, 0);
+    }
+
+    /**
+     * Gets the counted keys with their estimated counts, most frequent
+     * first.
+     *
+     * @return a new list of at most <i>k</i> entries.
+     */
+    public List<Map.Entry<K, Long>> results() {
+        List<Counter<K>> sorted = new ArrayList<Counter<K>>(counters.values());
+        Collections.sort(sorted, DESCENDING);
+        List<Map.Entry<K, Long>> results =
+                new ArrayList<Map.Entry<K, Long>>(sorted.size());
+        for (Counter<K> counter: sorted) {
+            results.add(new AbstractMap.SimpleImmutableEntry<K, Long>(
+                    counter.key, counter.count));
+        }
+        return results;
+    }
+
+    /**
+     * Gets the estimated number of times the given key has been received.
+     *
+     * @param key the key.
+     * @return the estimate, which is never less than the true count.
+     */
+    public long estimateCount(K key) {
+        Counter<K> counter = counters.get(key);
+        if (counter != null) {
+            return counter.count;
+        }
+        return minCount();
+    }
+
+    /**
+     * Gets the amount by which the estimated count of the given key may
+     * exceed its true count.
+     *
+     * @param key the key.
+     * @return the maximum overestimate.
+     */
+    public long maxError(K key) {
+        Counter<K> counter = counters.get(key);
+        if (counter != null) {
+            return counter.error;
+        }
+        return minCount();
+    }
+
+    /**
+     * Adds everything received by the given sketch to this one.
+     * <p>
+     * Each key's counts from the two sketches are summed, with a key
+     * counted by only one of them credited with the other's lowest count
+     * if the other is full, so estimates remain upper bounds. The
+     * <i>k</i> keys with the highest combined counts are kept.
+     *
+     * @param other the other sketch, which is left unchanged.
+     * @return this sketch.
+     */
+    @SuppressWarnings("unchecked")
+    public HeavyHittersSink<T, K> merge(HeavyHittersSink<?, K> other) {
+        long min = minCount();
+        long otherMin = other.minCount();
+        List<Counter<K>> combined =
+                new ArrayList<Counter<K>>(size + other.size);
+        for (int i = 0; i < size; i++) {
+            Counter<K> counter = (Counter<K>) heap[i];
+            Counter<K> match = other.counters.get(counter.key);
+            if (match == null) {
+                counter.count += otherMin;
+                counter.error += otherMin;
+            } else {
+                counter.count += match.count;
+                counter.error += match.error;
+            }
+            combined.add(counter);
+        }
+        for (int i = 0; i < other.size; i++) {
+            Counter<K> counter = (Counter<K>) other.heap[i];
+            if (!counters.containsKey(counter.key)) {
+                combined.add(new Counter<K>(counter.key, counter.count + min,
+                        counter.error + min));
+            }
+        }
+        Collections.sort(combined, DESCENDING);
+        counters.clear();
+        size = 0;
+        for (Counter<K> counter: combined.subList(0,
+                Math.min(k, combined.size()))) {
+            counters.put(counter.key, counter);
+            place(counter, size++);
+        }
+        heapify();
+        return this;
+    }
+
+    /**
+     * Adds everything received by a sketch previously written with
+     * {@link #write(DataOutput, Codec)} to this one.
+     *
+     * @param in the input to read the other sketch from.
+     * @param keyCodec the codec to use when reading keys.
+     * @return this sketch.
+     * @throws IOException if an I/O problem occurs.
+     */
+    public HeavyHittersSink<T, K> merge(DataInput in, Codec<K> keyCodec)
+            throws IOException {
+        HeavyHittersSink<T, K> other = new HeavyHittersSink<T, K>(keyFn,
+                in.readInt());
+        int otherSize = in.readInt();
+        for (int i = 0; i < otherSize; i++) {
+            K key = keyCodec.decode(in);
+            long count = in.readLong();
+            other.offer(key, count, in.readLong());
+        }
+        return merge(other);
+    }
+
+    /**
+     * Writes the state of this sketch to the given output.
+     *
+     * @param out the output.
+     * @param keyCodec the codec to use when writing keys.
+     * @throws IOException if an I/O problem occurs.
+     */
+    @SuppressWarnings("unchecked")
+    public void write(DataOutput out, Codec<K> keyCodec) throws IOException {
+        out.writeInt(k);
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            Counter<K> counter = (Counter<K>) heap[i];
+            keyCodec.encode(counter.key, out);
+            out.writeLong(counter.count);
+            out.writeLong(counter.error);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void offer(K key, long count, long error) {
+        Counter<K> counter = counters.get(key);
+        if (counter != null) {
+            counter.count += count;
+            counter.error += error;
+            siftDown(counter.index);
+        } else if (size < k) {
+            counter = new Counter<K>(key, count, error);
+            counters.put(key, counter);
+            heap[size] = counter;
+            counter.index = size;
+            siftUp(size++);
+        } else {
+            counter = (Counter<K>) heap[0];
+            counters.remove(counter.key);
+            counter.key = key;
+            counter.error = counter.count + error;
+            counter.count += count;
+            counters.put(key, counter);
+            siftDown(0);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private long minCount() {
+        return size < k ? 0 : ((Counter<K>) heap[0]).count;
+    }
+
+    private void heapify() {
+        for (int i = (size >>> 1) - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void siftUp(int i) {
+        Counter<K> counter = (Counter<K>) heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            Counter<K> p = (Counter<K>) heap[parent];
+            if (counter.count >= p.count) {
+                break;
+            }
+            place(p, i);
+            i = parent;
+        }
+        place(counter, i);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void siftDown(int i) {
+        Counter<K> counter = (Counter<K>) heap[i];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = (i << 1) + 1;
+            Counter<K> c = (Counter<K>) heap[child];
+            int right = child + 1;
+            if (right < size && ((Counter<K>) heap[right]).count < c.count) {
+                child = right;
+                c = (Counter<K>) heap[child];
+            }
+            if (counter.count <= c.count) {
+                break;
+            }
+            place(c, i);
+            i = child;
+        }
+        place(counter, i);
+    }
+
+    private void place(Counter<K> counter, int i) {
+        heap[i] = counter;
+        counter.index = i;
+    }
+
+    /** A key's estimated count and maximum overestimate. */
+    private static class Counter<K> {
+
+        K key;
+        long count;
+        long error;
+        int index;
+
+        Counter(K key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+    }
+}
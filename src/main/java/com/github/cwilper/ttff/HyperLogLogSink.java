@@ -0,0 +1,156 @@
+package com.github.cwilper.ttff;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A sink that estimates the number of distinct keys among the items it
+ * receives, using the HyperLogLog algorithm.
+ * <p>
+ * Memory use is fixed at 2<sup><i>p</i></sup> bytes for precision
+ * <i>p</i>, and the typical relative error of the estimate is
+ * 1.04 / sqrt(2<sup><i>p</i></sup>): about 1.6% at the default precision
+ * of 12, using 4KB.
+ * <p>
+ * Sketches of the same precision can be {@link #merge(HyperLogLogSink)
+ * merged}, giving the same result as if one sketch had received all the
+ * items, and can be {@link #write written} for merging elsewhere.
+ *
+ * @param <T> the type over which the sink operates.
+ * @see Sinks#hyperLogLog(Function, int)
+ */
+public final class HyperLogLogSink<T> extends AbstractSink<T> {
+
+    /** A reasonable default precision. */
+    public static final int DEFAULT_PRECISION = 12;
+
+    private static final int MIN_PRECISION = 4;
+    private static final int MAX_PRECISION = 18;
+
+    private final Function<T, ?> keyFn;
+    private final int precision;
+    private final byte[] registers;
+
+    HyperLogLogSink(Function<T, ?> keyFn, int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("Precision must be from "
+                    + MIN_PRECISION + " to " + MAX_PRECISION);
+        }
+        this.keyFn = keyFn;
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    @Override
+    public void put(T item) {
+        long hash = Hashing.hash64(keyFn.apply(item));
+        int index = (int) (hash >>> (64 - precision));
+        long rest = (hash << precision) | (1L << (precision - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+        if (rank > registers[index]) {
+            registers[index] = rank;
+        }
+    }
+
+    /**
+     * Gets the estimated number of distinct keys received.
+     *
+     * @return the estimate.
+     */
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register: registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double estimate = alpha(m) * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            // linear counting is more accurate for small cardinalities
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * Gets the precision of this sketch.
+     *
+     * @return the precision.
+     */
+    public int getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Adds everything received by the given sketch to this one.
+     *
+     * @param other the other sketch, which is left unchanged.
+     * @return this sketch.
+     * @throws IllegalArgumentException if the precisions differ.
+     */
+    public HyperLogLogSink<T> merge(HyperLogLogSink<?> other) {
+        checkPrecision(other.precision);
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Adds everything received by a sketch previously written with
+     * {@link #write(DataOutput)} to this one.
+     *
+     * @param in the input to read the other sketch from.
+     * @return this sketch.
+     * @throws IOException if an I/O problem occurs.
+     * @throws IllegalArgumentException if the precisions differ.
+     */
+    public HyperLogLogSink<T> merge(DataInput in) throws IOException {
+        checkPrecision(in.readByte());
+        for (int i = 0; i < registers.length; i++) {
+            byte register = in.readByte();
+            if (register > registers[i]) {
+                registers[i] = register;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Writes the state of this sketch to the given output.
+     *
+     * @param out the output.
+     * @throws IOException if an I/O problem occurs.
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeByte(precision);
+        out.write(registers);
+    }
+
+    private void checkPrecision(int otherPrecision) {
+        if (otherPrecision != precision) {
+            throw new IllegalArgumentException("Can't merge sketches of "
+                    + "different precisions (" + precision + " and "
+                    + otherPrecision + ")");
+        }
+    }
+
+    private static double alpha(int m) {
+        switch (m) {
+            case 16:
+                return 0.673;
+            case 32:
+                return 0.697;
+            case 64:
+                return 0.709;
+            default:
+                return 0.7213 / (1 + 1.079 / m);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.github.cwilper.ttff;
+
+import javax.annotation.PreDestroy;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A source that reads several other sources at once in background
+ * threads, returning their items in whatever order they arrive.
+ * <p>
+ * Each worker thread takes the next unread source from a shared iterator
+ * as soon as it has finished with its previous one, so a few slow sources
+ * never leave the other workers idle.
+ *
+ * @param <T> the type over which the source operates.
+ * @see Sources#interleave(Iterator, int, int)
+ */
+class InterleavingSource<T> extends AbstractSource<T> {
+
+    /** The unread sources; guards itself. */
+    private final Iterator<Source<T>> sources;
+    private final int capacity;
+    private final Thread[] workers;
+
+    private final LinkedList<T> ready = new LinkedList<T>();
+    private final Set<Source<T>> reading = new HashSet<Source<T>>();
+    private int running;
+    private boolean closed;
+    private Throwable failure;
+
+    InterleavingSource(Iterator<Source<T>> sources, int parallelism,
+                       int bufferPerSource) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be > 0");
+        }
+        if (bufferPerSource < 1) {
+            throw new IllegalArgumentException(
+                    "bufferPerSource must be > 0");
+        }
+        this.sources = sources;
+        this.capacity = (int) Math.min(Integer.MAX_VALUE,
+                (long) parallelism * bufferPerSource);
+        this.workers = new Thread[parallelism];
+        for (int i = 0; i < parallelism; i++) {
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            }, "ttff-interleave");
+            workers[i].setDaemon(true);
+        }
+        this.running = parallelism;
+    }
+
+    void start() {
+        for (Thread worker: workers) {
+            worker.start();
+        }
+    }
+
+    @Override
+    protected synchronized T computeNext() throws IOException {
+        while (true) {
+            if (closed) {
+                throw new IllegalStateException("Source is closed");
+            }
+            if (!ready.isEmpty()) {
+                T item = ready.removeFirst();
+                notifyAll();
+                return item;
+            }
+            if (failure != null) {
+                if (failure instanceof IOException) {
+                    throw (IOException) failure;
+                }
+                throw new IOException(failure);
+            }
+            if (running == 0) {
+                return endOfData();
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+    }
+
+    @Override
+    @PreDestroy
+    public void close() {
+        List<Source<T>> open;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            ready.clear();
+            open = new ArrayList<Source<T>>(reading);
+            notifyAll();
+        }
+        for (Thread worker: workers) {
+            worker.interrupt();
+        }
+        for (Source<T> source: open) {
+            source.close();
+        }
+        synchronized (sources) {
+            while (sources.hasNext()) {
+                sources.next().close();
+            }
+        }
+    }
+
+    private void work() {
+        Throwable th = null;
+        try {
+            Source<T> source;
+            while ((source = nextSource()) != null) {
+                try {
+                    if (!drain(source)) {
+                        break;
+                    }
+                } finally {
+                    synchronized (this) {
+                        reading.remove(source);
+                    }
+                    source.close();
+                }
+            }
+        } catch (Throwable t) {
+            th = t;
+        }
+        finish(th);
+    }
+
+    private Source<T> nextSource() {
+        Source<T> source;
+        synchronized (sources) {
+            if (!sources.hasNext()) {
+                return null;
+            }
+            source = sources.next();
+        }
+        synchronized (this) {
+            if (closed || failure != null) {
+                source.close();
+                return null;
+            }
+            reading.add(source);
+            return source;
+        }
+    }
+
+    private boolean drain(Source<T> source) throws IOException {
+        ReusableSource<T> reusable = null;
+        if (source instanceof ReusableSource) {
+            reusable = (ReusableSource<T>) source;
+        }
+        while (source.hasNext()) {
+            T item = source.next();
+            if (!offer(reusable == null ? item : reusable.copy(item))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private synchronized boolean offer(T item) {
+        while (!closed && failure == null && ready.size() >= capacity) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+        if (closed || failure != null) {
+            return false;
+        }
+        ready.addLast(item);
+        notifyAll();
+        return true;
+    }
+
+    private synchronized void finish(Throwable th) {
+        if (th != null && !closed && failure == null) {
+            failure = th;
+        }
+        running--;
+        notifyAll();
+    }
+
+}
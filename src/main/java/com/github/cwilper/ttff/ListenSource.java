@@ -0,0 +1,467 @@
+package com.github.cwilper.ttff;
+
+import javax.annotation.PreDestroy;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A source of the items sent by any number of {@link RemoteSink}s.
+ * <p>
+ * A background thread accepts connections and reads frames from all of
+ * them with a single selector, queueing each batch of items as received;
+ * the batches are decoded by the consuming thread. Each sender is given
+ * credit for a fixed number of items beyond those consumed, so a slow
+ * consumer holds up its senders rather than filling memory. Sessions
+ * outlive connections, so a sender that reconnects carries on where it
+ * left off.
+ * <p>
+ * Batches from different senders are interleaved in the order received.
+ * The source ends once every sender that has connected has sent all of
+ * its items and closed.
+ *
+ * @param <T> the type over which the source operates.
+ * @see Sources#listen(int, Codec)
+ * @see Sinks#remote(String, int, Codec)
+ */
+class ListenSource<T> extends AbstractSource<T> {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Codec<T> codec;
+    private final int window;
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final Thread thread;
+
+    /** Guarded by this. */
+    private final Map<Long, Session> sessions = new HashMap<Long, Session>();
+    private final LinkedList<Batch> batches = new LinkedList<Batch>();
+    private final List<Session> toAcknowledge = new ArrayList<Session>();
+    private boolean closed;
+    private boolean disconnecting;
+    private Throwable failure;
+
+    /** The batch being consumed, if any; used only by the consumer. */
+    private Batch batch;
+    private DataInputStream batchIn;
+    private int remaining;
+
+    ListenSource(int port, Codec<T> codec, int window) throws IOException {
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be > 0");
+        }
+        this.codec = codec;
+        this.window = window;
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        try {
+            server.socket().setReuseAddress(true);
+            server.socket().bind(new InetSocketAddress(port));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            server.close();
+            selector.close();
+            throw e;
+        }
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, "ttff-listen-" + getPort());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Gets the port the source is listening on, which is useful if it was
+     * opened on port zero.
+     *
+     * @return the port.
+     */
+    int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    @Override
+    protected T computeNext() throws IOException {
+        if (remaining == 0 && !nextBatch()) {
+            return endOfData();
+        }
+        remaining--;
+        return codec.decode(batchIn);
+    }
+
+    /**
+     * Stops listening and drops all connections. Senders with items not
+     * yet acknowledged will fail after their reconnect attempts.
+     */
+    @Override
+    @PreDestroy
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        selector.wakeup();
+    }
+
+    /**
+     * Drops every current connection, as if the network had failed.
+     * Senders will reconnect and resume.
+     */
+    void disconnect() {
+        synchronized (this) {
+            disconnecting = true;
+        }
+        selector.wakeup();
+    }
+
+    /**
+     * Waits for the next batch, crediting the sender of the last one, and
+     * tells whether there is one.
+     */
+    private boolean nextBatch() throws IOException {
+        synchronized (this) {
+            if (batch != null) {
+                batch.session.consumed += batch.count;
+                acknowledgeLater(batch.session);
+                batch = null;
+                selector.wakeup();
+            }
+            while (batches.isEmpty()) {
+                if (closed) {
+                    throw new IllegalStateException("Source is closed");
+                }
+                if (failure != null) {
+                    throw new IOException(failure);
+                }
+                if (allEnded()) {
+                    return false;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+            }
+            batch = batches.removeFirst();
+        }
+        remaining = batch.count;
+        batchIn = new DataInputStream(new ByteArrayInputStream(batch.bytes));
+        return true;
+    }
+
+    private void acknowledgeLater(Session session) {
+        if (!toAcknowledge.contains(session)) {
+            toAcknowledge.add(session);
+        }
+    }
+
+    private boolean allEnded() {
+        if (sessions.isEmpty()) {
+            return false;
+        }
+        for (Session session: sessions.values()) {
+            if (!session.ended) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void serve() {
+        try {
+            while (true) {
+                selector.select();
+                synchronized (this) {
+                    if (closed) {
+                        break;
+                    }
+                    if (disconnecting) {
+                        disconnecting = false;
+                        closeConnections();
+                    }
+                }
+                Iterator<SelectionKey> keys =
+                        selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        Connection connection = connectionOf(key);
+                        try {
+                            if (key.isReadable()) {
+                                connection.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.write();
+                            }
+                        } catch (IOException e) {
+                            connection.close();
+                        }
+                    }
+                }
+                acknowledgeAll();
+            }
+        } catch (Throwable th) {
+            synchronized (this) {
+                failure = th;
+                notifyAll();
+            }
+        } finally {
+            try {
+                for (SelectionKey key: selector.keys()) {
+                    key.channel().close();
+                }
+                selector.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+
+    private void closeConnections() {
+        for (SelectionKey key: selector.keys()) {
+            if (key.attachment() != null) {
+                connectionOf(key).close();
+            }
+        }
+    }
+
+    /**
+     * Gets the connection attached to the given key. Only connections of
+     * this source are ever attached, so the cast is safe.
+     */
+    @SuppressWarnings("unchecked")
+    private Connection connectionOf(SelectionKey key) {
+        return (Connection) key.attachment();
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ,
+                connection);
+    }
+
+    /** Sends an acknowledgement to each session whose credit has grown. */
+    private void acknowledgeAll() {
+        List<Session> sessions;
+        synchronized (this) {
+            sessions = new ArrayList<Session>(toAcknowledge);
+            toAcknowledge.clear();
+        }
+        for (Session session: sessions) {
+            Connection connection = session.connection;
+            if (connection != null) {
+                try {
+                    connection.acknowledge();
+                } catch (IOException e) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    /** A sender's stream of items, which may span several connections. */
+    private final class Session {
+        /** Guarded by the source. */
+        long received;
+        long consumed;
+        boolean ended;
+
+        /** Used only by the listening thread. */
+        Connection connection;
+
+        Session(long first) {
+            this.received = first;
+            this.consumed = first;
+        }
+    }
+
+    /** A batch of encoded items, in the order they were sent. */
+    private final class Batch {
+        final Session session;
+        final byte[] bytes;
+        final int count;
+
+        Batch(Session session, byte[] bytes, int count) {
+            this.session = session;
+            this.bytes = bytes;
+            this.count = count;
+        }
+    }
+
+    /** A connection from a sender; used only by the listening thread. */
+    private final class Connection {
+        final SocketChannel channel;
+        SelectionKey key;
+        ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+        final LinkedList<ByteBuffer> out = new LinkedList<ByteBuffer>();
+        Session session;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void read() throws IOException {
+            if (channel.read(in) == -1) {
+                close();
+                return;
+            }
+            in.flip();
+            while (in.remaining() >= RemoteSink.LENGTH_SIZE) {
+                int length = in.getInt(in.position());
+                if (length < 1) {
+                    throw new IOException("Bad frame length: " + length);
+                }
+                if (in.remaining() < RemoteSink.LENGTH_SIZE + length) {
+                    break;
+                }
+                in.getInt();
+                int end = in.position() + length;
+                receive(in.get(), length - 1);
+                in.position(end);
+            }
+            in.compact();
+            if (in.remaining() == 0) {
+                // make room for a frame larger than the buffer
+                ByteBuffer larger = ByteBuffer.allocate(in.capacity() * 2);
+                in.flip();
+                larger.put(in);
+                in = larger;
+            }
+        }
+
+        private void receive(byte type, int size) throws IOException {
+            if (type == RemoteSink.HELLO) {
+                hello(in.getLong(), in.getLong());
+            } else if (session == null) {
+                throw new IOException("Expected a session first");
+            } else if (type == RemoteSink.DATA) {
+                long first = in.getLong();
+                int count = in.getInt();
+                byte[] bytes = new byte[size - 12];
+                in.get(bytes);
+                data(first, count, bytes);
+            } else if (type == RemoteSink.END) {
+                end(in.getLong());
+            } else {
+                throw new IOException("Unexpected frame type: " + type);
+            }
+        }
+
+        private void hello(long id, long first) throws IOException {
+            synchronized (ListenSource.this) {
+                session = sessions.get(id);
+                if (session == null) {
+                    session = new Session(first);
+                    sessions.put(id, session);
+                }
+            }
+            if (session.connection != null) {
+                session.connection.close();
+            }
+            session.connection = this;
+            acknowledge();
+        }
+
+        private void data(long first, int count, byte[] bytes)
+                throws IOException {
+            synchronized (ListenSource.this) {
+                if (first > session.received) {
+                    throw new IOException("Missing items before " + first);
+                }
+                if (first < session.received) {
+                    return; // already received before a reconnect
+                }
+                session.received += count;
+                batches.add(new Batch(session, bytes, count));
+                acknowledgeLater(session);
+                ListenSource.this.notifyAll();
+            }
+        }
+
+        private void end(long total) throws IOException {
+            synchronized (ListenSource.this) {
+                if (total != session.received) {
+                    throw new IOException("Missing items before " + total);
+                }
+                session.ended = true;
+                ListenSource.this.notifyAll();
+            }
+            send(RemoteSink.frame(RemoteSink.BYE, 0));
+        }
+
+        void acknowledge() throws IOException {
+            long received;
+            long limit;
+            synchronized (ListenSource.this) {
+                received = session.received;
+                limit = session.consumed + window;
+            }
+            send(RemoteSink.frame(RemoteSink.ACK, 16).putLong(received)
+                    .putLong(limit));
+        }
+
+        private void send(ByteBuffer frame) throws IOException {
+            frame.flip();
+            out.add(frame);
+            write();
+        }
+
+        void write() throws IOException {
+            while (!out.isEmpty()) {
+                channel.write(out.getFirst());
+                if (out.getFirst().hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_READ
+                            | SelectionKey.OP_WRITE);
+                    return;
+                }
+                out.removeFirst();
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        void close() {
+            if (session != null && session.connection == this) {
+                session.connection = null;
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package com.github.cwilper.ttff;
+
+import javax.annotation.PreDestroy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.zip.CRC32;
+
+/**
+ * A sink that appends items to a memory-mapped queue file, to be read by
+ * any number of {@link MappedQueueSource}s, in this or other processes on
+ * the same host.
+ * <p>
+ * The file starts with an eight byte header holding a magic number and
+ * the region size, and is then mapped one region at a time. Each item is
+ * stored as its encoded length plus one, a checksum, and its encoded
+ * bytes, and never spans two regions; when the rest of a region is too
+ * small for the next item, a padding marker sends readers on to the next
+ * region. A zero length means nothing has been written there yet.
+ * <p>
+ * The length is written last, but writes to a mapped file aren't
+ * guaranteed to become visible to other threads or processes in order,
+ * so readers only accept an item once its checksum matches, and
+ * otherwise wait and read it again. Closing the sink writes an end
+ * marker.
+ * <p>
+ * Only one sink may write to a file at a time, which is enforced with a
+ * file lock. Opening a sink on an existing file appends to it, replacing
+ * its end marker if it has one.
+ *
+ * @param <T> the type over which the sink operates.
+ * @see Sinks#mappedQueue(File, Codec, int)
+ * @see Sources#mappedQueue(File, Codec, String)
+ */
+class MappedQueueSink<T> extends AbstractSink<T> {
+
+    static final int MAGIC = 0x54544651; // "TTFQ"
+    static final int HEADER_SIZE = 8;
+    static final int LENGTH_SIZE = 4;
+    static final int CHECKSUM_SIZE = 4;
+
+    /** The length marking the end of the items. */
+    static final int END = -1;
+
+    /** The length marking the unused rest of a region. */
+    static final int PAD = -2;
+
+    private final Codec<T> codec;
+    private final int regionSize;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final FileLock lock;
+
+    private final Encoded encoded = new Encoded();
+    private final DataOutputStream encoder = new DataOutputStream(encoded);
+
+    /** The region currently mapped, and its index. */
+    private MappedByteBuffer region;
+    private long regionIndex = -1;
+
+    /** The absolute position at which the next length will be written. */
+    private long position;
+
+    private boolean closed;
+
+    MappedQueueSink(File file, Codec<T> codec, int regionSize)
+            throws IOException {
+        if (regionSize < HEADER_SIZE + LENGTH_SIZE + CHECKSUM_SIZE) {
+            throw new IllegalArgumentException("regionSize must be >= "
+                    + (HEADER_SIZE + LENGTH_SIZE + CHECKSUM_SIZE));
+        }
+        this.codec = codec;
+        this.file = new RandomAccessFile(file, "rw");
+        this.channel = this.file.getChannel();
+        try {
+            this.lock = tryLock(channel);
+            if (lock == null) {
+                throw new IOException("Queue is being written by another "
+                        + "sink: " + file);
+            }
+            if (this.file.length() == 0) {
+                this.regionSize = regionSize;
+                map(0);
+                region.putInt(0, MAGIC);
+                region.putInt(4, regionSize);
+                position = HEADER_SIZE;
+            } else {
+                this.regionSize = readHeader(this.file);
+                position = findEnd();
+            }
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        } catch (RuntimeException e) {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Appends the given item to the queue.
+     *
+     * @param item the item.
+     * @throws IOException if the item can't be encoded or the file can't
+     *         be extended.
+     * @throws IllegalArgumentException if the encoded item is too large
+     *         to fit in a region.
+     */
+    @Override
+    public void put(T item) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Sink is closed");
+        }
+        encoded.reset();
+        codec.encode(item, encoder);
+        encoder.flush();
+        int length = encoded.size();
+        int size = LENGTH_SIZE + CHECKSUM_SIZE + length;
+        if (size > regionSize - HEADER_SIZE) {
+            throw new IllegalArgumentException("Encoded item of " + length
+                    + " bytes can't fit in a region of " + regionSize);
+        }
+        int offset = reserve(size);
+        region.position(offset + LENGTH_SIZE);
+        region.putInt(checksum(length, encoded.buffer()));
+        region.put(encoded.buffer(), 0, length);
+        region.putInt(offset, length + 1);
+        position += size;
+    }
+
+    /**
+     * Writes the end marker and closes the file. Readers that have read
+     * every item will then see the end.
+     */
+    @Override
+    @PreDestroy
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            int offset = reserve(LENGTH_SIZE);
+            region.putInt(offset, END);
+            region.force();
+        } catch (IOException e) {
+            // readers won't see the end, but the items are intact
+        } finally {
+            try {
+                lock.release();
+                file.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+
+    private static FileLock tryLock(FileChannel channel)
+            throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            return null; // held by another sink in this process
+        }
+    }
+
+    /**
+     * Reads the header of a queue file and gets its region size.
+     */
+    static int readHeader(RandomAccessFile file) throws IOException {
+        if (file.length() < HEADER_SIZE) {
+            throw new IOException("Not a queue file; too short");
+        }
+        file.seek(0);
+        if (file.readInt() != MAGIC) {
+            throw new IOException("Not a queue file; bad magic number");
+        }
+        return file.readInt();
+    }
+
+    /**
+     * Gets the checksum of an item with the given length and bytes. That
+     * of an empty item isn't zero, so a checksum that hasn't been written
+     * yet can't match it.
+     */
+    static int checksum(int length, byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        return ~(int) crc.getValue() ^ length;
+    }
+
+    /**
+     * Gets the offset within its region of the first position at which
+     * something of the given size can be stored, starting from the given
+     * position, or -1 if it must go in the next region.
+     */
+    static int offsetFor(long position, int size, int regionSize) {
+        int offset = (int) (position % regionSize);
+        return regionSize - offset < size ? -1 : offset;
+    }
+
+    /**
+     * Maps the region for the current position, padding out the current
+     * region and moving to the next if there isn't room for the given
+     * number of bytes, and gets the offset to write at.
+     */
+    private int reserve(int size) throws IOException {
+        map(position / regionSize);
+        int offset = offsetFor(position, size, regionSize);
+        if (offset == -1) {
+            int padOffset = offsetFor(position, LENGTH_SIZE, regionSize);
+            if (padOffset != -1) {
+                region.putInt(padOffset, PAD);
+            }
+            position = (regionIndex + 1) * regionSize;
+            map(regionIndex + 1);
+            offset = 0;
+        }
+        return offset;
+    }
+
+    private void map(long index) throws IOException {
+        if (index != regionIndex) {
+            region = channel.map(FileChannel.MapMode.READ_WRITE,
+                    index * regionSize, regionSize);
+            regionIndex = index;
+        }
+    }
+
+    /**
+     * Follows the items from the start of the file to find where the next
+     * one should go.
+     */
+    private long findEnd() throws IOException {
+        long pos = HEADER_SIZE;
+        long length = file.length();
+        while (true) {
+            if (offsetFor(pos, LENGTH_SIZE, regionSize) == -1) {
+                pos = (pos / regionSize + 1) * regionSize;
+            }
+            if (pos + LENGTH_SIZE > length) {
+                return pos;
+            }
+            map(pos / regionSize);
+            int offset = (int) (pos % regionSize);
+            int n = region.getInt(offset);
+            if (n == END) {
+                // so new readers don't stop here while an item is added
+                region.putInt(offset, 0);
+                return pos;
+            } else if (n == 0) {
+                return pos;
+            } else if (n == PAD) {
+                pos = (pos / regionSize + 1) * regionSize;
+            } else {
+                pos += LENGTH_SIZE + CHECKSUM_SIZE + n - 1;
+            }
+        }
+    }
+
+    /** A byte array stream whose contents can be read without a copy. */
+    private static final class Encoded extends ByteArrayOutputStream {
+        byte[] buffer() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.github.cwilper.ttff;
+
+import javax.annotation.PreDestroy;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A source of the items in a queue file written by a
+ * {@link MappedQueueSink}, possibly while it is still being written.
+ * <p>
+ * The file is read through memory mappings, one region at a time, so no
+ * system calls are made per item. When the source has caught up with the
+ * writer, it waits for the next item, yielding at first and then sleeping
+ * briefly between checks, until the writer adds one or closes the queue.
+ * An item is only returned once its checksum matches, since its bytes
+ * may become visible after its length does.
+ * <p>
+ * If given a position file, the source keeps its position there, also
+ * memory-mapped, so that a source opened later with the same position
+ * file carries on where this one left off. The position is updated when
+ * the next item is asked for, so an item that was returned but perhaps
+ * not fully handled before a crash will be returned again.
+ *
+ * @param <T> the type over which the source operates.
+ * @see Sources#mappedQueue(File, Codec, String)
+ */
+class MappedQueueSource<T> extends AbstractSource<T> {
+
+    private static final int SPINS = 100;
+    private static final int POSITION_SIZE = 8;
+
+    private final Codec<T> codec;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int regionSize;
+
+    /** The mapped position file, or null if the position isn't kept. */
+    private final RandomAccessFile positionFile;
+    private final MappedByteBuffer positionBuffer;
+
+    private MappedByteBuffer region;
+    private long regionIndex = -1;
+    private long position;
+    private byte[] bytes = new byte[256];
+
+    private volatile boolean closed;
+
+    MappedQueueSource(File file, Codec<T> codec, File positionFile)
+            throws IOException {
+        this.codec = codec;
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+        try {
+            this.regionSize = MappedQueueSink.readHeader(this.file);
+            if (positionFile == null) {
+                this.positionFile = null;
+                this.positionBuffer = null;
+            } else {
+                this.positionFile = new RandomAccessFile(positionFile, "rw");
+                this.positionBuffer = this.positionFile.getChannel().map(
+                        FileChannel.MapMode.READ_WRITE, 0, POSITION_SIZE);
+                position = positionBuffer.getLong(0);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        if (position < MappedQueueSink.HEADER_SIZE) {
+            position = MappedQueueSink.HEADER_SIZE;
+        }
+    }
+
+    @Override
+    protected T computeNext() throws IOException {
+        savePosition();
+        int spins = 0;
+        while (true) {
+            int offset = MappedQueueSink.offsetFor(position,
+                    MappedQueueSink.LENGTH_SIZE, regionSize);
+            if (offset == -1) {
+                position = (position / regionSize + 1) * regionSize;
+                continue;
+            }
+            if (!map(position / regionSize)) {
+                spins = idle(spins);
+                continue;
+            }
+            int stored = region.getInt(offset);
+            if (stored == MappedQueueSink.END) {
+                return endOfData();
+            } else if (stored == MappedQueueSink.PAD) {
+                position = (regionIndex + 1) * regionSize;
+            } else if (!read(offset, stored - 1)) {
+                spins = idle(spins);
+            } else {
+                position += MappedQueueSink.LENGTH_SIZE
+                        + MappedQueueSink.CHECKSUM_SIZE + stored - 1;
+                return codec.decode(new DataInputStream(
+                        new ByteArrayInputStream(bytes, 0, stored - 1)));
+            }
+        }
+    }
+
+    /**
+     * Saves the position, if a position file is in use, and closes the
+     * files. If another thread is waiting for an item, it will fail with
+     * an <code>IllegalStateException</code>.
+     */
+    @Override
+    @PreDestroy
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (positionBuffer != null) {
+                savePosition();
+                positionBuffer.force();
+            }
+        } finally {
+            try {
+                file.close();
+                if (positionFile != null) {
+                    positionFile.close();
+                }
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+
+    private void savePosition() {
+        if (positionBuffer != null) {
+            positionBuffer.putLong(0, position);
+        }
+    }
+
+    /**
+     * Reads the bytes of an item of the given length into the buffer, and
+     * tells whether they are all there. A negative length means nothing
+     * has been written yet, and one that doesn't fit means the length
+     * itself is only partly visible.
+     */
+    private boolean read(int offset, int length) {
+        int start = offset + MappedQueueSink.LENGTH_SIZE
+                + MappedQueueSink.CHECKSUM_SIZE;
+        if (length < 0 || length > regionSize - start) {
+            return false;
+        }
+        if (bytes.length < length) {
+            bytes = new byte[Math.max(length, bytes.length * 2)];
+        }
+        region.position(offset + MappedQueueSink.LENGTH_SIZE);
+        int checksum = region.getInt();
+        region.get(bytes, 0, length);
+        return checksum == MappedQueueSink.checksum(length, bytes);
+    }
+
+    /**
+     * Maps the region with the given index, if the writer has created it,
+     * and tells whether it is mapped.
+     */
+    private boolean map(long index) throws IOException {
+        if (index == regionIndex) {
+            return true;
+        }
+        long start = index * regionSize;
+        if (channel.size() < start + regionSize) {
+            return false;
+        }
+        region = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                regionSize);
+        regionIndex = index;
+        return true;
+    }
+
+    /**
+     * Waits a little for the writer, yielding for the first few calls in a
+     * row and sleeping after that, and gets the new number of calls.
+     */
+    private int idle(int spins) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Source is closed");
+        }
+        if (spins < SPINS) {
+            Thread.yield();
+        } else {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+        return spins + 1;
+    }
+}
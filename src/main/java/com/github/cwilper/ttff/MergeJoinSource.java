@@ -0,0 +1,140 @@
+package com.github.cwilper.ttff;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A source that joins two other sources on equal keys by reading both in
+ * ascending key order, side by side.
+ * <p>
+ * Only the current run of left items sharing a key is held in memory,
+ * so when keys are unique on the left, as with reference data, memory use
+ * is constant. Each right item is combined with every left item in the
+ * run with its key.
+ *
+ * @param <L> the type of left item.
+ * @param <R> the type of right item.
+ * @param <K> the type of key.
+ * @param <T> the type of result.
+ * @see Sources#mergeJoin(Source, Source, Function, Function, Comparator,
+ *      Combiner)
+ */
+class MergeJoinSource<L, R, K, T> extends AbstractSource<T> {
+
+    private final Source<L> left;
+    private final Source<R> right;
+    private final Function<L, K> leftKey;
+    private final Function<R, K> rightKey;
+    private final Comparator<? super K> comparator;
+    private final Combiner<L, R, T> combiner;
+
+    /** The left source, if it recycles items; otherwise null. */
+    private final ReusableSource<L> reusable;
+
+    /** The current run of left items, all with the key runKey. */
+    private final List<L> run = new ArrayList<L>();
+    private K runKey;
+
+    /** The current right item and the index of the next match for it. */
+    private R item;
+    private int matchIndex;
+
+    private K lastRightKey;
+
+    MergeJoinSource(Source<L> left, Source<R> right, Function<L, K> leftKey,
+                    Function<R, K> rightKey, Comparator<? super K> comparator,
+                    Combiner<L, R, T> combiner) {
+        this.left = left;
+        this.right = right;
+        this.leftKey = leftKey;
+        this.rightKey = rightKey;
+        this.comparator = comparator;
+        this.combiner = combiner;
+        if (left instanceof ReusableSource) {
+            this.reusable = (ReusableSource<L>) left;
+        } else {
+            this.reusable = null;
+        }
+    }
+
+    @Override
+    protected T computeNext() throws IOException {
+        while (true) {
+            while (item != null && matchIndex < run.size()) {
+                T result = combiner.combine(run.get(matchIndex++), item);
+                if (result != null) {
+                    return result;
+                }
+            }
+            item = null;
+            if (!right.hasNext()) {
+                return endOfData();
+            }
+            R next = right.next();
+            K key = rightKey.apply(next);
+            if (lastRightKey != null
+                    && comparator.compare(lastRightKey, key) > 0) {
+                throw new IOException("Right source is not sorted by key: "
+                        + lastRightKey + " then " + key);
+            }
+            lastRightKey = key;
+            if (!advanceTo(key)) {
+                // nothing on the left can match this or any later item
+                right.close();
+                return endOfData();
+            }
+            if (!run.isEmpty() && comparator.compare(runKey, key) == 0) {
+                item = next;
+                matchIndex = 0;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        left.close();
+        right.close();
+        run.clear();
+        item = null;
+    }
+
+    /**
+     * Moves the run forward, if necessary, to the first left key that is
+     * at least the given one.
+     *
+     * @return <code>false</code> if there is no such key.
+     */
+    private boolean advanceTo(K key) throws IOException {
+        if (!run.isEmpty() && comparator.compare(runKey, key) >= 0) {
+            return true;
+        }
+        run.clear();
+        while (left.hasNext()) {
+            K nextKey = leftKey.apply(left.peek());
+            if (runKey != null && comparator.compare(runKey, nextKey) > 0) {
+                throw new IOException("Left source is not sorted by key: "
+                        + runKey + " then " + nextKey);
+            }
+            runKey = nextKey;
+            if (comparator.compare(nextKey, key) >= 0) {
+                loadRun();
+                return true;
+            }
+            left.next();
+        }
+        return false;
+    }
+
+    /** Takes all the left items with key runKey. */
+    private void loadRun() throws IOException {
+        while (left.hasNext()
+                && comparator.compare(leftKey.apply(left.peek()), runKey)
+                        == 0) {
+            L next = left.next();
+            run.add(reusable == null ? next : reusable.copy(next));
+        }
+    }
+
+}
@@ -0,0 +1,134 @@
+package com.github.cwilper.ttff;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * A named collection of {@link StageMetrics}, optionally exposed as JMX
+ * MBeans.
+ * <p>
+ * Each metrics instance registered with an <code>MBeanServer</code> is
+ * given an <code>ObjectName</code> of the form
+ * <code><i>domain</i>:type=Stage,name=<i>name</i></code>.
+ *
+ * @see Sources#instrument(Source, String)
+ * @see Filters#instrument(Filter, String)
+ * @see Sinks#instrument(Sink, String)
+ */
+public final class MetricsRegistry {
+
+    /** The JMX domain used by the default registry. */
+    public static final String DEFAULT_DOMAIN = "com.github.cwilper.ttff";
+
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry(
+            ManagementFactory.getPlatformMBeanServer(), DEFAULT_DOMAIN);
+
+    private final ConcurrentMap<String, StageMetrics> metrics =
+            new ConcurrentHashMap<String, StageMetrics>();
+
+    private final MBeanServer server;
+    private final String domain;
+
+    /**
+     * Creates a registry that is not exposed via JMX.
+     */
+    public MetricsRegistry() {
+        this(null, null);
+    }
+
+    /**
+     * Creates a registry that exposes its metrics as MBeans.
+     *
+     * @param server the server to register with, or <code>null</code> to
+     *        not expose metrics via JMX.
+     * @param domain the domain of each <code>ObjectName</code>.
+     */
+    public MetricsRegistry(MBeanServer server, String domain) {
+        this.server = server;
+        this.domain = domain;
+    }
+
+    /**
+     * Gets the default registry, which exposes its metrics via the
+     * platform <code>MBeanServer</code> under {@link #DEFAULT_DOMAIN}.
+     *
+     * @return the default registry.
+     */
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Gets the metrics with the given name, creating and registering them
+     * if needed.
+     *
+     * @param name the name.
+     * @return the metrics.
+     * @throws IllegalStateException if JMX registration fails.
+     */
+    public StageMetrics get(String name) {
+        StageMetrics existing = metrics.get(name);
+        if (existing != null) {
+            return existing;
+        }
+        StageMetrics created = new StageMetrics(name);
+        existing = metrics.putIfAbsent(name, created);
+        if (existing != null) {
+            return existing;
+        }
+        if (server != null) {
+            try {
+                ObjectName objectName = objectName(name);
+                if (server.isRegistered(objectName)) {
+                    server.unregisterMBean(objectName);
+                }
+                server.registerMBean(created, objectName);
+            } catch (JMException e) {
+                metrics.remove(name);
+                throw new IllegalStateException(
+                        "Unable to register metrics for " + name, e);
+            }
+        }
+        return created;
+    }
+
+    /**
+     * Gets all metrics in the registry.
+     *
+     * @return a snapshot of the metrics.
+     */
+    public Collection<StageMetrics> getAll() {
+        return new ArrayList<StageMetrics>(metrics.values());
+    }
+
+    /**
+     * Removes the metrics with the given name, if any, and unregisters
+     * them from JMX.
+     *
+     * @param name the name.
+     */
+    public void remove(String name) {
+        if (metrics.remove(name) != null && server != null) {
+            try {
+                server.unregisterMBean(objectName(name));
+            } catch (InstanceNotFoundException e) {
+                // already gone
+            } catch (JMException e) {
+                throw new IllegalStateException(
+                        "Unable to unregister metrics for " + name, e);
+            }
+        }
+    }
+
+    private ObjectName objectName(String name) throws JMException {
+        return new ObjectName(domain + ":type=Stage,name="
+                + ObjectName.quote(name));
+    }
+}
@@ -0,0 +1,242 @@
+package com.github.cwilper.ttff;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A bounded queue that hands items from one thread to another through a
+ * fixed-size ring buffer in direct memory.
+ * <p>
+ * The queue is itself the {@link Sink} that the producing thread puts
+ * items into, and {@link #source()} gives the {@link Source} that the
+ * consuming thread reads them from. Each item is encoded with a
+ * {@link Codec} and stored in the ring, prefixed by its length, so items
+ * in flight take no space on the heap; only one item at a time is held
+ * in encoded form on each side. When the ring is full, the producer
+ * waits; when it is empty, the consumer waits.
+ * <p>
+ * Closing the sink marks the end of the items, which the consumer sees
+ * after reading everything before it. Closing the source makes any
+ * further <code>put</code> fail. The direct memory is released once the
+ * queue is no longer referenced.
+ * <p>
+ * There must be only one producing thread and one consuming thread.
+ *
+ * @param <T> the type of item.
+ * @see Sinks#offHeapQueue(int, Codec)
+ * @see Sources#offHeapBuffered(Source, int, Codec)
+ */
+public final class OffHeapQueue<T> extends AbstractSink<T> {
+
+    private static final int LENGTH_SIZE = 4;
+
+    private final Codec<T> codec;
+    private final int capacity;
+    private final Source<T> source;
+
+    /** The producer's view of the ring. */
+    private final ByteBuffer writer;
+
+    /** The consumer's view of the ring. */
+    private final ByteBuffer reader;
+
+    private final Encoded encoded = new Encoded();
+    private final DataOutputStream encoder = new DataOutputStream(encoded);
+    private final byte[] lengthBytes = new byte[LENGTH_SIZE];
+    private byte[] decoded = new byte[256];
+
+    /** Total bytes ever read and written; guarded by this. */
+    private long head;
+    private long tail;
+
+    private boolean producerClosed;
+    private boolean consumerClosed;
+    private Throwable failure;
+
+    OffHeapQueue(int capacity, Codec<T> codec) {
+        if (capacity < LENGTH_SIZE + 1) {
+            throw new IllegalArgumentException("capacity must be > "
+                    + LENGTH_SIZE);
+        }
+        this.capacity = capacity;
+        this.codec = codec;
+        ByteBuffer ring = ByteBuffer.allocateDirect(capacity);
+        this.writer = ring.duplicate();
+        this.reader = ring.duplicate();
+        this.source = new AbstractSource<T>() {
+            @Override
+            protected T computeNext() throws IOException {
+                T item = take();
+                return item == null ? endOfData() : item;
+            }
+
+            @Override
+            public void close() {
+                closeConsumer();
+            }
+        };
+    }
+
+    /**
+     * Gets the consuming end of the queue. The same source is returned
+     * every time.
+     *
+     * @return the source.
+     */
+    public Source<T> source() {
+        return source;
+    }
+
+    /**
+     * Puts the given item in the queue, waiting for space if necessary.
+     *
+     * @param item the item.
+     * @throws IOException if the item can't be encoded, if the consumer
+     *         has closed the queue, or if the thread is interrupted.
+     * @throws IllegalArgumentException if the encoded item can never fit.
+     */
+    @Override
+    public void put(T item) throws IOException {
+        encoded.reset();
+        codec.encode(item, encoder);
+        encoder.flush();
+        int length = encoded.size();
+        int needed = LENGTH_SIZE + length;
+        if (needed > capacity) {
+            throw new IllegalArgumentException("Encoded item of " + length
+                    + " bytes can't fit in a queue of " + capacity);
+        }
+        long position;
+        synchronized (this) {
+            if (producerClosed) {
+                throw new IllegalStateException("Sink is closed");
+            }
+            while (!consumerClosed && capacity - (tail - head) < needed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+            }
+            if (consumerClosed) {
+                throw new IOException("Queue is closed");
+            }
+            position = tail;
+        }
+        // only the producer writes beyond tail, so no lock is needed
+        lengthBytes[0] = (byte) (length >>> 24);
+        lengthBytes[1] = (byte) (length >>> 16);
+        lengthBytes[2] = (byte) (length >>> 8);
+        lengthBytes[3] = (byte) length;
+        write(position, lengthBytes, LENGTH_SIZE);
+        write(position + LENGTH_SIZE, encoded.buffer(), length);
+        synchronized (this) {
+            tail += needed;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Marks the end of the items. The consumer will see the end once it
+     * has read everything put before this.
+     */
+    @Override
+    public synchronized void close() {
+        producerClosed = true;
+        notifyAll();
+    }
+
+    /**
+     * Marks the end of the items because the producer failed. The consumer
+     * will be given the failure once it has read everything put before
+     * this.
+     */
+    synchronized void fail(Throwable th) {
+        if (!producerClosed) {
+            failure = th;
+        }
+        close();
+    }
+
+    private T take() throws IOException {
+        long position;
+        synchronized (this) {
+            while (tail == head) {
+                if (consumerClosed) {
+                    throw new IllegalStateException("Source is closed");
+                }
+                if (failure != null) {
+                    if (failure instanceof IOException) {
+                        throw (IOException) failure;
+                    }
+                    throw new IOException(failure);
+                }
+                if (producerClosed) {
+                    return null; // the end
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+            }
+            position = head;
+        }
+        // only the consumer reads between head and tail
+        read(position, lengthBytes, LENGTH_SIZE);
+        int length = ((lengthBytes[0] & 0xff) << 24)
+                | ((lengthBytes[1] & 0xff) << 16)
+                | ((lengthBytes[2] & 0xff) << 8)
+                | (lengthBytes[3] & 0xff);
+        if (decoded.length < length) {
+            decoded = new byte[Math.max(length, decoded.length * 2)];
+        }
+        read(position + LENGTH_SIZE, decoded, length);
+        synchronized (this) {
+            head += LENGTH_SIZE + length;
+            notifyAll();
+        }
+        return codec.decode(new DataInputStream(
+                new ByteArrayInputStream(decoded, 0, length)));
+    }
+
+    private synchronized void closeConsumer() {
+        consumerClosed = true;
+        notifyAll();
+    }
+
+    private void write(long position, byte[] bytes, int length) {
+        int offset = (int) (position % capacity);
+        int first = Math.min(length, capacity - offset);
+        writer.position(offset);
+        writer.put(bytes, 0, first);
+        if (first < length) {
+            writer.position(0);
+            writer.put(bytes, first, length - first);
+        }
+    }
+
+    private void read(long position, byte[] bytes, int length) {
+        int offset = (int) (position % capacity);
+        int first = Math.min(length, capacity - offset);
+        reader.position(offset);
+        reader.get(bytes, 0, first);
+        if (first < length) {
+            reader.position(0);
+            reader.get(bytes, first, length - first);
+        }
+    }
+
+    /** A byte array stream whose contents can be read without a copy. */
+    private static final class Encoded extends ByteArrayOutputStream {
+        byte[] buffer() {
+            return buf;
+        }
+    }
+}
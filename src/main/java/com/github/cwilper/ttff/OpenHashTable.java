@@ -0,0 +1,126 @@
+package com.github.cwilper.ttff;
+
+/**
+ * A compact hash table using open addressing with linear probing.
+ * <p>
+ * Keys and values are held in two flat arrays rather than in per-entry
+ * objects, so the table costs two references per slot plus the keys and
+ * values themselves. <code>null</code> keys are supported; entries cannot
+ * be removed individually.
+ *
+ * @param <K> the type of key.
+ * @param <V> the type of value.
+ */
+final class OpenHashTable<K, V> {
+
+    private static final Object NULL_KEY = new Object();
+    private static final int MIN_CAPACITY = 16;
+
+    private Object[] keys;
+    private Object[] values;
+    private int size;
+
+    OpenHashTable() {
+        clear();
+    }
+
+    /** Gets the number of entries. */
+    int size() {
+        return size;
+    }
+
+    /** Gets the number of slots, for use with keyAt and valueAt. */
+    int capacity() {
+        return keys.length;
+    }
+
+    /** Gets the value for the given key, or null if not present. */
+    @SuppressWarnings("unchecked")
+    V get(K key) {
+        Object k = mask(key);
+        int i = indexFor(k, keys.length);
+        while (keys[i] != null) {
+            if (keys[i].equals(k)) {
+                return (V) values[i];
+            }
+            i = (i + 1) & (keys.length - 1);
+        }
+        return null;
+    }
+
+    /** Sets the value for the given key. */
+    void put(K key, V value) {
+        Object k = mask(key);
+        int i = indexFor(k, keys.length);
+        while (keys[i] != null) {
+            if (keys[i].equals(k)) {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & (keys.length - 1);
+        }
+        keys[i] = k;
+        values[i] = value;
+        if (++size > keys.length >> 1) {
+            resize(keys.length << 1);
+        }
+    }
+
+    /** Gets the key in the given slot, which must be occupied. */
+    @SuppressWarnings("unchecked")
+    K keyAt(int slot) {
+        Object k = keys[slot];
+        return k == NULL_KEY ? null : (K) k;
+    }
+
+    /** Gets the value in the given slot, or null if the slot is empty. */
+    @SuppressWarnings("unchecked")
+    V valueAt(int slot) {
+        return (V) values[slot];
+    }
+
+    /** Tells whether the given slot holds an entry. */
+    boolean isOccupied(int slot) {
+        return keys[slot] != null;
+    }
+
+    /** Removes all entries, releasing the storage. */
+    void clear() {
+        keys = new Object[MIN_CAPACITY];
+        values = new Object[MIN_CAPACITY];
+        size = 0;
+    }
+
+    /** Spreads the key's hash code so that low bits vary. */
+    static int hash(Object key) {
+        int h = key == null ? 0 : key.hashCode();
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static Object mask(Object key) {
+        return key == null ? NULL_KEY : key;
+    }
+
+    private static int indexFor(Object maskedKey, int length) {
+        return hash(maskedKey == NULL_KEY ? null : maskedKey) & (length - 1);
+    }
+
+    private void resize(int capacity) {
+        Object[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new Object[capacity];
+        values = new Object[capacity];
+        for (int j = 0; j < oldKeys.length; j++) {
+            Object k = oldKeys[j];
+            if (k != null) {
+                int i = indexFor(k, capacity);
+                while (keys[i] != null) {
+                    i = (i + 1) & (capacity - 1);
+                }
+                keys[i] = k;
+                values[i] = oldValues[j];
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.github.cwilper.ttff;
+
+import javax.annotation.PreDestroy;
+
+import java.io.IOException;
+
+/**
+ * A source that applies a filter to the items of another source on
+ * several threads at once, returning the results in the original order.
+ * <p>
+ * Each worker thread takes the next item from the wrapped source, numbers
+ * it, and applies the filter outside the lock; the result goes into a
+ * reorder buffer slot chosen by that number. The consumer returns results
+ * strictly in order, skipping rejected items, so a slow item holds up
+ * later results but not the workers, until they are a whole window ahead.
+ * Only one worker reads from the wrapped source at a time.
+ *
+ * @param <T> the type over which the source operates.
+ * @see Sources#parallelFilter(Source, Filter, int, int)
+ */
+class ParallelFilterSource<T> extends AbstractSource<T> {
+
+    private static final byte EMPTY = 0;
+    private static final byte PENDING = 1;
+    private static final byte DONE = 2;
+    private static final byte FAILED = 3;
+
+    private final Source<T> source;
+    private final Filter<T> filter;
+    private final Thread[] workers;
+
+    /** The source, if it recycles items; otherwise <code>null</code>. */
+    private final ReusableSource<T> reusable;
+
+    /** The reorder buffer, indexed by item number; guarded by this. */
+    private final Object[] slots;
+    private final byte[] states;
+
+    /** The number of the next item to read, and to return. */
+    private long nextRead;
+    private long nextEmit;
+
+    private boolean reading;
+    private boolean exhausted;
+    private boolean closed;
+
+    @SuppressWarnings("unchecked")
+    ParallelFilterSource(Source<T> source, Filter<T> filter, int threads,
+                         int window) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be > 0");
+        }
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be > 0");
+        }
+        this.source = source;
+        this.filter = filter;
+        this.reusable = source instanceof ReusableSource
+                ? (ReusableSource<T>) source : null;
+        this.slots = new Object[window];
+        this.states = new byte[window];
+        this.workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            }, "ttff-parallel-filter");
+            workers[i].setDaemon(true);
+        }
+    }
+
+    void start() {
+        for (Thread worker: workers) {
+            worker.start();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected synchronized T computeNext() throws IOException {
+        while (true) {
+            if (closed) {
+                throw new IllegalStateException("Source is closed");
+            }
+            int slot = (int) (nextEmit % slots.length);
+            byte state = states[slot];
+            if (state == DONE || state == FAILED) {
+                Object result = slots[slot];
+                slots[slot] = null;
+                states[slot] = EMPTY;
+                nextEmit++;
+                notifyAll();
+                if (state == FAILED) {
+                    Throwable th = (Throwable) result;
+                    if (th instanceof IOException) {
+                        throw (IOException) th;
+                    }
+                    throw new IOException(th);
+                }
+                if (result != null) {
+                    return (T) result;
+                }
+            } else if (exhausted && nextEmit == nextRead) {
+                return endOfData();
+            } else {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the workers and closes the wrapped source. The filter is not
+     * closed.
+     */
+    @Override
+    @PreDestroy
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        for (Thread worker: workers) {
+            worker.interrupt();
+        }
+        source.close();
+    }
+
+    private void work() {
+        while (true) {
+            long number;
+            synchronized (this) {
+                while (!closed && !exhausted
+                        && (reading || nextRead - nextEmit == slots.length)) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed || exhausted) {
+                    return;
+                }
+                reading = true;
+                number = nextRead;
+            }
+            T item = null;
+            Throwable th = null;
+            try {
+                if (source.hasNext()) {
+                    item = source.next();
+                    if (reusable != null) {
+                        item = reusable.copy(item);
+                    }
+                }
+            } catch (Throwable e) {
+                th = e;
+            }
+            int slot = (int) (number % slots.length);
+            synchronized (this) {
+                reading = false;
+                if (th != null || item == null) {
+                    exhausted = true;
+                }
+                if (th != null) {
+                    // reported in order, after the items read before it
+                    slots[slot] = th;
+                    states[slot] = FAILED;
+                    nextRead++;
+                } else if (item != null) {
+                    states[slot] = PENDING;
+                    nextRead++;
+                }
+                notifyAll();
+            }
+            if (item == null) {
+                source.close();
+                return;
+            }
+            Object result;
+            byte state;
+            try {
+                result = filter.accept(item);
+                state = DONE;
+            } catch (Throwable e) {
+                result = e;
+                state = FAILED;
+            }
+            synchronized (this) {
+                slots[slot] = result;
+                states[slot] = state;
+                notifyAll();
+            }
+        }
+    }
+}
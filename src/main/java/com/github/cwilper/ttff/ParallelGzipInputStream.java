@@ -0,0 +1,459 @@
+package com.github.cwilper.ttff;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A stream of the decompressed contents of a gzip file, whose members are
+ * decompressed in parallel where possible.
+ * <p>
+ * Files written by <code>bgzip</code>, or by concatenating gzip files,
+ * consist of many independent members; <code>gzip</code> and, by default,
+ * <code>pigz</code> write just one.
+ * This stream scans ahead for the bytes that start a member header, and
+ * worker threads speculatively decompress a member from each such offset,
+ * checking its CRC and length. Since those bytes may also occur by chance
+ * within compressed data, a worker's output is used only if the previous
+ * member ends exactly where it begins; otherwise it is discarded.
+ * <p>
+ * A member whose output would exceed a fixed size is not buffered, but
+ * decompressed by the reading thread as it reads, so a file that is one
+ * large member is read much as <code>GZIPInputStream</code> would read it.
+ */
+class ParallelGzipInputStream extends InputStream {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long SCAN_AHEAD = 64L * 1024 * 1024;
+
+    private static final int PENDING = 0;
+    private static final int DONE = 1;
+    private static final int TOO_LARGE = 2;
+    private static final int FAILED = 3;
+
+    private static final int FTEXT_MASK = 0xe0;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long length;
+    private final int maxBuffered;
+    private final int window;
+    private final Thread[] workers;
+
+    /** Tasks by offset, and those not yet started; guarded by this. */
+    private final LinkedList<Task> tasks = new LinkedList<Task>();
+    private final LinkedList<Task> queue = new LinkedList<Task>();
+    private boolean closed;
+
+    /** Used only by the reading thread. */
+    private final byte[] scanBuffer = new byte[BUFFER_SIZE];
+    private long scanned;
+    private long memberStart;
+    private byte[] output;
+    private int outputPos;
+    private int outputLimit;
+    private Member sequential;
+
+    ParallelGzipInputStream(RandomAccessFile file, int threads,
+                            int maxBuffered) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be > 0");
+        }
+        this.file = file;
+        this.channel = file.getChannel();
+        this.length = channel.size();
+        this.maxBuffered = maxBuffered;
+        this.window = threads * 2;
+        this.workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            }, "ttff-gunzip");
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (true) {
+            if (outputPos < outputLimit) {
+                int n = Math.min(len, outputLimit - outputPos);
+                System.arraycopy(output, outputPos, b, off, n);
+                outputPos += n;
+                return n;
+            }
+            if (sequential != null) {
+                int n = sequential.read(b, off, len);
+                if (n != -1) {
+                    return n;
+                }
+                memberStart = sequential.end();
+                sequential.close();
+                sequential = null;
+            }
+            if (!nextMember()) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Stops the workers and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        // not interrupting the workers, which would close the channel
+        if (sequential != null) {
+            sequential.close();
+        }
+        file.close();
+    }
+
+    /**
+     * Moves on to the member at memberStart, using a worker's output if
+     * there is one, and tells whether there is such a member.
+     */
+    private boolean nextMember() throws IOException {
+        if (memberStart >= length) {
+            return false;
+        }
+        int wanted;
+        synchronized (this) {
+            Iterator<Task> it = tasks.iterator();
+            while (it.hasNext()) {
+                Task t = it.next();
+                if (t.offset >= memberStart) {
+                    break;
+                }
+                it.remove();
+                queue.remove(t);
+            }
+            wanted = window - tasks.size();
+        }
+        List<Task> found = new ArrayList<Task>();
+        while (found.size() < wanted && scanned < length
+                && scanned <= memberStart + SCAN_AHEAD) {
+            long offset = scan();
+            if (offset != -1) {
+                found.add(new Task(offset));
+            }
+        }
+        Task task;
+        synchronized (this) {
+            tasks.addAll(found);
+            queue.addAll(found);
+            notifyAll();
+            task = tasks.isEmpty() ? null : tasks.getFirst();
+            if (task != null && task.offset == memberStart) {
+                tasks.removeFirst();
+                queue.remove(task);
+                if (task.state == PENDING && task.running) {
+                    while (task.state == PENDING) {
+                        if (closed) {
+                            throw new IOException("Stream closed");
+                        }
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new IOException(e);
+                        }
+                    }
+                }
+            } else {
+                task = null;
+            }
+        }
+        if (task != null && task.state == DONE) {
+            output = task.output;
+            outputPos = 0;
+            outputLimit = task.size;
+            memberStart = task.end;
+        } else if (memberStart > 0
+                && !isHeader(scanBuffer, 0, readAt(scanBuffer, memberStart))) {
+            // like GZIPInputStream, ignore anything after the last member
+            memberStart = length;
+            return false;
+        } else {
+            // not yet started, too large, or failed; read it as we go,
+            // which reports any failure properly
+            sequential = new Member(memberStart);
+        }
+        return true;
+    }
+
+    /**
+     * Scans the next stretch of the file for the start of a member header,
+     * and gets its offset, or -1 if none was found in that stretch.
+     */
+    private long scan() throws IOException {
+        long start = scanned;
+        int n = readAt(scanBuffer, start);
+        if (n <= 0) {
+            scanned = length;
+            return -1;
+        }
+        // the last few bytes are scanned again with the next stretch
+        int limit = start + n >= length ? n : n - 3;
+        for (int i = 0; i < limit; i++) {
+            if (isHeader(scanBuffer, i, n)) {
+                scanned = start + i + 1;
+                return start + i;
+            }
+        }
+        scanned = start + limit;
+        return -1;
+    }
+
+    private static boolean isHeader(byte[] b, int i, int n) {
+        return i + 3 < n && b[i] == 0x1f && (b[i + 1] & 0xff) == 0x8b
+                && b[i + 2] == 8 && (b[i + 3] & FTEXT_MASK) == 0;
+    }
+
+    private int readAt(byte[] b, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(b);
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + total);
+            if (n == -1) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    private void work() {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        while (true) {
+            Task task;
+            synchronized (this) {
+                while (!closed && queue.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+                task = queue.removeFirst();
+                task.running = true;
+            }
+            int state;
+            byte[] out = new byte[BUFFER_SIZE];
+            int size = 0;
+            long end = 0;
+            Member member = null;
+            try {
+                member = new Member(task.offset);
+                state = DONE;
+                int n;
+                while ((n = member.read(buffer, 0, buffer.length)) != -1) {
+                    if (size + n > maxBuffered) {
+                        state = TOO_LARGE;
+                        break;
+                    }
+                    if (size + n > out.length) {
+                        out = Arrays.copyOf(out, Math.max(size + n,
+                                Math.min(out.length * 2, maxBuffered)));
+                    }
+                    System.arraycopy(buffer, 0, out, size, n);
+                    size += n;
+                }
+                end = state == DONE ? member.end() : 0;
+            } catch (Throwable th) {
+                state = FAILED;
+            } finally {
+                if (member != null) {
+                    member.close();
+                }
+            }
+            synchronized (this) {
+                task.output = out;
+                task.size = size;
+                task.end = end;
+                task.state = state;
+                notifyAll();
+            }
+        }
+    }
+
+    /** A speculative decompression of a member from some offset. */
+    private static final class Task {
+        final long offset;
+
+        /** Guarded by the stream. */
+        boolean running;
+        int state = PENDING;
+        byte[] output;
+        int size;
+        long end;
+
+        Task(long offset) {
+            this.offset = offset;
+        }
+    }
+
+    /** Decompresses one member, reading the file as needed. */
+    private final class Member {
+        private final Inflater inflater = new Inflater(true);
+        private final CRC32 crc = new CRC32();
+        private final byte[] in = new byte[BUFFER_SIZE];
+        private int inPos;
+        private int inLimit;
+
+        /** The file position just after the bytes in the buffer. */
+        private long position;
+        private boolean finished;
+        private long end;
+
+        Member(long offset) throws IOException {
+            this.position = offset;
+            readHeader();
+        }
+
+        int read(byte[] b, int off, int len) throws IOException {
+            if (finished) {
+                return -1;
+            }
+            try {
+                while (true) {
+                    int n = inflater.inflate(b, off, len);
+                    if (n > 0) {
+                        crc.update(b, off, n);
+                        return n;
+                    }
+                    if (inflater.finished()) {
+                        inPos = inLimit - inflater.getRemaining();
+                        readTrailer();
+                        return -1;
+                    }
+                    if (inflater.needsDictionary()) {
+                        throw new ZipException("Unexpected dictionary");
+                    }
+                    if (inflater.needsInput()) {
+                        if (inPos == inLimit) {
+                            fill();
+                        }
+                        inflater.setInput(in, inPos, inLimit - inPos);
+                        inPos = inLimit;
+                    }
+                }
+            } catch (DataFormatException e) {
+                throw new ZipException(e.getMessage());
+            }
+        }
+
+        long end() {
+            return end;
+        }
+
+        void close() {
+            inflater.end();
+        }
+
+        private void readHeader() throws IOException {
+            if (readByte() != 0x1f || readByte() != 0x8b
+                    || readByte() != 8) {
+                throw new ZipException("Not in GZIP format");
+            }
+            int flags = readByte();
+            skip(6);
+            if ((flags & FEXTRA) != 0) {
+                skip(readByte() | (readByte() << 8));
+            }
+            if ((flags & FNAME) != 0) {
+                while (readByte() != 0) {
+                    continue;
+                }
+            }
+            if ((flags & FCOMMENT) != 0) {
+                while (readByte() != 0) {
+                    continue;
+                }
+            }
+            if ((flags & FHCRC) != 0) {
+                skip(2);
+            }
+        }
+
+        private void readTrailer() throws IOException {
+            long expectedCrc = readInt() & 0xffffffffL;
+            long expectedSize = readInt() & 0xffffffffL;
+            if (expectedCrc != crc.getValue()) {
+                throw new ZipException("Corrupt GZIP trailer");
+            }
+            if (expectedSize != (inflater.getBytesWritten() & 0xffffffffL)) {
+                throw new ZipException("Corrupt GZIP trailer");
+            }
+            finished = true;
+            end = position - (inLimit - inPos);
+        }
+
+        private int readInt() throws IOException {
+            return readByte() | (readByte() << 8) | (readByte() << 16)
+                    | (readByte() << 24);
+        }
+
+        private void skip(int n) throws IOException {
+            for (int i = 0; i < n; i++) {
+                readByte();
+            }
+        }
+
+        private int readByte() throws IOException {
+            if (inPos == inLimit) {
+                fill();
+            }
+            return in[inPos++] & 0xff;
+        }
+
+        private void fill() throws IOException {
+            int n = readAt(in, position);
+            if (n <= 0) {
+                throw new EOFException("Unexpected end of GZIP input");
+            }
+            position += n;
+            inPos = 0;
+            inLimit = n;
+        }
+    }
+}
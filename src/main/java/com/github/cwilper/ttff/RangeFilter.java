@@ -0,0 +1,37 @@
+package com.github.cwilper.ttff;
+
+/**
+ * A {@link Filter} that can tell when no later item of a sorted source
+ * can pass.
+ * <p>
+ * {@link Sources#filter(Source, Filter)} uses this to stop reading a
+ * sorted source early, and to carry the characteristics of the source
+ * over to the filtered one when the filter passes items through
+ * unchanged. The built-in filters from {@link Filters} implement it.
+ *
+ * @param <T> the type over which the filter operates.
+ */
+public interface RangeFilter<T> extends Filter<T> {
+
+    /**
+     * Tells whether <code>accept</code> always returns either the object
+     * it is given or <code>null</code>.
+     *
+     * @return <code>true</code> if so.
+     */
+    boolean isPassThrough();
+
+    /**
+     * Tells whether this filter rejects the given object and every object
+     * that may follow it in a sequence with the given characteristics.
+     * <p>
+     * This must not have side effects, and may conservatively return
+     * <code>false</code>.
+     *
+     * @param item the object.
+     * @param characteristics the characteristics of the sequence.
+     * @return <code>true</code> if no later object can pass.
+     */
+    boolean rejectsFrom(T item, Characteristics<T> characteristics);
+
+}
@@ -0,0 +1,411 @@
+package com.github.cwilper.ttff;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A batch of records stored column by column, with a selection vector
+ * saying which rows are still of interest.
+ * <p>
+ * Each column holds its values in a flat array with one slot per row, so
+ * an operation on one field of every record touches only that array.
+ * The selection vector lists the indexes of the selected rows in
+ * ascending order; setting the size of the batch selects all of its rows,
+ * and filters from {@link Batches} narrow the selection in place rather
+ * than building objects or copying values.
+ * <p>
+ * Batches are meant to be filled and reused; they are not thread-safe.
+ *
+ * @see Batches
+ */
+public final class RecordBatch {
+
+    private final int capacity;
+    private final List<Column> columns = new ArrayList<Column>();
+    private final Map<String, Column> byName = new HashMap<String, Column>();
+    private final int[] selection;
+    private int size;
+    private int selected;
+
+    /**
+     * Creates an empty batch with no columns.
+     *
+     * @param capacity the maximum number of rows.
+     */
+    public RecordBatch(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be > 0");
+        }
+        this.capacity = capacity;
+        this.selection = new int[capacity];
+    }
+
+    /**
+     * Adds a column of <code>long</code> values.
+     *
+     * @param name the name of the column.
+     * @return the column.
+     */
+    public LongColumn addLongColumn(String name) {
+        return add(new LongColumn(name, capacity));
+    }
+
+    /**
+     * Adds a column of <code>double</code> values.
+     *
+     * @param name the name of the column.
+     * @return the column.
+     */
+    public DoubleColumn addDoubleColumn(String name) {
+        return add(new DoubleColumn(name, capacity));
+    }
+
+    /**
+     * Adds a column of object values.
+     *
+     * @param name the name of the column.
+     * @param <V> the type of value.
+     * @return the column.
+     */
+    public <V> ObjectColumn<V> addObjectColumn(String name) {
+        return add(new ObjectColumn<V>(name, capacity));
+    }
+
+    /**
+     * Gets the columns, in the order they were added.
+     *
+     * @return an unmodifiable list of the columns.
+     */
+    public List<Column> columns() {
+        return Collections.unmodifiableList(columns);
+    }
+
+    /**
+     * Gets the column with the given name.
+     *
+     * @param name the name.
+     * @return the column.
+     * @throws IllegalArgumentException if there is no such column.
+     */
+    public Column column(String name) {
+        Column column = byName.get(name);
+        if (column == null) {
+            throw new IllegalArgumentException("No such column: " + name);
+        }
+        return column;
+    }
+
+    /**
+     * Gets the <code>long</code> column with the given name.
+     *
+     * @param name the name.
+     * @return the column.
+     * @throws IllegalArgumentException if there is no such column.
+     */
+    public LongColumn longColumn(String name) {
+        return typed(name, LongColumn.class);
+    }
+
+    /**
+     * Gets the <code>double</code> column with the given name.
+     *
+     * @param name the name.
+     * @return the column.
+     * @throws IllegalArgumentException if there is no such column.
+     */
+    public DoubleColumn doubleColumn(String name) {
+        return typed(name, DoubleColumn.class);
+    }
+
+    /**
+     * Gets the object column with the given name.
+     *
+     * @param name the name.
+     * @param <V> the type of value.
+     * @return the column.
+     * @throws IllegalArgumentException if there is no such column.
+     */
+    @SuppressWarnings("unchecked")
+    public <V> ObjectColumn<V> objectColumn(String name) {
+        return typed(name, ObjectColumn.class);
+    }
+
+    /**
+     * Gets the maximum number of rows.
+     *
+     * @return the capacity.
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Gets the number of rows filled.
+     *
+     * @return the size.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Sets the number of rows filled, and selects all of them.
+     *
+     * @param size the size, from <code>0</code> to the capacity.
+     */
+    public void setSize(int size) {
+        if (size < 0 || size > capacity) {
+            throw new IllegalArgumentException("Bad size: " + size);
+        }
+        this.size = size;
+        for (int i = 0; i < size; i++) {
+            selection[i] = i;
+        }
+        this.selected = size;
+    }
+
+    /**
+     * Gets the number of selected rows.
+     *
+     * @return the number.
+     */
+    public int selectedCount() {
+        return selected;
+    }
+
+    /**
+     * Gets the index of the <code>i</code>th selected row.
+     *
+     * @param i the position in the selection vector.
+     * @return the row.
+     */
+    public int selectedRow(int i) {
+        if (i >= selected) {
+            throw new IndexOutOfBoundsException(i + " >= " + selected);
+        }
+        return selection[i];
+    }
+
+    /**
+     * Gets the selection vector itself, for use in loops over the selected
+     * rows. Only the first {@link #selectedCount()} entries are valid.
+     * <p>
+     * Filters may narrow the selection by compacting the rows they keep
+     * to the front of this array, in order, then calling
+     * {@link #setSelectedCount(int)}.
+     *
+     * @return the selection vector.
+     */
+    public int[] selection() {
+        return selection;
+    }
+
+    /**
+     * Sets the number of valid entries in the selection vector.
+     *
+     * @param count the number, at most the size.
+     */
+    public void setSelectedCount(int count) {
+        if (count < 0 || count > size) {
+            throw new IllegalArgumentException("Bad count: " + count);
+        }
+        this.selected = count;
+    }
+
+    /**
+     * Gets a copy of this batch, with its own copies of every column and
+     * the selection vector.
+     *
+     * @return the copy.
+     */
+    public RecordBatch copy() {
+        RecordBatch copy = new RecordBatch(capacity);
+        for (Column column: columns) {
+            copy.add(column.copy());
+        }
+        copy.size = size;
+        copy.selected = selected;
+        System.arraycopy(selection, 0, copy.selection, 0, selected);
+        return copy;
+    }
+
+    private <C extends Column> C add(C column) {
+        if (byName.containsKey(column.name())) {
+            throw new IllegalArgumentException("Duplicate column: "
+                    + column.name());
+        }
+        columns.add(column);
+        byName.put(column.name(), column);
+        return column;
+    }
+
+    private <C extends Column> C typed(String name, Class<C> type) {
+        Column column = column(name);
+        if (!type.isInstance(column)) {
+            throw new IllegalArgumentException("Column " + name
+                    + " is not a " + type.getSimpleName());
+        }
+        return type.cast(column);
+    }
+
+    /** A named column of values, one per row. */
+    public abstract static class Column {
+
+        private final String name;
+
+        Column(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Gets the name of the column.
+         *
+         * @return the name.
+         */
+        public String name() {
+            return name;
+        }
+
+        abstract Column copy();
+    }
+
+    /** A column of <code>long</code> values. */
+    public static final class LongColumn extends Column {
+
+        private final long[] values;
+
+        LongColumn(String name, int capacity) {
+            super(name);
+            this.values = new long[capacity];
+        }
+
+        /**
+         * Gets the value in the given row.
+         *
+         * @param row the row.
+         * @return the value.
+         */
+        public long get(int row) {
+            return values[row];
+        }
+
+        /**
+         * Sets the value in the given row.
+         *
+         * @param row the row.
+         * @param value the value.
+         */
+        public void set(int row, long value) {
+            values[row] = value;
+        }
+
+        /**
+         * Gets the array of values itself, for use in loops.
+         *
+         * @return the values, indexed by row.
+         */
+        public long[] values() {
+            return values;
+        }
+
+        @Override
+        LongColumn copy() {
+            LongColumn copy = new LongColumn(name(), values.length);
+            System.arraycopy(values, 0, copy.values, 0, values.length);
+            return copy;
+        }
+    }
+
+    /** A column of <code>double</code> values. */
+    public static final class DoubleColumn extends Column {
+
+        private final double[] values;
+
+        DoubleColumn(String name, int capacity) {
+            super(name);
+            this.values = new double[capacity];
+        }
+
+        /**
+         * Gets the value in the given row.
+         *
+         * @param row the row.
+         * @return the value.
+         */
+        public double get(int row) {
+            return values[row];
+        }
+
+        /**
+         * Sets the value in the given row.
+         *
+         * @param row the row.
+         * @param value the value.
+         */
+        public void set(int row, double value) {
+            values[row] = value;
+        }
+
+        /**
+         * Gets the array of values itself, for use in loops.
+         *
+         * @return the values, indexed by row.
+         */
+        public double[] values() {
+            return values;
+        }
+
+        @Override
+        DoubleColumn copy() {
+            DoubleColumn copy = new DoubleColumn(name(), values.length);
+            System.arraycopy(values, 0, copy.values, 0, values.length);
+            return copy;
+        }
+    }
+
+    /**
+     * A column of object values.
+     *
+     * @param <V> the type of value.
+     */
+    public static final class ObjectColumn<V> extends Column {
+
+        private final Object[] values;
+
+        ObjectColumn(String name, int capacity) {
+            super(name);
+            this.values = new Object[capacity];
+        }
+
+        /**
+         * Gets the value in the given row.
+         *
+         * @param row the row.
+         * @return the value.
+         */
+        @SuppressWarnings("unchecked")
+        public V get(int row) {
+            return (V) values[row];
+        }
+
+        /**
+         * Sets the value in the given row.
+         *
+         * @param row the row.
+         * @param value the value.
+         */
+        public void set(int row, V value) {
+            values[row] = value;
+        }
+
+        @Override
+        ObjectColumn<V> copy() {
+            ObjectColumn<V> copy = new ObjectColumn<V>(name(), values.length);
+            System.arraycopy(values, 0, copy.values, 0, values.length);
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package com.github.cwilper.ttff;
+
+import javax.annotation.PreDestroy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A sink that sends items over the network to a {@link ListenSource}.
+ * <p>
+ * Items are encoded into batches, each sent as a single length-prefixed
+ * frame. The receiver grants credit for a number of items at a time and
+ * acknowledges what it has received, and the sink sends a batch only
+ * while it has credit, keeping it until acknowledged. If the connection
+ * fails, the sink reconnects, resumes its session, and resends whatever
+ * wasn't acknowledged, so no item is lost or delivered twice.
+ * <p>
+ * All network I/O is done on the calling thread with a non-blocking
+ * channel. A batch is sealed once it is large enough or has been waiting
+ * a while, as of the next <code>put</code>, or when the sink is closed.
+ * A <code>put</code> that only adds to the current batch makes no system
+ * calls; one that seals a batch also sends what the receiver's credit
+ * allows, and waits only if too much is waiting to be acknowledged.
+ *
+ * @param <T> the type over which the sink operates.
+ * @see Sinks#remote(String, int, Codec)
+ * @see Sources#listen(int, Codec)
+ */
+class RemoteSink<T> extends AbstractSink<T> {
+
+    /** Sender to receiver: session id and first unacknowledged item. */
+    static final byte HELLO = 1;
+
+    /** Sender to receiver: first item number, count, and items. */
+    static final byte DATA = 2;
+
+    /** Sender to receiver: the total number of items sent. */
+    static final byte END = 3;
+
+    /** Receiver to sender: items received, and the credit limit. */
+    static final byte ACK = 4;
+
+    /** Receiver to sender: the end has been received. */
+    static final byte BYE = 5;
+
+    static final int LENGTH_SIZE = 4;
+
+    private static final int BATCH_BYTES = 32 * 1024;
+    private static final long BATCH_MILLIS = 10;
+    private static final int MAX_UNACKED_BYTES = 1024 * 1024;
+    private static final int MAX_ATTEMPTS = 10;
+    private static final long CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final long POLL_MILLIS = 100;
+
+    private final InetSocketAddress address;
+    private final Codec<T> codec;
+    private final long retryMillis;
+    private final long session = new Random().nextLong();
+
+    private final Encoded batch = new Encoded();
+    private final DataOutputStream batchOut = new DataOutputStream(batch);
+    private int batchCount;
+    private long batchStarted;
+
+    /** Sealed frames not yet acknowledged, oldest first. */
+    private final List<Frame> unacked = new ArrayList<Frame>();
+    private int unackedBytes;
+
+    /** The index in unacked of the next frame to send. */
+    private int nextToSend;
+
+    /** The rest of the frame being sent, if any. */
+    private ByteBuffer out;
+
+    private final ByteBuffer in = ByteBuffer.allocate(64);
+
+    private SocketChannel channel;
+    private Selector selector;
+
+    /** The number of the next item to batch. */
+    private long total;
+
+    /** The number of the first item the receiver has no credit for. */
+    private long limit;
+    private boolean acknowledged;
+    private boolean done;
+
+    private boolean closed;
+
+    RemoteSink(String host, int port, Codec<T> codec, long retryMillis)
+            throws IOException {
+        this.address = new InetSocketAddress(host, port);
+        this.codec = codec;
+        this.retryMillis = retryMillis;
+        reconnect(null);
+    }
+
+    /**
+     * Adds the given item to the current batch, sending batches as the
+     * receiver allows.
+     *
+     * @param item the item.
+     * @throws IOException if the item can't be encoded, or the connection
+     *         fails and can't be re-established.
+     */
+    @Override
+    public void put(T item) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Sink is closed");
+        }
+        if (batchCount == 0) {
+            batchStarted = System.currentTimeMillis();
+        }
+        codec.encode(item, batchOut);
+        batchCount++;
+        if (batch.size() >= BATCH_BYTES || System.currentTimeMillis()
+                - batchStarted >= BATCH_MILLIS) {
+            seal();
+        } else if (unackedBytes <= MAX_UNACKED_BYTES) {
+            return; // nothing new to send
+        }
+        try {
+            pump(-1);
+            while (unackedBytes > MAX_UNACKED_BYTES) {
+                pump(POLL_MILLIS);
+            }
+        } catch (IOException e) {
+            reconnect(e);
+        }
+    }
+
+    /**
+     * Sends any partial batch and the end of the items, and waits for the
+     * receiver to acknowledge everything before disconnecting. This may
+     * wait until the receiver has consumed enough to grant credit for the
+     * last items. If the connection fails and can't be re-established,
+     * the items not yet acknowledged are lost.
+     */
+    @Override
+    @PreDestroy
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            seal();
+            addFrame(frame(END, 8).putLong(total), total, 0);
+            while (!done) {
+                try {
+                    pump(POLL_MILLIS);
+                } catch (IOException e) {
+                    reconnect(e);
+                }
+            }
+        } catch (IOException e) {
+            // gave up reconnecting; nothing more can be done
+        } finally {
+            disconnect();
+        }
+    }
+
+    /** Turns the current batch, if any, into a frame waiting to be sent. */
+    private void seal() throws IOException {
+        if (batchCount == 0) {
+            return;
+        }
+        batchOut.flush();
+        ByteBuffer frame = frame(DATA, 12 + batch.size());
+        frame.putLong(total).putInt(batchCount);
+        frame.put(batch.buffer(), 0, batch.size());
+        addFrame(frame, total, batchCount);
+        total += batchCount;
+        batch.reset();
+        batchCount = 0;
+    }
+
+    private void addFrame(ByteBuffer frame, long first, int count) {
+        frame.flip();
+        unacked.add(new Frame(frame, first, count));
+        unackedBytes += frame.limit();
+    }
+
+    /**
+     * Reads acknowledgements and sends what credit allows, waiting up to
+     * the given time for the channel to be ready if nothing can be done
+     * right away, or not at all if negative.
+     */
+    private void pump(long timeout) throws IOException {
+        if (timeout >= 0) {
+            int ops = SelectionKey.OP_READ;
+            if (out != null || canSend()) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            channel.keyFor(selector).interestOps(ops);
+            selector.select(timeout);
+            selector.selectedKeys().clear();
+        }
+        read();
+        write();
+    }
+
+    private boolean canSend() {
+        if (nextToSend == unacked.size()) {
+            return false;
+        }
+        Frame frame = unacked.get(nextToSend);
+        return frame.count == 0 || frame.first < limit;
+    }
+
+    private void write() throws IOException {
+        while (true) {
+            if (out == null) {
+                if (!canSend()) {
+                    return;
+                }
+                out = unacked.get(nextToSend++).bytes.duplicate();
+            }
+            channel.write(out);
+            if (out.hasRemaining()) {
+                return;
+            }
+            out = null;
+        }
+    }
+
+    private void read() throws IOException {
+        if (channel.read(in) == -1) {
+            throw new EOFException("Connection closed by receiver");
+        }
+        in.flip();
+        while (in.remaining() >= LENGTH_SIZE + 1) {
+            int length = in.getInt(in.position());
+            if (in.remaining() < LENGTH_SIZE + length) {
+                break;
+            }
+            in.getInt();
+            byte type = in.get();
+            if (type == ACK) {
+                acknowledge(in.getLong(), in.getLong());
+            } else if (type == BYE) {
+                done = true;
+            } else {
+                throw new IOException("Unexpected frame type: " + type);
+            }
+        }
+        in.compact();
+    }
+
+    private void acknowledge(long received, long limit) {
+        acknowledged = true;
+        this.limit = limit;
+        while (!unacked.isEmpty()) {
+            Frame frame = unacked.get(0);
+            if (frame.count == 0 || frame.first + frame.count > received) {
+                break;
+            }
+            unacked.remove(0);
+            unackedBytes -= frame.bytes.limit();
+            if (nextToSend > 0) {
+                nextToSend--;
+            }
+        }
+    }
+
+    /**
+     * Connects, retrying with a growing delay, and resumes the session.
+     * Everything not yet acknowledged will be sent again.
+     */
+    private void reconnect(IOException cause) throws IOException {
+        disconnect();
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            if (attempt > 0 || cause != null) {
+                try {
+                    Thread.sleep(retryMillis * (attempt + 1));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+            }
+            try {
+                connect();
+                return;
+            } catch (IOException e) {
+                disconnect();
+                cause = e;
+            }
+        }
+        throw cause;
+    }
+
+    private void connect() throws IOException {
+        selector = Selector.open();
+        channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        channel.register(selector, SelectionKey.OP_CONNECT);
+        channel.connect(address);
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MILLIS;
+        while (!channel.finishConnect()) {
+            long wait = deadline - System.currentTimeMillis();
+            if (wait <= 0) {
+                throw new IOException("Timed out connecting to " + address);
+            }
+            selector.select(wait);
+            selector.selectedKeys().clear();
+        }
+        long first = unacked.isEmpty() ? total : unacked.get(0).first;
+        ByteBuffer hello = frame(HELLO, 16).putLong(session).putLong(first);
+        hello.flip();
+        out = hello;
+        nextToSend = 0;
+        limit = first;
+        // wait for the first acknowledgement, so the session is known
+        acknowledged = false;
+        while (!acknowledged) {
+            long wait = deadline - System.currentTimeMillis();
+            if (wait <= 0) {
+                throw new IOException("Timed out waiting for " + address);
+            }
+            pump(wait);
+        }
+    }
+
+    private void disconnect() {
+        out = null;
+        in.clear();
+        try {
+            if (selector != null) {
+                selector.close();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            // nothing to do
+        }
+        selector = null;
+        channel = null;
+    }
+
+    /**
+     * Allocates a buffer for a frame of the given type and body size, with
+     * its length and type already written.
+     */
+    static ByteBuffer frame(byte type, int size) {
+        ByteBuffer frame = ByteBuffer.allocate(LENGTH_SIZE + 1 + size);
+        frame.putInt(1 + size);
+        frame.put(type);
+        return frame;
+    }
+
+    /** A frame and the numbers of the items in it. */
+    private static final class Frame {
+        final ByteBuffer bytes;
+        final long first;
+        final int count;
+
+        Frame(ByteBuffer bytes, long first, int count) {
+            this.bytes = bytes;
+            this.first = first;
+            this.count = count;
+        }
+    }
+
+    /** A byte array stream whose contents can be read without a copy. */
+    private static final class Encoded extends ByteArrayOutputStream {
+        byte[] buffer() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.github.cwilper.ttff;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A sink that keeps a uniform random sample of a fixed number of the items
+ * it receives.
+ * <p>
+ * This uses Li's "Algorithm L": rather than drawing a random number per
+ * item, it draws the number of items to skip before the next replacement,
+ * so the cost per item is a counter decrement for all but
+ * <i>O</i>(<i>k</i> log(<i>n</i>/<i>k</i>)) of the <i>n</i> items.
+ * <p>
+ * Items are retained as given, so items from a {@link ReusableSource}
+ * must be copied first. This sink must not be shared between threads.
+ *
+ * @param <T> the type over which the sink operates.
+ * @see Sinks#reservoir(int)
+ */
+public final class ReservoirSink<T> extends AbstractSink<T> {
+
+    private final int k;
+    private final FastRandom random;
+    private final Object[] reservoir;
+    private long count;
+    private long nextReplacement;
+    private double w;
+
+    ReservoirSink(int k, FastRandom random) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be > 0");
+        }
+        this.k = k;
+        this.random = random;
+        this.reservoir = new Object[k];
+    }
+
+    @Override
+    public void put(T item) {
+        count++;
+        if (count <= k) {
+            reservoir[(int) count - 1] = item;
+            if (count == k) {
+                w = Math.exp(Math.log(random.nextDouble()) / k);
+                scheduleNext();
+            }
+        } else if (count == nextReplacement) {
+            reservoir[random.nextInt(k)] = item;
+            w *= Math.exp(Math.log(random.nextDouble()) / k);
+            scheduleNext();
+        }
+    }
+
+    /**
+     * Gets the number of items received so far.
+     *
+     * @return the count.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the sample, in no particular order.
+     *
+     * @return a new list of at most <i>k</i> items.
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> results() {
+        int size = (int) Math.min(count, k);
+        List<T> results = new ArrayList<T>(size);
+        for (int i = 0; i < size; i++) {
+            results.add((T) reservoir[i]);
+        }
+        return results;
+    }
+
+    private void scheduleNext() {
+        long skip = random.nextSkip(Math.log(1 - w));
+        nextReplacement = skip >= Long.MAX_VALUE - count
+                ? Long.MAX_VALUE : count + skip + 1;
+    }
+}
@@ -0,0 +1,37 @@
+package com.github.cwilper.ttff;
+
+/**
+ * A {@link Source} that may recycle the objects it returns, rather than
+ * allocating a new one per item.
+ * <p>
+ * An object returned by {@link #next()} or {@link #peek()} is only
+ * guaranteed to be valid until the next call to <code>hasNext()</code>,
+ * <code>next()</code> or <code>peek()</code> after it was returned by
+ * <code>next()</code>. After that, the source may overwrite it with the
+ * contents of a later item. Consumers that need to hold on to an item for
+ * longer must {@link #copy} it.
+ * <p>
+ * Filters applied to a reusable source's items must likewise not retain
+ * them. A transforming filter may recycle too, either by modifying and
+ * returning the item it was given, or by returning an object of its own
+ * that it overwrites on each call.
+ * <p>
+ * {@link Sources#filter(Source, Filter)} and other wrappers in
+ * {@link Sources} preserve this interface when given a reusable source,
+ * and {@link Sources#drain(Source, java.util.Collection)} copies each item
+ * before adding it to the collection.
+ *
+ * @param <T> the type over which the source operates.
+ * @see AbstractReusableSource
+ */
+public interface ReusableSource<T> extends Source<T> {
+
+    /**
+     * Gets a copy of the given item that will remain valid indefinitely.
+     *
+     * @param item an item returned by this source, or a derivative of one.
+     * @return a copy of the item.
+     */
+    T copy(T item);
+
+}
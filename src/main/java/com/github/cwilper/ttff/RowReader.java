@@ -0,0 +1,20 @@
+package com.github.cwilper.ttff;
+
+/**
+ * A means of building an object from a row of a {@link RecordBatch}.
+ *
+ * @param <T> the type of object.
+ * @see Batches#rows(Source, RowReader)
+ */
+public interface RowReader<T> {
+
+    /**
+     * Builds an object from the given row of the batch.
+     *
+     * @param batch the batch.
+     * @param row the row.
+     * @return the object.
+     */
+    T read(RecordBatch batch, int row);
+
+}
@@ -0,0 +1,20 @@
+package com.github.cwilper.ttff;
+
+/**
+ * A means of storing an object as a row of a {@link RecordBatch}.
+ *
+ * @param <T> the type of object.
+ * @see Batches#batches(Source, RecordBatch, RowWriter)
+ */
+public interface RowWriter<T> {
+
+    /**
+     * Stores the fields of the given object in the given row of the batch.
+     *
+     * @param item the object.
+     * @param batch the batch.
+     * @param row the row.
+     */
+    void write(T item, RecordBatch batch, int row);
+
+}
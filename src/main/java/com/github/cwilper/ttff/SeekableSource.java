@@ -0,0 +1,34 @@
+package com.github.cwilper.ttff;
+
+import java.io.IOException;
+
+/**
+ * A {@link Source} that can be repositioned to any item.
+ * <p>
+ * Positions are zero-based: position <code>n</code> is that of the item
+ * that the next call to <code>next()</code> will return after
+ * <code>n</code> items have been returned or skipped from the start.
+ *
+ * @param <T> the type over which the source operates.
+ */
+public interface SeekableSource<T>
+        extends SkippableSource<T>, SizedSource<T> {
+
+    /**
+     * Gets the current position.
+     *
+     * @return the position of the next item.
+     */
+    long position();
+
+    /**
+     * Moves to the given position. Seeking beyond the last item leaves the
+     * source exhausted.
+     *
+     * @param position the position of the next item to return.
+     * @throws IllegalArgumentException if the position is negative.
+     * @throws IOException if an I/O problem occurs.
+     */
+    void seek(long position) throws IOException;
+
+}
@@ -0,0 +1,330 @@
+package com.github.cwilper.ttff;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Comparator;
+
+/**
+ * Static utility methods for creating common types of {@link Sink}s.
+ */
+public final class Sinks {
+
+    private static final int DEFAULT_REGION_SIZE = 16 * 1024 * 1024;
+    private static final long RETRY_MILLIS = 100;
+
+    /** Instantiation disallowed. */
+    Sinks() { throw new AssertionError(); }
+
+    /**
+     * Gets a version of the given sink that records metrics in the
+     * default {@link MetricsRegistry}.
+     *
+     * @param sink the sink to instrument.
+     * @param name the name of the metrics.
+     * @param <T> the type.
+     * @return the instrumented sink.
+     * @see #instrument(Sink, String, MetricsRegistry)
+     */
+    public static <T> Sink<T> instrument(Sink<T> sink, String name) {
+        return instrument(sink, name, MetricsRegistry.getDefault());
+    }
+
+    /**
+     * Gets a version of the given sink that records metrics in the given
+     * registry.
+     * <p>
+     * Each call to <code>put</code> is timed, so the time blocked tells
+     * how long producers spent waiting on the sink.
+     * <p>
+     * When the returned sink is closed, the underlying sink will be
+     * closed.
+     *
+     * @param sink the sink to instrument.
+     * @param name the name of the metrics.
+     * @param registry the registry.
+     * @param <T> the type.
+     * @return the instrumented sink.
+     */
+    public static <T> Sink<T> instrument(final Sink<T> sink, String name,
+                                         MetricsRegistry registry) {
+        final StageMetrics metrics = registry.get(name);
+        return new AbstractSink<T>() {
+            @Override
+            public void put(T item) throws IOException {
+                long start = System.nanoTime();
+                sink.put(item);
+                metrics.record(System.nanoTime() - start, true);
+            }
+
+            @Override
+            public void close() {
+                sink.close();
+            }
+        };
+    }
+
+    /**
+     * Gets a sink that aggregates items by key, entirely in memory.
+     *
+     * @param keyFn the function giving the key of each item.
+     * @param aggregator the aggregator.
+     * @param <T> the type.
+     * @param <K> the type of key.
+     * @param <A> the type of aggregate.
+     * @return the sink.
+     * @see GroupingSink#results()
+     */
+    public static <T, K, A> GroupingSink<T, K, A> groupBy(
+            Function<T, K> keyFn, Aggregator<T, A> aggregator) {
+        return new GroupingSink<T, K, A>(keyFn, aggregator,
+                Integer.MAX_VALUE, null, null, null);
+    }
+
+    /**
+     * Gets a sink that aggregates items by key, holding at most the given
+     * number of keys in memory at once.
+     * <p>
+     * Beyond that, partial aggregates are written to temporary files in
+     * the given directory, and combined again when the results are read.
+     *
+     * @param keyFn the function giving the key of each item.
+     * @param aggregator the aggregator.
+     * @param maxKeys the maximum number of keys to hold in memory.
+     * @param spillDir the directory in which to create temporary files,
+     *        or <code>null</code> to use the default temporary directory.
+     * @param keyCodec the codec to use when writing keys to disk.
+     * @param aggregateCodec the codec to use when writing aggregates to
+     *        disk.
+     * @param <T> the type.
+     * @param <K> the type of key.
+     * @param <A> the type of aggregate.
+     * @return the sink.
+     * @see GroupingSink#results()
+     */
+    public static <T, K, A> GroupingSink<T, K, A> groupBy(
+            Function<T, K> keyFn, Aggregator<T, A> aggregator, int maxKeys,
+            File spillDir, Codec<K> keyCodec, Codec<A> aggregateCodec) {
+        return new GroupingSink<T, K, A>(keyFn, aggregator, maxKeys,
+                spillDir, keyCodec, aggregateCodec);
+    }
+
+    /**
+     * Gets a sink that writes items to the given file in blocks of the
+     * given size, recording the least and greatest item in each block so
+     * that filtered reads can skip blocks.
+     * <p>
+     * Items sorted, or at least clustered, by their natural order make for
+     * narrow blocks that are easy to rule out. Call
+     * {@link BlockFileSink#finish()} to complete the file.
+     *
+     * @param file the file to write.
+     * @param codec the codec to use when writing items.
+     * @param blockItems the number of items per block.
+     * @param <T> the type.
+     * @return the sink.
+     * @throws IOException if the file can't be created.
+     * @see Sources#blockFile(File, Codec)
+     */
+    public static <T extends Comparable<? super T>> BlockFileSink<T>
+            blockFile(File file, Codec<T> codec, int blockItems)
+            throws IOException {
+        return new BlockFileSink<T>(file, codec, blockItems);
+    }
+
+    /**
+     * Gets a sink that appends items to a memory-mapped queue file, with
+     * a region size of 16MB.
+     *
+     * @param file the file.
+     * @param codec the codec to use when storing items.
+     * @param <T> the type.
+     * @return the sink.
+     * @throws IOException if the file can't be opened, or another sink is
+     *         writing to it.
+     * @see #mappedQueue(File, Codec, int)
+     */
+    public static <T> Sink<T> mappedQueue(File file, Codec<T> codec)
+            throws IOException {
+        return mappedQueue(file, codec, DEFAULT_REGION_SIZE);
+    }
+
+    /**
+     * Gets a sink that appends items to a memory-mapped queue file, for
+     * reading by any number of sources in this or other processes on the
+     * same host, via {@link Sources#mappedQueue(File, Codec, String)}.
+     * <p>
+     * The file is mapped and grown one region at a time, and each item
+     * must fit within a region. If the file already exists, items are
+     * appended to it. Only one sink may write to a file at a time.
+     * Closing the sink marks the end of the items for readers.
+     *
+     * @param file the file.
+     * @param codec the codec to use when storing items.
+     * @param regionSize the size of each mapped region, in bytes. This is
+     *        ignored if the file already exists.
+     * @param <T> the type.
+     * @return the sink.
+     * @throws IOException if the file can't be opened, or another sink is
+     *         writing to it.
+     */
+    public static <T> Sink<T> mappedQueue(File file, Codec<T> codec,
+                                          int regionSize)
+            throws IOException {
+        return new MappedQueueSink<T>(file, codec, regionSize);
+    }
+
+    /**
+     * Gets a sink that sends items over the network to a source on
+     * another node, obtained via {@link Sources#listen(int, Codec)}.
+     * <p>
+     * Items are sent in batches, as far as the receiver has granted
+     * credit, and kept until acknowledged. If the connection fails, the
+     * sink reconnects, retrying with a growing delay, and resends what
+     * wasn't acknowledged, so items are delivered exactly once and in
+     * order. Closing the sink sends any partial batch and waits for the
+     * receiver to acknowledge everything.
+     *
+     * @param host the host the source is listening on.
+     * @param port the port the source is listening on.
+     * @param codec the codec to use when sending items.
+     * @param <T> the type.
+     * @return the sink.
+     * @throws IOException if a connection can't be established.
+     */
+    public static <T> Sink<T> remote(String host, int port, Codec<T> codec)
+            throws IOException {
+        return new RemoteSink<T>(host, port, codec, RETRY_MILLIS);
+    }
+
+    /**
+     * Gets a queue for handing items from one thread to another through a
+     * ring buffer of the given size in direct memory.
+     * <p>
+     * The producing thread puts items into the returned sink, and the
+     * consuming thread reads them from its {@link OffHeapQueue#source()}.
+     *
+     * @param capacity the size of the ring buffer, in bytes.
+     * @param codec the codec to use when storing items.
+     * @param <T> the type.
+     * @return the queue.
+     * @see Sources#offHeapBuffered(Source, int, Codec)
+     */
+    public static <T> OffHeapQueue<T> offHeapQueue(int capacity,
+                                                   Codec<T> codec) {
+        return new OffHeapQueue<T>(capacity, codec);
+    }
+
+    /**
+     * Gets a sink that keeps the <code>k</code> greatest items it
+     * receives, according to the given comparator.
+     *
+     * @param k the maximum number of items to keep.
+     * @param comparator the comparator.
+     * @param <T> the type.
+     * @return the sink.
+     * @see TopKSink#results()
+     */
+    public static <T> TopKSink<T> topK(int k, Comparator<T> comparator) {
+        return new TopKSink<T>(k, comparator);
+    }
+
+    /**
+     * Gets a sink that keeps a uniform random sample of <code>k</code> of
+     * the items it receives.
+     *
+     * @param k the size of the sample.
+     * @param <T> the type.
+     * @return the sink.
+     * @see ReservoirSink#results()
+     */
+    public static <T> ReservoirSink<T> reservoir(int k) {
+        return new ReservoirSink<T>(k, new FastRandom());
+    }
+
+    /**
+     * Gets a sink that keeps a uniform random sample of <code>k</code> of
+     * the items it receives, using a pseudo-random sequence determined by
+     * the given seed.
+     *
+     * @param k the size of the sample.
+     * @param seed the seed.
+     * @param <T> the type.
+     * @return the sink.
+     * @see ReservoirSink#results()
+     */
+    public static <T> ReservoirSink<T> reservoir(int k, long seed) {
+        return new ReservoirSink<T>(k, new FastRandom(seed));
+    }
+
+    /**
+     * Gets a sink that estimates the number of distinct keys among the
+     * items it receives, in fixed memory.
+     *
+     * @param keyFn the function giving the key of each item.
+     * @param precision the number of bits of each key's hash used to
+     *        choose a register, from 4 to 18. The sketch uses
+     *        2<sup><i>precision</i></sup> bytes.
+     * @param <T> the type.
+     * @param <K> the type of key.
+     * @return the sink.
+     * @see HyperLogLogSink#estimate()
+     */
+    public static <T, K> HyperLogLogSink<T> hyperLogLog(Function<T, K> keyFn,
+                                                        int precision) {
+        return new HyperLogLogSink<T>(keyFn, precision);
+    }
+
+    /**
+     * Gets a sink that estimates how many times each key occurs among the
+     * items it receives, in fixed memory.
+     *
+     * @param keyFn the function giving the key of each item.
+     * @param width the number of counters per row. Estimates exceed true
+     *        counts by at most <i>e</i> / <i>width</i> times the number of
+     *        items, with high probability.
+     * @param depth the number of rows. The bound above fails with
+     *        probability e<sup>-<i>depth</i></sup>.
+     * @param <T> the type.
+     * @param <K> the type of key.
+     * @return the sink.
+     * @see CountMinSketchSink#estimateCount(Object)
+     */
+    public static <T, K> CountMinSketchSink<T> countMinSketch(
+            Function<T, K> keyFn, int width, int depth) {
+        return new CountMinSketchSink<T>(keyFn, width, depth);
+    }
+
+    /**
+     * Gets a sink that finds the most frequent items it receives, in
+     * fixed memory.
+     *
+     * @param k the number of items to count at once.
+     * @param <T> the type.
+     * @return the sink.
+     * @see HeavyHittersSink#results()
+     */
+    public static <T> HeavyHittersSink<T, T> heavyHitters(int k) {
+        return heavyHitters(new Function<T, T>() {
+            @Override
+            public T apply(T input) {
+                return input;
+            }
+        }, k);
+    }
+
+    /**
+     * Gets a sink that finds the most frequent keys among the items it
+     * receives, in fixed memory.
+     *
+     * @param keyFn the function giving the key of each item.
+     * @param k the number of keys to count at once.
+     * @param <T> the type.
+     * @param <K> the type of key.
+     * @return the sink.
+     * @see HeavyHittersSink#results()
+     */
+    public static <T, K> HeavyHittersSink<T, K> heavyHitters(
+            Function<T, K> keyFn, int k) {
+        return new HeavyHittersSink<T, K>(keyFn, k);
+    }
+}
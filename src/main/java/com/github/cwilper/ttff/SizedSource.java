@@ -0,0 +1,23 @@
+package com.github.cwilper.ttff;
+
+/**
+ * A {@link Source} that may know how many items it has left without
+ * computing them.
+ *
+ * @param <T> the type over which the source operates.
+ * @see SeekableSource
+ */
+public interface SizedSource<T> extends Source<T> {
+
+    /**
+     * Gets the number of items remaining in the sequence, if known.
+     * <p>
+     * A non-negative value is exact: {@link Sources#join(java.util.Iterator)}
+     * relies on it to pass over whole sources without reading them.
+     *
+     * @return the number of items remaining, or <code>-1</code> if this
+     *         is not cheaply known.
+     */
+    long estimateSize();
+
+}
@@ -0,0 +1,26 @@
+package com.github.cwilper.ttff;
+
+import java.io.IOException;
+
+/**
+ * A {@link Source} that can advance past items more cheaply than by
+ * computing and discarding each one.
+ *
+ * @param <T> the type over which the source operates.
+ * @see Sources#skip(Source, long)
+ * @see AbstractSkippableSource
+ */
+public interface SkippableSource<T> extends Source<T> {
+
+    /**
+     * Advances the sequence by up to the given number of objects, without
+     * returning them.
+     *
+     * @param n the number of objects to skip.
+     * @return the number of objects actually skipped, which is less than
+     *         <code>n</code> only if the source is now exhausted.
+     * @throws IOException if an I/O problem occurs.
+     */
+    long skip(long n) throws IOException;
+
+}
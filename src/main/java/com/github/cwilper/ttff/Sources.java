@@ -1,9 +1,19 @@
 package com.github.cwilper.ttff;
 
+import javax.annotation.PreDestroy;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 
 /**
  * Static utility methods for creating, filtering, and draining
@@ -11,6 +21,9 @@ import java.util.Iterator;
  */
 public final class Sources {
 
+    private static final int LISTEN_WINDOW = 8192;
+    private static final int GZIP_MAX_BUFFERED = 4 * 1024 * 1024;
+
     /** Instantiation disallowed. */
     Sources() { throw new AssertionError(); }
 
@@ -21,11 +34,16 @@ public final class Sources {
      * @return the source.
      */
     public static <T> Source<T> empty() {
-        return new AbstractSource<T>() {
+        return new AbstractSkippableSource<T>() {
             @Override
             public T computeNext() {
                 return endOfData();
             }
+
+            @Override
+            protected long skipAhead(long n) {
+                return 0;
+            }
         };
     }
 
@@ -33,6 +51,20 @@ public final class Sources {
      * Gets a version of the given source whose items are subject to the
      * given filter. Items may be omitted or transformed by the filter.
      * <p>
+     * If the given source is a {@link ReusableSource}, the returned source
+     * will be one too, and the filter must not retain the items it is
+     * given.
+     * <p>
+     * If the given source is a {@link FilterableSource}, it is asked to
+     * apply the filter itself first.
+     * <p>
+     * If the given source is sorted and the filter is a
+     * {@link RangeFilter}, the returned source ends as soon as the filter
+     * reports that no later item can pass, closing the wrapped source
+     * without reading the rest of it. If the filter passes items through
+     * unchanged, the returned source has the same {@link Characteristics}
+     * as the given one.
+     * <p>
      * When the returned source is closed, the wrapped source will also be
      * closed, but the filter will not be.
      *
@@ -41,16 +73,78 @@ public final class Sources {
      * @param <T> the type.
      * @return the filtering source.
      */
-    public static <T> Source<T> filter(final Source<T> source,
-                                       final Filter<T> filter) {
-        return new AbstractSource<T>() {
+    public static <T> Source<T> filter(Source<T> source, Filter<T> filter) {
+        if (source instanceof FilterableSource) {
+            Source<T> filtered =
+                    ((FilterableSource<T>) source).withFilter(filter);
+            if (filtered != null) {
+                return filtered;
+            }
+        }
+        return wrap(source, filter);
+    }
+
+    /**
+     * Gets a version of the given source whose items are subject to the
+     * given filter, applied on several threads at once, with the results
+     * returned in the original order.
+     * <p>
+     * This is meant for filters whose cost dwarfs that of reading the
+     * source. Background threads take turns reading items and filter them
+     * concurrently; results wait in a reorder buffer until every earlier
+     * item's result has been returned. The workers may get at most
+     * <code>window</code> items ahead of the consumer. Items from a
+     * {@link ReusableSource} are copied before being handed to a worker.
+     * <p>
+     * The filter must be safe to use from several threads at once. If it
+     * or the source fails, the failure is reported in order, after the
+     * results for all earlier items.
+     * <p>
+     * The wrapped source is closed as soon as it is exhausted, or when the
+     * returned source is closed, whichever comes first. The filter is not
+     * closed.
+     *
+     * @param source the source to filter.
+     * @param filter the filter to use.
+     * @param threads the number of threads to filter on.
+     * @param window the maximum number of items in flight.
+     * @param <T> the type.
+     * @return the filtering source.
+     */
+    public static <T> Source<T> parallelFilter(Source<T> source,
+                                               Filter<T> filter,
+                                               int threads, int window) {
+        ParallelFilterSource<T> filtered = new ParallelFilterSource<T>(
+                source, filter, threads, window);
+        filtered.start();
+        return filtered;
+    }
+
+    /**
+     * Gets the given source wrapped so that its items are subject to the
+     * given filter, as described for {@link #filter(Source, Filter)}, but
+     * without offering the filter to the source.
+     */
+    static <T> Source<T> wrap(final Source<T> source,
+                              final Filter<T> filter) {
+        final Characteristics<T> characteristics = characteristics(source);
+        final RangeFilter<T> range = filter instanceof RangeFilter
+                ? (RangeFilter<T>) filter : null;
+        final boolean stoppable = range != null && characteristics.isSorted();
+        Source<T> filtered = new AbstractSource<T>() {
             @Override
             public T computeNext() throws IOException {
                 while (source.hasNext()) {
-                    T item = filter.accept(source.next());
+                    T original = source.next();
+                    T item = filter.accept(original);
                     if (item != null) {
                         return item;
                     }
+                    if (stoppable
+                            && range.rejectsFrom(original, characteristics)) {
+                        source.close();
+                        break;
+                    }
                 }
                 return endOfData();
             }
@@ -60,10 +154,53 @@ public final class Sources {
                 source.close();
             }
         };
+        if (range != null && range.isPassThrough()) {
+            filtered = withCharacteristics(filtered, characteristics);
+        }
+        return preservingReuse(source, filtered);
+    }
+
+    /**
+     * Gets the characteristics of the given source.
+     *
+     * @param source the source.
+     * @param <T> the type.
+     * @return the characteristics it declares if it is a
+     *         {@link CharacterizedSource}, otherwise
+     *         {@link Characteristics#none()}.
+     */
+    public static <T> Characteristics<T> characteristics(Source<T> source) {
+        if (source instanceof CharacterizedSource) {
+            return ((CharacterizedSource<T>) source).characteristics();
+        }
+        return Characteristics.none();
+    }
+
+    /**
+     * Gets a version of the given source that declares the given
+     * characteristics. The caller is responsible for their truth.
+     * <p>
+     * The returned source skips natively if the given source does.
+     * When it is closed, the wrapped source will also be closed.
+     *
+     * @param source the source.
+     * @param characteristics the characteristics.
+     * @param <T> the type.
+     * @return the source.
+     */
+    public static <T> Source<T> withCharacteristics(final Source<T> source,
+            final Characteristics<T> characteristics) {
+        if (characteristics.equals(characteristics(source))) {
+            return source;
+        }
+        return preservingReuse(source,
+                new CharacterizedWrapper<T>(source, characteristics));
     }
 
     /**
      * Gets a source from the given items.
+     * <p>
+     * The returned source is a {@link SeekableSource}.
      *
      * @param items the items.
      * @param <T> the type.
@@ -75,13 +212,15 @@ public final class Sources {
 
     /**
      * Gets a source from the items in the given collection.
+     * <p>
+     * The returned source is a {@link SeekableSource}.
      *
      * @param collection the collection.
      * @param <T> the type.
      * @return the source.
      */
     public static <T> Source<T> from(Collection<T> collection) {
-        return from(collection.iterator());
+        return new CollectionSource<T>(collection);
     }
 
     /**
@@ -157,15 +296,41 @@ public final class Sources {
     /**
      * Gets a source that joins the given collection of sources end to end.
      * <p>
+     * If all the given sources are sorted by the same comparator, the
+     * returned source is declared sorted too, and reading it fails with an
+     * <code>IOException</code> if an item is out of order with the one
+     * before it, such as where one source ends and the next begins. It is
+     * also declared distinct if all the given sources are.
+     * <p>
      * When closed, the returned source will ensure the wrapped sources are
      * all closed.
      *
      * @param collection the collection of sources to join.
      * @param <T> the type.
      * @return the joined source.
+     * @see #join(Iterator)
      */
     public static <T> Source<T> join(Collection<Source<T>> collection) {
-        return join(collection.iterator());
+        Characteristics<T> characteristics = Characteristics.none();
+        Iterator<Source<T>> sources = collection.iterator();
+        if (sources.hasNext()) {
+            characteristics = characteristics(sources.next());
+            while (sources.hasNext() && characteristics.isSorted()) {
+                Characteristics<T> c = characteristics(sources.next());
+                if (!c.isSorted() || !c.getComparator().equals(
+                        characteristics.getComparator())) {
+                    characteristics = Characteristics.none();
+                } else if (!c.isDistinct()) {
+                    characteristics = Characteristics.sorted(
+                            characteristics.getComparator());
+                }
+            }
+        }
+        if (!characteristics.isSorted()) {
+            return join(collection.iterator());
+        }
+        return withCharacteristics(join(collection.iterator(),
+                characteristics), characteristics);
     }
 
     /**
@@ -173,20 +338,35 @@ public final class Sources {
      * <p>
      * When closed, the returned source will ensure the wrapped sources are
      * all closed.
+     * <p>
+     * The returned source is a {@link SkippableSource}. When skipping, any
+     * wrapped {@link SizedSource} that would be skipped entirely is closed
+     * without being read, and others are skipped natively if possible.
      *
      * @param iterator the sources to join.
      * @param <T> the type.
      * @return the joined source.
      */
-    public static <T> Source<T> join(final Iterator<Source<T>> iterator) {
-        return new AbstractSource<T>() {
+    public static <T> Source<T> join(Iterator<Source<T>> iterator) {
+        return join(iterator, Characteristics.<T>none());
+    }
+
+    private static <T> Source<T> join(final Iterator<Source<T>> iterator,
+            final Characteristics<T> characteristics) {
+        final Comparator<? super T> order = characteristics.getComparator();
+        return new AbstractSkippableSource<T>() {
             private Source<T> current = popSource();
+            private T last;
 
             @Override
             public T computeNext() throws IOException {
                 while (current != null) {
                     if (current.hasNext()) {
-                        return current.next();
+                        T item = current.next();
+                        if (order != null) {
+                            checkOrder(item);
+                        }
+                        return item;
                     } else {
                         current.close();
                         current = popSource();
@@ -195,6 +375,42 @@ public final class Sources {
                 return endOfData();
             }
 
+            private void checkOrder(T item) throws IOException {
+                if (last != null) {
+                    int result = order.compare(last, item);
+                    if (result > 0 || (result == 0
+                            && characteristics.isDistinct())) {
+                        throw new IOException("Joined sources are not in "
+                                + "order: " + last + " then " + item);
+                    }
+                }
+                last = item;
+            }
+
+            @Override
+            protected long skipAhead(long n) throws IOException {
+                long skipped = 0;
+                while (current != null && skipped < n) {
+                    long wanted = n - skipped;
+                    long size = -1;
+                    if (current instanceof SizedSource) {
+                        size = ((SizedSource<T>) current).estimateSize();
+                    }
+                    if (size >= 0 && size <= wanted) {
+                        skipped += size;
+                    } else {
+                        long count = skipIn(current, wanted);
+                        skipped += count;
+                        if (count == wanted) {
+                            break;
+                        }
+                    }
+                    current.close();
+                    current = popSource();
+                }
+                return skipped;
+            }
+
             @Override
             public void close() {
                 while (current != null) {
@@ -213,6 +429,798 @@ public final class Sources {
         };
     }
 
+    /**
+     * Gets a source that reads the given sources concurrently, returning
+     * their items in no particular order.
+     *
+     * @param sources the sources to interleave.
+     * @param parallelism the maximum number of sources to read at once.
+     * @param bufferPerSource the number of items to buffer per source.
+     * @param <T> the type.
+     * @return the interleaved source.
+     * @see #interleave(Iterator, int, int)
+     */
+    public static <T> Source<T> interleave(Collection<Source<T>> sources,
+                                           int parallelism,
+                                           int bufferPerSource) {
+        return interleave(sources.iterator(), parallelism, bufferPerSource);
+    }
+
+    /**
+     * Gets a source that reads the given sources concurrently, returning
+     * their items in no particular order.
+     * <p>
+     * This is an unordered counterpart to {@link #join(Iterator)} for
+     * when the time to open and start reading each source, rather than
+     * throughput, is the bottleneck. Up to <code>parallelism</code>
+     * background threads each take the next unread source from the
+     * iterator, read it to the end, then move on to the next, handing
+     * items over as they become ready. Up to
+     * <code>parallelism * bufferPerSource</code> items are held in memory
+     * before the workers wait for the consumer. Items from a
+     * {@link ReusableSource} are copied before being held.
+     * <p>
+     * The iterator is only ever used by one thread at a time. If any source
+     * fails, the workers stop taking new sources and the failure is
+     * reported to the consumer after the items already read.
+     * <p>
+     * Each wrapped source is closed as soon as it is exhausted. When the
+     * returned source is closed, the workers are stopped and any sources
+     * still open or unread are closed.
+     *
+     * @param sources the sources to interleave.
+     * @param parallelism the maximum number of sources to read at once.
+     * @param bufferPerSource the number of items to buffer per source.
+     * @param <T> the type.
+     * @return the interleaved source.
+     */
+    public static <T> Source<T> interleave(Iterator<Source<T>> sources,
+                                           int parallelism,
+                                           int bufferPerSource) {
+        InterleavingSource<T> interleaved = new InterleavingSource<T>(
+                sources, parallelism, bufferPerSource);
+        interleaved.start();
+        return interleaved;
+    }
+
+    /**
+     * Gets the given number of sources that each return every item of the
+     * given source, which is read only once.
+     * <p>
+     * The returned sources share a ring buffer of the most recent items,
+     * each with its own position in it, so one may get at most
+     * <code>bufferSize</code> items ahead of the slowest of the others
+     * before waiting for it to catch up. They are meant to be read
+     * concurrently, each by its own thread; reading them one after
+     * another from the same thread will wait forever once the buffer
+     * fills. A source that is closed early no longer holds up the rest.
+     * <p>
+     * All the returned sources see the same item instances, so none may
+     * modify them. Items from a {@link ReusableSource} are copied before
+     * being held. If the given source fails, each returned source reports
+     * the failure after the items read before it.
+     * <p>
+     * The given source is closed once all the returned sources have been
+     * closed.
+     *
+     * @param source the source to split.
+     * @param n the number of sources to return.
+     * @param bufferSize the number of items to buffer.
+     * @param <T> the type.
+     * @return the sources.
+     */
+    public static <T> List<Source<T>> tee(Source<T> source, int n,
+                                          int bufferSize) {
+        return new Tee<T>(source, n, bufferSize).branches();
+    }
+
+    /**
+     * Gets a source that joins two sources on equal keys, holding the
+     * build side entirely in memory.
+     *
+     * @param build the source to load into memory.
+     * @param probe the source to look up.
+     * @param buildKey the function giving the key of each build item.
+     * @param probeKey the function giving the key of each probe item.
+     * @param combiner the means of combining each matching pair.
+     * @param <L> the type of build item.
+     * @param <R> the type of probe item.
+     * @param <K> the type of key.
+     * @param <T> the type of result.
+     * @return the joined source.
+     * @see #hashJoin(Source, Source, Function, Function, Combiner, int,
+     *      File, Codec, Codec)
+     */
+    public static <L, R, K, T> Source<T> hashJoin(Source<L> build,
+            Source<R> probe, Function<L, K> buildKey, Function<R, K> probeKey,
+            Combiner<L, R, T> combiner) {
+        return new HashJoinSource<L, R, K, T>(build, probe, buildKey,
+                probeKey, combiner, Integer.MAX_VALUE, null, null, null);
+    }
+
+    /**
+     * Gets a source that joins two sources on equal keys, holding at most
+     * the given number of build items in memory at once.
+     * <p>
+     * When first read, the returned source loads the build side into a
+     * compact hash table, then combines each probe item, in order, with
+     * every build item that has an equal key. Items with a
+     * <code>null</code> key match nothing. Build items from a
+     * {@link ReusableSource} are copied.
+     * <p>
+     * If the build side has more than <code>maxBuildItems</code> items,
+     * both sides are instead written to temporary files in the given
+     * directory, partitioned by key, and the partitions are joined one
+     * pair at a time. In that case, results are not in probe order.
+     * <p>
+     * Both wrapped sources are closed once they have been read, and when
+     * the returned source is closed, along with any temporary files.
+     *
+     * @param build the source to load into memory.
+     * @param probe the source to look up.
+     * @param buildKey the function giving the key of each build item.
+     * @param probeKey the function giving the key of each probe item.
+     * @param combiner the means of combining each matching pair.
+     * @param maxBuildItems the maximum number of build items to hold in
+     *        memory.
+     * @param spillDir the directory in which to create temporary files,
+     *        or <code>null</code> to use the default temporary directory.
+     * @param buildCodec the codec to use when writing build items to disk.
+     * @param probeCodec the codec to use when writing probe items to disk.
+     * @param <L> the type of build item.
+     * @param <R> the type of probe item.
+     * @param <K> the type of key.
+     * @param <T> the type of result.
+     * @return the joined source.
+     */
+    public static <L, R, K, T> Source<T> hashJoin(Source<L> build,
+            Source<R> probe, Function<L, K> buildKey, Function<R, K> probeKey,
+            Combiner<L, R, T> combiner, int maxBuildItems, File spillDir,
+            Codec<L> buildCodec, Codec<R> probeCodec) {
+        return new HashJoinSource<L, R, K, T>(build, probe, buildKey,
+                probeKey, combiner, maxBuildItems, spillDir, buildCodec,
+                probeCodec);
+    }
+
+    /**
+     * Gets a source that joins two sources in ascending natural order of
+     * key.
+     *
+     * @param left the left source.
+     * @param right the right source.
+     * @param leftKey the function giving the key of each left item.
+     * @param rightKey the function giving the key of each right item.
+     * @param combiner the means of combining each matching pair.
+     * @param <L> the type of left item.
+     * @param <R> the type of right item.
+     * @param <K> the type of key.
+     * @param <T> the type of result.
+     * @return the joined source.
+     * @see #mergeJoin(Source, Source, Function, Function, Comparator,
+     *      Combiner)
+     */
+    public static <L, R, K extends Comparable<? super K>, T> Source<T>
+            mergeJoin(Source<L> left, Source<R> right, Function<L, K> leftKey,
+                      Function<R, K> rightKey, Combiner<L, R, T> combiner) {
+        return mergeJoin(left, right, leftKey, rightKey,
+                Characteristics.<K>sorted().getComparator(), combiner);
+    }
+
+    /**
+     * Gets a source that joins two sources that are both in ascending
+     * order of key.
+     * <p>
+     * Each right item, in order, is combined with every left item that has
+     * an equal key. Only the run of left items sharing the current key is
+     * held in memory, so memory use is constant when keys are unique on
+     * the left. Left items in such a run are copied if they come from a
+     * {@link ReusableSource}. Keys must not be <code>null</code>.
+     * <p>
+     * Reading the returned source fails with an <code>IOException</code>
+     * if either side is found to be out of order. It ends, closing the
+     * right source, as soon as the left source has no more keys that
+     * could match. When it is closed, both wrapped sources are closed.
+     *
+     * @param left the left source.
+     * @param right the right source.
+     * @param leftKey the function giving the key of each left item.
+     * @param rightKey the function giving the key of each right item.
+     * @param comparator the order of the keys.
+     * @param combiner the means of combining each matching pair.
+     * @param <L> the type of left item.
+     * @param <R> the type of right item.
+     * @param <K> the type of key.
+     * @param <T> the type of result.
+     * @return the joined source.
+     */
+    public static <L, R, K, T> Source<T> mergeJoin(Source<L> left,
+            Source<R> right, Function<L, K> leftKey, Function<R, K> rightKey,
+            Comparator<? super K> comparator, Combiner<L, R, T> combiner) {
+        return new MergeJoinSource<L, R, K, T>(left, right, leftKey,
+                rightKey, comparator, combiner);
+    }
+
+    /**
+     * Gets a version of the given source that records metrics in the
+     * default {@link MetricsRegistry}.
+     *
+     * @param source the source to instrument.
+     * @param name the name of the metrics.
+     * @param <T> the type.
+     * @return the instrumented source.
+     * @see #instrument(Source, String, MetricsRegistry)
+     */
+    public static <T> Source<T> instrument(Source<T> source, String name) {
+        return instrument(source, name, MetricsRegistry.getDefault());
+    }
+
+    /**
+     * Gets a version of the given source that records metrics in the
+     * given registry.
+     * <p>
+     * The time taken to compute each item is recorded as its latency, so
+     * the time blocked tells how long consumers spent waiting on the
+     * source.
+     * <p>
+     * When the returned source is closed, the wrapped source will also be
+     * closed.
+     *
+     * @param source the source to instrument.
+     * @param name the name of the metrics.
+     * @param registry the registry.
+     * @param <T> the type.
+     * @return the instrumented source.
+     */
+    public static <T> Source<T> instrument(final Source<T> source,
+                                           String name,
+                                           MetricsRegistry registry) {
+        final StageMetrics metrics = registry.get(name);
+        return preservingReuse(source, new AbstractSource<T>() {
+            @Override
+            protected T computeNext() throws IOException {
+                long start = System.nanoTime();
+                if (source.hasNext()) {
+                    T item = source.next();
+                    metrics.record(System.nanoTime() - start, true);
+                    return item;
+                }
+                return endOfData();
+            }
+
+            @Override
+            public void close() {
+                source.close();
+            }
+        });
+    }
+
+    /**
+     * Gets a source that ends after at most the given number of items from
+     * the given source.
+     * <p>
+     * The wrapped source is closed as soon as the last item has been
+     * taken from it, so that it can release any resources, such as a
+     * background reader, straight away. It will also be closed when the
+     * returned source is closed.
+     *
+     * @param source the source.
+     * @param n the maximum number of items.
+     * @param <T> the type.
+     * @return the limited source.
+     */
+    public static <T> Source<T> limit(final Source<T> source, final long n) {
+        return preservingReuse(source, new AbstractSkippableSource<T>() {
+            private long remaining = n;
+
+            @Override
+            protected T computeNext() throws IOException {
+                if (remaining > 0 && source.hasNext()) {
+                    T item = source.next();
+                    if (--remaining == 0) {
+                        source.close();
+                    }
+                    return item;
+                }
+                source.close();
+                return endOfData();
+            }
+
+            @Override
+            protected long skipAhead(long count) throws IOException {
+                long skipped = skipIn(source, Math.min(count, remaining));
+                remaining -= skipped;
+                if (remaining == 0) {
+                    source.close();
+                }
+                return skipped;
+            }
+
+            @Override
+            public void close() {
+                source.close();
+            }
+        });
+    }
+
+    /**
+     * Gets a source that omits the given number of items from the start of
+     * the given source.
+     * <p>
+     * The items are skipped when the returned source is first used. If the
+     * wrapped source is a {@link SkippableSource}, they are skipped via
+     * {@link SkippableSource#skip(long)}; otherwise, each is computed and
+     * discarded in turn.
+     * <p>
+     * When the returned source is closed, the wrapped source will also be
+     * closed.
+     *
+     * @param source the source.
+     * @param n the number of items to skip.
+     * @param <T> the type.
+     * @return the source.
+     */
+    public static <T> Source<T> skip(final Source<T> source, final long n) {
+        return preservingReuse(source, new AbstractSkippableSource<T>() {
+            private boolean skipped;
+
+            @Override
+            protected T computeNext() throws IOException {
+                skipFirst();
+                if (source.hasNext()) {
+                    return source.next();
+                }
+                return endOfData();
+            }
+
+            @Override
+            protected long skipAhead(long count) throws IOException {
+                skipFirst();
+                return skipIn(source, count);
+            }
+
+            @Override
+            public void close() {
+                source.close();
+            }
+
+            private void skipFirst() throws IOException {
+                if (!skipped) {
+                    skipped = true;
+                    skipIn(source, n);
+                }
+            }
+        });
+    }
+
+    /**
+     * Gets a source that ends just before the first item from the given
+     * source that the given filter rejects.
+     * <p>
+     * Items may be transformed by the filter. The wrapped source is closed
+     * as soon as an item is rejected. It will also be closed when the
+     * returned source is closed, but the filter will not be.
+     *
+     * @param source the source.
+     * @param filter the filter.
+     * @param <T> the type.
+     * @return the source.
+     */
+    public static <T> Source<T> takeWhile(final Source<T> source,
+                                          final Filter<T> filter) {
+        return preservingReuse(source, new AbstractSource<T>() {
+            @Override
+            protected T computeNext() throws IOException {
+                if (source.hasNext()) {
+                    T item = filter.accept(source.next());
+                    if (item != null) {
+                        return item;
+                    }
+                }
+                source.close();
+                return endOfData();
+            }
+
+            @Override
+            public void close() {
+                source.close();
+            }
+        });
+    }
+
+    /**
+     * Gets a source of the items in a file written by a
+     * {@link BlockFileSink}.
+     * <p>
+     * When the returned source is given to {@link #filter(Source, Filter)},
+     * each block of the file is checked against the filter before being
+     * read, using the least and greatest item recorded for the block, and
+     * skipped without being decoded if no item in that range could pass.
+     * This works for filters built from <code>lt</code>, <code>le</code>,
+     * <code>gt</code>, <code>ge</code>, <code>eq</code>, <code>ne</code>,
+     * <code>bool</code>, <code>and</code>, <code>or</code> and
+     * <code>not</code> in {@link Filters}, whether compiled or not, as long
+     * as <code>equals</code> is consistent with <code>compareTo</code>.
+     * The returned source is also a {@link SkippableSource} that skips
+     * whole blocks where it can.
+     *
+     * @param file the file.
+     * @param codec the codec the file was written with.
+     * @param <T> the type.
+     * @return the source.
+     */
+    public static <T extends Comparable<? super T>> Source<T> blockFile(
+            File file, Codec<T> codec) {
+        return new BlockFileSource<T>(file, codec);
+    }
+
+    /**
+     * Gets a source of the records in a file of delimited text, such as
+     * CSV or TSV.
+     * <p>
+     * The text is parsed a byte at a time into a single reusable
+     * {@link CsvRow} that points into the read buffer, so no field is
+     * decoded until asked for, and the returned source is a
+     * {@link ReusableSource}. Filters from {@link Csv} test fields
+     * without decoding them. If the options call for it, the file is read
+     * through a memory mapping rather than with reads.
+     *
+     * @param file the file.
+     * @param options how to parse the text.
+     * @return the source.
+     * @throws IOException if the file can't be opened.
+     */
+    public static Source<CsvRow> csv(File file, CsvOptions options)
+            throws IOException {
+        if (options.isMapped()) {
+            return new CsvSource(new RandomAccessFile(file, "r"), options);
+        }
+        return new CsvSource(new FileInputStream(file), options);
+    }
+
+    /**
+     * Gets a source of the records in a stream of delimited text, such as
+     * CSV or TSV, as described for {@link #csv(File, CsvOptions)}. The
+     * stream is closed when the source is closed.
+     *
+     * @param in the stream.
+     * @param options how to parse the text.
+     * @return the source.
+     */
+    public static Source<CsvRow> csv(InputStream in, CsvOptions options) {
+        return new CsvSource(in, options);
+    }
+
+    /**
+     * Gets a source of the lines of a gzip-compressed UTF-8 text file.
+     * <p>
+     * Files made of many independent gzip members, as written by
+     * <code>bgzip</code> or by concatenating gzip files, are decompressed
+     * with up to <code>threads</code> members in flight at once, each
+     * checked against its CRC, and the output is reassembled in order, so
+     * lines may span members. A member too large to buffer, such as the
+     * single member of a file written by <code>gzip</code> or, by default,
+     * <code>pigz</code>, is decompressed as it is read instead.
+     *
+     * @param file the file.
+     * @param threads the number of threads to decompress with.
+     * @return the source.
+     * @throws IOException if the file can't be opened.
+     */
+    public static Source<String> gzipLines(File file, int threads)
+            throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        final BufferedReader reader;
+        try {
+            reader = new BufferedReader(new InputStreamReader(
+                    new ParallelGzipInputStream(raf, threads,
+                            GZIP_MAX_BUFFERED), "UTF-8"));
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        } catch (RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+        return new AbstractSource<String>() {
+            @Override
+            protected String computeNext() throws IOException {
+                String line = reader.readLine();
+                return line != null ? line : endOfData();
+            }
+
+            @Override
+            @PreDestroy
+            public void close() {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+            }
+        };
+    }
+
+    /**
+     * Gets a source that reads ahead from the given source in a background
+     * thread, so that a slow consumer never holds up the producer.
+     * <p>
+     * Up to <code>memoryItems</code> items are held in memory. Beyond that,
+     * items are written to temporary files in the given directory using the
+     * given codec, and read back in order once the consumer catches up.
+     * The buffer is therefore bounded only by disk space, and the wrapped
+     * source is drained as fast as it can produce. Items from a
+     * {@link ReusableSource} are copied before being held in memory.
+     * <p>
+     * If the wrapped source fails, the failure is reported to the consumer
+     * only after all items read before the failure have been returned.
+     * <p>
+     * The wrapped source will be closed as soon as it is exhausted, or
+     * when the returned source is closed, whichever comes first. Closing
+     * the returned source also deletes any remaining temporary files.
+     *
+     * @param source the source to buffer.
+     * @param memoryItems the maximum number of items to hold in memory.
+     * @param spillDir the directory in which to create temporary files,
+     *        or <code>null</code> to use the default temporary directory.
+     * @param codec the codec to use when writing items to disk.
+     * @param <T> the type.
+     * @return the buffered source.
+     */
+    public static <T> Source<T> buffered(Source<T> source, int memoryItems,
+                                         File spillDir, Codec<T> codec) {
+        BufferedSource<T> buffered = new BufferedSource<T>(source,
+                memoryItems, spillDir, codec);
+        buffered.start();
+        return buffered;
+    }
+
+    /**
+     * Gets a source of the items sent to the given port by sinks on other
+     * nodes, obtained via {@link Sinks#remote(String, int, Codec)}.
+     * <p>
+     * The source starts listening right away, and reads from any number
+     * of senders in a background thread using non-blocking I/O. Each
+     * sender is allowed a limited number of items beyond those consumed,
+     * so a slow consumer slows its senders down. Items from one sender
+     * arrive in the order sent, interleaved in batches with those of
+     * others. The source ends once every sender that has connected has
+     * closed, so all senders should connect before the first one closes.
+     *
+     * @param port the port to listen on.
+     * @param codec the codec the senders use.
+     * @param <T> the type.
+     * @return the source.
+     * @throws IOException if the port can't be listened on.
+     */
+    public static <T> Source<T> listen(int port, Codec<T> codec)
+            throws IOException {
+        return new ListenSource<T>(port, codec, LISTEN_WINDOW);
+    }
+
+    /**
+     * Gets a source of all the items in a memory-mapped queue file, from
+     * the start.
+     *
+     * @param file the file.
+     * @param codec the codec the file was written with.
+     * @param <T> the type.
+     * @return the source.
+     * @throws IOException if the file can't be opened or isn't a queue.
+     * @see #mappedQueue(File, Codec, String)
+     */
+    public static <T> Source<T> mappedQueue(File file, Codec<T> codec)
+            throws IOException {
+        return mappedQueue(file, codec, null);
+    }
+
+    /**
+     * Gets a source of the items in a memory-mapped queue file written by
+     * {@link Sinks#mappedQueue(File, Codec, int)}, possibly from another
+     * process.
+     * <p>
+     * Items are read through the mapping without a system call per item.
+     * Once the source has caught up with the writer, it waits for more,
+     * ending only when the writer closes the queue. Closing the source
+     * from another thread stops the wait with an
+     * <code>IllegalStateException</code>.
+     * <p>
+     * Given a reader name, the source keeps its read position in a file
+     * next to the queue named after the reader, and a later source with
+     * the same name continues from there. An item is counted as read when
+     * the next one is asked for or the source is closed, so the last item
+     * returned before a crash may be returned again.
+     *
+     * @param file the file.
+     * @param codec the codec the file was written with.
+     * @param reader the name of the reader whose position to keep, or
+     *        <code>null</code> to read from the start without keeping it.
+     * @param <T> the type.
+     * @return the source.
+     * @throws IOException if the file can't be opened or isn't a queue.
+     */
+    public static <T> Source<T> mappedQueue(File file, Codec<T> codec,
+                                            String reader)
+            throws IOException {
+        File positionFile = null;
+        if (reader != null) {
+            positionFile = new File(file.getPath() + "." + reader + ".pos");
+        }
+        return new MappedQueueSource<T>(file, codec, positionFile);
+    }
+
+    /**
+     * Gets a source that reads ahead from the given source in a background
+     * thread, holding the items read ahead in direct memory rather than on
+     * the heap.
+     * <p>
+     * The background thread puts each item into an {@link OffHeapQueue}
+     * with a ring buffer of the given size, waiting whenever it is full,
+     * and the returned source reads from the queue. If the wrapped source
+     * fails, the failure is reported to the consumer only after all items
+     * read before the failure have been returned.
+     * <p>
+     * The wrapped source will be closed as soon as it is exhausted, or
+     * when the returned source is closed, whichever comes first.
+     *
+     * @param source the source to buffer.
+     * @param capacity the size of the ring buffer, in bytes.
+     * @param codec the codec to use when storing items.
+     * @param <T> the type.
+     * @return the buffered source.
+     */
+    public static <T> Source<T> offHeapBuffered(final Source<T> source,
+                                                int capacity,
+                                                Codec<T> codec) {
+        final OffHeapQueue<T> queue = new OffHeapQueue<T>(capacity, codec);
+        final Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (source.hasNext()) {
+                        queue.put(source.next());
+                    }
+                    queue.close();
+                } catch (Throwable th) {
+                    queue.fail(th);
+                } finally {
+                    source.close();
+                }
+            }
+        }, "ttff-offheap");
+        producer.setDaemon(true);
+        producer.start();
+        return new AbstractSource<T>() {
+            @Override
+            protected T computeNext() throws IOException {
+                if (queue.source().hasNext()) {
+                    return queue.source().next();
+                }
+                return endOfData();
+            }
+
+            @Override
+            @PreDestroy
+            public void close() {
+                queue.source().close();
+                producer.interrupt();
+                source.close();
+            }
+        };
+    }
+
+    /**
+     * Gets a source of lists of consecutive items from the given source.
+     * <p>
+     * Each list holds <code>count</code> items, except possibly the last,
+     * which holds whatever remains.
+     * <p>
+     * When the returned source is closed, the wrapped source will also be
+     * closed.
+     *
+     * @param source the source.
+     * @param count the number of items per window.
+     * @param <T> the type.
+     * @return the source of windows.
+     */
+    public static <T> Source<List<T>> window(Source<T> source, int count) {
+        return new WindowSource<T, List<T>>(source, null, count, count,
+                new WindowSource.ListBuffer<T>(source));
+    }
+
+    /**
+     * Gets a source of aggregates over sliding windows of items from the
+     * given source.
+     * <p>
+     * Window <i>k</i> covers items <code>k * slide</code> (inclusive)
+     * through <code>k * slide + count</code> (exclusive), counting from
+     * zero, and is emitted as soon as it is complete. When
+     * <code>slide</code> equals <code>count</code>, the windows are
+     * tumbling; when it's smaller, they overlap. At the end of the source,
+     * one final, partial window is emitted if any items have not yet been
+     * included in a window.
+     * <p>
+     * Aggregates are maintained incrementally, so each item costs a
+     * constant number of aggregator calls, no matter how large the window.
+     * <p>
+     * When the returned source is closed, the wrapped source will also be
+     * closed.
+     *
+     * @param source the source.
+     * @param count the number of items per window.
+     * @param slide the number of items between the start of each window.
+     * @param aggregator the aggregator.
+     * @param <T> the type.
+     * @param <A> the type of aggregate.
+     * @return the source of aggregates.
+     */
+    public static <T, A> Source<A> window(Source<T> source, int count,
+                                          int slide,
+                                          Aggregator<T, A> aggregator) {
+        return new WindowSource<T, A>(source, null, count, slide,
+                new WindowSource.AggregateBuffer<T, A>(aggregator));
+    }
+
+    /**
+     * Gets a source of lists of items from the given source, grouped by
+     * time.
+     * <p>
+     * Window <i>k</i> covers times from <code>k * slide</code> (inclusive)
+     * to <code>k * slide + duration</code> (exclusive). When
+     * <code>slide</code> equals <code>duration</code>, the windows are
+     * tumbling; when it's smaller, they overlap. Each non-empty window is
+     * emitted as soon as an item at or beyond its end arrives, or at the
+     * end of the source.
+     * <p>
+     * Times must be non-decreasing. Items whose time is before the start
+     * of the earliest window still open are dropped.
+     * <p>
+     * When the returned source is closed, the wrapped source will also be
+     * closed.
+     *
+     * @param source the source.
+     * @param timeFn the function giving the time of each item.
+     * @param duration the duration of each window.
+     * @param slide the time between the start of each window.
+     * @param <T> the type.
+     * @return the source of windows.
+     */
+    public static <T> Source<List<T>> window(Source<T> source,
+                                             Function<T, Long> timeFn,
+                                             long duration, long slide) {
+        return new WindowSource<T, List<T>>(source, timeFn, duration, slide,
+                new WindowSource.ListBuffer<T>(source));
+    }
+
+    /**
+     * Gets a source of aggregates over windows of items from the given
+     * source, grouped by time.
+     * <p>
+     * Windows are defined as for
+     * {@link #window(Source, Function, long, long)}, but each is emitted
+     * as the aggregate of its items. Aggregates are maintained
+     * incrementally, so each item costs a constant number of aggregator
+     * calls, no matter how large the window.
+     * <p>
+     * When the returned source is closed, the wrapped source will also be
+     * closed.
+     *
+     * @param source the source.
+     * @param timeFn the function giving the time of each item.
+     * @param duration the duration of each window.
+     * @param slide the time between the start of each window.
+     * @param aggregator the aggregator.
+     * @param <T> the type.
+     * @param <A> the type of aggregate.
+     * @return the source of aggregates.
+     */
+    public static <T, A> Source<A> window(Source<T> source,
+                                          Function<T, Long> timeFn,
+                                          long duration, long slide,
+                                          Aggregator<T, A> aggregator) {
+        return new WindowSource<T, A>(source, timeFn, duration, slide,
+                new WindowSource.AggregateBuffer<T, A>(aggregator));
+    }
+
     /**
      * Exhausts the given source.
      * <p>
@@ -233,6 +1241,9 @@ public final class Sources {
     /**
      * Exhausts the given source, adding each item to the given collection.
      * <p>
+     * If the source is a {@link ReusableSource}, each item is copied
+     * before being added.
+     * <p>
      * The source will be automatically closed regardless of success.
      *
      * @param source the source to exhaust.
@@ -244,6 +1255,15 @@ public final class Sources {
     public static <T> long drain(Source<T> source,
                                  final Collection<T> collection)
             throws IOException {
+        if (source instanceof ReusableSource) {
+            final ReusableSource<T> reusable = (ReusableSource<T>) source;
+            return drain(source, new AbstractSink<T>() {
+                @Override
+                public void put(T item) {
+                    collection.add(reusable.copy(item));
+                }
+            });
+        }
         return drain(source, new AbstractSink<T>() {
             @Override
             public void put(T item) {
@@ -255,6 +1275,9 @@ public final class Sources {
     /**
      * Exhausts the given source, sending each item to the given sink.
      * <p>
+     * If the source is a {@link ReusableSource}, the sink must not retain
+     * the items it is given.
+     * <p>
      * The source will be automatically closed regardless of success.
      *
      * @param source the source to exhaust.
@@ -276,4 +1299,137 @@ public final class Sources {
             source.close();
         }
     }
+
+    /**
+     * Skips up to the given number of items in the given source, natively
+     * if possible, and returns the number skipped.
+     */
+    static <T> long skipIn(Source<T> source, long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        if (source instanceof SkippableSource) {
+            return ((SkippableSource<T>) source).skip(n);
+        }
+        long skipped = 0;
+        while (skipped < n && source.hasNext()) {
+            source.next();
+            skipped++;
+        }
+        return skipped;
+    }
+
+    /**
+     * Gets the given derived source, made a {@link ReusableSource} that
+     * copies items via the original if the original is one. The result is
+     * still a {@link SkippableSource} if the derived source is.
+     */
+    static <T> Source<T> preservingReuse(Source<T> original,
+                                         Source<T> derived) {
+        if (!(original instanceof ReusableSource)) {
+            return derived;
+        }
+        ReusableSource<T> reusable = (ReusableSource<T>) original;
+        if (derived instanceof SkippableSource) {
+            return new SkippableReuseWrapper<T>(
+                    (SkippableSource<T>) derived, reusable);
+        }
+        return new ReuseWrapper<T>(derived, reusable);
+    }
+
+    private static class ReuseWrapper<T>
+            implements ReusableSource<T>, CharacterizedSource<T> {
+
+        private final Source<T> derived;
+        private final ReusableSource<T> reusable;
+
+        ReuseWrapper(Source<T> derived, ReusableSource<T> reusable) {
+            this.derived = derived;
+            this.reusable = reusable;
+        }
+
+        @Override
+        public Characteristics<T> characteristics() {
+            return Sources.characteristics(derived);
+        }
+
+        @Override
+        public boolean hasNext() throws IOException {
+            return derived.hasNext();
+        }
+
+        @Override
+        public T next() throws IOException {
+            return derived.next();
+        }
+
+        @Override
+        public T peek() throws IOException {
+            return derived.peek();
+        }
+
+        @Override
+        public T copy(T item) {
+            return reusable.copy(item);
+        }
+
+        @Override
+        public void close() {
+            derived.close();
+        }
+    }
+
+    private static class SkippableReuseWrapper<T> extends ReuseWrapper<T>
+            implements SkippableSource<T> {
+
+        private final SkippableSource<T> derived;
+
+        SkippableReuseWrapper(SkippableSource<T> derived,
+                              ReusableSource<T> reusable) {
+            super(derived, reusable);
+            this.derived = derived;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            return derived.skip(n);
+        }
+    }
+
+    private static class CharacterizedWrapper<T>
+            extends AbstractSkippableSource<T>
+            implements CharacterizedSource<T> {
+
+        private final Source<T> source;
+        private final Characteristics<T> characteristics;
+
+        CharacterizedWrapper(Source<T> source,
+                             Characteristics<T> characteristics) {
+            this.source = source;
+            this.characteristics = characteristics;
+        }
+
+        @Override
+        protected T computeNext() throws IOException {
+            if (source.hasNext()) {
+                return source.next();
+            }
+            return endOfData();
+        }
+
+        @Override
+        protected long skipAhead(long n) throws IOException {
+            return skipIn(source, n);
+        }
+
+        @Override
+        public Characteristics<T> characteristics() {
+            return characteristics;
+        }
+
+        @Override
+        public void close() {
+            source.close();
+        }
+    }
 }
@@ -0,0 +1,122 @@
+package com.github.cwilper.ttff;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * A fixed number of temporary partition files being written, with each
+ * key assigned to one of them by hash.
+ * <p>
+ * A partition that is still too large when read back can be split again
+ * into a new set at the next depth. Each depth hashes keys with its own
+ * seed, so keys that shared a partition at one depth are spread over all
+ * the partitions at the next.
+ *
+ * @see GroupingSink
+ * @see HashJoinSource
+ */
+class SpillPartitions {
+
+    /** The number of partitions in a set. */
+    static final int PARTITIONS = 16;
+
+    /** The deepest a partition is split; beyond this, it is kept whole. */
+    static final int MAX_DEPTH = 8;
+
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    private final int depth;
+    private final String prefix;
+    private final File dir;
+    private final File[] files = new File[PARTITIONS];
+    private final DataOutputStream[] outs = new DataOutputStream[PARTITIONS];
+
+    /**
+     * Creates a set of partitions whose files will be created as needed.
+     *
+     * @param depth the number of times the keys have been split before.
+     * @param prefix the prefix for file names.
+     * @param dir the directory for the files, or <code>null</code> for
+     *        the default temporary directory.
+     */
+    SpillPartitions(int depth, String prefix, File dir) {
+        this.depth = depth;
+        this.prefix = prefix;
+        this.dir = dir;
+    }
+
+    int depth() {
+        return depth;
+    }
+
+    /** Gets the stream to write the given key's data to. */
+    DataOutputStream out(Object key) throws IOException {
+        int partition = partitionOf(key, depth);
+        if (outs[partition] == null) {
+            files[partition] = File.createTempFile(prefix, ".part", dir);
+            outs[partition] = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(files[partition]),
+                    STREAM_BUFFER_SIZE));
+        }
+        return outs[partition];
+    }
+
+    /** Closes each file and gets them all, or null for empty ones. */
+    File[] finish() throws IOException {
+        for (int i = 0; i < PARTITIONS; i++) {
+            if (outs[i] != null) {
+                outs[i].close();
+            }
+        }
+        return files;
+    }
+
+    /** Closes and deletes each file. */
+    void discard() {
+        for (int i = 0; i < PARTITIONS; i++) {
+            if (outs[i] != null) {
+                try {
+                    outs[i].close();
+                } catch (IOException e) {
+                    // ignore; it's being deleted anyway
+                }
+            }
+        }
+        delete(files);
+    }
+
+    /**
+     * Gets the partition of the given key at the given depth. The depth's
+     * seed goes through the whole finalizer with the hash, so partitions
+     * at one depth are independent of those at another.
+     */
+    static int partitionOf(Object key, int depth) {
+        int h = OpenHashTable.hash(key) ^ (depth * 0x9E3779B9);
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h >>> 28;
+    }
+
+    /** Opens a partition file for reading. */
+    static DataInputStream open(File file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file), STREAM_BUFFER_SIZE));
+    }
+
+    static void delete(File... files) {
+        for (File file: files) {
+            if (file != null && !file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.github.cwilper.ttff;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts and latencies recorded for one stage of a pipeline.
+ * <p>
+ * What "in", "out" and "latency" mean depends on the kind of stage:
+ * <ul>
+ *   <li> For a {@link Source}, each item produced counts as both in and
+ *        out, and latency is the time taken to compute it.</li>
+ *   <li> For a {@link Filter}, each item passed to <code>accept</code>
+ *        counts as in, each non-<code>null</code> result counts as out,
+ *        and latency is the time taken by <code>accept</code>.</li>
+ *   <li> For a {@link Sink}, each item passed to <code>put</code> counts
+ *        as both in and out, and latency is the time taken by
+ *        <code>put</code>.</li>
+ * </ul>
+ * In each case, the time blocked is the sum of all latencies; that is, the
+ * total time the caller spent waiting on the stage.
+ *
+ * @see MetricsRegistry
+ */
+public final class StageMetrics implements StageMetricsMBean {
+
+    private final String name;
+    private final AtomicLong itemsIn = new AtomicLong();
+    private final AtomicLong itemsOut = new AtomicLong();
+    private final AtomicLong nanosBlocked = new AtomicLong();
+    private final Histogram latencies = new Histogram();
+
+    StageMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Records one call to the stage.
+     *
+     * @param nanos how long the call took.
+     * @param out whether an item left the stage as a result.
+     */
+    public void record(long nanos, boolean out) {
+        itemsIn.incrementAndGet();
+        if (out) {
+            itemsOut.incrementAndGet();
+        }
+        nanosBlocked.addAndGet(nanos);
+        latencies.record(nanos);
+    }
+
+    /**
+     * Gets the latency histogram.
+     *
+     * @return the histogram, in nanoseconds.
+     */
+    public Histogram getLatencies() {
+        return latencies;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getItemsIn() {
+        return itemsIn.get();
+    }
+
+    @Override
+    public long getItemsOut() {
+        return itemsOut.get();
+    }
+
+    @Override
+    public double getSelectivity() {
+        long in = itemsIn.get();
+        return in == 0 ? 1 : (double) itemsOut.get() / in;
+    }
+
+    @Override
+    public long getTimeBlockedMillis() {
+        return nanosBlocked.get() / 1000000L;
+    }
+
+    @Override
+    public double getMeanLatencyNanos() {
+        return latencies.getMean();
+    }
+
+    @Override
+    public long getP50LatencyNanos() {
+        return latencies.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getP90LatencyNanos() {
+        return latencies.getValueAtPercentile(90);
+    }
+
+    @Override
+    public long getP99LatencyNanos() {
+        return latencies.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getP999LatencyNanos() {
+        return latencies.getValueAtPercentile(99.9);
+    }
+
+    @Override
+    public long getMaxLatencyNanos() {
+        return latencies.getMax();
+    }
+
+    @Override
+    public void reset() {
+        itemsIn.set(0);
+        itemsOut.set(0);
+        nanosBlocked.set(0);
+        latencies.reset();
+    }
+
+    @Override
+    public String toString() {
+        return name + "[in=" + getItemsIn() + ", out=" + getItemsOut()
+                + ", p50=" + getP50LatencyNanos() + "ns, p99="
+                + getP99LatencyNanos() + "ns, blocked="
+                + getTimeBlockedMillis() + "ms]";
+    }
+}
@@ -0,0 +1,90 @@
+package com.github.cwilper.ttff;
+
+/**
+ * The JMX management interface of {@link StageMetrics}.
+ */
+public interface StageMetricsMBean {
+
+    /**
+     * Gets the name of the stage.
+     *
+     * @return the name.
+     */
+    String getName();
+
+    /**
+     * Gets the number of items that have entered the stage.
+     *
+     * @return the count.
+     */
+    long getItemsIn();
+
+    /**
+     * Gets the number of items that have left the stage.
+     *
+     * @return the count.
+     */
+    long getItemsOut();
+
+    /**
+     * Gets the fraction of items entering the stage that also left it.
+     *
+     * @return the selectivity, from <code>0</code> to <code>1</code>.
+     */
+    double getSelectivity();
+
+    /**
+     * Gets the total time spent waiting on the stage, in milliseconds.
+     *
+     * @return the time.
+     */
+    long getTimeBlockedMillis();
+
+    /**
+     * Gets the mean latency per call, in nanoseconds.
+     *
+     * @return the mean latency.
+     */
+    double getMeanLatencyNanos();
+
+    /**
+     * Gets the median latency per call, in nanoseconds.
+     *
+     * @return the latency.
+     */
+    long getP50LatencyNanos();
+
+    /**
+     * Gets the 90th percentile latency per call, in nanoseconds.
+     *
+     * @return the latency.
+     */
+    long getP90LatencyNanos();
+
+    /**
+     * Gets the 99th percentile latency per call, in nanoseconds.
+     *
+     * @return the latency.
+     */
+    long getP99LatencyNanos();
+
+    /**
+     * Gets the 99.9th percentile latency per call, in nanoseconds.
+     *
+     * @return the latency.
+     */
+    long getP999LatencyNanos();
+
+    /**
+     * Gets the maximum latency per call, in nanoseconds.
+     *
+     * @return the latency.
+     */
+    long getMaxLatencyNanos();
+
+    /**
+     * Clears all counts and latencies.
+     */
+    void reset();
+
+}
@@ -0,0 +1,186 @@
+package com.github.cwilper.ttff;
+
+import javax.annotation.PreDestroy;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Splits one source into several that each return every item, reading
+ * the original only once.
+ * <p>
+ * The most recent items are kept in a ring buffer shared by all the
+ * branches, each of which has its own cursor into it. A branch that needs
+ * an item no branch has read yet reads it from the original, unless the
+ * ring is full of items the slowest open branch has yet to see, in which
+ * case it waits for that branch to catch up. Only one branch reads from
+ * the original at a time, and not while holding the lock, so the others
+ * can carry on returning buffered items meanwhile.
+ *
+ * @param <T> the type of item.
+ * @see Sources#tee(Source, int, int)
+ */
+class Tee<T> {
+
+    private final Source<T> source;
+
+    /** The source, if it recycles items; otherwise <code>null</code>. */
+    private final ReusableSource<T> reusable;
+
+    private final Object[] ring;
+    private final List<Source<T>> branches;
+
+    /** Guarded by this. */
+    private final long[] cursors;
+    private final boolean[] open;
+    private int openCount;
+    private long head;
+    private boolean reading;
+    private boolean exhausted;
+    private Throwable failure;
+
+    @SuppressWarnings("unchecked")
+    Tee(Source<T> source, int n, int bufferSize) {
+        if (n < 1) {
+            throw new IllegalArgumentException("n must be > 0");
+        }
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("bufferSize must be > 0");
+        }
+        this.source = source;
+        this.reusable = source instanceof ReusableSource
+                ? (ReusableSource<T>) source : null;
+        this.ring = new Object[bufferSize];
+        this.cursors = new long[n];
+        this.open = new boolean[n];
+        this.openCount = n;
+        List<Source<T>> list = new ArrayList<Source<T>>(n);
+        for (int i = 0; i < n; i++) {
+            open[i] = true;
+            list.add(new Branch(i));
+        }
+        this.branches = Collections.unmodifiableList(list);
+    }
+
+    List<Source<T>> branches() {
+        return branches;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T take(int branch) throws IOException {
+        synchronized (this) {
+            while (true) {
+                if (!open[branch]) {
+                    throw new IllegalStateException("Source is closed");
+                }
+                long cursor = cursors[branch];
+                if (cursor < head) {
+                    T item = (T) ring[(int) (cursor % ring.length)];
+                    cursors[branch]++;
+                    notifyAll();
+                    return item;
+                }
+                if (failure != null) {
+                    if (failure instanceof IOException) {
+                        throw (IOException) failure;
+                    }
+                    throw new IOException(failure);
+                }
+                if (exhausted) {
+                    return null;
+                }
+                if (!reading && head - slowest() < ring.length) {
+                    reading = true;
+                    break;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+            }
+        }
+        T item = null;
+        Throwable th = null;
+        try {
+            if (source.hasNext()) {
+                item = source.next();
+                if (reusable != null) {
+                    item = reusable.copy(item);
+                }
+            }
+        } catch (Throwable e) {
+            th = e;
+        }
+        synchronized (this) {
+            reading = false;
+            if (th != null) {
+                failure = th;
+            } else if (item == null) {
+                exhausted = true;
+            } else {
+                ring[(int) (head % ring.length)] = item;
+                head++;
+                cursors[branch]++;
+            }
+            notifyAll();
+        }
+        if (item == null) {
+            return take(branch);
+        }
+        return item;
+    }
+
+    /** Gets the cursor of the slowest open branch. */
+    private long slowest() {
+        long min = head;
+        for (int i = 0; i < cursors.length; i++) {
+            if (open[i] && cursors[i] < min) {
+                min = cursors[i];
+            }
+        }
+        return min;
+    }
+
+    private void close(int branch) {
+        synchronized (this) {
+            if (!open[branch]) {
+                return;
+            }
+            open[branch] = false;
+            notifyAll();
+            if (--openCount > 0) {
+                return;
+            }
+        }
+        source.close();
+    }
+
+    /** One of the sources returned by the tee. */
+    private class Branch extends AbstractSource<T> {
+        private final int index;
+
+        Branch(int index) {
+            this.index = index;
+        }
+
+        @Override
+        protected T computeNext() throws IOException {
+            T item = take(index);
+            return item == null ? endOfData() : item;
+        }
+
+        /**
+         * Stops this branch holding up the others. The original source is
+         * closed once every branch has been closed.
+         */
+        @Override
+        @PreDestroy
+        public void close() {
+            Tee.this.close(index);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.github.cwilper.ttff;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A sink that keeps only the greatest items it receives, according to a
+ * comparator.
+ * <p>
+ * Items are held in a bounded min-heap whose root is the least of those
+ * kept. Once the heap is full, an item that does not compare greater than
+ * the root is rejected with a single comparison, which is the common case
+ * for long inputs; otherwise it replaces the root in
+ * <i>O</i>(log <i>k</i>) time. Among equal items, the earliest ones are
+ * kept.
+ * <p>
+ * To find the greatest items of a large input in parallel, give each
+ * worker its own sink, then {@link #merge} them. Items are retained as
+ * given, so items from a {@link ReusableSource} must be copied first.
+ *
+ * @param <T> the type over which the sink operates.
+ * @see Sinks#topK(int, Comparator)
+ */
+public final class TopKSink<T> extends AbstractSink<T> {
+
+    private final int k;
+    private final Comparator<T> comparator;
+    private final Object[] heap;
+    private int size;
+
+    TopKSink(int k, Comparator<T> comparator) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be > 0");
+        }
+        this.k = k;
+        this.comparator = comparator;
+        this.heap = new Object[k];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void put(T item) {
+        if (size < k) {
+            heap[size] = item;
+            siftUp(size++);
+        } else if (comparator.compare(item, (T) heap[0]) > 0) {
+            heap[0] = item;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Adds all items kept by the given sink to this one.
+     *
+     * @param other the other sink, which is left unchanged.
+     * @return this sink.
+     */
+    @SuppressWarnings("unchecked")
+    public TopKSink<T> merge(TopKSink<T> other) {
+        for (int i = 0; i < other.size; i++) {
+            put((T) other.heap[i]);
+        }
+        return this;
+    }
+
+    /**
+     * Gets the number of items currently kept.
+     *
+     * @return the number of items, at most <i>k</i>.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the items kept so far, greatest first.
+     *
+     * @return a new list of the items.
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> results() {
+        List<T> results = new ArrayList<T>(size);
+        for (int i = 0; i < size; i++) {
+            results.add((T) heap[i]);
+        }
+        Collections.sort(results, Collections.reverseOrder(comparator));
+        return results;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void siftUp(int i) {
+        Object item = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (comparator.compare((T) item, (T) heap[parent]) >= 0) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = item;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void siftDown(int i) {
+        Object item = heap[i];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = (i << 1) + 1;
+            int right = child + 1;
+            if (right < size && comparator.compare(
+                    (T) heap[right], (T) heap[child]) < 0) {
+                child = right;
+            }
+            if (comparator.compare((T) item, (T) heap[child]) <= 0) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = item;
+    }
+}
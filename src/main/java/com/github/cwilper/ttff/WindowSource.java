@@ -0,0 +1,319 @@
+package com.github.cwilper.ttff;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A source of windows over another source, ordered by a non-decreasing
+ * position, such as a timestamp or sequence number.
+ * <p>
+ * Window <i>k</i> covers positions from <code>k * slide</code>
+ * (inclusive) to <code>k * slide + size</code> (exclusive). Each window is
+ * emitted as soon as an item at or beyond its end arrives. Items whose
+ * position is before the earliest open window are dropped. When counting,
+ * windows start at zero; otherwise, the first window is the earliest one
+ * covering the first item.
+ *
+ * @param <T> the type of item.
+ * @param <W> the type of window.
+ * @see Sources#window(Source, int)
+ */
+class WindowSource<T, W> extends AbstractSource<W> {
+
+    private final Source<T> source;
+    private final Function<T, Long> positionFn;
+    private final long size;
+    private final long slide;
+    private final boolean countBased;
+    private final Buffer<T, W> buffer;
+    private final LinkedList<W> pending = new LinkedList<W>();
+
+    private boolean started;
+    private long start;
+    private long lastPosition;
+    private long emittedEnd = Long.MIN_VALUE;
+    private long count;
+
+    /**
+     * Creates an instance.
+     *
+     * @param source the source.
+     * @param positionFn the position of each item, or <code>null</code>
+     *        to use the sequence number of each item.
+     * @param size the size of each window.
+     * @param slide the distance between the start of each window.
+     * @param buffer the buffer in which to hold items.
+     */
+    WindowSource(Source<T> source, Function<T, Long> positionFn, long size,
+                 long slide, Buffer<T, W> buffer) {
+        if (size < 1 || slide < 1) {
+            throw new IllegalArgumentException(
+                    "Window size and slide must be > 0");
+        }
+        this.source = source;
+        this.positionFn = positionFn;
+        this.size = size;
+        this.slide = slide;
+        this.countBased = positionFn == null;
+        this.buffer = buffer;
+    }
+
+    @Override
+    protected W computeNext() throws IOException {
+        while (pending.isEmpty()) {
+            if (!source.hasNext()) {
+                if (started) {
+                    flush();
+                    started = false;
+                }
+                if (pending.isEmpty()) {
+                    return endOfData();
+                }
+                break;
+            }
+            T item = source.next();
+            long position = countBased ? count++ : positionFn.apply(item);
+            if (!started) {
+                start = countBased ? 0 : firstStartCovering(position);
+                started = true;
+            }
+            while (position >= start + size) {
+                emit();
+                if (buffer.isEmpty() && position >= start + size) {
+                    start = Math.max(start, firstStartCovering(position));
+                }
+            }
+            if (position >= start) {
+                buffer.add(item, position);
+                lastPosition = position;
+            }
+        }
+        return pending.removeFirst();
+    }
+
+    @Override
+    public void close() {
+        source.close();
+    }
+
+    /** Emits all remaining windows at the end of the source. */
+    private void flush() {
+        if (countBased) {
+            // complete windows, then one partial window if it holds any
+            // items not already emitted
+            while (start + size <= lastPosition + 1) {
+                emit();
+            }
+            if (lastPosition >= emittedEnd && start <= lastPosition) {
+                emit();
+            }
+        } else {
+            while (start <= lastPosition) {
+                emit();
+            }
+        }
+    }
+
+    /** Emits the current window, if non-empty, and moves to the next. */
+    private void emit() {
+        buffer.evictBefore(start);
+        if (!buffer.isEmpty()) {
+            pending.addLast(buffer.result());
+            emittedEnd = start + size;
+        }
+        start += slide;
+    }
+
+    /** Gets the start of the earliest window that covers the position. */
+    private long firstStartCovering(long position) {
+        long n = position - size;
+        long floor = n / slide;
+        if (n % slide != 0 && n < 0) {
+            floor--;
+        }
+        return (floor + 1) * slide;
+    }
+
+    /**
+     * Holds the items in the current window, along with their positions.
+     *
+     * @param <T> the type of item.
+     * @param <W> the type of window.
+     */
+    interface Buffer<T, W> {
+
+        void add(T item, long position);
+
+        void evictBefore(long position);
+
+        boolean isEmpty();
+
+        W result();
+    }
+
+    /**
+     * A buffer that holds each item, giving a list as the result.
+     *
+     * @param <T> the type of item.
+     */
+    static class ListBuffer<T> implements Buffer<T, List<T>> {
+
+        private final ReusableSource<T> reusable;
+        private final LinkedList<T> items = new LinkedList<T>();
+        private final LinkedList<Long> positions = new LinkedList<Long>();
+
+        ListBuffer(Source<T> source) {
+            if (source instanceof ReusableSource) {
+                reusable = (ReusableSource<T>) source;
+            } else {
+                reusable = null;
+            }
+        }
+
+        @Override
+        public void add(T item, long position) {
+            items.addLast(reusable == null ? item : reusable.copy(item));
+            positions.addLast(position);
+        }
+
+        @Override
+        public void evictBefore(long position) {
+            while (!positions.isEmpty() && positions.getFirst() < position) {
+                items.removeFirst();
+                positions.removeFirst();
+            }
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return items.isEmpty();
+        }
+
+        @Override
+        public List<T> result() {
+            return new ArrayList<T>(items);
+        }
+    }
+
+    /**
+     * A buffer that maintains an aggregate of the items it holds using
+     * two stacks, so that adding an item, evicting an item and getting
+     * the aggregate each take amortized constant time, however large the
+     * window.
+     * <p>
+     * New items are pushed on to the back stack, which keeps a running
+     * aggregate of its contents. Items are evicted from the front stack,
+     * each element of which holds the aggregate of itself and every newer
+     * element in the front stack. When the front stack is empty, the back
+     * stack is moved over to it, newest first.
+     *
+     * @param <T> the type of item.
+     * @param <A> the type of aggregate.
+     */
+    static class AggregateBuffer<T, A> implements Buffer<T, A> {
+
+        private final Aggregator<T, A> aggregator;
+
+        private Object[] backValues = new Object[16];
+        private long[] backPositions = new long[16];
+        private int backSize;
+        private A backAggregate;
+
+        private Object[] frontAggregates = new Object[16];
+        private long[] frontPositions = new long[16];
+        private int frontSize;
+
+        AggregateBuffer(Aggregator<T, A> aggregator) {
+            this.aggregator = aggregator;
+        }
+
+        @Override
+        public void add(T item, long position) {
+            A value = aggregator.lift(item);
+            if (backSize == backValues.length) {
+                backValues = grow(backValues);
+                backPositions = grow(backPositions);
+            }
+            backValues[backSize] = value;
+            backPositions[backSize] = position;
+            backSize++;
+            if (backSize == 1) {
+                backAggregate = value;
+            } else {
+                backAggregate = aggregator.combine(backAggregate, value);
+            }
+        }
+
+        @Override
+        public void evictBefore(long position) {
+            while (!isEmpty() && oldestPosition() < position) {
+                if (frontSize == 0) {
+                    flip();
+                }
+                frontSize--;
+                frontAggregates[frontSize] = null;
+            }
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return frontSize == 0 && backSize == 0;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public A result() {
+            if (frontSize == 0) {
+                return backAggregate;
+            }
+            A front = (A) frontAggregates[frontSize - 1];
+            if (backSize == 0) {
+                return front;
+            }
+            return aggregator.combine(front, backAggregate);
+        }
+
+        private long oldestPosition() {
+            if (frontSize > 0) {
+                return frontPositions[frontSize - 1];
+            }
+            return backPositions[0];
+        }
+
+        @SuppressWarnings("unchecked")
+        private void flip() {
+            if (frontAggregates.length < backSize) {
+                frontAggregates = new Object[backValues.length];
+                frontPositions = new long[backValues.length];
+            }
+            for (int i = backSize - 1; i >= 0; i--) {
+                A value = (A) backValues[i];
+                if (frontSize == 0) {
+                    frontAggregates[0] = value;
+                } else {
+                    frontAggregates[frontSize] = aggregator.combine(value,
+                            (A) frontAggregates[frontSize - 1]);
+                }
+                frontPositions[frontSize] = backPositions[i];
+                frontSize++;
+                backValues[i] = null;
+            }
+            backSize = 0;
+            backAggregate = null;
+        }
+
+        private static Object[] grow(Object[] array) {
+            Object[] bigger = new Object[array.length * 2];
+            System.arraycopy(array, 0, bigger, 0, array.length);
+            return bigger;
+        }
+
+        private static long[] grow(long[] array) {
+            long[] bigger = new long[array.length * 2];
+            System.arraycopy(array, 0, bigger, 0, array.length);
+            return bigger;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.github.cwilper.ttff;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+@SuppressWarnings("unchecked")
+public class BatchesTest {
+
+    private static final RowWriter<Long> WRITER = new RowWriter<Long>() {
+        @Override
+        public void write(Long item, RecordBatch batch, int row) {
+            batch.longColumn("n").set(row, item);
+            batch.doubleColumn("half").set(row, item / 2.0);
+            batch.<String>objectColumn("name").set(row, "n" + item);
+        }
+    };
+
+    private static final RowReader<String> NAMES = new RowReader<String>() {
+        @Override
+        public String read(RecordBatch batch, int row) {
+            return batch.<String>objectColumn("name").get(row);
+        }
+    };
+
+    @Test (expected=AssertionError.class)
+    public void instantiate() throws Exception {
+        Batches.class.newInstance();
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        Assert.assertEquals("[n0, n1, n2, n3, n4, n5, n6]",
+                filter(null).toString());
+    }
+
+    @Test
+    public void reusesBatch() throws IOException {
+        RecordBatch batch = newBatch();
+        List<RecordBatch> batches = new ArrayList<RecordBatch>();
+        Sources.drain(Batches.batches(Sources.from(0L, 1L, 2L, 3L, 4L),
+                batch, WRITER), batches);
+        Assert.assertEquals(2, batches.size());
+        Assert.assertNotSame(batch, batches.get(0));
+        Assert.assertEquals(3, batches.get(0).size());
+        Assert.assertEquals(2, batches.get(1).size());
+        Assert.assertEquals(4L, batches.get(1).longColumn("n").get(1));
+    }
+
+    @Test
+    public void longFilters() throws IOException {
+        Assert.assertEquals("[n3]", filter(Batches.eq("n", 3)).toString());
+        Assert.assertEquals("[n0, n1]",
+                filter(Batches.lt("n", 2)).toString());
+        Assert.assertEquals("[n0, n1, n2]",
+                filter(Batches.le("n", 2)).toString());
+        Assert.assertEquals("[n6]", filter(Batches.gt("n", 5)).toString());
+        Assert.assertEquals("[n5, n6]",
+                filter(Batches.ge("n", 5)).toString());
+    }
+
+    @Test
+    public void doubleFilters() throws IOException {
+        Assert.assertEquals("[n0, n1]",
+                filter(Batches.lt("half", 1.0)).toString());
+        Assert.assertEquals("[n5, n6]",
+                filter(Batches.gt("half", 2.0)).toString());
+    }
+
+    @Test
+    public void columnFilter() throws IOException {
+        Assert.assertEquals("[n4]", filter(Batches.column("name",
+                Filters.eq("n4"))).toString());
+    }
+
+    @Test
+    public void combined() throws IOException {
+        Assert.assertEquals("[n2, n3, n4]", filter(Filters.and(
+                Batches.ge("n", 2), Batches.lt("half", 2.5))).toString());
+        Assert.assertEquals("[n0, n3, n6]", filter(Batches.or(
+                Batches.eq("n", 0), Batches.eq("n", 3),
+                Batches.gt("n", 5))).toString());
+        Assert.assertEquals("[n0, n1, n5, n6]", filter(Batches.not(
+                Filters.and(Batches.ge("n", 2), Batches.le("n", 4))))
+                .toString());
+        Assert.assertEquals("[n1, n3]", filter(Filters.and(
+                Batches.lt("n", 5), Batches.not(Batches.or(
+                        Batches.eq("n", 0), Batches.eq("n", 2),
+                        Batches.eq("n", 4))))).toString());
+    }
+
+    @Test (expected=IllegalArgumentException.class)
+    public void wrongColumnType() throws IOException {
+        filter(Batches.eq("half", 1));
+    }
+
+    @Test
+    public void copy() {
+        RecordBatch batch = newBatch();
+        WRITER.write(7L, batch, 0);
+        WRITER.write(8L, batch, 1);
+        batch.setSize(2);
+        batch.selection()[0] = 1;
+        batch.setSelectedCount(1);
+        RecordBatch copy = batch.copy();
+        batch.longColumn("n").set(1, 0);
+        Assert.assertEquals(1, copy.selectedCount());
+        Assert.assertEquals(1, copy.selectedRow(0));
+        Assert.assertEquals(8L, copy.longColumn("n").get(1));
+        Assert.assertEquals("n8", NAMES.read(copy, 1));
+    }
+
+    private static RecordBatch newBatch() {
+        RecordBatch batch = new RecordBatch(3);
+        batch.addLongColumn("n");
+        batch.addDoubleColumn("half");
+        batch.addObjectColumn("name");
+        return batch;
+    }
+
+    private static List<String> filter(Filter<RecordBatch> filter)
+            throws IOException {
+        Source<RecordBatch> batches = Batches.batches(Sources.from(
+                0L, 1L, 2L, 3L, 4L, 5L, 6L), newBatch(), WRITER);
+        if (filter != null) {
+            batches = Sources.filter(batches, filter);
+        }
+        List<String> names = new ArrayList<String>();
+        Sources.drain(Batches.rows(batches, NAMES), names);
+        return names;
+    }
+}
@@ -0,0 +1,54 @@
+package com.github.cwilper.ttff;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+public class CodecsTest {
+
+    @Test (expected=AssertionError.class)
+    public void instantiate() throws Exception {
+        Codecs.class.newInstance();
+    }
+
+    @Test
+    public void strings() throws IOException {
+        Codec<String> codec = Codecs.strings();
+        Assert.assertEquals("", roundTrip(codec, ""));
+        String multibyte = "a\u00e9\u4e2d";
+        Assert.assertEquals(multibyte, roundTrip(codec, multibyte));
+    }
+
+    @Test
+    public void longs() throws IOException {
+        Codec<Long> codec = Codecs.longs();
+        Assert.assertEquals(new Long(Long.MIN_VALUE),
+                roundTrip(codec, Long.MIN_VALUE));
+        Assert.assertEquals(new Long(42), roundTrip(codec, 42L));
+    }
+
+    @Test
+    public void serialized() throws IOException {
+        Codec<Integer> codec = Codecs.serialized();
+        Assert.assertEquals(new Integer(42), roundTrip(codec, 42));
+    }
+
+    static <T> T roundTrip(Codec<T> codec, T item) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        codec.encode(item, out);
+        codec.encode(item, out);
+        out.close();
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()));
+        Assert.assertEquals(item, codec.decode(in));
+        T result = codec.decode(in);
+        Assert.assertEquals(-1, in.read());
+        return result;
+    }
+}
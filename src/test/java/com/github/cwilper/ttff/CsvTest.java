@@ -0,0 +1,166 @@
+package com.github.cwilper.ttff;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class CsvTest {
+
+    @Test (expected=AssertionError.class)
+    public void instantiate() throws Exception {
+        Csv.class.newInstance();
+    }
+
+    @Test
+    public void quotingAndLineEndings() throws IOException {
+        Source<CsvRow> rows = csv("a,\"b,c\",d\r\n\"x\"\"y\",,\"two\nlines\""
+                + "\n\n1,2", CsvOptions.csv());
+        CsvRow row = rows.next();
+        Assert.assertEquals("[a, b,c, d]", row.toString());
+        Assert.assertEquals(1, row.lineNumber());
+        row = rows.next();
+        Assert.assertEquals(3, row.size());
+        Assert.assertEquals("x\"y", row.getString(0));
+        Assert.assertTrue(row.isEmpty(1));
+        Assert.assertEquals("two\nlines", row.getString(2));
+        Assert.assertEquals(2, row.lineNumber());
+        row = rows.next();
+        Assert.assertEquals(1, row.size());
+        Assert.assertTrue(row.isEmpty(0));
+        row = rows.next();
+        Assert.assertEquals("[1, 2]", row.toString());
+        Assert.assertEquals(5, row.lineNumber());
+        Assert.assertFalse(rows.hasNext());
+    }
+
+    @Test
+    public void tsvIgnoresQuotes() throws IOException {
+        Source<CsvRow> rows = csv("a\t\"b\tc\"\n", CsvOptions.tsv());
+        Assert.assertEquals("[a, \"b, c\"]", rows.next().toString());
+        Assert.assertFalse(rows.hasNext());
+    }
+
+    @Test
+    public void escapeCharacter() throws IOException {
+        Source<CsvRow> rows = csv("\"a\\\"b\",c;d\n",
+                CsvOptions.csv().withQuote('"', '\\'));
+        Assert.assertEquals("[a\"b, c;d]", rows.next().toString());
+        rows = csv("'a;b';c\n", CsvOptions.csv().withDelimiter(';')
+                .withQuote('\''));
+        Assert.assertEquals("[a;b, c]", rows.next().toString());
+    }
+
+    @Test
+    public void header() throws IOException {
+        Source<CsvRow> rows = csv("name,n\nx,1\n",
+                CsvOptions.csv().withHeader(true));
+        Assert.assertEquals("[x, 1]", rows.next().toString());
+        Assert.assertFalse(rows.hasNext());
+    }
+
+    @Test
+    public void getLong() throws IOException {
+        CsvRow row = csv("0,-42,+7,9223372036854775807,-9223372036854775808,"
+                + "9223372036854775808,,1x", CsvOptions.csv()).next();
+        Assert.assertEquals(0, row.getLong(0));
+        Assert.assertEquals(-42, row.getLong(1));
+        Assert.assertEquals(7, row.getLong(2));
+        Assert.assertEquals(Long.MAX_VALUE, row.getLong(3));
+        Assert.assertEquals(Long.MIN_VALUE, row.getLong(4));
+        for (int i = 5; i < 8; i++) {
+            try {
+                row.getLong(i);
+                Assert.fail();
+            } catch (NumberFormatException e) {
+                // expected
+            }
+            Assert.assertEquals(-1, row.getLong(i, -1));
+        }
+        Assert.assertEquals(Long.MIN_VALUE, row.getLong(4, 0));
+    }
+
+    @Test
+    public void copy() throws IOException {
+        Source<CsvRow> rows = csv("a,b\nc,d\n", CsvOptions.csv());
+        CsvRow first = ((ReusableSource<CsvRow>) rows).copy(rows.next());
+        Assert.assertEquals("[c, d]", rows.next().toString());
+        Assert.assertEquals("[a, b]", first.toString());
+    }
+
+    @Test
+    public void filters() throws IOException {
+        String text = "a,1\nb,2\nc,x\nb,3\n";
+        Assert.assertEquals("[[b, 2], [b, 3]]",
+                drain(csv(text, CsvOptions.csv()), Csv.eq(0, "b")));
+        Assert.assertEquals("[[a, 1], [b, 2]]",
+                drain(csv(text, CsvOptions.csv()), Csv.lt(1, 3)));
+        Assert.assertEquals("[[b, 3]]",
+                drain(csv(text, CsvOptions.csv()), Csv.ge(1, 3)));
+        Assert.assertEquals("[[c, x]]",
+                drain(csv(text, CsvOptions.csv()),
+                        Csv.field(1, Filters.gt("5"))));
+        Assert.assertEquals("[]",
+                drain(csv(text, CsvOptions.csv()), Csv.eq(2, "b")));
+        String extremes = "-9223372036854775808\n-\n0\n";
+        Assert.assertEquals("[[-9223372036854775808], [0]]",
+                drain(csv(extremes, CsvOptions.csv()), Csv.le(0, 0)));
+    }
+
+    @Test
+    public void largeFileMappedOrNot() throws IOException {
+        File file = File.createTempFile("ttff-test-", ".csv");
+        try {
+            Random random = new Random(1);
+            List<String> expected = new ArrayList<String>();
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < 20000; i++) {
+                // one record bigger than the initial read buffer
+                int size = i == 5000 ? 100000 : random.nextInt(20);
+                StringBuilder value = new StringBuilder();
+                for (int j = 0; j < size; j++) {
+                    value.append("ab,\"\n".charAt(random.nextInt(5)));
+                }
+                expected.add("[" + i + ", " + value + "]");
+                text.append(i).append(",\"")
+                        .append(value.toString().replace("\"", "\"\""))
+                        .append("\"\n");
+            }
+            OutputStream out = new FileOutputStream(file);
+            out.write(text.toString().getBytes("UTF-8"));
+            out.close();
+            for (boolean mapped: new boolean[] { false, true }) {
+                Source<CsvRow> rows = Sources.csv(file,
+                        CsvOptions.csv().withMapping(mapped));
+                List<String> actual = new ArrayList<String>();
+                while (rows.hasNext()) {
+                    actual.add(rows.next().toString());
+                }
+                rows.close();
+                Assert.assertEquals(expected, actual);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static Source<CsvRow> csv(String text, CsvOptions options)
+            throws IOException {
+        return Sources.csv(new ByteArrayInputStream(text.getBytes("UTF-8")),
+                options);
+    }
+
+    private static String drain(Source<CsvRow> rows, Filter<CsvRow> filter)
+            throws IOException {
+        List<CsvRow> kept = new ArrayList<CsvRow>();
+        Sources.drain(Sources.filter(rows, filter), kept);
+        return kept.toString();
+    }
+}
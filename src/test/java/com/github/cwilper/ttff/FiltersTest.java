@@ -6,6 +6,7 @@ import org.junit.Test;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 @SuppressWarnings("unchecked")
 public class FiltersTest {
@@ -165,6 +166,190 @@ public class FiltersTest {
         Assert.assertNull(filter.accept(new Integer(4)));
     }
 
+    @Test
+    public void instrument() throws IOException {
+        MetricsRegistry registry = new MetricsRegistry();
+        Filter<Integer> filter = Filters.instrument(Filters.lt(5), "lt",
+                registry);
+        for (int i = 0; i < 10; i++) {
+            filter.accept(i);
+        }
+        filter.close();
+        StageMetrics metrics = registry.get("lt");
+        Assert.assertEquals(10, metrics.getItemsIn());
+        Assert.assertEquals(5, metrics.getItemsOut());
+        Assert.assertEquals(0.5, metrics.getSelectivity(), 0);
+    }
+
+    @Test
+    public void sample() throws IOException {
+        Filter<Integer> filter = Filters.sample(0.1, 42L);
+        int passed = 0;
+        for (int i = 0; i < 100000; i++) {
+            Integer result = filter.accept(i);
+            if (result != null) {
+                Assert.assertEquals(new Integer(i), result);
+                passed++;
+            }
+        }
+        Assert.assertTrue("passed " + passed, Math.abs(passed - 10000) < 400);
+        Assert.assertEquals("a", Filters.sample(1).accept("a"));
+        Assert.assertNull(Filters.sample(0).accept("a"));
+    }
+
+    @Test
+    public void sampleBy() throws IOException {
+        Filter<String> filter = Filters.sampleBy(
+                new Function<String, Character>() {
+                    @Override
+                    public Character apply(String input) {
+                        return input.charAt(0);
+                    }
+                }, new Function<Character, Double>() {
+                    @Override
+                    public Double apply(Character input) {
+                        return input == 'a' ? 1.0 : input == 'b' ? 0.0 : 0.5;
+                    }
+                });
+        int passed = 0;
+        for (int i = 0; i < 10000; i++) {
+            Assert.assertEquals("a" + i, filter.accept("a" + i));
+            Assert.assertNull(filter.accept("b" + i));
+            if (filter.accept("c" + i) != null) {
+                passed++;
+            }
+        }
+        Assert.assertTrue("passed " + passed, Math.abs(passed - 5000) < 300);
+    }
+
+    @Test
+    public void rangeFilters() {
+        Characteristics<String> sorted = Characteristics.sorted();
+        Characteristics<String> none = Characteristics.none();
+        Assert.assertTrue(range(Filters.lt("b")).rejectsFrom("b", sorted));
+        Assert.assertFalse(range(Filters.lt("b")).rejectsFrom("a", sorted));
+        Assert.assertFalse(range(Filters.lt("b")).rejectsFrom("b", none));
+        Assert.assertTrue(range(Filters.le("b")).rejectsFrom("c", sorted));
+        Assert.assertFalse(range(Filters.le("b")).rejectsFrom("b", sorted));
+        Assert.assertFalse(range(Filters.ge("b")).rejectsFrom("a", sorted));
+        Assert.assertTrue(range(Filters.<String>bool(false))
+                .rejectsFrom("a", none));
+
+        Filter<String> lt = Filters.lt("b");
+        Filter<String> notA = Filters.ne("a");
+        Assert.assertTrue(range(Filters.and(notA, lt))
+                .rejectsFrom("c", sorted));
+        Assert.assertFalse(range(Filters.or(notA, lt))
+                .rejectsFrom("c", sorted));
+        Assert.assertTrue(range(Filters.or(lt, Filters.lt("c")))
+                .rejectsFrom("c", sorted));
+        Assert.assertTrue(range(Filters.instrument(lt, "lt",
+                new MetricsRegistry())).rejectsFrom("c", sorted));
+    }
+
+    @Test
+    public void passThrough() {
+        Filter<String> mutating = new AbstractFilter<String>() {
+            @Override
+            public String accept(String item) {
+                return item + "!";
+            }
+        };
+        Assert.assertTrue(range(Filters.eq("a")).isPassThrough());
+        Assert.assertTrue(range(Filters.and(Filters.eq("a"),
+                Filters.not(mutating))).isPassThrough());
+        Assert.assertFalse(range(Filters.and(Filters.eq("a"),
+                mutating)).isPassThrough());
+        Assert.assertTrue(range(Filters.all(mutating)).isPassThrough());
+        Assert.assertFalse(range(Filters.instrument(mutating, "m",
+                new MetricsRegistry())).isPassThrough());
+    }
+
+    @Test
+    public void compile() throws IOException {
+        Random random = new Random(1);
+        for (int i = 0; i < 500; i++) {
+            Filter<String> tree = randomTree(random, 4);
+            Filter<String> compiled = Filters.compile(tree);
+            for (char c = 'a'; c <= 'f'; c++) {
+                String item = String.valueOf(c);
+                Assert.assertEquals(tree.accept(item),
+                        compiled.accept(item));
+            }
+        }
+    }
+
+    @Test
+    public void compileFlattens() throws IOException {
+        Filter<String> compiled = Filters.compile(Filters.or(
+                Filters.and(Filters.ge("b"), Filters.lt("d")),
+                Filters.eq("f")));
+        Assert.assertEquals(5, ((CompiledFilter<String>) compiled).size());
+        Assert.assertSame(compiled, Filters.compile(compiled));
+        Assert.assertNull(compiled.accept("a"));
+        Assert.assertEquals("c", compiled.accept("c"));
+        Assert.assertNull(compiled.accept("e"));
+        Assert.assertEquals("f", compiled.accept("f"));
+        Assert.assertTrue(((RangeFilter<String>) compiled).isPassThrough());
+    }
+
+    @Test
+    public void compileWithOtherFilters() throws IOException {
+        final StringBuffer closed = new StringBuffer();
+        Filter<String> upper = new AbstractFilter<String>() {
+            @Override
+            public String accept(String item) {
+                return item.toUpperCase();
+            }
+
+            @Override
+            public void close() {
+                closed.append("closed");
+            }
+        };
+        Filter<String> compiled = Filters.compile(Filters.or(
+                Filters.and(Filters.eq("a"), upper), Filters.eq("b")));
+        Assert.assertEquals("A", compiled.accept("a"));
+        Assert.assertEquals("b", compiled.accept("b"));
+        Assert.assertNull(compiled.accept("c"));
+        Assert.assertFalse(((RangeFilter<String>) compiled).isPassThrough());
+        compiled.close();
+        Assert.assertEquals("closed", closed.toString());
+    }
+
+    private static Filter<String> randomTree(Random random, int depth) {
+        int choice = random.nextInt(depth == 0 ? 6 : 10);
+        String value = String.valueOf((char) ('a' + random.nextInt(6)));
+        switch (choice) {
+            case 0: return Filters.bool(random.nextBoolean());
+            case 1: return Filters.eq(value);
+            case 2: return Filters.lt(value);
+            case 3: return Filters.ge(value);
+            case 4: return Filters.isa(random.nextBoolean()
+                    ? String.class : Integer.class);
+            case 5: return new AbstractFilter<String>() {
+                @Override
+                public String accept(String item) {
+                    return item.compareTo("c") > 0 ? item + "!" : null;
+                }
+            };
+            case 6: return Filters.not(randomTree(random, depth - 1));
+            default:
+                List<Filter<String>> children =
+                        new ArrayList<Filter<String>>();
+                int n = random.nextInt(4);
+                for (int i = 0; i < n; i++) {
+                    children.add(randomTree(random, depth - 1));
+                }
+                return choice == 7 ? Filters.or(children)
+                        : Filters.and(children);
+        }
+    }
+
+    private static RangeFilter<String> range(Filter<String> filter) {
+        return (RangeFilter<String>) filter;
+    }
+
     private void checkTrue(Filter<String> filter) throws IOException {
         Assert.assertEquals("a", filter.accept("a"));
     }
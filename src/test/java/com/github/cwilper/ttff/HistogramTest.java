@@ -0,0 +1,55 @@
+package com.github.cwilper.ttff;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HistogramTest {
+
+    @Test
+    public void empty() {
+        Histogram h = new Histogram();
+        Assert.assertEquals(0, h.getCount());
+        Assert.assertEquals(0, h.getMax());
+        Assert.assertEquals(0, h.getValueAtPercentile(99), 0);
+        Assert.assertEquals(0.0, h.getMean(), 0);
+    }
+
+    @Test
+    public void bucketsAreContiguous() {
+        for (int i = 1; i < 3712; i++) {
+            Assert.assertEquals(i, Histogram.indexOf(
+                    Histogram.highestValueIn(i - 1) + 1));
+        }
+        Assert.assertEquals(3711, Histogram.indexOf(Long.MAX_VALUE));
+        Assert.assertEquals(Long.MAX_VALUE, Histogram.highestValueIn(3711));
+    }
+
+    @Test
+    public void percentiles() {
+        Histogram h = new Histogram();
+        for (long i = 1; i <= 10000; i++) {
+            h.record(i * 1000);
+        }
+        Assert.assertEquals(10000, h.getCount());
+        Assert.assertEquals(10000000, h.getMax());
+        assertClose(5000000, h.getValueAtPercentile(50));
+        assertClose(9900000, h.getValueAtPercentile(99));
+        Assert.assertEquals(10000000, h.getValueAtPercentile(100));
+        Assert.assertEquals(5000500, h.getMean(), 0.001);
+        h.reset();
+        Assert.assertEquals(0, h.getCount());
+    }
+
+    @Test
+    public void negativeRecordedAsZero() {
+        Histogram h = new Histogram();
+        h.record(-5);
+        Assert.assertEquals(1, h.getCount());
+        Assert.assertEquals(0, h.getValueAtPercentile(50));
+    }
+
+    private static void assertClose(long expected, long actual) {
+        Assert.assertTrue(actual + " not within 2% of " + expected,
+                Math.abs(actual - expected) <= expected / 50);
+    }
+}
@@ -0,0 +1,35 @@
+package com.github.cwilper.ttff;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class MetricsRegistryTest {
+
+    @Test
+    public void getCreatesOnce() {
+        MetricsRegistry registry = new MetricsRegistry();
+        StageMetrics metrics = registry.get("a");
+        Assert.assertSame(metrics, registry.get("a"));
+        Assert.assertEquals(1, registry.getAll().size());
+        registry.remove("a");
+        Assert.assertEquals(0, registry.getAll().size());
+    }
+
+    @Test
+    public void exposedViaJmx() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        MetricsRegistry registry = new MetricsRegistry(server, "ttff.test");
+        registry.get("stage, one").record(1000, false);
+        ObjectName name = new ObjectName(
+                "ttff.test:type=Stage,name=\"stage, one\"");
+        Assert.assertTrue(server.isRegistered(name));
+        Assert.assertEquals(1L, server.getAttribute(name, "ItemsIn"));
+        Assert.assertEquals(0.0, server.getAttribute(name, "Selectivity"));
+        registry.remove("stage, one");
+        Assert.assertFalse(server.isRegistered(name));
+    }
+}
@@ -0,0 +1,50 @@
+package com.github.cwilper.ttff;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class OpenHashTableTest {
+
+    @Test
+    public void matchesHashMap() {
+        OpenHashTable<Integer, Integer> table =
+                new OpenHashTable<Integer, Integer>();
+        Map<Integer, Integer> map = new HashMap<Integer, Integer>();
+        Random random = new Random(7);
+        for (int i = 0; i < 10000; i++) {
+            Integer key = random.nextInt(3000);
+            table.put(key, i);
+            map.put(key, i);
+        }
+        Assert.assertEquals(map.size(), table.size());
+        for (Map.Entry<Integer, Integer> entry: map.entrySet()) {
+            Assert.assertEquals(entry.getValue(), table.get(entry.getKey()));
+        }
+        int occupied = 0;
+        for (int i = 0; i < table.capacity(); i++) {
+            if (table.isOccupied(i)) {
+                occupied++;
+                Assert.assertEquals(map.get(table.keyAt(i)),
+                        table.valueAt(i));
+            }
+        }
+        Assert.assertEquals(map.size(), occupied);
+    }
+
+    @Test
+    public void nullKey() {
+        OpenHashTable<String, String> table =
+                new OpenHashTable<String, String>();
+        Assert.assertNull(table.get(null));
+        table.put(null, "a");
+        Assert.assertEquals("a", table.get(null));
+        Assert.assertEquals(1, table.size());
+        table.clear();
+        Assert.assertEquals(0, table.size());
+        Assert.assertNull(table.get(null));
+    }
+}
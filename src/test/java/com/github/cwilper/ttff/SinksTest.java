@@ -0,0 +1,444 @@
+package com.github.cwilper.ttff;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+public class SinksTest {
+
+    @Test (expected=AssertionError.class)
+    public void instantiate() throws Exception {
+        Sinks.class.newInstance();
+    }
+
+    @Test
+    public void instrument() throws IOException {
+        MetricsRegistry registry = new MetricsRegistry();
+        final List<String> list = new ArrayList<String>();
+        Sink<String> sink = Sinks.instrument(new AbstractSink<String>() {
+            @Override
+            public void put(String item) {
+                list.add(item);
+            }
+        }, "sink", registry);
+        Assert.assertEquals(3, Sources.drain(Sources.from("a", "b", "c"),
+                sink));
+        sink.close();
+        Assert.assertEquals(3, list.size());
+        StageMetrics metrics = registry.get("sink");
+        Assert.assertEquals(3, metrics.getItemsIn());
+        Assert.assertEquals(3, metrics.getItemsOut());
+        Assert.assertEquals(3, metrics.getLatencies().getCount());
+    }
+
+    @Test
+    public void groupByInMemory() throws IOException {
+        GroupingSink<String, Character, Integer> sink =
+                Sinks.groupBy(FIRST_CHAR, COUNT);
+        Sources.drain(Sources.from("apple", "avocado", "banana"), sink);
+        Assert.assertFalse(sink.hasSpilled());
+        Map<Character, Integer> results = toMap(sink.results());
+        Assert.assertEquals(2, results.size());
+        Assert.assertEquals(new Integer(2), results.get('a'));
+        Assert.assertEquals(new Integer(1), results.get('b'));
+    }
+
+    @Test
+    public void groupBySpilling() throws IOException {
+        File dir = SourcesTest.tempDir();
+        GroupingSink<Long, Long, Integer> sink = Sinks.groupBy(
+                new Function<Long, Long>() {
+                    @Override
+                    public Long apply(Long input) {
+                        return input % 1000;
+                    }
+                }, new Aggregator<Long, Integer>() {
+                    @Override
+                    public Integer lift(Long item) {
+                        return 1;
+                    }
+
+                    @Override
+                    public Integer combine(Integer left, Integer right) {
+                        return left + right;
+                    }
+                }, 10, dir, Codecs.longs(), INTS);
+        for (long i = 0; i < 10000; i++) {
+            sink.put(i);
+        }
+        Assert.assertTrue(sink.hasSpilled());
+        Assert.assertTrue(dir.list().length > 0);
+        Map<Long, Integer> results = toMap(sink.results());
+        Assert.assertEquals(1000, results.size());
+        for (long i = 0; i < 1000; i++) {
+            Assert.assertEquals(new Integer(10), results.get(i));
+        }
+        sink.close();
+        Assert.assertEquals(0, dir.list().length);
+        dir.delete();
+    }
+
+    @Test
+    public void groupBySpillingPreservesOrder() throws IOException {
+        GroupingSink<String, Character, String> sink = Sinks.groupBy(
+                FIRST_CHAR, new Aggregator<String, String>() {
+                    @Override
+                    public String lift(String item) {
+                        return item.substring(1);
+                    }
+
+                    @Override
+                    public String combine(String left, String right) {
+                        return left + right;
+                    }
+                }, 1, null, new Codec<Character>() {
+                    @Override
+                    public void encode(Character item, DataOutput out)
+                            throws IOException {
+                        out.writeChar(item);
+                    }
+
+                    @Override
+                    public Character decode(DataInput in) throws IOException {
+                        return in.readChar();
+                    }
+                }, Codecs.strings());
+        Sources.drain(Sources.from("a1", "b1", "a2", "c1", "a3", "b2"), sink);
+        Map<Character, String> results = toMap(sink.results());
+        Assert.assertEquals("123", results.get('a'));
+        Assert.assertEquals("12", results.get('b'));
+        Assert.assertEquals("1", results.get('c'));
+    }
+
+    @Test (expected=IllegalStateException.class)
+    public void groupByResultsOnce() throws IOException {
+        GroupingSink<String, Character, Integer> sink =
+                Sinks.groupBy(FIRST_CHAR, COUNT);
+        sink.results();
+        sink.results();
+    }
+
+    @Test
+    public void groupByResplitsWithinMaxKeys() throws IOException {
+        // keys that share a partition are spread over the next depth's
+        Set<Integer> children = new HashSet<Integer>();
+        for (long key = 0; key < 20000; key++) {
+            if (SpillPartitions.partitionOf(key, 0) == 0) {
+                children.add(SpillPartitions.partitionOf(key, 1));
+            }
+        }
+        Assert.assertEquals(SpillPartitions.PARTITIONS, children.size());
+        File dir = SourcesTest.tempDir();
+        GroupingSink<Long, Long, Integer> sink = Sinks.groupBy(
+                new Function<Long, Long>() {
+                    @Override
+                    public Long apply(Long input) {
+                        return input;
+                    }
+                }, new Aggregator<Long, Integer>() {
+                    @Override
+                    public Integer lift(Long item) {
+                        return 1;
+                    }
+
+                    @Override
+                    public Integer combine(Integer left, Integer right) {
+                        return left + right;
+                    }
+                }, 10, dir, Codecs.longs(), INTS);
+        for (long i = 0; i < 20000; i++) {
+            sink.put(i);
+        }
+        Source<Map.Entry<Long, Integer>> results = sink.results();
+        int count = 0;
+        while (results.hasNext()) {
+            Assert.assertEquals(new Integer(1), results.next().getValue());
+            Assert.assertTrue(sink.tableSize() <= 10);
+            count++;
+        }
+        Assert.assertEquals(20000, count);
+        results.close();
+        Assert.assertEquals(0, dir.list().length);
+        dir.delete();
+    }
+
+    @Test
+    public void topK() throws IOException {
+        Random random = new Random(3);
+        List<Integer> all = new ArrayList<Integer>();
+        TopKSink<Integer> sink = Sinks.topK(10, NATURAL);
+        for (int i = 0; i < 5000; i++) {
+            Integer n = random.nextInt(100000);
+            all.add(n);
+            sink.put(n);
+        }
+        Collections.sort(all, Collections.reverseOrder());
+        Assert.assertEquals(all.subList(0, 10), sink.results());
+    }
+
+    @Test
+    public void topKFewerThanK() throws IOException {
+        TopKSink<Integer> sink = Sinks.topK(10, NATURAL);
+        Sources.drain(Sources.from(3, 1, 2), sink);
+        Assert.assertEquals(3, sink.size());
+        Assert.assertEquals("[3, 2, 1]", sink.results().toString());
+    }
+
+    @Test
+    public void topKMerge() throws IOException {
+        Random random = new Random(4);
+        List<Integer> all = new ArrayList<Integer>();
+        List<TopKSink<Integer>> partials = new ArrayList<TopKSink<Integer>>();
+        for (int w = 0; w < 4; w++) {
+            TopKSink<Integer> partial = Sinks.topK(5, NATURAL);
+            for (int i = 0; i < 1000; i++) {
+                Integer n = random.nextInt();
+                all.add(n);
+                partial.put(n);
+            }
+            partials.add(partial);
+        }
+        TopKSink<Integer> merged = Sinks.topK(5, NATURAL);
+        for (TopKSink<Integer> partial: partials) {
+            merged.merge(partial);
+        }
+        Collections.sort(all, Collections.reverseOrder());
+        Assert.assertEquals(all.subList(0, 5), merged.results());
+    }
+
+    @Test
+    public void reservoirFewerThanK() throws IOException {
+        ReservoirSink<String> sink = Sinks.reservoir(5);
+        Sources.drain(Sources.from("a", "b"), sink);
+        Assert.assertEquals(2, sink.getCount());
+        Assert.assertEquals("[a, b]", sink.results().toString());
+    }
+
+    @Test
+    public void reservoirIsUniform() throws IOException {
+        int[] counts = new int[20];
+        for (int trial = 0; trial < 2000; trial++) {
+            ReservoirSink<Integer> sink = Sinks.reservoir(5, trial);
+            for (int i = 0; i < 20; i++) {
+                sink.put(i);
+            }
+            Assert.assertEquals(5, sink.results().size());
+            for (Integer i: sink.results()) {
+                counts[i]++;
+            }
+        }
+        for (int count: counts) {
+            Assert.assertTrue("count " + count, Math.abs(count - 500) < 100);
+        }
+    }
+
+    @Test
+    public void hyperLogLog() throws IOException {
+        HyperLogLogSink<String> a = Sinks.hyperLogLog(IDENTITY, 12);
+        HyperLogLogSink<String> b = Sinks.hyperLogLog(IDENTITY, 12);
+        for (int i = 0; i < 100000; i++) {
+            a.put("item" + i);
+            a.put("item" + i);
+            b.put("item" + (i + 50000));
+        }
+        assertWithin(100000, a.estimate(), 0.05);
+        assertWithin(100000, b.estimate(), 0.05);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        b.write(new DataOutputStream(bytes));
+        a.merge(new DataInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())));
+        assertWithin(150000, a.estimate(), 0.05);
+
+        HyperLogLogSink<String> small = Sinks.hyperLogLog(IDENTITY, 12);
+        Sources.drain(Sources.from("a", "b", "c", "a"), small);
+        Assert.assertEquals(3, small.estimate());
+    }
+
+    @Test (expected=IllegalArgumentException.class)
+    public void hyperLogLogMergeMismatch() {
+        Sinks.hyperLogLog(IDENTITY, 10).merge(Sinks.hyperLogLog(IDENTITY, 11));
+    }
+
+    @Test
+    public void countMinSketch() throws IOException {
+        CountMinSketchSink<String> a = Sinks.countMinSketch(IDENTITY, 2720, 5);
+        CountMinSketchSink<String> b = Sinks.countMinSketch(IDENTITY, 2720, 5);
+        for (int i = 0; i < 1000; i++) {
+            for (int j = 0; j <= i % 10; j++) {
+                a.put("k" + i);
+                b.put("k" + i);
+            }
+        }
+        Assert.assertEquals(5500, a.getTotal());
+        int exact = 0;
+        for (int i = 0; i < 1000; i++) {
+            long estimate = a.estimateCount("k" + i);
+            Assert.assertTrue(estimate >= i % 10 + 1);
+            Assert.assertTrue(estimate <= i % 10 + 1 + 5500 * Math.E / 2720);
+            if (estimate == i % 10 + 1) {
+                exact++;
+            }
+        }
+        Assert.assertTrue(exact > 900);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        b.write(new DataOutputStream(bytes));
+        a.merge(new DataInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())));
+        Assert.assertEquals(11000, a.getTotal());
+        Assert.assertTrue(a.estimateCount("k9") >= 20);
+    }
+
+    @Test
+    public void heavyHitters() throws IOException {
+        HeavyHittersSink<String, String> a = Sinks.heavyHitters(10);
+        HeavyHittersSink<String, String> b = Sinks.heavyHitters(10);
+        Random random = new Random(5);
+        for (int i = 0; i < 20000; i++) {
+            String item = i % 4 == 0
+                    ? "hot" + (i % 3) : "cold" + random.nextInt(5000);
+            (i % 2 == 0 ? a : b).put(item);
+        }
+        List<Map.Entry<String, Long>> top = a.results();
+        Assert.assertEquals(10, top.size());
+        Assert.assertTrue(top.get(0).getKey().startsWith("hot"));
+        Assert.assertTrue(a.estimateCount("hot0") >= 1667);
+        Assert.assertTrue(a.estimateCount("hot0") - a.maxError("hot0") <= 1667);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        b.write(new DataOutputStream(bytes), Codecs.strings());
+        a.merge(new DataInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())),
+                Codecs.strings());
+        top = a.results();
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(top.get(i).getKey().startsWith("hot"));
+        }
+        Assert.assertTrue(a.estimateCount("hot1") >= 1667);
+    }
+
+    private static void assertWithin(long expected, long actual,
+                                     double fraction) {
+        Assert.assertTrue(actual + " not within " + fraction + " of "
+                + expected, Math.abs(actual - expected) <= expected * fraction);
+    }
+
+    private static final Function<String, String> IDENTITY =
+            new Function<String, String>() {
+                @Override
+                public String apply(String input) {
+                    return input;
+                }
+            };
+
+    static <K, V> Map<K, V> toMap(Source<Map.Entry<K, V>> source)
+            throws IOException {
+        Map<K, V> map = new HashMap<K, V>();
+        try {
+            while (source.hasNext()) {
+                Map.Entry<K, V> entry = source.next();
+                Assert.assertNull(map.put(entry.getKey(), entry.getValue()));
+            }
+        } finally {
+            source.close();
+        }
+        return map;
+    }
+
+    @Test
+    public void offHeapQueue() throws Exception {
+        final OffHeapQueue<String> queue = Sinks.offHeapQueue(16,
+                Codecs.strings());
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < 500; i++) {
+                        queue.put("item" + i);
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    queue.close();
+                }
+            }
+        };
+        producer.start();
+        List<String> list = new ArrayList<String>();
+        Assert.assertEquals(500, Sources.drain(queue.source(), list));
+        Assert.assertEquals("item499", list.get(499));
+        producer.join();
+    }
+
+    @Test (expected=IllegalArgumentException.class)
+    public void offHeapQueueItemTooLarge() throws IOException {
+        Sinks.offHeapQueue(16, Codecs.strings()).put("more than 16 bytes");
+    }
+
+    @Test (expected=IOException.class)
+    public void offHeapQueueConsumerClosed() throws IOException {
+        OffHeapQueue<String> queue = Sinks.offHeapQueue(16, Codecs.strings());
+        queue.put("a");
+        queue.source().close();
+        queue.put("b");
+    }
+
+    private static final Function<String, Character> FIRST_CHAR =
+            new Function<String, Character>() {
+                @Override
+                public Character apply(String input) {
+                    return input.charAt(0);
+                }
+            };
+
+    private static final Aggregator<String, Integer> COUNT =
+            new Aggregator<String, Integer>() {
+                @Override
+                public Integer lift(String item) {
+                    return 1;
+                }
+
+                @Override
+                public Integer combine(Integer left, Integer right) {
+                    return left + right;
+                }
+            };
+
+    private static final Comparator<Integer> NATURAL =
+            new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return a.compareTo(b);
+                }
+            };
+
+    private static final Codec<Integer> INTS = new Codec<Integer>() {
+        @Override
+        public void encode(Integer item, DataOutput out) throws IOException {
+            out.writeInt(item);
+        }
+
+        @Override
+        public Integer decode(DataInput in) throws IOException {
+            return in.readInt();
+        }
+    };
+}
@@ -3,10 +3,30 @@ package com.github.cwilper.ttff;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 
 @SuppressWarnings("unchecked")
 public class SourcesTest {
@@ -228,6 +248,1362 @@ public class SourcesTest {
         Assert.assertEquals(1, Sources.drain(fSource));
     }
 
+    @Test
+    public void instrument() throws IOException {
+        MetricsRegistry registry = new MetricsRegistry();
+        Source<String> s = Sources.instrument(Sources.from("a", "b"), "src",
+                registry);
+        Assert.assertEquals(2, Sources.drain(s));
+        StageMetrics metrics = registry.get("src");
+        Assert.assertEquals(2, metrics.getItemsIn());
+        Assert.assertEquals(2, metrics.getItemsOut());
+    }
+
+    @Test
+    public void bufferedInMemory() throws IOException {
+        File dir = tempDir();
+        Source<String> s = Sources.buffered(Sources.from("a", "b", "c"), 10,
+                dir, Codecs.strings());
+        List<String> list = new ArrayList<String>();
+        Assert.assertEquals(3, Sources.drain(s, list));
+        Assert.assertEquals("[a, b, c]", list.toString());
+        Assert.assertEquals(0, dir.list().length);
+        dir.delete();
+    }
+
+    @Test
+    public void bufferedSpilling() throws Exception {
+        File dir = tempDir();
+        final CountDownLatch exhausted = new CountDownLatch(1);
+        Source<Long> upstream = new AbstractSource<Long>() {
+            private long n;
+            @Override
+            protected Long computeNext() {
+                if (n < 100) {
+                    return n++;
+                }
+                exhausted.countDown();
+                return endOfData();
+            }
+        };
+        Source<Long> s = Sources.buffered(upstream, 3, dir, Codecs.longs());
+        Assert.assertTrue(exhausted.await(10, TimeUnit.SECONDS));
+        Assert.assertTrue(dir.list().length > 0);
+        for (long i = 0; i < 100; i++) {
+            Assert.assertEquals(new Long(i), s.next());
+        }
+        Assert.assertFalse(s.hasNext());
+        s.close();
+        Assert.assertEquals(0, dir.list().length);
+        dir.delete();
+    }
+
+    @Test
+    public void bufferedBackToMemoryAfterBurst() throws Exception {
+        final Semaphore permits = new Semaphore(0);
+        final CountDownLatch burst = new CountDownLatch(1);
+        Source<Long> upstream = new AbstractSource<Long>() {
+            private long n;
+            @Override
+            protected Long computeNext() throws IOException {
+                if (n == 2000) {
+                    return endOfData();
+                }
+                if (n >= 1000) {
+                    // after the burst, one item per item consumed
+                    burst.countDown();
+                    try {
+                        permits.acquire();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                return n++;
+            }
+        };
+        BufferedSource<Long> s = new BufferedSource<Long>(upstream, 10, null,
+                Codecs.longs());
+        s.start();
+        Assert.assertTrue(burst.await(10, TimeUnit.SECONDS));
+        int spilled = s.segmentCount();
+        Assert.assertTrue(spilled > 0);
+        for (long i = 0; i < 2000; i++) {
+            if (i >= 1000) {
+                permits.release();
+            }
+            Assert.assertEquals(new Long(i), s.next());
+        }
+        Assert.assertFalse(s.hasNext());
+        s.close();
+        // a file or two once the consumer catches up, but no more
+        Assert.assertTrue(s.segmentCount() <= spilled + 2);
+    }
+
+    @Test
+    public void bufferedClosing() throws Exception {
+        File dir = tempDir();
+        final CountDownLatch exhausted = new CountDownLatch(1);
+        Source<String> upstream = new AbstractSource<String>() {
+            private int n;
+            @Override
+            protected String computeNext() {
+                if (n++ < 10) {
+                    return "x";
+                }
+                exhausted.countDown();
+                return endOfData();
+            }
+        };
+        Source<String> s = Sources.buffered(upstream, 1, dir,
+                Codecs.strings());
+        Assert.assertTrue(exhausted.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals("x", s.next());
+        s.close();
+        Assert.assertEquals(0, dir.list().length);
+        dir.delete();
+    }
+
+    @Test
+    public void bufferedFailure() throws IOException {
+        Source<String> upstream = new AbstractSource<String>() {
+            private int n;
+            @Override
+            protected String computeNext() throws IOException {
+                if (n++ < 2) {
+                    return "x";
+                }
+                throw new IOException("upstream failed");
+            }
+        };
+        Source<String> s = Sources.buffered(upstream, 1, null,
+                Codecs.strings());
+        Assert.assertEquals("x", s.next());
+        Assert.assertEquals("x", s.next());
+        try {
+            s.hasNext();
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertEquals("upstream failed", e.getMessage());
+        } finally {
+            s.close();
+        }
+    }
+
+    @Test
+    public void offHeapBuffered() throws IOException {
+        // 12 bytes per encoded item, so the ring wraps many times
+        Source<Long> s = Sources.offHeapBuffered(new CountingSource(1000), 40,
+                Codecs.longs());
+        for (long i = 0; i < 1000; i++) {
+            Assert.assertEquals(new Long(i), s.next());
+        }
+        Assert.assertFalse(s.hasNext());
+        s.close();
+    }
+
+    @Test
+    public void offHeapBufferedFailure() throws IOException {
+        Source<String> upstream = new AbstractSource<String>() {
+            private int n;
+            @Override
+            protected String computeNext() throws IOException {
+                if (n++ < 2) {
+                    return "x";
+                }
+                throw new IOException("upstream failed");
+            }
+        };
+        Source<String> s = Sources.offHeapBuffered(upstream, 64,
+                Codecs.strings());
+        Assert.assertEquals("x", s.next());
+        Assert.assertEquals("x", s.next());
+        try {
+            s.hasNext();
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertEquals("upstream failed", e.getMessage());
+        } finally {
+            s.close();
+        }
+    }
+
+    @Test
+    public void offHeapBufferedClosing() throws Exception {
+        CountingSource upstream = new CountingSource(1000000);
+        Source<Long> s = Sources.offHeapBuffered(upstream, 64,
+                Codecs.longs());
+        Assert.assertEquals(new Long(0), s.next());
+        s.close();
+        Assert.assertTrue(upstream.closed > 0);
+    }
+
+    @Test
+    public void reusableFilterAndDrain() throws IOException {
+        Source<StringBuilder> s = Sources.filter(new ReusingSource(4),
+                new AbstractFilter<StringBuilder>() {
+                    @Override
+                    public StringBuilder accept(StringBuilder item) {
+                        return item.charAt(0) == '1' ? null : item;
+                    }
+                });
+        Assert.assertTrue(s instanceof ReusableSource);
+        StringBuilder first = s.next();
+        Assert.assertEquals("0", first.toString());
+        Assert.assertSame(first, s.next());
+        List<StringBuilder> list = new ArrayList<StringBuilder>();
+        Assert.assertEquals(1, Sources.drain(s, list));
+        Assert.assertEquals("3", list.get(0).toString());
+        Assert.assertNotSame(first, list.get(0));
+    }
+
+    @Test
+    public void reusableDrainCopies() throws IOException {
+        List<StringBuilder> list = new ArrayList<StringBuilder>();
+        Assert.assertEquals(3, Sources.drain(new ReusingSource(3), list));
+        Assert.assertEquals("[0, 1, 2]", list.toString());
+    }
+
+    @Test
+    public void reusableInstrumented() throws IOException {
+        Source<StringBuilder> s = Sources.instrument(new ReusingSource(1),
+                "reusable", new MetricsRegistry());
+        Assert.assertTrue(s instanceof ReusableSource);
+        s.close();
+    }
+
+    @Test
+    public void reusableBuffered() throws IOException {
+        Source<StringBuilder> s = Sources.buffered(new ReusingSource(3), 10,
+                null, new Codec<StringBuilder>() {
+                    @Override
+                    public void encode(StringBuilder item, DataOutput out)
+                            throws IOException {
+                        out.writeUTF(item.toString());
+                    }
+
+                    @Override
+                    public StringBuilder decode(DataInput in)
+                            throws IOException {
+                        return new StringBuilder(in.readUTF());
+                    }
+                });
+        List<StringBuilder> list = new ArrayList<StringBuilder>();
+        Sources.drain(s, list);
+        Assert.assertEquals("[0, 1, 2]", list.toString());
+    }
+
+    /** Counts from zero, recycling a single StringBuilder. */
+    static class ReusingSource extends AbstractReusableSource<StringBuilder> {
+
+        private final int size;
+        private int n;
+
+        ReusingSource(int size) {
+            this.size = size;
+        }
+
+        @Override
+        protected StringBuilder newHolder() {
+            return new StringBuilder();
+        }
+
+        @Override
+        protected boolean fill(StringBuilder holder) {
+            if (n == size) {
+                return false;
+            }
+            holder.setLength(0);
+            holder.append(n++);
+            return true;
+        }
+
+        @Override
+        public StringBuilder copy(StringBuilder item) {
+            return new StringBuilder(item);
+        }
+    }
+
+    @Test
+    public void windowTumbling() throws IOException {
+        List<List<Integer>> windows = new ArrayList<List<Integer>>();
+        Sources.drain(Sources.window(Sources.from(1, 2, 3, 4, 5, 6, 7), 3),
+                windows);
+        Assert.assertEquals("[[1, 2, 3], [4, 5, 6], [7]]",
+                windows.toString());
+    }
+
+    @Test
+    public void windowSlidingCount() throws IOException {
+        List<Integer> sums = new ArrayList<Integer>();
+        Sources.drain(Sources.window(Sources.from(1, 2, 3, 4, 5), 3, 1,
+                SUM), sums);
+        Assert.assertEquals("[6, 9, 12]", sums.toString());
+
+        sums.clear();
+        Sources.drain(Sources.window(Sources.from(1, 2, 3, 4, 5, 6), 3, 2,
+                SUM), sums);
+        Assert.assertEquals("[6, 12, 11]", sums.toString());
+
+        sums.clear();
+        Sources.drain(Sources.window(Sources.from(1, 2), 3, 1, SUM), sums);
+        Assert.assertEquals("[3]", sums.toString());
+
+        List<String> strings = new ArrayList<String>();
+        Sources.drain(Sources.window(Sources.from("a", "b", "c", "d", "e"),
+                2, 1, CONCAT), strings);
+        Assert.assertEquals("[ab, bc, cd, de]", strings.toString());
+    }
+
+    @Test
+    public void windowByTime() throws IOException {
+        List<List<Long>> windows = new ArrayList<List<Long>>();
+        Sources.drain(Sources.window(Sources.from(1L, 2L, 5L, 11L, 12L),
+                IDENTITY, 10, 5), windows);
+        Assert.assertEquals("[[1, 2], [1, 2, 5], [5, 11, 12], [11, 12]]",
+                windows.toString());
+
+        windows.clear();
+        Sources.drain(Sources.window(Sources.from(1L, 2L, 105L), IDENTITY,
+                10, 10), windows);
+        Assert.assertEquals("[[1, 2], [105]]", windows.toString());
+    }
+
+    @Test
+    public void windowByTimeAggregateMatchesLists() throws IOException {
+        Random random = new Random(1);
+        List<Long> times = new ArrayList<Long>();
+        long time = -50;
+        for (int i = 0; i < 2000; i++) {
+            time += random.nextInt(4);
+            times.add(time);
+        }
+        Aggregator<Long, String> concat = new Aggregator<Long, String>() {
+            @Override
+            public String lift(Long item) {
+                return item + ",";
+            }
+
+            @Override
+            public String combine(String left, String right) {
+                return left + right;
+            }
+        };
+        List<List<Long>> windows = new ArrayList<List<Long>>();
+        Sources.drain(Sources.window(Sources.from(times), IDENTITY, 37, 7),
+                windows);
+        List<String> aggregates = new ArrayList<String>();
+        Sources.drain(Sources.window(Sources.from(times), IDENTITY, 37, 7,
+                concat), aggregates);
+        Assert.assertEquals(windows.size(), aggregates.size());
+        for (int i = 0; i < windows.size(); i++) {
+            StringBuilder expected = new StringBuilder();
+            for (Long item: windows.get(i)) {
+                expected.append(item).append(',');
+            }
+            Assert.assertEquals(expected.toString(), aggregates.get(i));
+        }
+    }
+
+    @Test
+    public void limit() throws IOException {
+        List<String> list = new ArrayList<String>();
+        Sources.drain(Sources.limit(Sources.from("a", "b", "c"), 2), list);
+        Assert.assertEquals("[a, b]", list.toString());
+        Assert.assertEquals(3L, Sources.drain(
+                Sources.limit(Sources.from("a", "b", "c"), 5)));
+        Assert.assertEquals(0L, Sources.drain(
+                Sources.limit(Sources.from("a", "b", "c"), 0)));
+    }
+
+    @Test
+    public void limitClosesEagerly() throws IOException {
+        CountingSource upstream = new CountingSource(100);
+        Source<Long> s = Sources.limit(upstream, 2);
+        Assert.assertEquals(Long.valueOf(0), s.next());
+        Assert.assertEquals(0, upstream.closed);
+        Assert.assertEquals(Long.valueOf(1), s.next());
+        Assert.assertEquals(1, upstream.closed);
+        Assert.assertFalse(s.hasNext());
+        Assert.assertEquals(2, upstream.computed);
+    }
+
+    @Test
+    public void limitZeroClosesUpstream() throws IOException {
+        CountingSource upstream = new CountingSource(100);
+        Source<Long> s = Sources.limit(upstream, 0);
+        Assert.assertFalse(s.hasNext());
+        Assert.assertEquals(1, upstream.closed);
+        Assert.assertEquals(0, upstream.computed);
+    }
+
+    @Test
+    public void limitReusableIsSkippable() throws IOException {
+        Source<StringBuilder> limited = Sources.limit(new ReusingSource(10),
+                8);
+        Assert.assertTrue(limited instanceof ReusableSource);
+        Assert.assertTrue(limited instanceof SkippableSource);
+        List<StringBuilder> list = new ArrayList<StringBuilder>();
+        Sources.drain(Sources.skip(limited, 5), list);
+        Assert.assertEquals("[5, 6, 7]", list.toString());
+    }
+
+    @Test
+    public void skip() throws IOException {
+        List<String> list = new ArrayList<String>();
+        Sources.drain(Sources.skip(Sources.from("a", "b", "c"), 2), list);
+        Assert.assertEquals("[c]", list.toString());
+        Assert.assertEquals(0L, Sources.drain(
+                Sources.skip(Sources.from("a", "b", "c"), 5)));
+    }
+
+    @Test
+    public void skipNatively() throws IOException {
+        CountingSource upstream = new CountingSource(100);
+        Source<Long> s = Sources.limit(Sources.skip(upstream, 40), 5);
+        Assert.assertEquals(Long.valueOf(40), s.next());
+        Assert.assertEquals(1, upstream.computed);
+        for (int i = 0; i < 4; i++) {
+            s.next();
+        }
+        Assert.assertEquals(5, upstream.computed);
+        Assert.assertEquals(1, upstream.closed);
+        Assert.assertFalse(s.hasNext());
+    }
+
+    @Test
+    public void skipAfterPeek() throws IOException {
+        CountingSource s = new CountingSource(5);
+        Assert.assertEquals(Long.valueOf(0), s.peek());
+        Assert.assertEquals(3L, s.skip(3));
+        Assert.assertEquals(Long.valueOf(3), s.next());
+        Assert.assertEquals(1L, s.skip(3));
+        Assert.assertFalse(s.hasNext());
+        Assert.assertEquals(0L, s.skip(3));
+    }
+
+    @Test
+    public void takeWhile() throws IOException {
+        CountingSource upstream = new CountingSource(100);
+        Source<Long> s = Sources.takeWhile(upstream, Filters.lt(3L));
+        Assert.assertEquals(Long.valueOf(0), s.next());
+        Assert.assertEquals(Long.valueOf(1), s.next());
+        Assert.assertEquals(Long.valueOf(2), s.next());
+        Assert.assertEquals(0, upstream.closed);
+        Assert.assertFalse(s.hasNext());
+        Assert.assertEquals(4, upstream.computed);
+        Assert.assertEquals(1, upstream.closed);
+    }
+
+    @Test
+    public void seekCollection() throws IOException {
+        List<String> list = new ArrayList<String>();
+        list.add("a");
+        list.add("b");
+        list.add("c");
+        for (Collection<String> c : Arrays.asList(list,
+                new LinkedHashSet<String>(list))) {
+            SeekableSource<String> s =
+                    (SeekableSource<String>) Sources.from(c);
+            Assert.assertEquals(3L, s.estimateSize());
+            Assert.assertEquals("a", s.peek());
+            Assert.assertEquals(0L, s.position());
+            Assert.assertEquals(2L, s.skip(2));
+            Assert.assertEquals(2L, s.position());
+            Assert.assertEquals(1L, s.estimateSize());
+            Assert.assertEquals("c", s.next());
+            Assert.assertFalse(s.hasNext());
+            s.seek(1);
+            Assert.assertEquals("b", s.next());
+            Assert.assertEquals(1L, s.estimateSize());
+            s.seek(5);
+            Assert.assertEquals(3L, s.position());
+            Assert.assertFalse(s.hasNext());
+        }
+    }
+
+    @Test (expected=IllegalArgumentException.class)
+    public void seekNegative() throws IOException {
+        ((SeekableSource<String>) Sources.from("a")).seek(-1);
+    }
+
+    @Test
+    public void joinSkipsSizedSources() throws IOException {
+        CountingSource s1 = new CountingSource(1000);
+        CountingSource s2 = new CountingSource(1000);
+        CountingSource s3 = new CountingSource(1000);
+        Source<Long> s = Sources.skip(Sources.join(s1, s2, s3), 2500);
+        Assert.assertEquals(Long.valueOf(500), s.next());
+        Assert.assertEquals(0, s1.computed);
+        Assert.assertEquals(1, s1.closed);
+        Assert.assertEquals(0, s2.computed);
+        Assert.assertEquals(1, s2.closed);
+        Assert.assertEquals(1, s3.computed);
+        Assert.assertEquals(499L, Sources.drain(s));
+    }
+
+    @Test
+    public void filterSortedStopsEarly() throws IOException {
+        CountingSource upstream = new CountingSource(100);
+        Source<Long> sorted = Sources.withCharacteristics(upstream,
+                Characteristics.<Long>sorted().distinct());
+        Source<Long> s = Sources.filter(sorted,
+                Filters.and(Filters.ge(10L), Filters.lt(13L)));
+        Assert.assertEquals(Characteristics.<Long>sorted().distinct(),
+                Sources.characteristics(s));
+        Assert.assertEquals(Long.valueOf(10), s.next());
+        Assert.assertEquals(Long.valueOf(11), s.next());
+        Assert.assertEquals(Long.valueOf(12), s.next());
+        Assert.assertFalse(s.hasNext());
+        Assert.assertEquals(14, upstream.computed);
+        Assert.assertEquals(1, upstream.closed);
+    }
+
+    @Test
+    public void filterUnsortedReadsAll() throws IOException {
+        CountingSource upstream = new CountingSource(100);
+        Assert.assertEquals(3L, Sources.drain(Sources.filter(upstream,
+                Filters.and(Filters.ge(10L), Filters.lt(13L)))));
+        Assert.assertEquals(100, upstream.computed);
+    }
+
+    @Test
+    public void filterMutatingLosesCharacteristics() throws IOException {
+        Source<String> sorted = Sources.withCharacteristics(
+                Sources.from("a", "b"), Characteristics.<String>sorted());
+        Source<String> s = Sources.filter(sorted,
+                new AbstractFilter<String>() {
+                    @Override
+                    public String accept(String item) {
+                        return item.toUpperCase();
+                    }
+                });
+        Assert.assertFalse(Sources.characteristics(s).isSorted());
+    }
+
+    @Test
+    public void joinSorted() throws IOException {
+        Characteristics<String> sorted = Characteristics.sorted();
+        Source<String> s = Sources.join(
+                Sources.withCharacteristics(Sources.from("a", "b"), sorted),
+                Sources.withCharacteristics(Sources.from("c"),
+                        sorted.distinct()));
+        Assert.assertEquals(sorted, Sources.characteristics(s));
+        Assert.assertEquals(3L, Sources.drain(s));
+
+        s = Sources.join(
+                Sources.withCharacteristics(Sources.from("a"), sorted),
+                Sources.from("b"));
+        Assert.assertFalse(Sources.characteristics(s).isSorted());
+    }
+
+    @Test (expected=IOException.class)
+    public void joinSortedOutOfOrder() throws IOException {
+        Characteristics<String> sorted = Characteristics.sorted();
+        Sources.drain(Sources.join(
+                Sources.withCharacteristics(Sources.from("a", "c"), sorted),
+                Sources.withCharacteristics(Sources.from("b"), sorted)));
+    }
+
+    @Test
+    public void interleave() throws IOException {
+        List<Source<Long>> sources = new ArrayList<Source<Long>>();
+        for (int i = 0; i < 50; i++) {
+            sources.add(new CountingSource(i));
+        }
+        List<Long> items = new ArrayList<Long>();
+        Sources.drain(Sources.interleave(sources, 4, 3), items);
+        Assert.assertEquals(49 * 50 / 2, items.size());
+        long sum = 0;
+        for (Long item: items) {
+            sum += item;
+        }
+        long expected = 0;
+        for (int i = 0; i < 50; i++) {
+            expected += (long) i * (i - 1) / 2;
+        }
+        Assert.assertEquals(expected, sum);
+        for (Source<Long> source: sources) {
+            Assert.assertTrue(((CountingSource) source).closed > 0);
+        }
+    }
+
+    @Test
+    public void interleaveReadsConcurrently() throws IOException {
+        final CountDownLatch started = new CountDownLatch(3);
+        List<Source<String>> sources = new ArrayList<Source<String>>();
+        for (int i = 0; i < 3; i++) {
+            final String name = "s" + i;
+            sources.add(new AbstractSource<String>() {
+                private boolean done;
+
+                @Override
+                protected String computeNext() throws IOException {
+                    if (done) {
+                        return endOfData();
+                    }
+                    started.countDown();
+                    try {
+                        if (!started.await(10, TimeUnit.SECONDS)) {
+                            throw new IOException("Not read concurrently");
+                        }
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    done = true;
+                    return name;
+                }
+            });
+        }
+        Assert.assertEquals(3L, Sources.drain(
+                Sources.interleave(sources, 3, 1)));
+    }
+
+    @Test (expected=IOException.class)
+    public void interleaveFailure() throws IOException {
+        Source<String> failing = new AbstractSource<String>() {
+            @Override
+            protected String computeNext() throws IOException {
+                throw new IOException("boom");
+            }
+        };
+        Sources.drain(Sources.interleave(Arrays.asList(
+                Sources.from("a"), failing, Sources.from("b")), 2, 1));
+    }
+
+    @Test
+    public void interleaveClosing() throws IOException {
+        List<Source<Long>> sources = new ArrayList<Source<Long>>();
+        for (int i = 0; i < 10; i++) {
+            sources.add(new CountingSource(1000));
+        }
+        Source<Long> s = Sources.interleave(sources, 2, 1);
+        Assert.assertTrue(s.hasNext());
+        s.close();
+        for (Source<Long> source: sources) {
+            Assert.assertTrue(((CountingSource) source).closed > 0);
+        }
+    }
+
+    @Test
+    public void parallelFilterKeepsOrder() throws IOException {
+        final Random random = new Random(1);
+        final long[] delays = new long[1000];
+        for (int i = 0; i < delays.length; i++) {
+            delays[i] = random.nextInt(200000);
+        }
+        CountingSource upstream = new CountingSource(1000);
+        Source<Long> filtered = Sources.parallelFilter(upstream,
+                new AbstractFilter<Long>() {
+                    @Override
+                    public Long accept(Long item) {
+                        // uneven work, so results finish out of order
+                        long end = System.nanoTime() + delays[item.intValue()];
+                        while (System.nanoTime() < end) {
+                            Thread.yield();
+                        }
+                        return item % 3 == 0 ? null : -item;
+                    }
+                }, 4, 16);
+        List<Long> items = new ArrayList<Long>();
+        Sources.drain(filtered, items);
+        Assert.assertEquals(666, items.size());
+        int i = 0;
+        for (long n = 0; n < 1000; n++) {
+            if (n % 3 != 0) {
+                Assert.assertEquals(new Long(-n), items.get(i++));
+            }
+        }
+        Assert.assertEquals(1000, upstream.computed);
+        Assert.assertTrue(upstream.closed > 0);
+    }
+
+    @Test
+    public void parallelFilterFailure() throws IOException {
+        Source<Long> filtered = Sources.parallelFilter(
+                new CountingSource(1000), new AbstractFilter<Long>() {
+                    @Override
+                    public Long accept(Long item) throws IOException {
+                        if (item == 50) {
+                            throw new IOException("filter failed");
+                        }
+                        return item;
+                    }
+                }, 4, 8);
+        for (long i = 0; i < 50; i++) {
+            Assert.assertEquals(new Long(i), filtered.next());
+        }
+        try {
+            filtered.hasNext();
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertEquals("filter failed", e.getMessage());
+        } finally {
+            filtered.close();
+        }
+    }
+
+    @Test
+    public void parallelFilterClosing() throws IOException {
+        CountingSource upstream = new CountingSource(1000000);
+        Source<Long> filtered = Sources.parallelFilter(upstream,
+                Filters.<Long>bool(true), 2, 4);
+        Assert.assertEquals(new Long(0), filtered.next());
+        filtered.close();
+        Assert.assertTrue(upstream.closed > 0);
+        Assert.assertTrue(upstream.computed < 1000000);
+    }
+
+    @Test
+    public void teeConcurrent() throws Exception {
+        CountingSource upstream = new CountingSource(10000);
+        final List<Source<Long>> branches = Sources.tee(upstream, 3, 16);
+        final List<List<Long>> results = new ArrayList<List<Long>>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 3; i++) {
+            final Source<Long> branch = branches.get(i);
+            final List<Long> result = new ArrayList<Long>();
+            results.add(result);
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        Sources.drain(branch, result);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread: threads) {
+            thread.join();
+        }
+        for (List<Long> result: results) {
+            Assert.assertEquals(10000, result.size());
+            for (int i = 0; i < 10000; i++) {
+                Assert.assertEquals(new Long(i), result.get(i));
+            }
+        }
+        Assert.assertEquals(10000, upstream.computed);
+        Assert.assertEquals(1, upstream.closed);
+    }
+
+    @Test
+    public void teeLockstep() throws IOException {
+        List<Source<String>> branches = Sources.tee(
+                Sources.from("a", "b", "c"), 2, 1);
+        for (String expected: Arrays.asList("a", "b", "c")) {
+            Assert.assertEquals(expected, branches.get(0).next());
+            Assert.assertEquals(expected, branches.get(1).next());
+        }
+        Assert.assertFalse(branches.get(0).hasNext());
+        Assert.assertFalse(branches.get(1).hasNext());
+    }
+
+    @Test
+    public void teeEarlyClose() throws IOException {
+        CountingSource upstream = new CountingSource(100);
+        List<Source<Long>> branches = Sources.tee(upstream, 2, 2);
+        Assert.assertEquals(new Long(0), branches.get(0).next());
+        branches.get(0).close();
+        Assert.assertEquals(0, upstream.closed);
+        Assert.assertEquals(100, Sources.drain(branches.get(1),
+                new ArrayList<Long>()));
+        Assert.assertEquals(1, upstream.closed);
+    }
+
+    @Test
+    public void teeFailure() throws IOException {
+        Source<String> upstream = new AbstractSource<String>() {
+            private int n;
+            @Override
+            protected String computeNext() throws IOException {
+                if (n++ < 2) {
+                    return "x";
+                }
+                throw new IOException("upstream failed");
+            }
+        };
+        for (Source<String> branch: Sources.tee(upstream, 2, 4)) {
+            Assert.assertEquals("x", branch.next());
+            Assert.assertEquals("x", branch.next());
+            try {
+                branch.hasNext();
+                Assert.fail();
+            } catch (IOException e) {
+                Assert.assertEquals("upstream failed", e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void hashJoin() throws IOException {
+        List<String> results = new ArrayList<String>();
+        Sources.drain(Sources.hashJoin(
+                Sources.from("a:1", "b:2", "a:3", ":4"),
+                Sources.from("a:x", "c:y", "b:z", ":w"),
+                KEY, KEY, PAIR), results);
+        Assert.assertEquals("[1x, 3x, 2z]", results.toString());
+    }
+
+    @Test
+    public void hashJoinSpilling() throws IOException {
+        File dir = tempDir();
+        Random random = new Random(1);
+        List<String> build = new ArrayList<String>();
+        List<String> probe = new ArrayList<String>();
+        for (int i = 0; i < 2000; i++) {
+            build.add(random.nextInt(700) + ":" + i);
+            probe.add(random.nextInt(1000) + ":p" + i);
+        }
+        List<String> expected = new ArrayList<String>();
+        Sources.drain(Sources.hashJoin(Sources.from(build),
+                Sources.from(probe), KEY, KEY, PAIR), expected);
+        List<String> actual = new ArrayList<String>();
+        Sources.drain(Sources.hashJoin(Sources.from(build),
+                Sources.from(probe), KEY, KEY, PAIR, 10, dir,
+                Codecs.strings(), Codecs.strings()), actual);
+        Collections.sort(expected);
+        Collections.sort(actual);
+        Assert.assertTrue(expected.size() > 1000);
+        Assert.assertEquals(expected, actual);
+        Assert.assertEquals(0, dir.list().length);
+        Assert.assertTrue(dir.delete());
+    }
+
+    @Test
+    public void mergeJoin() throws IOException {
+        CountingSource right = new CountingSource(100);
+        Source<String> joined = Sources.mergeJoin(
+                Sources.from(2L, 3L, 3L, 5L), right, IDENTITY, IDENTITY,
+                new Combiner<Long, Long, String>() {
+                    @Override
+                    public String combine(Long left, Long right) {
+                        return left + "=" + right;
+                    }
+                });
+        List<String> results = new ArrayList<String>();
+        Sources.drain(joined, results);
+        Assert.assertEquals("[2=2, 3=3, 3=3, 5=5]", results.toString());
+        Assert.assertEquals(7, right.computed);
+    }
+
+    @Test
+    public void mergeJoinDuplicatesOnBothSides() throws IOException {
+        List<String> results = new ArrayList<String>();
+        Sources.drain(Sources.mergeJoin(
+                Sources.from("a:1", "b:2", "b:3", "d:4"),
+                Sources.from("b:x", "b:y", "c:z", "d:w", "e:v"),
+                KEY, KEY, PAIR), results);
+        Assert.assertEquals("[2x, 3x, 2y, 3y, 4w]", results.toString());
+    }
+
+    @Test (expected=IOException.class)
+    public void mergeJoinUnsorted() throws IOException {
+        Sources.drain(Sources.mergeJoin(Sources.from("a:1", "c:2", "b:3"),
+                Sources.from("b:x", "c:y", "d:z"), KEY, KEY, PAIR));
+    }
+
+    @Test
+    public void blockFileSkipsBlocks() throws IOException {
+        File file = File.createTempFile("ttff-test-", ".blocks");
+        try {
+            BlockFileSink<Long> sink = Sinks.blockFile(file, Codecs.longs(),
+                    100);
+            for (long i = 0; i < 10000; i++) {
+                sink.put(i);
+            }
+            sink.finish();
+
+            BlockFileSource<Long> source = (BlockFileSource<Long>)
+                    Sources.blockFile(file, Codecs.longs());
+            List<Long> items = new ArrayList<Long>();
+            Sources.drain(Sources.filter(source, Filters.compile(
+                    Filters.and(Filters.ge(5050L), Filters.lt(5250L)))),
+                    items);
+            Assert.assertEquals(200, items.size());
+            Assert.assertEquals(Long.valueOf(5050), items.get(0));
+            Assert.assertEquals(Long.valueOf(5249), items.get(199));
+            Assert.assertEquals(3, source.getBlocksRead());
+            Assert.assertEquals(97, source.getBlocksSkipped());
+
+            Source<Long> skipping = Sources.blockFile(file, Codecs.longs());
+            Assert.assertEquals(Long.valueOf(9999),
+                    Sources.skip(skipping, 9999).next());
+            skipping.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void blockFileMatchesPlainFilter() throws IOException {
+        File file = File.createTempFile("ttff-test-", ".blocks");
+        try {
+            Random random = new Random(1);
+            List<String> all = new ArrayList<String>();
+            BlockFileSink<String> sink = Sinks.blockFile(file,
+                    Codecs.strings(), 7);
+            for (int i = 0; i < 1000; i++) {
+                String item = "k" + (i / 10 * 10 + random.nextInt(30));
+                all.add(item);
+                sink.put(item);
+            }
+            sink.close();
+            List<Filter<String>> filters = Arrays.asList(
+                    Filters.lt("k300"), Filters.ge("k900"), Filters.eq("k5"),
+                    Filters.ne("k500"), Filters.not(Filters.le("k800")),
+                    Filters.or(Filters.gt("k990"), Filters.eq("k123")),
+                    Filters.<String>bool(false));
+            for (Filter<String> filter: filters) {
+                List<String> expected = new ArrayList<String>();
+                Sources.drain(Sources.filter(Sources.from(all), filter),
+                        expected);
+                List<String> actual = new ArrayList<String>();
+                Sources.drain(Sources.filter(Sources.blockFile(file,
+                        Codecs.strings()), filter), actual);
+                Assert.assertEquals(expected, actual);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void mappedQueue() throws IOException {
+        File file = File.createTempFile("ttff-test-", ".queue");
+        try {
+            // small regions, so items are padded out to several of them
+            Sink<String> sink = Sinks.mappedQueue(file, Codecs.strings(),
+                    64);
+            List<String> expected = new ArrayList<String>();
+            for (int i = 0; i < 100; i++) {
+                expected.add("item" + i);
+                sink.put("item" + i);
+            }
+            sink.close();
+            Assert.assertTrue(file.length() > 64 * 10);
+            List<String> actual = new ArrayList<String>();
+            Sources.drain(Sources.mappedQueue(file, Codecs.strings()),
+                    actual);
+            Assert.assertEquals(expected, actual);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void mappedQueueWhileWriting() throws Exception {
+        File file = File.createTempFile("ttff-test-", ".queue");
+        try {
+            final Sink<Long> sink = Sinks.mappedQueue(file, Codecs.longs(),
+                    256);
+            Source<Long> source = Sources.mappedQueue(file, Codecs.longs());
+            Thread writer = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (long i = 0; i < 10000; i++) {
+                            sink.put(i);
+                        }
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    } finally {
+                        sink.close();
+                    }
+                }
+            };
+            writer.start();
+            for (long i = 0; i < 10000; i++) {
+                Assert.assertEquals(new Long(i), source.next());
+            }
+            Assert.assertFalse(source.hasNext());
+            source.close();
+            writer.join();
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void mappedQueueKeepsPosition() throws IOException {
+        File file = File.createTempFile("ttff-test-", ".queue");
+        File positionFile = new File(file.getPath() + ".r.pos");
+        try {
+            Sink<Long> sink = Sinks.mappedQueue(file, Codecs.longs(), 64);
+            for (long i = 0; i < 10; i++) {
+                sink.put(i);
+            }
+            sink.close();
+
+            Source<Long> source = Sources.mappedQueue(file, Codecs.longs(),
+                    "r");
+            Assert.assertEquals(new Long(0), source.next());
+            Assert.assertEquals(new Long(1), source.next());
+            source.close();
+            Assert.assertTrue(positionFile.exists());
+
+            // appending replaces the end marker
+            sink = Sinks.mappedQueue(file, Codecs.longs(), 64);
+            sink.put(10L);
+            sink.close();
+
+            source = Sources.mappedQueue(file, Codecs.longs(), "r");
+            List<Long> rest = new ArrayList<Long>();
+            Sources.drain(source, rest);
+            Assert.assertEquals(9, rest.size());
+            Assert.assertEquals(new Long(2), rest.get(0));
+            Assert.assertEquals(new Long(10), rest.get(8));
+        } finally {
+            file.delete();
+            positionFile.delete();
+        }
+    }
+
+    @Test
+    public void mappedQueueSingleWriter() throws IOException {
+        File file = File.createTempFile("ttff-test-", ".queue");
+        Sink<String> sink = Sinks.mappedQueue(file, Codecs.strings(), 64);
+        try {
+            Sinks.mappedQueue(file, Codecs.strings(), 64);
+            Assert.fail();
+        } catch (IOException e) {
+            // expected
+        } finally {
+            sink.close();
+            file.delete();
+        }
+    }
+
+    @Test (expected=IllegalArgumentException.class)
+    public void mappedQueueItemTooLarge() throws IOException {
+        File file = File.createTempFile("ttff-test-", ".queue");
+        Sink<String> sink = Sinks.mappedQueue(file, Codecs.strings(), 64);
+        try {
+            sink.put("this item is far too large to fit in a 64 byte "
+                    + "region of the queue file");
+        } finally {
+            sink.close();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void mappedQueueEmptyItems() throws IOException {
+        File file = File.createTempFile("ttff-test-", ".queue");
+        Codec<String> empty = new Codec<String>() {
+            @Override
+            public void encode(String item, DataOutput out) {
+                // nothing to write
+            }
+
+            @Override
+            public String decode(DataInput in) {
+                return "";
+            }
+        };
+        try {
+            Sink<String> sink = Sinks.mappedQueue(file, empty, 64);
+            for (int i = 0; i < 20; i++) {
+                sink.put("");
+            }
+            sink.close();
+            List<String> actual = new ArrayList<String>();
+            Sources.drain(Sources.mappedQueue(file, empty), actual);
+            Assert.assertEquals(20, actual.size());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void remoteToListen() throws Exception {
+        ListenSource<String> source = new ListenSource<String>(0,
+                Codecs.strings(), 100);
+        Sender sender = new Sender(source.getPort(), "a", 10000);
+        sender.start();
+        List<String> items = new ArrayList<String>();
+        Sources.drain(source, items);
+        sender.join();
+        Assert.assertNull(sender.failure);
+        Assert.assertEquals(10000, items.size());
+        for (int i = 0; i < 10000; i++) {
+            Assert.assertEquals("a" + i, items.get(i));
+        }
+    }
+
+    @Test
+    public void remoteReconnects() throws Exception {
+        ListenSource<String> source = new ListenSource<String>(0,
+                Codecs.strings(), 100);
+        Sender sender = new Sender(source.getPort(), "a", 10000);
+        sender.start();
+        for (int i = 0; i < 10000; i++) {
+            if (i % 3000 == 2999) {
+                source.disconnect();
+            }
+            Assert.assertEquals("a" + i, source.next());
+        }
+        Assert.assertFalse(source.hasNext());
+        source.close();
+        sender.join();
+        Assert.assertNull(sender.failure);
+    }
+
+    @Test
+    public void remoteManySenders() throws Exception {
+        ListenSource<String> source = new ListenSource<String>(0,
+                Codecs.strings(), 100);
+        Sender a = new Sender(source.getPort(), "a", 1000);
+        Sender b = new Sender(source.getPort(), "b", 1000);
+        a.start();
+        b.start();
+        int nextA = 0;
+        int nextB = 0;
+        while (source.hasNext()) {
+            String item = source.next();
+            if (item.startsWith("a")) {
+                Assert.assertEquals("a" + nextA++, item);
+            } else {
+                Assert.assertEquals("b" + nextB++, item);
+            }
+        }
+        source.close();
+        a.join();
+        b.join();
+        Assert.assertEquals(1000, nextA);
+        Assert.assertEquals(1000, nextB);
+    }
+
+    @Test (expected=IOException.class)
+    public void remoteNotListening() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        int port = socket.getLocalPort();
+        socket.close();
+        new RemoteSink<String>("localhost", port, Codecs.strings(), 1);
+    }
+
+    @Test
+    public void gzipLinesManyMembers() throws IOException {
+        List<String> expected = new ArrayList<String>();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            expected.add("line" + i);
+            text.append("line").append(i).append('\n');
+        }
+        // cut into members at arbitrary points, mid-line included
+        byte[] bytes = text.toString().getBytes("UTF-8");
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        for (int start = 0; start < bytes.length; start += 7777) {
+            file.write(gzip(Arrays.copyOfRange(bytes, start,
+                    Math.min(start + 7777, bytes.length)), false));
+        }
+        Assert.assertEquals(expected, gzipLines(file.toByteArray(), 4));
+        Assert.assertEquals(expected, gzipLines(file.toByteArray(), 1));
+    }
+
+    @Test
+    public void gzipLinesOneLargeMember() throws IOException {
+        List<String> expected = new ArrayList<String>();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 300000; i++) {
+            expected.add("a longer line, number " + i);
+            text.append("a longer line, number ").append(i).append('\n');
+        }
+        byte[] file = gzip(text.toString().getBytes("UTF-8"), false);
+        Assert.assertEquals(expected, gzipLines(file, 4));
+    }
+
+    @Test
+    public void gzipLinesFalseHeaders() throws IOException {
+        // a stored member whose data is itself a gzip member, so the
+        // scanner finds a valid member that must not be used
+        byte[] inner = gzip("inner\n".getBytes("UTF-8"), false);
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.write("outer\n".getBytes("UTF-8"));
+        data.write(inner);
+        data.write("\nend\n".getBytes("UTF-8"));
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        file.write(gzip(data.toByteArray(), true));
+        file.write(gzip("last\n".getBytes("UTF-8"), true));
+        file.write(new byte[16]); // trailing padding is ignored
+        List<String> expected = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(data.toByteArray()), "UTF-8"));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            expected.add(line);
+        }
+        expected.add("last");
+        Assert.assertEquals(expected, gzipLines(file.toByteArray(), 4));
+    }
+
+    @Test (expected=IOException.class)
+    public void gzipLinesCorrupt() throws IOException {
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        file.write(gzip("first\n".getBytes("UTF-8"), false));
+        byte[] second = gzip("second\n".getBytes("UTF-8"), false);
+        second[second.length - 8]++; // the CRC
+        file.write(second);
+        gzipLines(file.toByteArray(), 2);
+    }
+
+    private static final Function<String, String> KEY =
+            new Function<String, String>() {
+        @Override
+        public String apply(String input) {
+            String key = input.substring(0, input.indexOf(':'));
+            return key.length() == 0 ? null : key;
+        }
+    };
+
+    private static final Combiner<String, String, String> PAIR =
+            new Combiner<String, String, String>() {
+        @Override
+        public String combine(String left, String right) {
+            return left.substring(left.indexOf(':') + 1)
+                    + right.substring(right.indexOf(':') + 1);
+        }
+    };
+
+    /** Sends numbered items to a remote sink from another thread. */
+    private static class Sender extends Thread {
+        private final Sink<String> sink;
+        private final String prefix;
+        private final int count;
+        volatile Exception failure;
+
+        Sender(int port, String prefix, int count) throws IOException {
+            this.sink = new RemoteSink<String>("localhost", port,
+                    Codecs.strings(), 10);
+            this.prefix = prefix;
+            this.count = count;
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (int i = 0; i < count; i++) {
+                    sink.put(prefix + i);
+                }
+            } catch (Exception e) {
+                failure = e;
+            } finally {
+                sink.close();
+            }
+        }
+    }
+
+    static class CountingSource extends AbstractSkippableSource<Long>
+            implements SizedSource<Long> {
+        private final long size;
+        private long position;
+        int computed;
+        int closed;
+
+        CountingSource(long size) {
+            this.size = size;
+        }
+
+        @Override
+        protected Long computeNext() {
+            if (position == size) {
+                return endOfData();
+            }
+            computed++;
+            return position++;
+        }
+
+        @Override
+        protected long skipAhead(long n) {
+            long skipped = Math.min(n, size - position);
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public long estimateSize() {
+            return size - position + (hasComputed() ? 1 : 0);
+        }
+
+        @Override
+        public void close() {
+            closed++;
+        }
+    }
+
+    private static final Function<Long, Long> IDENTITY =
+            new Function<Long, Long>() {
+                @Override
+                public Long apply(Long input) {
+                    return input;
+                }
+            };
+
+    private static final Aggregator<Integer, Integer> SUM =
+            new Aggregator<Integer, Integer>() {
+                @Override
+                public Integer lift(Integer item) {
+                    return item;
+                }
+
+                @Override
+                public Integer combine(Integer left, Integer right) {
+                    return left + right;
+                }
+            };
+
+    private static final Aggregator<String, String> CONCAT =
+            new Aggregator<String, String>() {
+                @Override
+                public String lift(String item) {
+                    return item;
+                }
+
+                @Override
+                public String combine(String left, String right) {
+                    return left + right;
+                }
+            };
+
+    private static byte[] gzip(byte[] data, final boolean stored)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes) {
+            {
+                if (stored) {
+                    def.setLevel(Deflater.NO_COMPRESSION);
+                }
+            }
+        };
+        out.write(data);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static List<String> gzipLines(byte[] data, int threads)
+            throws IOException {
+        File file = File.createTempFile("ttff-test-", ".gz");
+        try {
+            OutputStream out = new FileOutputStream(file);
+            out.write(data);
+            out.close();
+            List<String> lines = new ArrayList<String>();
+            Sources.drain(Sources.gzipLines(file, threads), lines);
+            return lines;
+        } finally {
+            file.delete();
+        }
+    }
+
+    static File tempDir() throws IOException {
+        File dir = File.createTempFile("ttff-test-", "");
+        dir.delete();
+        dir.mkdir();
+        return dir;
+    }
+
     private static int drain(Iterator<?> iterator) {
         int count = 0;
         while (iterator.hasNext()) {
@@ -0,0 +1,42 @@
+package com.github.cwilper.ttff.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic input data shared by the benchmarks.
+ */
+final class Data {
+
+    /** Items take values uniformly distributed over [0, RANGE). */
+    static final int RANGE = 1000;
+
+    /** Instantiation disallowed. */
+    private Data() { }
+
+    /**
+     * Gets a fixed, pseudo-random list of boxed integers.
+     *
+     * @param size the number of items.
+     * @return the list.
+     */
+    static List<Integer> items(int size) {
+        Random random = new Random(42);
+        List<Integer> items = new ArrayList<Integer>(size);
+        for (int i = 0; i < size; i++) {
+            items.add(random.nextInt(RANGE));
+        }
+        return items;
+    }
+
+    /**
+     * Gets the threshold below which the given fraction of items fall.
+     *
+     * @param selectivity the fraction, from 0 to 1.
+     * @return the threshold.
+     */
+    static Integer threshold(double selectivity) {
+        return (int) Math.round(selectivity * RANGE);
+    }
+}
@@ -0,0 +1,87 @@
+package com.github.cwilper.ttff.benchmarks;
+
+import com.github.cwilper.ttff.AbstractSink;
+import com.github.cwilper.ttff.Sink;
+import com.github.cwilper.ttff.Sources;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Measures the per-item cost of {@link Sources#drain} into nothing, a
+ * sink, and a collection.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DrainBenchmark {
+
+    private static final int SIZE = 10000;
+
+    private List<Integer> items;
+
+    @Setup
+    public void setup() {
+        items = Data.items(SIZE);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public long drainNowhere() throws IOException {
+        return Sources.drain(Sources.from(items));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public long drainToSink(final Blackhole bh) throws IOException {
+        Sink<Integer> sink = new AbstractSink<Integer>() {
+            @Override
+            public void put(Integer item) {
+                bh.consume(item);
+            }
+        };
+        return Sources.drain(Sources.from(items), sink);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public List<Integer> drainToCollection() throws IOException {
+        List<Integer> list = new ArrayList<Integer>();
+        Sources.drain(Sources.from(items), list);
+        return list;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public List<Integer> baselineIterator() {
+        List<Integer> list = new ArrayList<Integer>();
+        for (Integer item: items) {
+            list.add(item);
+        }
+        return list;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public List<Integer> baselineStream() {
+        return items.stream().collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,82 @@
+package com.github.cwilper.ttff.benchmarks;
+
+import com.github.cwilper.ttff.Filter;
+import com.github.cwilper.ttff.Filters;
+import com.github.cwilper.ttff.Source;
+import com.github.cwilper.ttff.Sources;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-input-item cost of {@link Sources#filter} at various
+ * selectivities.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FilterBenchmark {
+
+    private static final int SIZE = 10000;
+
+    @Param({"0.01", "0.5", "0.99"})
+    public double selectivity;
+
+    private List<Integer> items;
+    private Integer threshold;
+    private Filter<Integer> filter;
+
+    @Setup
+    public void setup() {
+        items = Data.items(SIZE);
+        threshold = Data.threshold(selectivity);
+        filter = Filters.lt(threshold);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public void sourcesFilter(Blackhole bh) throws IOException {
+        Source<Integer> source = Sources.filter(Sources.from(items), filter);
+        while (source.hasNext()) {
+            bh.consume(source.next());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public void baselineIterator(Blackhole bh) {
+        Iterator<Integer> iterator = items.iterator();
+        int limit = threshold;
+        while (iterator.hasNext()) {
+            Integer item = iterator.next();
+            if (item < limit) {
+                bh.consume(item);
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public void baselineStream(Blackhole bh) {
+        int limit = threshold;
+        items.stream().filter(item -> item < limit).forEach(bh::consume);
+    }
+}
@@ -0,0 +1,107 @@
+package com.github.cwilper.ttff.benchmarks;
+
+import com.github.cwilper.ttff.Filter;
+import com.github.cwilper.ttff.Filters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Measures the per-item cost of {@link Filters#and}, {@link Filters#or}
+ * and {@link Filters#not} trees of increasing depth.
+ * <p>
+ * Each level of the tree wraps the level below in an <code>and</code>
+ * with an always-true comparison, an <code>or</code> with an always-false
+ * filter, and a double <code>not</code>, so the overall selectivity stays
+ * that of the innermost <code>lt</code> while the call depth grows.
+ * The same tree is also measured after {@link Filters#compile}. The
+ * baseline composes equivalent {@link Predicate}s.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FilterTreeBenchmark {
+
+    private static final int SIZE = 10000;
+
+    @Param({"1", "2", "4", "8"})
+    public int depth;
+
+    @Param({"0.01", "0.5", "0.99"})
+    public double selectivity;
+
+    private List<Integer> items;
+    private Filter<Integer> filter;
+    private Filter<Integer> compiled;
+    private Predicate<Integer> predicate;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        items = Data.items(SIZE);
+        final int threshold = Data.threshold(selectivity);
+        filter = Filters.lt(threshold);
+        predicate = item -> item < threshold;
+        for (int i = 1; i < depth; i++) {
+            filter = Filters.not(Filters.not(Filters.or(
+                    Filters.and(Filters.ge(0), filter),
+                    Filters.<Integer>bool(false))));
+            predicate = predicate.and(item -> item >= 0)
+                    .or(item -> false).negate().negate();
+        }
+        compiled = Filters.compile(filter);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public int filterTree() throws IOException {
+        int accepted = 0;
+        for (Integer item: items) {
+            if (filter.accept(item) != null) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public int compiledTree() throws IOException {
+        int accepted = 0;
+        for (Integer item: items) {
+            if (compiled.accept(item) != null) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public int baselinePredicate() {
+        int accepted = 0;
+        for (Integer item: items) {
+            if (predicate.test(item)) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+}
@@ -0,0 +1,82 @@
+package com.github.cwilper.ttff.benchmarks;
+
+import com.github.cwilper.ttff.Source;
+import com.github.cwilper.ttff.Sources;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link Sources#join} over many small sources.
+ * <p>
+ * Scores are per joined sequence, so divide by
+ * <code>sourceCount * itemsPerSource</code> for the cost per item.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JoinBenchmark {
+
+    @Param({"1000"})
+    public int sourceCount;
+
+    @Param({"0", "1", "10", "100"})
+    public int itemsPerSource;
+
+    private List<List<Integer>> parts;
+
+    @Setup
+    public void setup() {
+        List<Integer> items = Data.items(sourceCount * itemsPerSource);
+        parts = new ArrayList<List<Integer>>(sourceCount);
+        for (int i = 0; i < sourceCount; i++) {
+            parts.add(items.subList(i * itemsPerSource,
+                    (i + 1) * itemsPerSource));
+        }
+    }
+
+    @Benchmark
+    public void sourcesJoin(Blackhole bh) throws IOException {
+        List<Source<Integer>> sources =
+                new ArrayList<Source<Integer>>(sourceCount);
+        for (List<Integer> part: parts) {
+            sources.add(Sources.from(part));
+        }
+        Source<Integer> source = Sources.join(sources);
+        while (source.hasNext()) {
+            bh.consume(source.next());
+        }
+        source.close();
+    }
+
+    @Benchmark
+    public void baselineIterator(Blackhole bh) {
+        for (List<Integer> part: parts) {
+            for (Integer item: part) {
+                bh.consume(item);
+            }
+        }
+    }
+
+    @Benchmark
+    public void baselineStream(Blackhole bh) {
+        parts.stream().flatMap(List::stream).forEach(bh::consume);
+    }
+}
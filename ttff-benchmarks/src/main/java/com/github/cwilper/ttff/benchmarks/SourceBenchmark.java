@@ -0,0 +1,109 @@
+package com.github.cwilper.ttff.benchmarks;
+
+import com.github.cwilper.ttff.AbstractSource;
+import com.github.cwilper.ttff.Source;
+import com.github.cwilper.ttff.Sources;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-item cost of iterating a {@link Source}, and of the
+ * {@link AbstractSource} state machine in particular.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SourceBenchmark {
+
+    private static final int SIZE = 10000;
+
+    private List<Integer> items;
+    private Integer[] array;
+
+    @Setup
+    public void setup() {
+        items = Data.items(SIZE);
+        array = items.toArray(new Integer[SIZE]);
+    }
+
+    /** AbstractSource over an array, isolating the state machine. */
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public void abstractSource(Blackhole bh) throws IOException {
+        Source<Integer> source = new ArraySource(array);
+        while (source.hasNext()) {
+            bh.consume(source.next());
+        }
+    }
+
+    /** As above, but peeking at each item before taking it. */
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public void abstractSourcePeek(Blackhole bh) throws IOException {
+        Source<Integer> source = new ArraySource(array);
+        while (source.hasNext()) {
+            bh.consume(source.peek());
+            bh.consume(source.next());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public void sourcesFrom(Blackhole bh) throws IOException {
+        Source<Integer> source = Sources.from(items);
+        while (source.hasNext()) {
+            bh.consume(source.next());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public void baselineIterator(Blackhole bh) {
+        Iterator<Integer> iterator = items.iterator();
+        while (iterator.hasNext()) {
+            bh.consume(iterator.next());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public void baselineStream(Blackhole bh) {
+        items.stream().forEach(bh::consume);
+    }
+
+    private static final class ArraySource extends AbstractSource<Integer> {
+
+        private final Integer[] array;
+        private int i;
+
+        ArraySource(Integer[] array) {
+            this.array = array;
+        }
+
+        @Override
+        protected Integer computeNext() {
+            if (i < array.length) {
+                return array[i++];
+            }
+            return endOfData();
+        }
+    }
+}
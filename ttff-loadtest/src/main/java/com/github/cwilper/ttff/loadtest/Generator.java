@@ -0,0 +1,21 @@
+package com.github.cwilper.ttff.loadtest;
+
+/**
+ * Makes the synthetic items fed to a pipeline under test.
+ * <p>
+ * A generator is called by the single thread driving the test, before
+ * each item is due, so its cost is not counted as the pipeline's.
+ *
+ * @param <T> the type of item.
+ * @see Generators
+ */
+public interface Generator<T> {
+
+    /**
+     * Makes the item with the given sequence number.
+     *
+     * @param sequence the number of items made before this one.
+     * @return the item.
+     */
+    T generate(long sequence);
+}
@@ -0,0 +1,96 @@
+package com.github.cwilper.ttff.loadtest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Static utility methods for creating {@link Generator}s.
+ */
+public final class Generators {
+
+    private static final String LETTERS = "abcdefghijklmnopqrstuvwxyz";
+
+    /** Instantiation disallowed. */
+    Generators() { throw new AssertionError(); }
+
+    /**
+     * Gets a generator of random longs, uniformly distributed from
+     * <code>0</code> up to but not including <code>range</code>.
+     *
+     * @param range the number of distinct values.
+     * @param seed the seed.
+     * @return the generator.
+     */
+    public static Generator<Long> longs(final long range, long seed) {
+        if (range < 1) {
+            throw new IllegalArgumentException("range must be > 0");
+        }
+        final Random random = new Random(seed);
+        return new Generator<Long>() {
+            @Override
+            public Long generate(long sequence) {
+                long bits;
+                long value;
+                do {
+                    bits = random.nextLong() >>> 1;
+                    value = bits % range;
+                } while (bits - value + (range - 1) < 0);
+                return value;
+            }
+        };
+    }
+
+    /**
+     * Gets a generator of random strings of lowercase letters, with
+     * lengths uniformly distributed over the given range.
+     *
+     * @param minLength the shortest length.
+     * @param maxLength the longest length.
+     * @param seed the seed.
+     * @return the generator.
+     */
+    public static Generator<String> strings(final int minLength,
+                                            final int maxLength,
+                                            long seed) {
+        if (minLength < 0 || maxLength < minLength) {
+            throw new IllegalArgumentException("Bad length range: "
+                    + minLength + " to " + maxLength);
+        }
+        final Random random = new Random(seed);
+        return new Generator<String>() {
+            @Override
+            public String generate(long sequence) {
+                int length = minLength
+                        + random.nextInt(maxLength - minLength + 1);
+                char[] chars = new char[length];
+                for (int i = 0; i < length; i++) {
+                    chars[i] = LETTERS.charAt(random.nextInt(26));
+                }
+                return new String(chars);
+            }
+        };
+    }
+
+    /**
+     * Gets a generator that repeats the given items in order, such as a
+     * sample of production data.
+     *
+     * @param items the items.
+     * @param <T> the type.
+     * @return the generator.
+     */
+    public static <T> Generator<T> cycle(Collection<T> items) {
+        if (items.isEmpty()) {
+            throw new IllegalArgumentException("No items");
+        }
+        final List<T> list = new ArrayList<T>(items);
+        return new Generator<T>() {
+            @Override
+            public T generate(long sequence) {
+                return list.get((int) (sequence % list.size()));
+            }
+        };
+    }
+}
@@ -0,0 +1,174 @@
+package com.github.cwilper.ttff.loadtest;
+
+/**
+ * What happened during one stretch of a load test, or during the whole of
+ * it after warmup.
+ * <p>
+ * Latencies are in nanoseconds. Allocation is counted for the threads
+ * alive at the start and end of the interval only, and GC pauses are as
+ * reported by the JVM's collectors, excluding concurrent cycles.
+ */
+public final class Interval {
+
+    private final long startMillis;
+    private final long lengthMillis;
+    private final boolean warmup;
+    private final Summary latency;
+    private final Summary serviceTime;
+    private final long allocatedBytes;
+    private final long gcCount;
+    private final long gcMillis;
+    private final long gcMaxMillis;
+
+    Interval(long startMillis, long lengthMillis, boolean warmup,
+             Summary latency, Summary serviceTime, long allocatedBytes,
+             long gcCount, long gcMillis, long gcMaxMillis) {
+        this.startMillis = startMillis;
+        this.lengthMillis = lengthMillis;
+        this.warmup = warmup;
+        this.latency = latency;
+        this.serviceTime = serviceTime;
+        this.allocatedBytes = allocatedBytes;
+        this.gcCount = gcCount;
+        this.gcMillis = gcMillis;
+        this.gcMaxMillis = gcMaxMillis;
+    }
+
+    /**
+     * Gets when the interval started, relative to the start of the test.
+     *
+     * @return the start, in milliseconds.
+     */
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * Gets the length of the interval.
+     *
+     * @return the length, in milliseconds.
+     */
+    public long getLengthMillis() {
+        return lengthMillis;
+    }
+
+    /**
+     * Tells whether the interval was part of the warmup, and so left out
+     * of the totals.
+     *
+     * @return whether it was.
+     */
+    public boolean isWarmup() {
+        return warmup;
+    }
+
+    /**
+     * Gets the number of items processed.
+     *
+     * @return the count.
+     */
+    public long getItems() {
+        return latency.getCount();
+    }
+
+    /**
+     * Gets the number of items processed per second.
+     *
+     * @return the throughput.
+     */
+    public double getThroughput() {
+        return lengthMillis == 0 ? 0 : getItems() * 1000.0 / lengthMillis;
+    }
+
+    /**
+     * Gets the time from when each item was due to arrive until it was
+     * processed. Since this includes any time the item would have spent
+     * waiting for the pipeline to catch up, stalls are not hidden by the
+     * items that were never sent during them.
+     *
+     * @return the latencies.
+     */
+    public Summary getLatency() {
+        return latency;
+    }
+
+    /**
+     * Gets the time from when each item was actually sent until it was
+     * processed. This is what a load generator that waits for the
+     * pipeline would report as latency.
+     *
+     * @return the service times.
+     */
+    public Summary getServiceTime() {
+        return serviceTime;
+    }
+
+    /**
+     * Gets the number of bytes allocated on the heap.
+     *
+     * @return the count, or <code>-1</code> if the JVM can't tell.
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Gets the number of bytes allocated on the heap per second.
+     *
+     * @return the rate, or <code>-1</code> if the JVM can't tell.
+     */
+    public double getAllocationRate() {
+        if (allocatedBytes < 0) {
+            return -1;
+        }
+        return lengthMillis == 0 ? 0 : allocatedBytes * 1000.0 / lengthMillis;
+    }
+
+    /**
+     * Gets the number of GC pauses.
+     *
+     * @return the count.
+     */
+    public long getGcCount() {
+        return gcCount;
+    }
+
+    /**
+     * Gets the total length of the GC pauses.
+     *
+     * @return the time, in milliseconds.
+     */
+    public long getGcMillis() {
+        return gcMillis;
+    }
+
+    /**
+     * Gets the length of the longest GC pause.
+     *
+     * @return the time, in milliseconds.
+     */
+    public long getGcMaxMillis() {
+        return gcMaxMillis;
+    }
+
+    /** Appends this interval to the given JSON. */
+    void toJson(StringBuilder json) {
+        json.append("{\"startMillis\": ").append(startMillis)
+                .append(", \"lengthMillis\": ").append(lengthMillis)
+                .append(", \"warmup\": ").append(warmup)
+                .append(", \"items\": ").append(getItems())
+                .append(", \"throughput\": ")
+                .append(Report.number(getThroughput()))
+                .append(", \"latency\": ");
+        latency.toJson(json);
+        json.append(", \"serviceTime\": ");
+        serviceTime.toJson(json);
+        json.append(", \"allocatedBytes\": ").append(allocatedBytes)
+                .append(", \"allocationRate\": ")
+                .append(Report.number(getAllocationRate()))
+                .append(", \"gcCount\": ").append(gcCount)
+                .append(", \"gcMillis\": ").append(gcMillis)
+                .append(", \"gcMaxMillis\": ").append(gcMaxMillis)
+                .append('}');
+    }
+}
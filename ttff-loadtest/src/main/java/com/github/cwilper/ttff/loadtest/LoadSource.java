@@ -0,0 +1,75 @@
+package com.github.cwilper.ttff.loadtest;
+
+import com.github.cwilper.ttff.AbstractSource;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A source of generated items, each held back until it is due.
+ * <p>
+ * When the pipeline asks for an item, the previous one is recorded as
+ * processed. The next is then made and, if it isn't yet due, the source
+ * waits. If the pipeline has fallen behind, items are sent at once, but
+ * keep the times they were due, so the wait they would have had counts
+ * in their latency rather than being silently omitted.
+ */
+class LoadSource<T> extends AbstractSource<T> {
+
+    /** Waits shorter than this are spun rather than parked. */
+    private static final long SPIN_NANOS = 50 * 1000;
+
+    private final Generator<T> generator;
+    private final Schedule schedule;
+    private final Recorder recorder;
+    private final long end;
+
+    private long sequence;
+    private long due;
+    private long sent;
+    private boolean pending;
+
+    LoadSource(Generator<T> generator, Schedule schedule, Recorder recorder,
+               long start, long end) {
+        this.generator = generator;
+        this.schedule = schedule;
+        this.recorder = recorder;
+        this.due = start;
+        this.end = end;
+    }
+
+    @Override
+    protected T computeNext() {
+        long now = System.nanoTime();
+        finish(now);
+        if (sequence > 0) {
+            long gap = schedule.nextGap();
+            due = gap < 0 ? now : due + gap;
+        }
+        if (due >= end) {
+            return endOfData();
+        }
+        T item = generator.generate(sequence++);
+        while ((now = System.nanoTime()) < due) {
+            recorder.advance(now);
+            long wait = due - now;
+            if (wait > SPIN_NANOS) {
+                LockSupport.parkNanos(wait - SPIN_NANOS);
+            } else {
+                Thread.yield();
+            }
+        }
+        sent = now;
+        pending = true;
+        return item;
+    }
+
+    /** Records the item last sent, if any, as processed. */
+    void finish(long now) {
+        if (pending) {
+            pending = false;
+            recorder.record(due, sent, now);
+        } else {
+            recorder.advance(now);
+        }
+    }
+}
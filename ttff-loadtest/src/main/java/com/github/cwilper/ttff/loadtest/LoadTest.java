@@ -0,0 +1,139 @@
+package com.github.cwilper.ttff.loadtest;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A run of a {@link Pipeline} under sustained, synthetic load. Instances
+ * are immutable.
+ * <p>
+ * Items are made by a {@link Generator} and fed to the pipeline on the
+ * calling thread at the times given by a {@link Schedule}, for a fixed
+ * duration. With a fixed or Poisson schedule, items keep arriving on time
+ * however the pipeline copes, as they would in production, and each
+ * item's latency is measured from when it was due, so a stall shows up
+ * in the latency of every item that arrived during it. Throughput, heap
+ * allocation and GC pauses are recorded too, for the whole run and for
+ * each interval of it, and returned as a {@link Report}.
+ * <p>
+ * By default, a test runs for a minute, unthrottled, after ten seconds of
+ * warmup, reporting every second. Warmup is rounded up to whole
+ * intervals.
+ *
+ * @param <T> the type of item.
+ */
+public final class LoadTest<T> {
+
+    private final Generator<T> generator;
+    private final Pipeline<T> pipeline;
+    private final Schedule schedule;
+    private final long durationNanos;
+    private final long warmupNanos;
+    private final long intervalNanos;
+
+    /**
+     * Creates a test with the default settings.
+     *
+     * @param generator makes the items.
+     * @param pipeline the pipeline to test.
+     */
+    public LoadTest(Generator<T> generator, Pipeline<T> pipeline) {
+        this(generator, pipeline, Schedules.unthrottled(),
+                TimeUnit.MINUTES.toNanos(1), TimeUnit.SECONDS.toNanos(10),
+                TimeUnit.SECONDS.toNanos(1));
+    }
+
+    private LoadTest(Generator<T> generator, Pipeline<T> pipeline,
+                     Schedule schedule, long durationNanos,
+                     long warmupNanos, long intervalNanos) {
+        this.generator = generator;
+        this.pipeline = pipeline;
+        this.schedule = schedule;
+        this.durationNanos = durationNanos;
+        this.warmupNanos = warmupNanos;
+        this.intervalNanos = intervalNanos;
+    }
+
+    /**
+     * Gets a copy of this test with items arriving on the given schedule.
+     *
+     * @param schedule the schedule.
+     * @return the test.
+     */
+    public LoadTest<T> withSchedule(Schedule schedule) {
+        return new LoadTest<T>(generator, pipeline, schedule, durationNanos,
+                warmupNanos, intervalNanos);
+    }
+
+    /**
+     * Gets a copy of this test that measures for the given time, after
+     * warmup.
+     *
+     * @param duration the duration.
+     * @param unit the unit of the duration.
+     * @return the test.
+     */
+    public LoadTest<T> withDuration(long duration, TimeUnit unit) {
+        return new LoadTest<T>(generator, pipeline, schedule,
+                positive(unit.toNanos(duration), "duration"), warmupNanos,
+                intervalNanos);
+    }
+
+    /**
+     * Gets a copy of this test with the given warmup, which may be zero.
+     *
+     * @param warmup the warmup.
+     * @param unit the unit of the warmup.
+     * @return the test.
+     */
+    public LoadTest<T> withWarmup(long warmup, TimeUnit unit) {
+        if (warmup < 0) {
+            throw new IllegalArgumentException("warmup must be >= 0");
+        }
+        return new LoadTest<T>(generator, pipeline, schedule, durationNanos,
+                unit.toNanos(warmup), intervalNanos);
+    }
+
+    /**
+     * Gets a copy of this test that reports at the given interval.
+     *
+     * @param interval the interval.
+     * @param unit the unit of the interval.
+     * @return the test.
+     */
+    public LoadTest<T> withInterval(long interval, TimeUnit unit) {
+        return new LoadTest<T>(generator, pipeline, schedule, durationNanos,
+                warmupNanos, positive(unit.toNanos(interval), "interval"));
+    }
+
+    /**
+     * Runs the test on the calling thread.
+     *
+     * @return the report.
+     * @throws IOException if the pipeline fails.
+     */
+    public Report run() throws IOException {
+        long start = System.nanoTime();
+        Recorder recorder = new Recorder(start, warmupNanos, intervalNanos);
+        LoadSource<T> source = new LoadSource<T>(generator, schedule,
+                recorder, start, start + warmupNanos + durationNanos);
+        Report report;
+        try {
+            pipeline.run(source);
+        } finally {
+            long now = System.nanoTime();
+            // in case the pipeline stopped without asking for more
+            source.finish(now);
+            report = recorder.finish(now, schedule.toString(),
+                    warmupNanos + durationNanos);
+        }
+        return report;
+    }
+
+    private static long positive(long nanos, String name) {
+        if (nanos <= 0) {
+            throw new IllegalArgumentException(name + " must be > 0");
+        }
+        return nanos;
+    }
+}
@@ -0,0 +1,112 @@
+package com.github.cwilper.ttff.loadtest;
+
+import com.github.cwilper.ttff.AbstractSink;
+import com.github.cwilper.ttff.Filters;
+import com.github.cwilper.ttff.Source;
+import com.github.cwilper.ttff.Sources;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a soak test of a simple pipeline from the command line: random
+ * longs, a filter that passes about half of them, and a sink that sums
+ * them. Settings are given as <code>name=value</code> arguments:
+ * <ul>
+ *   <li> <code>schedule</code>: <code>fixed</code>, <code>poisson</code>,
+ *        or <code>unthrottled</code>, the default.</li>
+ *   <li> <code>rate</code>: items per second, for a fixed or Poisson
+ *        schedule.</li>
+ *   <li> <code>duration</code>, <code>warmup</code>, and
+ *        <code>interval</code>: in seconds; 60, 10, and 1 by default.</li>
+ *   <li> <code>report</code>: the file to write the JSON report to,
+ *        instead of standard output.</li>
+ * </ul>
+ * To test other pipelines, use {@link LoadTest} directly.
+ */
+public final class Main {
+
+    /** Instantiation disallowed. */
+    Main() { throw new AssertionError(); }
+
+    /**
+     * Runs the test.
+     *
+     * @param args the settings.
+     * @throws IOException if the report can't be written.
+     */
+    public static void main(String[] args) throws IOException {
+        Map<String, String> settings = new HashMap<String, String>();
+        for (String arg: args) {
+            int i = arg.indexOf('=');
+            if (i == -1) {
+                System.err.println("Expected name=value, got " + arg);
+                System.exit(1);
+            }
+            settings.put(arg.substring(0, i), arg.substring(i + 1));
+        }
+        String name = get(settings, "schedule", "unthrottled");
+        Schedule schedule;
+        if (name.equals("unthrottled")) {
+            schedule = Schedules.unthrottled();
+        } else if (name.equals("fixed")) {
+            schedule = Schedules.fixed(Double.parseDouble(
+                    get(settings, "rate", null)));
+        } else if (name.equals("poisson")) {
+            schedule = Schedules.poisson(Double.parseDouble(
+                    get(settings, "rate", null)), System.nanoTime());
+        } else {
+            throw new IllegalArgumentException("No such schedule: " + name);
+        }
+        final long[] sum = new long[1];
+        Pipeline<Long> pipeline = new Pipeline<Long>() {
+            @Override
+            public void run(Source<Long> source) throws IOException {
+                Sources.drain(Sources.filter(source, Filters.lt(500L)),
+                        new AbstractSink<Long>() {
+                            @Override
+                            public void put(Long item) {
+                                sum[0] += item;
+                            }
+                        });
+            }
+        };
+        Report report = new LoadTest<Long>(Generators.longs(1000, 42),
+                pipeline)
+                .withSchedule(schedule)
+                .withDuration(seconds(settings, "duration", "60"),
+                        TimeUnit.SECONDS)
+                .withWarmup(seconds(settings, "warmup", "10"),
+                        TimeUnit.SECONDS)
+                .withInterval(seconds(settings, "interval", "1"),
+                        TimeUnit.SECONDS)
+                .run();
+        String file = settings.get("report");
+        if (file == null) {
+            System.out.print(report.toJson());
+        } else {
+            report.write(new File(file));
+        }
+    }
+
+    private static String get(Map<String, String> settings, String name,
+                              String defaultValue) {
+        String value = settings.get(name);
+        if (value == null) {
+            if (defaultValue == null) {
+                throw new IllegalArgumentException("Missing setting: "
+                        + name);
+            }
+            return defaultValue;
+        }
+        return value;
+    }
+
+    private static long seconds(Map<String, String> settings, String name,
+                                String defaultValue) {
+        return Long.parseLong(get(settings, name, defaultValue));
+    }
+}
@@ -0,0 +1,35 @@
+package com.github.cwilper.ttff.loadtest;
+
+import com.github.cwilper.ttff.Source;
+
+import java.io.IOException;
+
+/**
+ * An assembly of filters and sinks to be put under load.
+ * <p>
+ * For example, to test a filter feeding a sink:
+ * <pre>
+ * new Pipeline&lt;Long&gt;() {
+ *     public void run(Source&lt;Long&gt; source) throws IOException {
+ *         Sources.drain(Sources.filter(source, filter), sink);
+ *     }
+ * }
+ * </pre>
+ *
+ * @param <T> the type of item fed to the pipeline.
+ */
+public interface Pipeline<T> {
+
+    /**
+     * Assembles the pipeline on the given source and drains it.
+     * <p>
+     * An item counts as processed when the pipeline asks the source for
+     * the next one, so a pipeline that hands items to other threads, for
+     * example with <code>Sources.buffered</code>, is measured only up to
+     * the handoff.
+     *
+     * @param source the source of generated items.
+     * @throws IOException if the pipeline fails.
+     */
+    void run(Source<T> source) throws IOException;
+}
@@ -0,0 +1,205 @@
+package com.github.cwilper.ttff.loadtest;
+
+import com.github.cwilper.ttff.Histogram;
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the latency of each item, the heap allocated and the GC pauses,
+ * and rolls them up into intervals.
+ * <p>
+ * Items are recorded by the thread driving the test, which also closes
+ * each interval once it sees that it has passed, so the histograms need
+ * no coordination. GC pauses are reported on a JMX thread.
+ */
+class Recorder implements NotificationListener {
+
+    private final long start;
+    private final long warmupEnd;
+    private final long intervalNanos;
+
+    private final Histogram latency = new Histogram();
+    private final Histogram serviceTime = new Histogram();
+    private final Histogram totalLatency = new Histogram();
+    private final Histogram totalServiceTime = new Histogram();
+    private final List<Interval> intervals = new ArrayList<Interval>();
+
+    private final com.sun.management.ThreadMXBean threads;
+    private final List<NotificationEmitter> emitters =
+            new ArrayList<NotificationEmitter>();
+
+    private long intervalStart;
+    private boolean warmup;
+    private long allocated;
+
+    /** Guarded by this. */
+    private long gcCount;
+    private long gcMillis;
+    private long gcMaxMillis;
+
+    Recorder(long start, long warmupNanos, long intervalNanos) {
+        this.start = start;
+        this.warmupEnd = start + warmupNanos;
+        this.intervalNanos = intervalNanos;
+        this.intervalStart = start;
+        this.warmup = warmupNanos > 0;
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean)
+                        .isThreadAllocatedMemorySupported()) {
+            threads = (com.sun.management.ThreadMXBean) bean;
+            threads.setThreadAllocatedMemoryEnabled(true);
+        } else {
+            threads = null;
+        }
+        allocated = allocated();
+        List<GarbageCollectorMXBean> collectors =
+                ManagementFactory.getGarbageCollectorMXBeans();
+        for (GarbageCollectorMXBean gc: collectors) {
+            if (gc instanceof NotificationEmitter) {
+                NotificationEmitter emitter = (NotificationEmitter) gc;
+                emitter.addNotificationListener(this, null, null);
+                emitters.add(emitter);
+            }
+        }
+    }
+
+    /**
+     * Records an item that was due at the given time, sent at another,
+     * and processed at the last, all in nanoseconds.
+     */
+    void record(long due, long sent, long processed) {
+        advance(processed);
+        latency.record(processed - due);
+        serviceTime.record(processed - sent);
+        if (!warmup) {
+            totalLatency.record(processed - due);
+            totalServiceTime.record(processed - sent);
+        }
+    }
+
+    /** Closes any intervals that have passed by the given time. */
+    void advance(long now) {
+        while (now - intervalStart >= intervalNanos) {
+            close(intervalStart + intervalNanos);
+        }
+    }
+
+    /** Closes the last interval and stops listening for GC pauses. */
+    Report finish(long now, String schedule, long durationNanos) {
+        advance(now);
+        if (now > intervalStart) {
+            close(now);
+        }
+        for (NotificationEmitter emitter: emitters) {
+            try {
+                emitter.removeNotificationListener(this);
+            } catch (Exception e) {
+                // nothing to do
+            }
+        }
+        long allocatedBytes = 0;
+        long count = 0;
+        long millis = 0;
+        long maxMillis = 0;
+        long lengthMillis = 0;
+        long totalStart = -1;
+        for (Interval interval: intervals) {
+            if (!interval.isWarmup()) {
+                if (totalStart == -1) {
+                    totalStart = interval.getStartMillis();
+                }
+                lengthMillis += interval.getLengthMillis();
+                allocatedBytes = allocatedBytes < 0
+                        || interval.getAllocatedBytes() < 0
+                        ? -1 : allocatedBytes + interval.getAllocatedBytes();
+                count += interval.getGcCount();
+                millis += interval.getGcMillis();
+                maxMillis = Math.max(maxMillis, interval.getGcMaxMillis());
+            }
+        }
+        Interval total = new Interval(Math.max(totalStart, 0), lengthMillis,
+                false, new Summary(totalLatency),
+                new Summary(totalServiceTime), allocatedBytes, count, millis,
+                maxMillis);
+        return new Report(schedule, millis(durationNanos),
+                millis(warmupEnd - start), millis(now - start), total,
+                intervals);
+    }
+
+    @Override
+    public void handleNotification(Notification notification,
+                                   Object handback) {
+        if (!notification.getType().equals(GarbageCollectionNotificationInfo
+                .GARBAGE_COLLECTION_NOTIFICATION)) {
+            return;
+        }
+        GarbageCollectionNotificationInfo info =
+                GarbageCollectionNotificationInfo.from(
+                        (CompositeData) notification.getUserData());
+        if (info.getGcAction().endsWith("cycle")
+                || info.getGcName().contains("Concurrent")) {
+            return; // a concurrent collection, not a pause
+        }
+        long duration = info.getGcInfo().getDuration();
+        synchronized (this) {
+            gcCount++;
+            gcMillis += duration;
+            gcMaxMillis = Math.max(gcMaxMillis, duration);
+        }
+    }
+
+    private void close(long end) {
+        long now = allocated();
+        long allocatedBytes = now < 0 ? -1 : Math.max(0, now - allocated);
+        allocated = now;
+        long count;
+        long millis;
+        long maxMillis;
+        synchronized (this) {
+            count = gcCount;
+            millis = gcMillis;
+            maxMillis = gcMaxMillis;
+            gcCount = 0;
+            gcMillis = 0;
+            gcMaxMillis = 0;
+        }
+        intervals.add(new Interval(millis(intervalStart - start),
+                millis(end - intervalStart), warmup, new Summary(latency),
+                new Summary(serviceTime), allocatedBytes, count, millis,
+                maxMillis));
+        latency.reset();
+        serviceTime.reset();
+        intervalStart = end;
+        warmup = intervalStart < warmupEnd;
+    }
+
+    /** Gets the bytes allocated so far by live threads, or -1. */
+    private long allocated() {
+        if (threads == null) {
+            return -1;
+        }
+        long total = 0;
+        for (long bytes: threads.getThreadAllocatedBytes(
+                threads.getAllThreadIds())) {
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
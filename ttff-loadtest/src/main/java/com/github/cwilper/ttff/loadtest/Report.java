@@ -0,0 +1,136 @@
+package com.github.cwilper.ttff.loadtest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The results of a {@link LoadTest}: totals over the run after warmup,
+ * and the same measures for each interval, so that trends over a long
+ * run, such as growing latency or GC pauses, can be seen.
+ */
+public final class Report {
+
+    private final String schedule;
+    private final long durationMillis;
+    private final long warmupMillis;
+    private final long elapsedMillis;
+    private final Interval total;
+    private final List<Interval> intervals;
+
+    Report(String schedule, long durationMillis, long warmupMillis,
+           long elapsedMillis, Interval total, List<Interval> intervals) {
+        this.schedule = schedule;
+        this.durationMillis = durationMillis;
+        this.warmupMillis = warmupMillis;
+        this.elapsedMillis = elapsedMillis;
+        this.total = total;
+        this.intervals = Collections.unmodifiableList(intervals);
+    }
+
+    /**
+     * Gets a description of the schedule items arrived on.
+     *
+     * @return the description.
+     */
+    public String getSchedule() {
+        return schedule;
+    }
+
+    /**
+     * Gets the length of the schedule, including warmup.
+     *
+     * @return the length, in milliseconds.
+     */
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    /**
+     * Gets the length of the warmup.
+     *
+     * @return the length, in milliseconds.
+     */
+    public long getWarmupMillis() {
+        return warmupMillis;
+    }
+
+    /**
+     * Gets how long the test actually took, which is longer than its
+     * duration if the pipeline fell behind.
+     *
+     * @return the time, in milliseconds.
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * Gets the totals over all intervals after warmup.
+     *
+     * @return the totals.
+     */
+    public Interval getTotal() {
+        return total;
+    }
+
+    /**
+     * Gets the intervals, in order.
+     *
+     * @return the intervals.
+     */
+    public List<Interval> getIntervals() {
+        return intervals;
+    }
+
+    /**
+     * Gets this report as JSON.
+     *
+     * @return the JSON.
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"schedule\": \"")
+                .append(schedule.replace("\\", "\\\\").replace("\"", "\\\""))
+                .append("\",\n  \"durationMillis\": ").append(durationMillis)
+                .append(",\n  \"warmupMillis\": ").append(warmupMillis)
+                .append(",\n  \"elapsedMillis\": ").append(elapsedMillis)
+                .append(",\n  \"total\": ");
+        total.toJson(json);
+        json.append(",\n  \"intervals\": [");
+        for (int i = 0; i < intervals.size(); i++) {
+            json.append(i == 0 ? "\n    " : ",\n    ");
+            intervals.get(i).toJson(json);
+        }
+        return json.append("\n  ]\n}\n").toString();
+    }
+
+    /**
+     * Writes this report as JSON to the given file, in UTF-8.
+     *
+     * @param file the file.
+     * @throws IOException if the file can't be written.
+     */
+    public void write(File file) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+                "UTF-8");
+        try {
+            writer.write(toJson());
+        } finally {
+            writer.close();
+        }
+    }
+
+    /** Formats a double for JSON, which has no NaN or infinity. */
+    static String number(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return "null";
+        }
+        return value == Math.rint(value) && Math.abs(value) < 1e15
+                ? Long.toString((long) value) : Double.toString(value);
+    }
+}
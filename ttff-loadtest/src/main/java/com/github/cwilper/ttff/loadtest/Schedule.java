@@ -0,0 +1,21 @@
+package com.github.cwilper.ttff.loadtest;
+
+/**
+ * When the items of a load test are meant to arrive.
+ * <p>
+ * A schedule is asked for one gap per item, in order, by the thread
+ * driving the test, so it need not be thread-safe.
+ *
+ * @see Schedules
+ */
+public interface Schedule {
+
+    /**
+     * Gets the time between the intended arrival of the previous item and
+     * that of the next one.
+     *
+     * @return the gap in nanoseconds, or a negative number if the next
+     *         item arrives whenever the pipeline asks for it.
+     */
+    long nextGap();
+}
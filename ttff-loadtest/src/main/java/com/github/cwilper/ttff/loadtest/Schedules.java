@@ -0,0 +1,97 @@
+package com.github.cwilper.ttff.loadtest;
+
+import java.util.Random;
+
+/**
+ * Static utility methods for creating {@link Schedule}s.
+ */
+public final class Schedules {
+
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    /** Instantiation disallowed. */
+    Schedules() { throw new AssertionError(); }
+
+    /**
+     * Gets a schedule with items arriving at a fixed rate, regardless of
+     * how quickly they are processed.
+     *
+     * @param perSecond the number of items per second.
+     * @return the schedule.
+     */
+    public static Schedule fixed(final double perSecond) {
+        checkRate(perSecond);
+        return new Schedule() {
+            private final double period = NANOS_PER_SECOND / perSecond;
+            private long count;
+
+            @Override
+            public long nextGap() {
+                // by rounding the total, not each gap, the rate never drifts
+                count++;
+                return Math.round(count * period)
+                        - Math.round((count - 1) * period);
+            }
+
+            @Override
+            public String toString() {
+                return "fixed(" + perSecond + "/s)";
+            }
+        };
+    }
+
+    /**
+     * Gets a schedule with items arriving independently at random, at the
+     * given average rate, regardless of how quickly they are processed.
+     * This is how requests from many unrelated clients tend to arrive.
+     *
+     * @param perSecond the average number of items per second.
+     * @param seed the seed for the random gaps.
+     * @return the schedule.
+     */
+    public static Schedule poisson(final double perSecond, long seed) {
+        checkRate(perSecond);
+        final Random random = new Random(seed);
+        return new Schedule() {
+            private final double period = NANOS_PER_SECOND / perSecond;
+
+            @Override
+            public long nextGap() {
+                return Math.round(-Math.log(1 - random.nextDouble())
+                        * period);
+            }
+
+            @Override
+            public String toString() {
+                return "poisson(" + perSecond + "/s)";
+            }
+        };
+    }
+
+    /**
+     * Gets a schedule with each item arriving as soon as the pipeline asks
+     * for it, which measures the pipeline's greatest throughput. Latency
+     * is then the time to process each item, and no more.
+     *
+     * @return the schedule.
+     */
+    public static Schedule unthrottled() {
+        return new Schedule() {
+            @Override
+            public long nextGap() {
+                return -1;
+            }
+
+            @Override
+            public String toString() {
+                return "unthrottled";
+            }
+        };
+    }
+
+    private static void checkRate(double perSecond) {
+        if (!(perSecond > 0)) {
+            throw new IllegalArgumentException("rate must be > 0");
+        }
+    }
+}
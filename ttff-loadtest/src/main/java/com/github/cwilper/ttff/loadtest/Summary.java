@@ -0,0 +1,115 @@
+package com.github.cwilper.ttff.loadtest;
+
+import com.github.cwilper.ttff.Histogram;
+
+/**
+ * The distribution of a set of values, such as latencies in nanoseconds,
+ * as a few fixed percentiles.
+ */
+public final class Summary {
+
+    private final long count;
+    private final double mean;
+    private final long p50;
+    private final long p90;
+    private final long p99;
+    private final long p999;
+    private final long p9999;
+    private final long max;
+
+    Summary(Histogram histogram) {
+        this.count = histogram.getCount();
+        this.mean = histogram.getMean();
+        this.p50 = histogram.getValueAtPercentile(50);
+        this.p90 = histogram.getValueAtPercentile(90);
+        this.p99 = histogram.getValueAtPercentile(99);
+        this.p999 = histogram.getValueAtPercentile(99.9);
+        this.p9999 = histogram.getValueAtPercentile(99.99);
+        this.max = histogram.getMax();
+    }
+
+    /**
+     * Gets the number of values.
+     *
+     * @return the count.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the mean.
+     *
+     * @return the mean, or <code>0</code> if there are no values.
+     */
+    public double getMean() {
+        return mean;
+    }
+
+    /**
+     * Gets the median.
+     *
+     * @return the 50th percentile.
+     */
+    public long getP50() {
+        return p50;
+    }
+
+    /**
+     * Gets the 90th percentile.
+     *
+     * @return the value.
+     */
+    public long getP90() {
+        return p90;
+    }
+
+    /**
+     * Gets the 99th percentile.
+     *
+     * @return the value.
+     */
+    public long getP99() {
+        return p99;
+    }
+
+    /**
+     * Gets the 99.9th percentile.
+     *
+     * @return the value.
+     */
+    public long getP999() {
+        return p999;
+    }
+
+    /**
+     * Gets the 99.99th percentile.
+     *
+     * @return the value.
+     */
+    public long getP9999() {
+        return p9999;
+    }
+
+    /**
+     * Gets the largest value, exactly.
+     *
+     * @return the maximum.
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /** Appends this summary to the given JSON. */
+    void toJson(StringBuilder json) {
+        json.append("{\"count\": ").append(count)
+                .append(", \"mean\": ").append(Report.number(mean))
+                .append(", \"p50\": ").append(p50)
+                .append(", \"p90\": ").append(p90)
+                .append(", \"p99\": ").append(p99)
+                .append(", \"p999\": ").append(p999)
+                .append(", \"p9999\": ").append(p9999)
+                .append(", \"max\": ").append(max)
+                .append('}');
+    }
+}